@@ -0,0 +1,168 @@
+package servletAPI;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Replay source that reads an access log in the common or combined log format.
+ * 
+ * Every line gives the client address, the method, the requested path with its query string and, in the combined
+ * format, the Referer and User-Agent headers. The log is read line by line. Lines that can not be parsed, for
+ * example requests with an unsupported method, are skipped and counted.
+ * 
+ * Example line : 127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] "GET /index.html?id=1 HTTP/1.0" 200 2326 "http://localhost/" "Mozilla/5.0"
+ * 
+ * @author Rachelle Scheijen
+ */
+public class AccessLogSource implements ReplaySource {
+    private BufferedReader reader;
+    private long lines;
+    private long skipped;
+    
+    /**
+     * Generates a new source
+     * 
+     * @param reader    The access log
+     */
+    public AccessLogSource(Reader reader){
+        this.reader     = ( reader instanceof BufferedReader ) ? (BufferedReader) reader : new BufferedReader(reader, 65536);
+        this.lines      = 0;
+        this.skipped    = 0;
+    }
+    
+    /**
+     * Fills the given cleared request with the next request from the log
+     * 
+     * @param request   The request to fill
+     * @return  True if the request is filled, false at the end of the log
+     * @throws IOException  If the log could not be read
+     */
+    public boolean next(HttpServletRequestStub request) throws IOException {
+        String line;
+        while( (line = this.reader.readLine()) != null ){
+            this.lines++;
+            
+            if( line.length() == 0 )    continue;
+            
+            if( this.parse(line, request) )  return true;
+            
+            this.skipped++;
+            request.recycle();
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Parses one log line
+     * 
+     * @param line      The line
+     * @param request   The request to fill
+     * @return  True if the line is parsed, false if the line is malformed
+     */
+    private boolean parse(String line,HttpServletRequestStub request){
+        int space = line.indexOf(' ');
+        if( space <= 0 )    return false;
+        
+        int start   = line.indexOf('"', space);
+        int end     = this.endOfQuoted(line, start);
+        if( start == -1 || end == -1 )  return false;
+        
+        /* Request line : method target protocol */
+        int targetStart = line.indexOf(' ', start + 1);
+        if( targetStart == -1 || targetStart > end )    return false;
+        int targetEnd   = line.indexOf(' ', targetStart + 1);
+        if( targetEnd == -1 || targetEnd > end )    targetEnd = end;
+        
+        String method   = line.substring(start + 1, targetStart);
+        request.setMethod(method);
+        if( !request.getMethod().equals(method) )   return false;
+        
+        String target   = line.substring(targetStart + 1, targetEnd);
+        if( target.startsWith("http://") || target.startsWith("https://") ){
+            int path    = target.indexOf('/', target.indexOf("//") + 2);
+            target      = ( path == -1 ) ? "/" : target.substring(path);
+        }
+        if( !target.startsWith("/") )   return false;
+        
+        request.setClientAddress(line.substring(0, space));
+        
+        int mark = target.indexOf('?');
+        if( mark == -1 ){
+            request.setFilename(target.substring(1));
+        }
+        else {
+            request.setFilename(target.substring(1, mark));
+            
+            request.setQueryString(target.substring(mark + 1));
+        }
+        
+        /* Combined format : status size "referer" "user-agent" */
+        start   = line.indexOf('"', end + 1);
+        end     = this.endOfQuoted(line, start);
+        if( start == -1 || end == -1 )  return true;
+        
+        String referer = line.substring(start + 1, end);
+        if( !referer.equals("-") && referer.length() > 0 )  request.setHeader("Referer", referer);
+        
+        start   = line.indexOf('"', end + 1);
+        end     = this.endOfQuoted(line, start);
+        if( start == -1 || end == -1 )  return true;
+        
+        String agent = line.substring(start + 1, end);
+        if( !agent.equals("-") && agent.length() > 0 )  request.setHeader("User-Agent", agent);
+        
+        return true;
+    }
+    
+    /**
+     * Returns the position of the closing quote of a quoted field. Quotes escaped with a backslash are skipped.
+     * 
+     * @param line      The line
+     * @param start     The position of the opening quote, or -1
+     * @return  The position of the closing quote, or -1 if the field is not closed
+     */
+    private int endOfQuoted(String line,int start){
+        if( start == -1 )   return -1;
+        
+        for(int i=start + 1; i<line.length(); i++){
+            char c = line.charAt(i);
+            if( c == '\\' ){
+                i++;
+            }
+            else if( c == '"' ){
+                return i;
+            }
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Returns the number of lines that are read
+     * 
+     * @return  The number of lines
+     */
+    public long getLines(){
+        return this.lines;
+    }
+    
+    /**
+     * Returns the number of malformed lines that are skipped
+     * 
+     * @return  The number of lines
+     */
+    public long getSkipped(){
+        return this.skipped;
+    }
+    
+    /**
+     * Closes the log
+     * 
+     * @throws IOException  If the log could not be closed
+     */
+    public void close() throws IOException {
+        this.reader.close();
+    }
+}
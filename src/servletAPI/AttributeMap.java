@@ -0,0 +1,344 @@
+package servletAPI;
+
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact copy-on-write map for the attributes of a session.
+ * 
+ * All the entries are kept in one immutable array that is replaced on every change, so reads take no lock and an
+ * enumeration walks a snapshot without copying the names. Up to INLINE_SIZE entries the array holds the name and
+ * value pairs in insertion order and is searched linearly, an empty map shares one empty array. Bigger maps use an
+ * open addressing hash table in the same array. Changes are serialized on the map.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class AttributeMap {
+    private static final int INLINE_SIZE    = 8;
+    private static final Object[] EMPTY     = new Object[0];
+    private static final NameEnumeration NO_NAMES   = new NameEnumeration(EMPTY);
+    
+    private volatile Object[] entries;
+    
+    /**
+     * Generates a new empty map
+     */
+    public AttributeMap(){
+        this.entries    = EMPTY;
+    }
+    
+    /**
+     * Returns the value of the given name
+     * 
+     * @param name  The name
+     * @return  The value, or null if the name is not present
+     */
+    public Object get(String name){
+        Object[] entries    = this.entries;
+        int index           = indexOf(entries, name);
+        
+        return ( index == -1 ) ? null : entries[index + 1];
+    }
+    
+    /**
+     * Sets the value of the given name
+     * 
+     * @param name      The name
+     * @param value     The value, not null
+     * @return  The previous value, or null if the name was not present
+     */
+    public Object put(String name,Object value){
+        synchronized( this ){
+            Object[] entries    = this.entries;
+            int index           = indexOf(entries, name);
+            if( index != -1 ){
+                Object old = entries[index + 1];
+                if( old != value ){
+                    Object[] copy   = entries.clone();
+                    copy[index + 1] = value;
+                    this.entries    = copy;
+                }
+                
+                return old;
+            }
+            
+            int size = size(entries);
+            if( size < INLINE_SIZE ){
+                Object[] copy       = new Object[entries.length + 2];
+                System.arraycopy(entries, 0, copy, 0, entries.length);
+                copy[entries.length]        = name;
+                copy[entries.length + 1]    = value;
+                this.entries        = copy;
+            }
+            else {
+                this.entries    = rebuild(entries, size + 1, name, value, null);
+            }
+            
+            return null;
+        }
+    }
+    
+    /**
+     * Removes the given name
+     * 
+     * @param name  The name
+     * @return  The removed value, or null if the name was not present
+     */
+    public Object remove(String name){
+        synchronized( this ){
+            Object[] entries    = this.entries;
+            int index           = indexOf(entries, name);
+            if( index == -1 )   return null;
+            
+            Object old  = entries[index + 1];
+            int size    = size(entries) - 1;
+            if( size == 0 ){
+                this.entries    = EMPTY;
+            }
+            else if( isInline(entries) ){
+                Object[] copy = new Object[entries.length - 2];
+                System.arraycopy(entries, 0, copy, 0, index);
+                System.arraycopy(entries, index + 2, copy, index, entries.length - index - 2);
+                this.entries    = copy;
+            }
+            else {
+                this.entries    = rebuild(entries, size, null, null, entries[index]);
+            }
+            
+            return old;
+        }
+    }
+    
+    /**
+     * Removes all the entries
+     */
+    public void clear(){
+        synchronized( this ){
+            this.entries    = EMPTY;
+        }
+    }
+    
+    /**
+     * Returns the number of entries
+     * 
+     * @return  The number of entries
+     */
+    public int size(){
+        return size(this.entries);
+    }
+    
+    /**
+     * Checks if the map is empty
+     * 
+     * @return  True if the map has no entries
+     */
+    public boolean isEmpty(){
+        return this.entries.length == 0;
+    }
+    
+    /**
+     * Returns the names of the entries. The enumeration walks the entries at the moment of this call and is not
+     * changed by later changes of the map
+     * 
+     * @return  The names
+     */
+    public Enumeration<String> getNames(){
+        Object[] entries = this.entries;
+        if( entries.length == 0 )   return NO_NAMES;
+        
+        return new NameEnumeration(entries);
+    }
+    
+    /**
+     * Returns the names of the entries
+     * 
+     * @return  The names
+     */
+    public String[] toNameArray(){
+        Object[] entries    = this.entries;
+        String[] names      = new String[size(entries)];
+        
+        int count = 0;
+        for(int i=0; i<entries.length; i+=2){
+            if( entries[i] != null )    names[count++]  = (String) entries[i];
+        }
+        
+        return names;
+    }
+    
+    /**
+     * Checks if the entries are inline name and value pairs
+     * 
+     * @param entries   The entries
+     * @return  True for inline pairs, false for a hash table
+     */
+    private static boolean isInline(Object[] entries){
+        return entries.length <= INLINE_SIZE * 2;
+    }
+    
+    /**
+     * Returns the number of entries
+     * 
+     * @param entries   The entries
+     * @return  The number of entries
+     */
+    private static int size(Object[] entries){
+        if( isInline(entries) ) return entries.length >> 1;
+        
+        int size = 0;
+        for(int i=0; i<entries.length; i+=2){
+            if( entries[i] != null )    size++;
+        }
+        
+        return size;
+    }
+    
+    /**
+     * Returns the slot of the given name in the hash table
+     * 
+     * @param name      The name
+     * @param length    The length of the table array
+     * @return  The index of the slot
+     */
+    private static int slot(Object name,int length){
+        int h = name.hashCode();
+        h   ^= (h >>> 16);
+        
+        return (h & ((length >> 1) - 1)) << 1;
+    }
+    
+    /**
+     * Finds the given name
+     * 
+     * @param entries   The entries
+     * @param name      The name
+     * @return  The index of the name, the value is on the next index, or -1 if the name is not present
+     */
+    private static int indexOf(Object[] entries,String name){
+        if( name == null )  return -1;
+        
+        if( isInline(entries) ){
+            for(int i=0; i<entries.length; i+=2){
+                if( entries[i] == name )    return i;
+            }
+            for(int i=0; i<entries.length; i+=2){
+                if( name.equals(entries[i]) )   return i;
+            }
+            
+            return -1;
+        }
+        
+        int index = slot(name, entries.length);
+        Object key;
+        while( (key = entries[index]) != null ){
+            if( key == name || key.equals(name) )   return index;
+            
+            index = (index + 2) & (entries.length - 1);
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Builds a new hash table or inline array with the entries, plus an added entry and without a removed name
+     * 
+     * @param entries   The current entries
+     * @param size      The number of entries of the result
+     * @param name      The added name, or null
+     * @param value     The added value
+     * @param removed   The removed name, or null
+     * @return  The new entries
+     */
+    private static Object[] rebuild(Object[] entries,int size,String name,Object value,Object removed){
+        if( size <= INLINE_SIZE ){
+            Object[] copy = new Object[size * 2];
+            int index = 0;
+            for(int i=0; i<entries.length; i+=2){
+                if( entries[i] == null || entries[i] == removed )   continue;
+                
+                copy[index]     = entries[i];
+                copy[index + 1] = entries[i + 1];
+                index           += 2;
+            }
+            
+            return copy;
+        }
+        
+        /* Load factor of at most one half */
+        int capacity = INLINE_SIZE * 4;
+        while( capacity < size * 2 ){
+            capacity <<= 1;
+        }
+        
+        Object[] table = new Object[capacity * 2];
+        for(int i=0; i<entries.length; i+=2){
+            if( entries[i] == null || entries[i] == removed )   continue;
+            
+            insert(table, entries[i], entries[i + 1]);
+        }
+        if( name != null )  insert(table, name, value);
+        
+        return table;
+    }
+    
+    /**
+     * Inserts an entry in a hash table that does not contain the name
+     * 
+     * @param table     The table
+     * @param name      The name
+     * @param value     The value
+     */
+    private static void insert(Object[] table,Object name,Object value){
+        int index = slot(name, table.length);
+        while( table[index] != null ){
+            index = (index + 2) & (table.length - 1);
+        }
+        
+        table[index]        = name;
+        table[index + 1]    = value;
+    }
+    
+    /**
+     * Enumeration of the names of a snapshot of the entries
+     */
+    private static class NameEnumeration implements Enumeration<String> {
+        private Object[] entries;
+        private int index;
+        
+        /**
+         * Generates a new enumeration
+         * 
+         * @param entries   The entries
+         */
+        private NameEnumeration(Object[] entries){
+            this.entries    = entries;
+            this.index      = 0;
+            this.skip();
+        }
+        
+        /**
+         * Moves to the next used slot
+         */
+        private void skip(){
+            while( this.index < this.entries.length && this.entries[this.index] == null ){
+                this.index  += 2;
+            }
+        }
+        
+        @Override
+        public boolean hasMoreElements(){
+            return this.index < this.entries.length;
+        }
+        
+        @Override
+        public String nextElement(){
+            if( this.index >= this.entries.length ) throw new NoSuchElementException();
+            
+            String name = (String) this.entries[this.index];
+            this.index  += 2;
+            this.skip();
+            
+            return name;
+        }
+    }
+}
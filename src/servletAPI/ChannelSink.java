@@ -0,0 +1,107 @@
+package servletAPI;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Response sink that writes the committed body to a channel, like a FileChannel or a Pipe.
+ * 
+ * The bytes are handed to the channel as ByteBuffers that wrap the given arrays, so they are not copied.
+ * Segments that are written together are written with one gathering write if the channel supports it.
+ * The channel must be in blocking mode.
+ *
+ * @author Rachelle Scheijen
+ */
+public class ChannelSink implements ResponseSink {
+    private WritableByteChannel channel;
+    private byte[] lastArray;
+    private ByteBuffer lastBuffer;
+    private long written;
+    
+    /**
+     * Generates a new sink for the given channel
+     * 
+     * @param channel   The channel to write to
+     */
+    public ChannelSink(WritableByteChannel channel){
+        if( channel == null )   throw new NullPointerException("Channel may not be null");
+        
+        this.channel    = channel;
+        this.written    = 0;
+    }
+    
+    /**
+     * Returns the channel
+     * 
+     * @return  The channel
+     */
+    public WritableByteChannel getChannel(){
+        return this.channel;
+    }
+    
+    /**
+     * Returns the amount of bytes written to the channel
+     * 
+     * @return  The amount of bytes
+     */
+    public long getWritten(){
+        return this.written;
+    }
+    
+    /**
+     * Writes len bytes from the given array starting at offset off to the channel. 
+     * The wrapper of the last array is reused, so draining the same response buffer does not allocate.
+     * 
+     * @param b     The data
+     * @param off   The start offset in the data
+     * @param len   The number of bytes to write
+     * @throws IOException  If the channel could not be written
+     */
+    public void write(byte[] b,int off,int len) throws IOException{
+        if( b != this.lastArray ){
+            this.lastArray  = b;
+            this.lastBuffer = ByteBuffer.wrap(b);
+        }
+        this.lastBuffer.limit(off + len).position(off);
+        
+        while( this.lastBuffer.hasRemaining() ){
+            this.written += this.channel.write(this.lastBuffer);
+        }
+    }
+    
+    /**
+     * Writes the given segments to the channel, with a gathering write if the channel supports it
+     * 
+     * @param segments  The segments
+     * @throws IOException  If the channel could not be written
+     */
+    public void write(ByteBuffer[] segments) throws IOException{
+        if( this.channel instanceof GatheringByteChannel ){
+            GatheringByteChannel gathering = (GatheringByteChannel) this.channel;
+            
+            int first = 0;
+            while( first < segments.length ){
+                this.written += gathering.write(segments, first, segments.length - first);
+                
+                while( first < segments.length && !segments[first].hasRemaining() ){
+                    first++;
+                }
+            }
+        }
+        else {
+            for(int i=0; i<segments.length; i++){
+                while( segments[i].hasRemaining() ){
+                    this.written += this.channel.write(segments[i]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * The bytes are written to the channel directly, so flush does nothing
+     */
+    public void flush(){
+    }
+}
@@ -0,0 +1,306 @@
+package servletAPI;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Captures the body of a response.
+ * 
+ * The content is kept in a growable byte array. When a spill threshold is set and the content grows past it,
+ * the content is moved to a temporary file and the array is only used to collect writes before they are
+ * written to the file. The content is read back as a ByteBuffer in both modes, from the spilled file through
+ * a MappedByteBuffer.
+ * The temporary file is removed with reset() or close(), it is not kept till the JVM exits.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class ContentBuffer implements ResponseSink, Closeable {
+    private static final int SPILL_BUFFER_SIZE = 8192;
+    
+    private byte[] content;
+    private int contentPointer;
+    private long spillThreshold;
+    private File spillFile;
+    private FileChannel spillChannel;
+    private long spilled;
+    
+    /**
+     * Generates a new buffer that is never spilled to disk
+     * 
+     * @param size  The initial size in bytes
+     */
+    public ContentBuffer(int size){
+        this.content        = new byte[size];
+        this.contentPointer = 0;
+        this.spillThreshold = -1;
+        this.spilled        = 0;
+    }
+    
+    /**
+     * Sets the amount of bytes that is kept in memory. Content past this size is written to a temporary file.
+     * 
+     * @param threshold     The threshold in bytes, or -1 to keep all the content in memory
+     */
+    public void setSpillThreshold(long threshold){
+        this.spillThreshold = threshold;
+    }
+    
+    /**
+     * Returns the amount of bytes that is kept in memory
+     * 
+     * @return  The threshold in bytes, or -1 if all the content is kept in memory
+     */
+    public long getSpillThreshold(){
+        return this.spillThreshold;
+    }
+    
+    /**
+     * Checks if the content is spilled to disk
+     * 
+     * @return True if the content is written to a temporary file, otherwise false
+     */
+    public boolean isSpilled(){
+        return this.spillChannel != null;
+    }
+    
+    /**
+     * Returns the temporary file the content is spilled to
+     * 
+     * @return  The file or null if the content is kept in memory
+     */
+    public File getSpillFile(){
+        return this.spillFile;
+    }
+    
+    /**
+     * Writes the given byte
+     * 
+     * @param b     The byte
+     * @throws IOException  If the byte could not be written to the temporary file
+     */
+    public void write(int b) throws IOException {
+        this.ensureCapacity(1);
+        
+        this.content[this.contentPointer++] = (byte) b;
+    }
+    
+    /**
+     * Writes len bytes from the given array starting at offset off
+     * 
+     * @param b     The data
+     * @param off   The start offset in the data
+     * @param len   The number of bytes to write
+     * @throws IOException  If the data could not be written to the temporary file
+     */
+    public void write(byte[] b,int off,int len) throws IOException {
+        this.ensureCapacity(len);
+        
+        if( this.isSpilled() && len >= this.content.length - this.contentPointer ){
+            /* Large writes go straight to the file */
+            this.flushSpill();
+            this.writeSpill(ByteBuffer.wrap(b, off, len));
+            
+            return;
+        }
+        
+        System.arraycopy(b, off, this.content, this.contentPointer, len);
+        this.contentPointer += len;
+    }
+    
+    /**
+     * Writes the remaining bytes of the given segments, in order
+     * 
+     * @param segments  The segments
+     * @throws IOException  If the data could not be written to the temporary file
+     */
+    public void write(ByteBuffer[] segments) throws IOException {
+        for(int i=0; i<segments.length; i++){
+            ByteBuffer segment = segments[i];
+            
+            if( segment.hasArray() ){
+                this.write(segment.array(), segment.arrayOffset() + segment.position(), segment.remaining());
+                segment.position(segment.limit());
+            }
+            else {
+                while( segment.hasRemaining() ){
+                    this.write(segment.get());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Makes sure that the given amount of bytes fits after the written content.
+     * In memory the buffer grows with at least the half of its size, so writing n bytes costs O(n) copies.
+     * 
+     * @param len   The amount of bytes to write
+     * @throws IOException  If the content could not be written to the temporary file
+     */
+    private void ensureCapacity(int len) throws IOException {
+        long needed = (long) this.contentPointer + len;
+        
+        if( this.isSpilled() ){
+            if( needed > this.content.length ) this.flushSpill();
+            
+            return;
+        }
+        
+        if( this.spillThreshold >= 0 && needed > this.spillThreshold ){
+            this.spill();
+            
+            return;
+        }
+        
+        if( needed <= this.content.length ) return;
+        if( needed > Integer.MAX_VALUE - 8 )    throw new OutOfMemoryError("Content is bigger then "+Integer.MAX_VALUE+" bytes. Set a spill threshold.");
+        
+        long capacity = this.content.length + (this.content.length >> 1);
+        if( capacity < needed ){
+            capacity = needed;
+        }
+        if( capacity > Integer.MAX_VALUE - 8 ){
+            capacity = Integer.MAX_VALUE - 8;
+        }
+        
+        this.content = Arrays.copyOf(this.content, (int) capacity);
+    }
+    
+    /**
+     * Moves the content to a temporary file
+     * 
+     * @throws IOException  If the temporary file could not be created or written
+     */
+    private void spill() throws IOException {
+        File file = File.createTempFile("servlet-response", ".tmp");
+        try {
+            this.spillChannel   = new RandomAccessFile(file, "rw").getChannel();
+        }
+        catch(IOException e){
+            file.delete();
+            throw e;
+        }
+        this.spillFile      = file;
+        this.spilled        = 0;
+        
+        this.flushSpill();
+        
+        if( this.content.length != SPILL_BUFFER_SIZE ){
+            this.content    = new byte[SPILL_BUFFER_SIZE];
+        }
+    }
+    
+    /**
+     * Writes the collected bytes to the temporary file
+     * 
+     * @throws IOException  If the temporary file could not be written
+     */
+    private void flushSpill() throws IOException {
+        if( this.contentPointer == 0 )  return;
+        
+        this.writeSpill(ByteBuffer.wrap(this.content, 0, this.contentPointer));
+        this.contentPointer = 0;
+    }
+    
+    /**
+     * Writes the given bytes at the end of the temporary file
+     * 
+     * @param buffer    The bytes
+     * @throws IOException  If the temporary file could not be written
+     */
+    private void writeSpill(ByteBuffer buffer) throws IOException {
+        while( buffer.hasRemaining() ){
+            this.spilled += this.spillChannel.write(buffer, this.spilled);
+        }
+    }
+    
+    /**
+     * Writes the collected bytes of a spilled content to the temporary file
+     * 
+     * @throws IOException  If the temporary file could not be written
+     */
+    public void flush() throws IOException {
+        if( this.isSpilled() ){
+            this.flushSpill();
+        }
+    }
+    
+    /**
+     * Returns the amount of written bytes
+     * 
+     * @return  The content size
+     */
+    public long size(){
+        return this.spilled + this.contentPointer;
+    }
+    
+    /**
+     * Returns the written content as a read only ByteBuffer. The content is not copied.
+     * In memory the buffer is a view on the array, a spilled content is memory mapped.
+     * The buffer shows the content at the moment of calling and should not be used after the next write or reset.
+     * 
+     * @return  The content, from position 0 till the content size
+     * @throws IOException  If the temporary file could not be mapped
+     * @throws IllegalStateException    If the content is bigger then 2GB. Use getContent(long,int) instead
+     */
+    public ByteBuffer getContent() throws IOException, IllegalStateException {
+        long size = this.size();
+        if( size > Integer.MAX_VALUE )  throw new IllegalStateException("Content of "+size+" bytes does not fit in one buffer");
+        
+        return this.getContent(0, (int) size);
+    }
+    
+    /**
+     * Returns a part of the written content as a read only ByteBuffer. The content is not copied.
+     * 
+     * @param position  The start position in the content
+     * @param length    The number of bytes
+     * @return  The content part
+     * @throws IOException  If the temporary file could not be mapped
+     * @throws IndexOutOfBoundsException    If the part is not within the content
+     */
+    public ByteBuffer getContent(long position,int length) throws IOException, IndexOutOfBoundsException {
+        if( position < 0 || length < 0 || position + length > this.size() ){
+            throw new IndexOutOfBoundsException("Part "+position+"+"+length+" is not within the content of "+this.size()+" bytes");
+        }
+        
+        if( !this.isSpilled() ){
+            return ByteBuffer.wrap(this.content, (int) position, length).slice().asReadOnlyBuffer();
+        }
+        
+        this.flushSpill();
+        
+        return this.spillChannel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+    
+    /**
+     * Clears the content. A spilled content is removed from disk
+     */
+    public void reset(){
+        this.contentPointer = 0;
+        this.spilled        = 0;
+        
+        if( this.spillChannel == null ) return;
+        
+        try {
+            this.spillChannel.close();
+        }
+        catch(IOException e){ }
+        
+        this.spillFile.delete();
+        this.spillChannel   = null;
+        this.spillFile      = null;
+    }
+    
+    /**
+     * Clears the content and removes the temporary file. The buffer can still be written after closing.
+     */
+    @Override
+    public void close(){
+        this.reset();
+    }
+}
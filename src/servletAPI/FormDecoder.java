@@ -0,0 +1,177 @@
+package servletAPI;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Streaming decoder for URL encoded parameters, like a query string or an application/x-www-form-urlencoded body.
+ * 
+ * The bytes can be given in parts of any size. Every byte is looked at once : the escapes are decoded into a
+ * reused byte buffer and a string is only created for every complete name and value. Incorrect escapes are
+ * kept as they are.
+ * 
+ * @author Rachelle Scheijen
+ */
+class FormDecoder {
+    private MultikeyHashMap target;
+    private Charset charset;
+    private byte[] token;
+    private int tokenLength;
+    private String name;
+    private int escape;
+    private int escapeFirst;
+    
+    /**
+     * Generates a new decoder
+     * 
+     * @param target    The map that the parameters are added to
+     * @param charset   The character encoding of the decoded bytes
+     */
+    FormDecoder(MultikeyHashMap target,Charset charset){
+        this.target         = target;
+        this.charset        = charset;
+        this.token          = new byte[64];
+        this.tokenLength    = 0;
+        this.name           = null;
+        this.escape         = 0;
+    }
+    
+    /**
+     * Decodes the given bytes
+     * 
+     * @param data      The bytes
+     * @param offset    The offset of the first byte
+     * @param length    The number of bytes
+     */
+    void update(byte[] data,int offset,int length){
+        int end = offset + length;
+        for(int i=offset; i<end; i++){
+            int b = data[i] & 0xff;
+            
+            if( this.escape != 0 ){
+                int digit = Character.digit(b, 16);
+                if( digit != -1 ){
+                    if( this.escape == 1 ){
+                        this.escapeFirst    = b;
+                        this.escape         = 2;
+                    }
+                    else {
+                        this.append((Character.digit(this.escapeFirst, 16) << 4) + digit);
+                        this.escape         = 0;
+                    }
+                    continue;
+                }
+                
+                this.flushEscape();
+            }
+            
+            switch( b ){
+                case '%' :
+                    this.escape = 1;
+                    break;
+                
+                case '+' :
+                    this.append(' ');
+                    break;
+                
+                case '=' :
+                    if( this.name == null ){
+                        this.name           = this.text();
+                        this.tokenLength    = 0;
+                    }
+                    else {
+                        this.append(b);
+                    }
+                    break;
+                
+                case '&' :
+                    this.pair();
+                    break;
+                
+                default :
+                    this.append(b);
+            }
+        }
+    }
+    
+    /**
+     * Decodes the remaining bytes of the given buffer. The position of the buffer is moved to its limit
+     * 
+     * @param buffer    The bytes
+     */
+    void update(ByteBuffer buffer){
+        if( buffer.hasArray() ){
+            this.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            
+            return;
+        }
+        
+        byte[] chunk = new byte[Math.min(8192, buffer.remaining())];
+        while( buffer.hasRemaining() ){
+            int length = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, length);
+            this.update(chunk, 0, length);
+        }
+    }
+    
+    /**
+     * Adds the last parameter. The decoder can be used for a next input after this call
+     */
+    void finish(){
+        this.flushEscape();
+        this.pair();
+    }
+    
+    /**
+     * Adds the parameter that is read till now
+     */
+    private void pair(){
+        if( this.name == null ){
+            if( this.tokenLength > 0 )  this.target.add(this.text(), "");
+        }
+        else {
+            this.target.add(this.name, this.text());
+        }
+        
+        this.name           = null;
+        this.tokenLength    = 0;
+    }
+    
+    /**
+     * Keeps an incomplete escape as it is
+     */
+    private void flushEscape(){
+        if( this.escape == 0 )  return;
+        
+        this.append('%');
+        if( this.escape == 2 )  this.append(this.escapeFirst);
+        this.escape = 0;
+    }
+    
+    /**
+     * Appends a decoded byte to the current name or value
+     * 
+     * @param b     The byte
+     */
+    private void append(int b){
+        if( this.tokenLength == this.token.length ){
+            byte[] token = new byte[this.token.length * 2];
+            System.arraycopy(this.token, 0, token, 0, this.tokenLength);
+            this.token  = token;
+        }
+        
+        this.token[this.tokenLength++]  = (byte) b;
+    }
+    
+    /**
+     * Returns the current name or value as a string
+     * 
+     * @return  The text
+     */
+    private String text(){
+        if( this.tokenLength == 0 ) return "";
+        
+        return new String(this.token, 0, this.tokenLength, this.charset);
+    }
+}
@@ -0,0 +1,336 @@
+package servletAPI;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import javax.servlet.http.Cookie;
+
+/**
+ * Replay source that reads a HTTP Archive (HAR) file.
+ * 
+ * The file is read with a JsonReader, one entry at a time, so the archive is never loaded as a whole.
+ * Of every entry the request is used : the method, the URL, the headers, the cookies and the posted data.
+ * The recorded responses are skipped. Entries with an unsupported method are skipped and counted.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class HarSource implements ReplaySource {
+    private static final Charset UTF8   = Charset.forName("UTF-8");
+    
+    private JsonReader reader;
+    private boolean started;
+    private boolean finished;
+    private long entries;
+    private long skipped;
+    private ArrayList<Cookie> cookies;
+    private ArrayList<String> params;
+    
+    /**
+     * Generates a new source
+     * 
+     * @param reader    The HAR file
+     */
+    public HarSource(Reader reader){
+        this.reader     = new JsonReader(reader);
+        this.started    = false;
+        this.finished   = false;
+        this.entries    = 0;
+        this.skipped    = 0;
+        this.cookies    = new ArrayList<Cookie>();
+        this.params     = new ArrayList<String>();
+    }
+    
+    /**
+     * Fills the given cleared request with the request of the next entry
+     * 
+     * @param request   The request to fill
+     * @return  True if the request is filled, false at the end of the entries
+     * @throws IOException  If the file could not be read or is not a valid HAR file
+     */
+    public boolean next(HttpServletRequestStub request) throws IOException {
+        if( !this.started ){
+            this.started    = true;
+            this.finished   = !this.findEntries();
+        }
+        
+        while( !this.finished ){
+            if( !this.reader.hasNext() ){
+                this.reader.endArray();
+                this.finished   = true;
+                
+                return false;
+            }
+            
+            this.entries++;
+            if( this.readEntry(request) )   return true;
+            
+            this.skipped++;
+            request.recycle();
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Moves the reader to the first entry of log.entries
+     * 
+     * @return  True if the entries are found, otherwise false
+     * @throws IOException  If the file could not be read
+     */
+    private boolean findEntries() throws IOException {
+        this.reader.beginObject();
+        while( this.reader.hasNext() ){
+            if( !this.reader.nextName().equals("log") ){
+                this.reader.skipValue();
+                continue;
+            }
+            
+            this.reader.beginObject();
+            while( this.reader.hasNext() ){
+                if( this.reader.nextName().equals("entries") ){
+                    this.reader.beginArray();
+                    
+                    return true;
+                }
+                
+                this.reader.skipValue();
+            }
+            
+            return false;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Reads one entry
+     * 
+     * @param request   The request to fill
+     * @return  True if the entry has a supported request, otherwise false
+     * @throws IOException  If the file could not be read
+     */
+    private boolean readEntry(HttpServletRequestStub request) throws IOException {
+        boolean found = false;
+        
+        this.reader.beginObject();
+        while( this.reader.hasNext() ){
+            if( this.reader.nextName().equals("request") ){
+                found   = this.readRequest(request);
+            }
+            else {
+                this.reader.skipValue();
+            }
+        }
+        this.reader.endObject();
+        
+        return found;
+    }
+    
+    /**
+     * Reads the request of an entry
+     * 
+     * @param request   The request to fill
+     * @return  True if the method is supported, otherwise false
+     * @throws IOException  If the file could not be read
+     */
+    private boolean readRequest(HttpServletRequestStub request) throws IOException {
+        String method   = null;
+        String mimeType = null;
+        String text     = null;
+        this.cookies.clear();
+        this.params.clear();
+        
+        this.reader.beginObject();
+        while( this.reader.hasNext() ){
+            String name = this.reader.nextName();
+            
+            if( name.equals("method") ){
+                method  = this.reader.nextString();
+            }
+            else if( name.equals("url") ){
+                this.setURL(this.reader.nextString(), request);
+            }
+            else if( name.equals("headers") ){
+                this.reader.beginArray();
+                while( this.reader.hasNext() ){
+                    String[] pair = this.readPair();
+                    
+                    /* HTTP/2 pseudo-headers like :authority */
+                    if( pair[0] == null || pair[1] == null || pair[0].startsWith(":") )  continue;
+                    
+                    request.setHeader(pair[0], pair[1]);
+                }
+                this.reader.endArray();
+            }
+            else if( name.equals("cookies") ){
+                this.reader.beginArray();
+                while( this.reader.hasNext() ){
+                    String[] pair = this.readPair();
+                    if( pair[0] == null || pair[0].length() == 0 )  continue;
+                    
+                    try {
+                        this.cookies.add(new Cookie(pair[0], ( pair[1] == null ) ? "" : pair[1]));
+                    }
+                    catch(IllegalArgumentException e){ }
+                }
+                this.reader.endArray();
+            }
+            else if( name.equals("postData") ){
+                this.reader.beginObject();
+                while( this.reader.hasNext() ){
+                    String field = this.reader.nextName();
+                    
+                    if( field.equals("mimeType") ){
+                        mimeType    = this.reader.nextString();
+                    }
+                    else if( field.equals("text") ){
+                        text        = this.reader.nextString();
+                    }
+                    else if( field.equals("params") ){
+                        this.reader.beginArray();
+                        while( this.reader.hasNext() ){
+                            String[] pair = this.readPair();
+                            if( pair[0] == null )   continue;
+                            
+                            this.params.add(pair[0]);
+                            this.params.add(( pair[1] == null ) ? "" : pair[1]);
+                        }
+                        this.reader.endArray();
+                    }
+                    else {
+                        this.reader.skipValue();
+                    }
+                }
+                this.reader.endObject();
+            }
+            else {
+                this.reader.skipValue();
+            }
+        }
+        this.reader.endObject();
+        
+        if( method == null )    return false;
+        request.setMethod(method);
+        if( !request.getMethod().equals(method) )   return false;
+        
+        if( !this.cookies.isEmpty() ){
+            request.setCookies(this.cookies.toArray(new Cookie[this.cookies.size()]));
+        }
+        
+        boolean form = ( mimeType != null && mimeType.regionMatches(true, 0, "application/x-www-form-urlencoded", 0, 33) );
+        if( text != null ){
+            ServletInputStreamStub stream = new ServletInputStreamStub();
+            stream.setContent(text.getBytes(UTF8), mimeType);
+            request.setInputStream(stream);
+        }
+        if( text == null || !form ){
+            for(int i=0; i<this.params.size(); i+=2){
+                request.addParameter(this.params.get(i), this.params.get(i + 1));
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Reads a name and value object, like a header or a cookie. The other fields are skipped
+     * 
+     * @return  The name and the value, both may be null
+     * @throws IOException  If the file could not be read
+     */
+    private String[] readPair() throws IOException {
+        String[] pair = new String[2];
+        
+        this.reader.beginObject();
+        while( this.reader.hasNext() ){
+            String name = this.reader.nextName();
+            
+            if( name.equals("name") ){
+                pair[0] = this.reader.nextString();
+            }
+            else if( name.equals("value") ){
+                pair[1] = this.reader.nextString();
+            }
+            else {
+                this.reader.skipValue();
+            }
+        }
+        this.reader.endObject();
+        
+        return pair;
+    }
+    
+    /**
+     * Sets the protocol, server, port, path and query string from an absolute URL
+     * 
+     * @param url       The URL
+     * @param request   The request
+     */
+    private void setURL(String url,HttpServletRequestStub request){
+        if( url == null )   return;
+        
+        int start   = 0;
+        int scheme  = url.indexOf("://");
+        if( scheme != -1 ){
+            request.setProtocol(url.substring(0, scheme + 3).toLowerCase());
+            
+            start   = url.indexOf('/', scheme + 3);
+            if( start == -1 )   start = url.length();
+            
+            String host = url.substring(scheme + 3, start);
+            int port    = host.lastIndexOf(':');
+            if( port != -1 && host.indexOf(']', port) == -1 ){
+                try {
+                    request.setServerPort(Integer.parseInt(host.substring(port + 1)));
+                }
+                catch(NumberFormatException e){ }
+                
+                host    = host.substring(0, port);
+            }
+            else if( url.startsWith("https") ){
+                request.setServerPort(443);
+            }
+            request.setServer(host, null);
+        }
+        
+        int fragment    = url.indexOf('#', start);
+        int end         = ( fragment == -1 ) ? url.length() : fragment;
+        int mark        = url.indexOf('?', start);
+        if( mark == -1 || mark > end ){
+            if( end - start > 1 )   request.setFilename(url.substring(start + 1, end));
+        }
+        else {
+            if( mark - start > 1 )  request.setFilename(url.substring(start + 1, mark));
+            
+            request.setQueryString(url.substring(mark + 1, end));
+        }
+    }
+    
+    /**
+     * Returns the number of entries that are read
+     * 
+     * @return  The number of entries
+     */
+    public long getEntries(){
+        return this.entries;
+    }
+    
+    /**
+     * Returns the number of entries that are skipped
+     * 
+     * @return  The number of entries
+     */
+    public long getSkipped(){
+        return this.skipped;
+    }
+    
+    /**
+     * Closes the file
+     * 
+     * @throws IOException  If the file could not be closed
+     */
+    public void close() throws IOException {
+        this.reader.close();
+    }
+}
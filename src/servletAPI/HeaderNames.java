@@ -0,0 +1,153 @@
+package servletAPI;
+
+/**
+ * Table of the common HTTP header names.
+ * 
+ * Every name is kept in its canonical spelling, like Content-Type, and in lower case, like content-type, the
+ * spelling of HTTP/2 clients. A header name that is sent in one of these spellings is replaced by the constant,
+ * so the parser creates no string for it and header lookups with the constant compare by reference.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class HeaderNames {
+    public static final String ACCEPT               = "Accept";
+    public static final String ACCEPT_CHARSET       = "Accept-Charset";
+    public static final String ACCEPT_ENCODING      = "Accept-Encoding";
+    public static final String ACCEPT_LANGUAGE      = "Accept-Language";
+    public static final String AUTHORIZATION        = "Authorization";
+    public static final String CACHE_CONTROL        = "Cache-Control";
+    public static final String CONNECTION           = "Connection";
+    public static final String CONTENT_ENCODING     = "Content-Encoding";
+    public static final String CONTENT_LENGTH       = "Content-Length";
+    public static final String CONTENT_TYPE         = "Content-Type";
+    public static final String COOKIE               = "Cookie";
+    public static final String DATE                 = "Date";
+    public static final String EXPECT               = "Expect";
+    public static final String FORWARDED            = "Forwarded";
+    public static final String HOST                 = "Host";
+    public static final String IF_MATCH             = "If-Match";
+    public static final String IF_MODIFIED_SINCE    = "If-Modified-Since";
+    public static final String IF_NONE_MATCH        = "If-None-Match";
+    public static final String IF_RANGE             = "If-Range";
+    public static final String IF_UNMODIFIED_SINCE  = "If-Unmodified-Since";
+    public static final String KEEP_ALIVE           = "Keep-Alive";
+    public static final String ORIGIN               = "Origin";
+    public static final String PRAGMA               = "Pragma";
+    public static final String RANGE                = "Range";
+    public static final String REFERER              = "Referer";
+    public static final String TE                   = "TE";
+    public static final String TRAILER              = "Trailer";
+    public static final String TRANSFER_ENCODING    = "Transfer-Encoding";
+    public static final String UPGRADE              = "Upgrade";
+    public static final String UPGRADE_INSECURE     = "Upgrade-Insecure-Requests";
+    public static final String USER_AGENT           = "User-Agent";
+    public static final String VIA                  = "Via";
+    public static final String X_FORWARDED_FOR      = "X-Forwarded-For";
+    public static final String X_FORWARDED_HOST     = "X-Forwarded-Host";
+    public static final String X_FORWARDED_PROTO    = "X-Forwarded-Proto";
+    public static final String X_REQUESTED_WITH     = "X-Requested-With";
+    public static final String SEC_FETCH_DEST       = "Sec-Fetch-Dest";
+    public static final String SEC_FETCH_MODE       = "Sec-Fetch-Mode";
+    public static final String SEC_FETCH_SITE       = "Sec-Fetch-Site";
+    public static final String SEC_FETCH_USER       = "Sec-Fetch-User";
+    
+    private static final String[] NAMES = {
+        ACCEPT, ACCEPT_CHARSET, ACCEPT_ENCODING, ACCEPT_LANGUAGE, AUTHORIZATION, CACHE_CONTROL, CONNECTION,
+        CONTENT_ENCODING, CONTENT_LENGTH, CONTENT_TYPE, COOKIE, DATE, EXPECT, FORWARDED, HOST, IF_MATCH,
+        IF_MODIFIED_SINCE, IF_NONE_MATCH, IF_RANGE, IF_UNMODIFIED_SINCE, KEEP_ALIVE, ORIGIN, PRAGMA, RANGE, REFERER,
+        TE, TRAILER, TRANSFER_ENCODING, UPGRADE, UPGRADE_INSECURE, USER_AGENT, VIA, X_FORWARDED_FOR, X_FORWARDED_HOST,
+        X_FORWARDED_PROTO, X_REQUESTED_WITH, SEC_FETCH_DEST, SEC_FETCH_MODE, SEC_FETCH_SITE, SEC_FETCH_USER
+    };
+    
+    /* Open addressing table on the exact spelling */
+    private static final String[] TABLE = new String[256];
+    
+    static {
+        for(int i=0; i<NAMES.length; i++){
+            add(NAMES[i]);
+            add(NAMES[i].toLowerCase().intern());
+        }
+    }
+    
+    /**
+     * Adds a spelling to the table
+     * 
+     * @param name  The spelling
+     */
+    private static void add(String name){
+        int mask = TABLE.length - 1;
+        int slot = spread(name.hashCode()) & mask;
+        while( TABLE[slot] != null ){
+            if( TABLE[slot].equals(name) )  return;
+            
+            slot = (slot + 1) & mask;
+        }
+        
+        TABLE[slot] = name;
+    }
+    
+    /**
+     * Spreads the hash code over the table
+     * 
+     * @param h     The hash code
+     * @return  The hash
+     */
+    private static int spread(int h){
+        return h ^ (h >>> 16);
+    }
+    
+    /**
+     * Returns the constant for the given header name
+     * 
+     * @param name  The header name
+     * @return  The constant with the same spelling, or the name itself if it is not a common header
+     */
+    public static String intern(String name){
+        int mask = TABLE.length - 1;
+        int slot = spread(name.hashCode()) & mask;
+        
+        String constant;
+        while( (constant = TABLE[slot]) != null ){
+            if( constant == name || constant.equals(name) ) return constant;
+            
+            slot = (slot + 1) & mask;
+        }
+        
+        return name;
+    }
+    
+    /**
+     * Returns the constant for the header name in the given ISO-8859-1 bytes
+     * 
+     * @param source    The bytes
+     * @param start     The offset of the name
+     * @param end       The offset after the name
+     * @return  The constant with the same spelling, or null if the name is not a common header
+     */
+    static String intern(byte[] source,int start,int end){
+        /* The same hash as String.hashCode() */
+        int h = 0;
+        for(int i=start; i<end; i++){
+            h = 31 * h + (source[i] & 0xff);
+        }
+        
+        int mask    = TABLE.length - 1;
+        int slot    = spread(h) & mask;
+        int length  = end - start;
+        
+        String constant;
+        while( (constant = TABLE[slot]) != null ){
+            if( constant.length() == length ){
+                int i = 0;
+                while( i < length && constant.charAt(i) == (source[start + i] & 0xff) ){
+                    i++;
+                }
+                if( i == length )   return constant;
+            }
+            
+            slot = (slot + 1) & mask;
+        }
+        
+        return null;
+    }
+}
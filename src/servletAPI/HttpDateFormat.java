@@ -0,0 +1,327 @@
+package servletAPI;
+
+/**
+ * Thread safe parser and formatter for HTTP dates.
+ * 
+ * Dates are formatted in the RFC 1123 format, like Sun, 06 Nov 1994 08:49:37 GMT. The parser also accepts the
+ * obsolete RFC 850 format, like Sunday, 06-Nov-94 08:49:37 GMT, and the asctime format, like Sun Nov  6 08:49:37 1994.
+ * The parser reads the characters of the value directly and creates no objects.
+ * 
+ * The formatted value of the last formatted second is cached, so the Date header of every response in the same
+ * second shares one string.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class HttpDateFormat {
+    private static final String[] DAYS      = {"Thu", "Fri", "Sat", "Sun", "Mon", "Tue", "Wed"};
+    private static final String[] MONTHS    = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+    
+    private static volatile CachedDate cache   = new CachedDate(Long.MIN_VALUE, null);
+    
+    /**
+     * Formats the given time in the RFC 1123 format. The milliseconds are dropped
+     * 
+     * @param time  The time in milliseconds since January 1, 1970 GMT
+     * @return  The formatted date, like Sun, 06 Nov 1994 08:49:37 GMT
+     */
+    public static String format(long time){
+        long second         = Math.floorDiv(time, 1000L);
+        CachedDate cached   = cache;
+        if( cached.second == second )   return cached.text;
+        
+        String text = format0(second);
+        cache       = new CachedDate(second, text);
+        
+        return text;
+    }
+    
+    /**
+     * Returns the current time formatted in the RFC 1123 format
+     * 
+     * @return  The formatted date
+     */
+    public static String now(){
+        return format(System.currentTimeMillis());
+    }
+    
+    /**
+     * Formats the given second
+     * 
+     * @param second    The seconds since January 1, 1970 GMT
+     * @return  The formatted date
+     */
+    private static String format0(long second){
+        long days       = Math.floorDiv(second, 86400L);
+        int secondOfDay = (int) Math.floorMod(second, 86400L);
+        
+        /* Civil date from the day number, see Howard Hinnant's chrono-compatible date algorithms */
+        long z          = days + 719468;
+        long era        = Math.floorDiv(z, 146097L);
+        int dayOfEra    = (int) (z - era * 146097);
+        int yearOfEra   = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear   = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp          = (5 * dayOfYear + 2) / 153;
+        int day         = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month       = ( mp < 10 ) ? mp + 3 : mp - 9;
+        long year       = yearOfEra + era * 400 + (( month <= 2 ) ? 1 : 0);
+        
+        char[] text = new char[29];
+        String name = DAYS[(int) Math.floorMod(days, 7L)];
+        text[0]     = name.charAt(0);
+        text[1]     = name.charAt(1);
+        text[2]     = name.charAt(2);
+        text[3]     = ',';
+        text[4]     = ' ';
+        twoDigits(text, 5, day);
+        text[7]     = ' ';
+        name        = MONTHS[month - 1];
+        text[8]     = name.charAt(0);
+        text[9]     = name.charAt(1);
+        text[10]    = name.charAt(2);
+        text[11]    = ' ';
+        int y       = (int) Math.floorMod(year, 10000L);
+        twoDigits(text, 12, y / 100);
+        twoDigits(text, 14, y % 100);
+        text[16]    = ' ';
+        twoDigits(text, 17, secondOfDay / 3600);
+        text[19]    = ':';
+        twoDigits(text, 20, (secondOfDay / 60) % 60);
+        text[22]    = ':';
+        twoDigits(text, 23, secondOfDay % 60);
+        text[25]    = ' ';
+        text[26]    = 'G';
+        text[27]    = 'M';
+        text[28]    = 'T';
+        
+        return new String(text);
+    }
+    
+    /**
+     * Writes a number of two digits
+     * 
+     * @param text      The target
+     * @param offset    The offset in the target
+     * @param value     The number, 0 till 99
+     */
+    private static void twoDigits(char[] text,int offset,int value){
+        text[offset]        = (char) ('0' + value / 10);
+        text[offset + 1]    = (char) ('0' + value % 10);
+    }
+    
+    /**
+     * Parses a date in the RFC 1123, RFC 850 or asctime format
+     * 
+     * @param value     The date
+     * @return  The time in milliseconds since January 1, 1970 GMT, or -1 if the value is not a valid date.
+     *          A valid date is always a whole second, so -1 can not be a parsed date
+     */
+    public static long parse(String value){
+        if( value == null ) return -1;
+        
+        int length  = value.length();
+        int i       = 0;
+        while( i < length && value.charAt(i) == ' ' )   i++;
+        
+        /* The day name is not checked */
+        while( i < length && isLetter(value.charAt(i)) )    i++;
+        if( i == length )   return -1;
+        
+        int day;
+        int month;
+        int year;
+        int time;
+        if( value.charAt(i) == ',' ){
+            /* RFC 1123 : 06 Nov 1994 08:49:37 GMT or RFC 850 : 06-Nov-94 08:49:37 GMT */
+            i++;
+            while( i < length && value.charAt(i) == ' ' )  i++;
+            
+            int digits  = ( i + 1 < length && (value.charAt(i + 1) == ' ' || value.charAt(i + 1) == '-') ) ? 1 : 2;
+            day         = number(value, i, digits);
+            if( day < 0 )   return -1;
+            i           += digits;
+            
+            if( i >= length )   return -1;
+            char separator = value.charAt(i);
+            if( separator != ' ' && separator != '-' )  return -1;
+            
+            month = month(value, i + 1);
+            if( month == -1 || i + 4 >= length || value.charAt(i + 4) != separator )   return -1;
+            i   += 5;
+            
+            if( separator == ' ' ){
+                year    = number(value, i, 4);
+                i       += 4;
+            }
+            else {
+                year    = number(value, i, 2);
+                i       += 2;
+                if( year >= 0 ) year    += ( year < 70 ) ? 2000 : 1900;
+            }
+            if( year < 0 || i >= length || value.charAt(i) != ' ' )  return -1;
+            
+            time    = time(value, i + 1);
+            i       += 9;
+            if( time < 0 )  return -1;
+            
+            if( i < length && !value.regionMatches(true, i, " GMT", 0, 4) && !value.regionMatches(true, i, " UTC", 0, 4) ){
+                return -1;
+            }
+        }
+        else {
+            /* asctime : Nov  6 08:49:37 1994 */
+            if( value.charAt(i) != ' ' )    return -1;
+            
+            month   = month(value, i + 1);
+            if( month == -1 )   return -1;
+            i       += 4;
+            while( i < length && value.charAt(i) == ' ' )  i++;
+            
+            if( i + 1 < length && value.charAt(i + 1) == ' ' ){
+                day = number(value, i, 1);
+                i   += 1;
+            }
+            else {
+                day = number(value, i, 2);
+                i   += 2;
+            }
+            if( day < 0 || i >= length || value.charAt(i) != ' ' )  return -1;
+            
+            time    = time(value, i + 1);
+            i       += 9;
+            if( time < 0 || i >= length || value.charAt(i) != ' ' )  return -1;
+            
+            year    = number(value, i + 1, 4);
+            if( year < 0 )  return -1;
+        }
+        
+        if( day < 1 || day > daysInMonth(month, year) ) return -1;
+        
+        return (daysFromCivil(year, month, day) * 86400L + time) * 1000L;
+    }
+    
+    /**
+     * Parses a number of the given amount of digits
+     * 
+     * @param value     The text
+     * @param offset    The offset of the first digit
+     * @param digits    The number of digits
+     * @return  The number, or -1 if the text has no digits there
+     */
+    private static int number(String value,int offset,int digits){
+        if( offset + digits > value.length() )  return -1;
+        
+        int number = 0;
+        for(int i=offset; i<offset + digits; i++){
+            char c = value.charAt(i);
+            if( c < '0' || c > '9' )    return -1;
+            
+            number = number * 10 + (c - '0');
+        }
+        
+        return number;
+    }
+    
+    /**
+     * Parses a time of the format HH:MM:SS
+     * 
+     * @param value     The text
+     * @param offset    The offset of the time
+     * @return  The seconds of the day, or -1 if the time is not valid
+     */
+    private static int time(String value,int offset){
+        if( offset + 8 > value.length() || value.charAt(offset + 2) != ':' || value.charAt(offset + 5) != ':' ){
+            return -1;
+        }
+        
+        int hours   = number(value, offset, 2);
+        int minutes = number(value, offset + 3, 2);
+        int seconds = number(value, offset + 6, 2);
+        
+        /* 60 is a leap second */
+        if( hours < 0 || hours > 23 || minutes < 0 || minutes > 59 || seconds < 0 || seconds > 60 ) return -1;
+        
+        return hours * 3600 + minutes * 60 + seconds;
+    }
+    
+    /**
+     * Parses a month name of three letters, case insensitive
+     * 
+     * @param value     The text
+     * @param offset    The offset of the name
+     * @return  The month, 1 till 12, or -1 if the text is not a month name
+     */
+    private static int month(String value,int offset){
+        if( offset + 3 > value.length() )   return -1;
+        
+        for(int i=0; i<MONTHS.length; i++){
+            if( value.regionMatches(true, offset, MONTHS[i], 0, 3) )    return i + 1;
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Checks if the given character is an ASCII letter
+     * 
+     * @param c     The character
+     * @return  True if the character is a letter
+     */
+    private static boolean isLetter(char c){
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+    
+    /**
+     * Returns the number of days in the given month
+     * 
+     * @param month     The month, 1 till 12
+     * @param year      The year
+     * @return  The number of days
+     */
+    private static int daysInMonth(int month,int year){
+        if( month == 2 ){
+            boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            
+            return leap ? 29 : 28;
+        }
+        
+        return ( month == 4 || month == 6 || month == 9 || month == 11 ) ? 30 : 31;
+    }
+    
+    /**
+     * Returns the day number of the given date
+     * 
+     * @param year      The year
+     * @param month     The month, 1 till 12
+     * @param day       The day of the month
+     * @return  The days since January 1, 1970
+     */
+    private static long daysFromCivil(int year,int month,int day){
+        if( month <= 2 )    year--;
+        
+        int era         = Math.floorDiv(year, 400);
+        int yearOfEra   = year - era * 400;
+        int dayOfYear   = (153 * (( month > 2 ) ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra    = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        
+        return era * 146097L + dayOfEra - 719468;
+    }
+    
+    /**
+     * Formatted value of one second
+     */
+    private static class CachedDate {
+        private final long second;
+        private final String text;
+        
+        /**
+         * Generates a new cached value
+         * 
+         * @param second    The seconds since January 1, 1970 GMT
+         * @param text      The formatted date
+         */
+        private CachedDate(long second,String text){
+            this.second = second;
+            this.text   = text;
+        }
+    }
+}
@@ -0,0 +1,656 @@
+package servletAPI;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Incremental HTTP/1.x request parser.
+ * 
+ * The bytes of a connection are handed to parse() as they arrive, or read from an InputStream. The request line
+ * and the headers are stored in the given request as soon as they are complete, the body is collected in a
+ * ServletInputStreamStub. Bodies with a Content-Length and chunked bodies are supported, the Cookie headers are
+ * parsed by the request when the cookies are asked. Parsing stops at the end of a request, so pipelined requests
+ * stay in the input buffer.
+ * Call reset() before parsing the next request from a ByteBuffer.
+ * 
+ * Lines are parsed straight from the array of the input buffer. Only a line that is split over two reads is copied.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class HttpRequestParser {
+    private static final int STATE_REQUEST_LINE = 0;
+    private static final int STATE_HEADERS      = 1;
+    private static final int STATE_BODY         = 2;
+    private static final int STATE_CHUNK_SIZE   = 3;
+    private static final int STATE_CHUNK_DATA   = 4;
+    private static final int STATE_CHUNK_END    = 5;
+    private static final int STATE_TRAILERS     = 6;
+    private static final int STATE_DONE         = 7;
+    private static final Charset LATIN          = Charset.forName("ISO-8859-1");
+    private static final String[] METHODS       = {"GET","POST","PUT","HEAD","DELETE","OPTIONS","TRACE"};
+    private static final String[] VERSIONS      = {"HTTP/1.1","HTTP/1.0"};
+    
+    private int state;
+    private byte[] line;
+    private int lineLength;
+    private byte[] lineSource;
+    private int lineStart;
+    private int lineEnd;
+    private int headerSize;
+    private int maxHeaderSize;
+    private int maxBodySize;
+    private String method;
+    private String version;
+    private String connection;
+    private String contentType;
+    private String expect;
+    private boolean chunked;
+    private int contentLength;
+    private int chunkRemaining;
+    private byte[] body;
+    private int bodyLength;
+    private ByteBuffer streamBuffer;
+    
+    /**
+     * Generates a new parser with a maximum header size of 8KB and a maximum body size of 16MB
+     */
+    public HttpRequestParser(){
+        this.line           = new byte[256];
+        this.maxHeaderSize  = 8192;
+        this.maxBodySize    = 16 * 1024 * 1024;
+        
+        this.reset();
+    }
+    
+    /**
+     * Sets the maximum size of the request line and headers together
+     * 
+     * @param size  The size in bytes
+     */
+    public void setMaxHeaderSize(int size){
+        this.maxHeaderSize  = size;
+    }
+    
+    /**
+     * Sets the maximum size of the request body
+     * 
+     * @param size  The size in bytes
+     */
+    public void setMaxBodySize(int size){
+        this.maxBodySize    = size;
+    }
+    
+    /**
+     * Clears the parser for the next request. Bytes that are read from an InputStream but not parsed yet are kept.
+     */
+    public void reset(){
+        this.state          = STATE_REQUEST_LINE;
+        this.lineLength     = 0;
+        this.headerSize     = 0;
+        this.method         = null;
+        this.version        = null;
+        this.connection     = null;
+        this.contentType    = null;
+        this.expect         = null;
+        this.chunked        = false;
+        this.contentLength  = 0;
+        this.chunkRemaining = 0;
+        this.body           = null;
+        this.bodyLength     = 0;
+    }
+    
+    /**
+     * Reads the next request from the given stream. The bytes after the request are kept for the next call,
+     * so all the requests of a stream can be read with the same parser. The parser is reset automatically.
+     * 
+     * @param input     The stream
+     * @param request   The request to fill in
+     * @return  True if a request is read, false if the stream ended before the next request
+     * @throws IOException  If the stream could not be read or if it ended within a request
+     * @throws IllegalArgumentException         If the request is malformed or too big
+     * @throws UnsupportedOperationException    If the request uses an unsupported method or transfer encoding
+     */
+    public boolean parse(InputStream input,HttpServletRequestStub request) throws IOException, IllegalArgumentException, UnsupportedOperationException {
+        if( this.streamBuffer == null ){
+            this.streamBuffer   = ByteBuffer.allocate(8192);
+            this.streamBuffer.flip();
+        }
+        if( this.state == STATE_DONE )  this.reset();
+        
+        while( true ){
+            if( this.streamBuffer.hasRemaining() && this.parse(this.streamBuffer, request) ) return true;
+            
+            this.streamBuffer.clear();
+            int read = input.read(this.streamBuffer.array(), 0, this.streamBuffer.capacity());
+            if( read == -1 ){
+                this.streamBuffer.limit(0);
+                
+                if( this.state == STATE_REQUEST_LINE && this.lineLength == 0 && this.headerSize == 0 )  return false;
+                
+                throw new EOFException("Stream ended within a request");
+            }
+            this.streamBuffer.limit(read);
+        }
+    }
+    
+    /**
+     * Parses the bytes from the input buffer into the given request. The buffer position is moved past the parsed bytes.
+     * Bytes of a next, pipelined request are not read.
+     * 
+     * @param input     The received bytes
+     * @param request   The request to fill in
+     * @return  True if the request is complete, false if more bytes are needed
+     * @throws IllegalArgumentException         If the request is malformed or too big
+     * @throws UnsupportedOperationException    If the request uses an unsupported method or transfer encoding
+     * @throws IllegalStateException            If the request is allready complete
+     */
+    public boolean parse(ByteBuffer input,HttpServletRequestStub request) throws IllegalArgumentException, UnsupportedOperationException, IllegalStateException {
+        if( this.state == STATE_DONE )  throw new IllegalStateException("Request is allready parsed. Call reset() first");
+        
+        while( this.state != STATE_DONE && input.hasRemaining() ){
+            switch( this.state ){
+                case STATE_BODY :
+                    this.readBody(input, this.contentLength - this.bodyLength);
+                    if( this.bodyLength == this.contentLength ) this.state  = STATE_DONE;
+                    break;
+                
+                case STATE_CHUNK_DATA :
+                    int size = this.bodyLength;
+                    this.readBody(input, this.chunkRemaining);
+                    this.chunkRemaining -= this.bodyLength - size;
+                    if( this.chunkRemaining == 0 )  this.state  = STATE_CHUNK_END;
+                    break;
+                
+                default :
+                    if( !this.readLine(input) ) return false;
+                    
+                    this.parseLine(request);
+            }
+        }
+        
+        if( this.state != STATE_DONE )  return false;
+        
+        this.complete(request);
+        
+        return true;
+    }
+    
+    /**
+     * Reads the next line from the input. A complete line is available in lineSource from lineStart till lineEnd,
+     * without the line end.
+     * 
+     * @param input     The received bytes
+     * @return  True if a complete line is read, false if more bytes are needed
+     * @throws IllegalArgumentException     If the line makes the header too big
+     */
+    private boolean readLine(ByteBuffer input) throws IllegalArgumentException {
+        if( !input.hasArray() ){
+            while( input.hasRemaining() ){
+                byte b = input.get();
+                
+                if( b == '\n' ){
+                    this.setLine(this.line, 0, this.lineLength);
+                    this.lineLength = 0;
+                    
+                    return true;
+                }
+                
+                this.countHeader(1);
+                if( this.lineLength == this.line.length ){
+                    this.line   = Arrays.copyOf(this.line, this.line.length * 2);
+                }
+                this.line[this.lineLength++]    = b;
+            }
+            
+            return false;
+        }
+        
+        byte[] array    = input.array();
+        int offset      = input.arrayOffset();
+        int start       = offset + input.position();
+        int limit       = offset + input.limit();
+        
+        int end = start;
+        while( end < limit && array[end] != '\n' ){
+            end++;
+        }
+        this.countHeader(end - start);
+        
+        if( end == limit ){
+            this.appendLine(array, start, end - start);
+            input.position(input.limit());
+            
+            return false;
+        }
+        input.position(end + 1 - offset);
+        
+        if( this.lineLength == 0 ){
+            this.setLine(array, start, end);
+        }
+        else {
+            this.appendLine(array, start, end - start);
+            this.setLine(this.line, 0, this.lineLength);
+            this.lineLength = 0;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Counts the given amount of bytes in the header size
+     * 
+     * @param size  The amount of bytes
+     * @throws IllegalArgumentException     If the header becomes too big
+     */
+    private void countHeader(int size) throws IllegalArgumentException {
+        this.headerSize += size;
+        
+        if( this.headerSize > this.maxHeaderSize )  throw new IllegalArgumentException("Header is bigger then "+this.maxHeaderSize+" bytes");
+    }
+    
+    /**
+     * Copies a part of a line that is split over two reads
+     * 
+     * @param source    The bytes
+     * @param start     The start offset
+     * @param length    The amount of bytes
+     */
+    private void appendLine(byte[] source,int start,int length){
+        if( this.lineLength + length > this.line.length ){
+            this.line   = Arrays.copyOf(this.line, Math.max(this.line.length * 2, this.lineLength + length));
+        }
+        
+        System.arraycopy(source, start, this.line, this.lineLength, length);
+        this.lineLength += length;
+    }
+    
+    /**
+     * Sets the complete line, without the line end
+     * 
+     * @param source    The bytes
+     * @param start     The start offset
+     * @param end       The end offset, the position of the line feed
+     */
+    private void setLine(byte[] source,int start,int end){
+        if( end > start && source[end - 1] == '\r' )    end--;
+        
+        this.lineSource = source;
+        this.lineStart  = start;
+        this.lineEnd    = end;
+    }
+    
+    /**
+     * Handles a complete line
+     * 
+     * @param request   The request
+     * @throws IllegalArgumentException         If the line is malformed
+     * @throws UnsupportedOperationException    If the request uses an unsupported method or transfer encoding
+     */
+    private void parseLine(HttpServletRequestStub request) throws IllegalArgumentException, UnsupportedOperationException {
+        boolean empty = this.lineStart == this.lineEnd;
+        
+        switch( this.state ){
+            case STATE_REQUEST_LINE :
+                /* Empty lines before the request line are ignored */
+                if( empty ){
+                    this.headerSize = 0;
+                }
+                else {
+                    this.parseRequestLine(request);
+                }
+                break;
+            
+            case STATE_HEADERS :
+                if( empty ){
+                    this.parseHeadersEnd();
+                }
+                else {
+                    this.parseHeader(request);
+                }
+                break;
+            
+            case STATE_CHUNK_SIZE :
+                this.parseChunkSize();
+                this.headerSize = 0;
+                break;
+            
+            case STATE_CHUNK_END :
+                if( !empty )    throw new IllegalArgumentException("Chunk is longer then its size");
+                
+                this.state      = STATE_CHUNK_SIZE;
+                this.headerSize = 0;
+                break;
+            
+            case STATE_TRAILERS :
+                /* Trailer headers are ignored */
+                if( empty ) this.state  = STATE_DONE;
+                break;
+        }
+    }
+    
+    /**
+     * Parses the request line
+     * 
+     * @param request   The request
+     * @throws IllegalArgumentException         If the request line is malformed
+     * @throws UnsupportedOperationException    If the method is not supported
+     */
+    private void parseRequestLine(HttpServletRequestStub request) throws IllegalArgumentException, UnsupportedOperationException {
+        byte[] source   = this.lineSource;
+        int first       = this.indexOf((byte) ' ', this.lineStart, this.lineEnd);
+        int last        = this.lineEnd - 1;
+        while( last > first && source[last] != ' ' ){
+            last--;
+        }
+        if( first <= this.lineStart || last == first ){
+            throw new IllegalArgumentException("Invalid request line "+new String(source, this.lineStart, this.lineEnd - this.lineStart, LATIN));
+        }
+        
+        this.method     = this.constant(METHODS, this.lineStart, first);
+        this.version    = this.constant(VERSIONS, last + 1, this.lineEnd);
+        if( this.method == null )   throw new UnsupportedOperationException("Method "+new String(source, this.lineStart, first - this.lineStart, LATIN)+" is not supported");
+        if( this.version == null ){
+            this.version    = new String(source, last + 1, this.lineEnd - last - 1, LATIN);
+            if( !this.version.startsWith("HTTP/1.") )  throw new IllegalArgumentException("Invalid HTTP version "+this.version);
+        }
+        
+        int start   = first + 1;
+        int end     = last;
+        
+        /* Absolute form : http://host/path */
+        if( source[start] != '/' && source[start] != '*' ){
+            int scheme = this.indexOf((byte) ':', start, end);
+            if( scheme == -1 || scheme + 2 >= end || source[scheme + 1] != '/' || source[scheme + 2] != '/' ){
+                throw new IllegalArgumentException("Invalid request target "+new String(source, start, end - start, LATIN));
+            }
+            
+            start   = this.indexOf((byte) '/', scheme + 3, end);
+            if( start == -1 )   start = end;
+        }
+        
+        int mark = this.indexOf((byte) '?', start, end);
+        request.setMethod(this.method);
+        if( mark == -1 ){
+            if( end - start > 1 )   request.setFilename(new String(source, start + 1, end - start - 1, LATIN));
+        }
+        else {
+            if( mark - start > 1 )  request.setFilename(new String(source, start + 1, mark - start - 1, LATIN));
+            
+            request.setQueryString(new String(source, mark + 1, end - mark - 1, LATIN));
+        }
+        
+        this.state  = STATE_HEADERS;
+    }
+    
+    /**
+     * Returns the constant that equals the given part of the line, so no new string is created for it
+     * 
+     * @param constants     The constants
+     * @param start         The start offset in the line
+     * @param end           The end offset in the line
+     * @return  The constant or null if the part is not one of the constants
+     */
+    private String constant(String[] constants,int start,int end){
+        for(int i=0; i<constants.length; i++){
+            String constant = constants[i];
+            if( constant.length() != end - start )  continue;
+            
+            int j = 0;
+            while( j < constant.length() && constant.charAt(j) == this.lineSource[start + j] ){
+                j++;
+            }
+            if( j == constant.length() )    return constant;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Returns the position of the given byte in the line
+     * 
+     * @param b         The byte
+     * @param start     The start offset
+     * @param end       The end offset
+     * @return  The position or -1 if the byte is not found
+     */
+    private int indexOf(byte b,int start,int end){
+        for(int i=start; i<end; i++){
+            if( this.lineSource[i] == b )   return i;
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Parses a header line. The name is kept as it is sent, common names are replaced by the HeaderNames constant
+     * 
+     * @param request   The request
+     * @throws IllegalArgumentException         If the header is malformed
+     * @throws UnsupportedOperationException    If the request uses an unsupported transfer encoding
+     */
+    private void parseHeader(HttpServletRequestStub request) throws IllegalArgumentException, UnsupportedOperationException {
+        byte[] source   = this.lineSource;
+        int colon       = this.indexOf((byte) ':', this.lineStart, this.lineEnd);
+        if( colon <= this.lineStart ){
+            throw new IllegalArgumentException("Invalid header "+new String(source, this.lineStart, this.lineEnd - this.lineStart, LATIN));
+        }
+        
+        int nameEnd = colon;
+        while( nameEnd > this.lineStart && source[nameEnd - 1] <= ' ' ){
+            nameEnd--;
+        }
+        int valueStart  = colon + 1;
+        int valueEnd    = this.lineEnd;
+        while( valueStart < valueEnd && source[valueStart] <= ' ' ){
+            valueStart++;
+        }
+        while( valueEnd > valueStart && source[valueEnd - 1] <= ' ' ){
+            valueEnd--;
+        }
+        
+        int length      = nameEnd - this.lineStart;
+        String name     = HeaderNames.intern(source, this.lineStart, nameEnd);
+        if( name == null ){
+            name    = new String(source, this.lineStart, length, LATIN);
+        }
+        String value    = new String(source, valueStart, valueEnd - valueStart, LATIN);
+        
+        request.setHeader(name, value);
+        
+        switch( length ){
+            case 4 :
+                if( name.equalsIgnoreCase("host") )   this.parseHost(value, request);
+                break;
+            
+            case 6 :
+                if( name.equalsIgnoreCase("expect") )   this.expect = value;
+                break;
+            
+            case 10 :
+                if( name.equalsIgnoreCase("connection") ) this.connection = value;
+                break;
+            
+            case 12 :
+                if( name.equalsIgnoreCase("content-type") )   this.contentType    = value;
+                break;
+            
+            case 14 :
+                if( name.equalsIgnoreCase("content-length") ){
+                    try {
+                        this.contentLength  = Integer.parseInt(value);
+                    }
+                    catch(NumberFormatException e){
+                        throw new IllegalArgumentException("Invalid content length "+value);
+                    }
+                    if( this.contentLength < 0 )    throw new IllegalArgumentException("Invalid content length "+value);
+                    if( this.contentLength > this.maxBodySize )  throw new IllegalArgumentException("Body is bigger then "+this.maxBodySize+" bytes");
+                }
+                break;
+            
+            case 17 :
+                if( name.equalsIgnoreCase("transfer-encoding") ){
+                    if( !value.equalsIgnoreCase("chunked") )    throw new UnsupportedOperationException("Transfer encoding "+value+" is not supported");
+                    
+                    this.chunked    = true;
+                }
+                break;
+        }
+    }
+    
+    /**
+     * Stores the server name and port from the Host header
+     * 
+     * @param value     The header value
+     * @param request   The request
+     */
+    private void parseHost(String value,HttpServletRequestStub request){
+        int port = value.lastIndexOf(':');
+        if( port > value.lastIndexOf(']') ){
+            request.setServer(value.substring(0, port), null);
+            
+            try {
+                request.setServerPort(Integer.parseInt(value.substring(port + 1)));
+            }
+            catch(NumberFormatException e){ }
+        }
+        else {
+            request.setServer(value, null);
+        }
+    }
+    
+    /**
+     * Handles the end of the headers
+     */
+    private void parseHeadersEnd(){
+        if( this.chunked ){
+            this.body   = new byte[256];
+            this.state  = STATE_CHUNK_SIZE;
+        }
+        else if( this.contentLength == 0 ){
+            this.state  = STATE_DONE;
+        }
+        else {
+            this.body   = new byte[this.contentLength];
+            this.state  = STATE_BODY;
+        }
+    }
+    
+    /**
+     * Parses the size line of a chunk
+     * 
+     * @throws IllegalArgumentException     If the size is malformed or the body becomes too big
+     */
+    private void parseChunkSize() throws IllegalArgumentException {
+        long size   = 0;
+        int digits  = 0;
+        for(int i=this.lineStart; i<this.lineEnd; i++){
+            int digit = Character.digit(this.lineSource[i], 16);
+            if( digit == -1 )   break;
+            
+            size = (size << 4) + digit;
+            digits++;
+            if( this.bodyLength + size > this.maxBodySize ) throw new IllegalArgumentException("Body is bigger then "+this.maxBodySize+" bytes");
+        }
+        if( digits == 0 )   throw new IllegalArgumentException("Invalid chunk size");
+        
+        if( size == 0 ){
+            this.state  = STATE_TRAILERS;
+            
+            return;
+        }
+        
+        this.chunkRemaining = (int) size;
+        if( this.bodyLength + this.chunkRemaining > this.body.length ){
+            this.body   = Arrays.copyOf(this.body, Math.min(this.maxBodySize, Math.max(this.body.length * 2, this.bodyLength + this.chunkRemaining)));
+        }
+        this.state  = STATE_CHUNK_DATA;
+    }
+    
+    /**
+     * Copies body bytes from the input
+     * 
+     * @param input     The received bytes
+     * @param needed    The maximum amount of bytes
+     */
+    private void readBody(ByteBuffer input,int needed){
+        int size = Math.min(input.remaining(), needed);
+        
+        input.get(this.body, this.bodyLength, size);
+        this.bodyLength += size;
+    }
+    
+    /**
+     * Stores the body and the form parameters in the request
+     * 
+     * @param request   The request
+     */
+    private void complete(HttpServletRequestStub request){
+        if( this.body == null ) return;
+        
+        byte[] content = this.body;
+        if( content.length != this.bodyLength ){
+            content = Arrays.copyOf(content, this.bodyLength);
+        }
+        
+        ServletInputStreamStub stream = new ServletInputStreamStub();
+        stream.setContent(content, this.contentType);
+        request.setInputStream(stream);
+    }
+    
+    /**
+     * Checks if the request is complete
+     * 
+     * @return  True if the request is complete, otherwise false
+     */
+    public boolean isComplete(){
+        return this.state == STATE_DONE;
+    }
+    
+    /**
+     * Checks if the client waits for a 100 Continue response before sending the body
+     * 
+     * @return  True if the headers are complete and the client expects a 100 Continue
+     */
+    public boolean isExpectingContinue(){
+        return (this.state == STATE_BODY || this.state == STATE_CHUNK_SIZE) && this.bodyLength == 0 &&
+            this.expect != null && this.expect.equalsIgnoreCase("100-continue");
+    }
+    
+    /**
+     * Checks if the connection stays open after the request. HTTP/1.1 connections stay open unless the client
+     * sends Connection: close, HTTP/1.0 connections only with Connection: keep-alive.
+     * 
+     * @return  True if the connection stays open
+     */
+    public boolean isKeepAlive(){
+        if( this.version == null )  return false;
+        
+        if( this.version.equals("HTTP/1.0") ){
+            return this.connection != null && this.connection.equalsIgnoreCase("keep-alive");
+        }
+        
+        return this.connection == null || !this.connection.equalsIgnoreCase("close");
+    }
+    
+    /**
+     * Returns the HTTP method of the request
+     * 
+     * @return  The method or null if the request line is not parsed yet
+     */
+    public String getMethod(){
+        return this.method;
+    }
+    
+    /**
+     * Returns the HTTP version of the request
+     * 
+     * @return  The version, for example HTTP/1.1, or null if the request line is not parsed yet
+     */
+    public String getVersion(){
+        return this.version;
+    }
+}
@@ -0,0 +1,437 @@
+package servletAPI;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+
+/**
+ * In-process HTTP/1.1 server that runs a servlet on the stubs.
+ * 
+ * One selector thread accepts the connections, reads the requests with a HttpRequestParser and writes the
+ * responses. The servlet runs on a virtual thread per request. A connection handles one request at a time, so
+ * pipelined requests are answered in order: the next request is parsed from the received bytes when the response
+ * of the previous request is written. Connections stay open unless the client asks to close them.
+ * The request and response pairs are taken from a HttpStubPool.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class HttpServerStub {
+    private static final int INPUT_BUFFER_SIZE = 8192;
+    private static final byte[] CONTINUE        = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(Charset.forName("ISO-8859-1"));
+    private static final byte[] INTERNAL_ERROR  = "HTTP/1.1 500 Internal Server Error\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(Charset.forName("ISO-8859-1"));
+    
+    private Servlet servlet;
+    private ConfigStub config;
+    private HttpStubPool pool;
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private Thread selectorThread;
+    private ExecutorService workers;
+    private ConcurrentLinkedQueue<Connection> finished;
+    private volatile boolean running;
+    
+    /**
+     * Generates a new server and initializes the servlet
+     * 
+     * @param servlet   The servlet
+     * @param config    The servlet config
+     * @throws ServletException     If the servlet could not be initialized
+     */
+    public HttpServerStub(Servlet servlet,ConfigStub config) throws ServletException {
+        this.servlet    = servlet;
+        this.config     = config;
+        this.pool       = new HttpStubPool(256);
+        this.pool.setServletContext((ServletContextStub) config.getServletContext());
+        this.finished   = new ConcurrentLinkedQueue<Connection>();
+        this.running    = false;
+        
+        this.servlet.init(config);
+    }
+    
+    /**
+     * Starts the server on the loopback address
+     * 
+     * @param port  The port, or 0 for a free port
+     * @return  The port the server listens on
+     * @throws IOException  If the port could not be bound
+     */
+    public int start(int port) throws IOException {
+        return this.start(new InetSocketAddress("127.0.0.1", port));
+    }
+    
+    /**
+     * Starts the server on the given address
+     * 
+     * @param address   The address
+     * @return  The port the server listens on
+     * @throws IOException  If the address could not be bound
+     * @throws IllegalStateException    If the server is allready started
+     */
+    public int start(InetSocketAddress address) throws IOException, IllegalStateException {
+        if( this.running )  throw new IllegalStateException("Server is allready started");
+        
+        this.selector       = Selector.open();
+        this.serverChannel  = ServerSocketChannel.open();
+        this.serverChannel.bind(address, 1024);
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+        
+        this.workers        = Executors.newVirtualThreadPerTaskExecutor();
+        this.running        = true;
+        
+        this.selectorThread = new Thread(new Runnable(){
+            public void run(){
+                HttpServerStub.this.select();
+            }
+        }, "http-server-stub");
+        this.selectorThread.setDaemon(true);
+        this.selectorThread.start();
+        
+        return this.getPort();
+    }
+    
+    /**
+     * Returns the port the server listens on
+     * 
+     * @return  The port or -1 if the server is not started
+     */
+    public int getPort(){
+        if( this.serverChannel == null )    return -1;
+        
+        return this.serverChannel.socket().getLocalPort();
+    }
+    
+    /**
+     * Stops the server. The running requests are finished, the connections are closed and the servlet is destroyed.
+     * 
+     * @throws InterruptedException     If the calling thread is interrupted while waiting for the server
+     */
+    public void stop() throws InterruptedException {
+        if( !this.running ) return;
+        
+        this.running    = false;
+        this.selector.wakeup();
+        this.selectorThread.join();
+        
+        this.workers.close();
+        this.servlet.destroy();
+    }
+    
+    /**
+     * Selector loop
+     */
+    private void select(){
+        try {
+            while( this.running ){
+                this.selector.select();
+                
+                Connection connection;
+                while( (connection = this.finished.poll()) != null ){
+                    connection.respond();
+                }
+                
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while( keys.hasNext() ){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    
+                    if( !key.isValid() )    continue;
+                    
+                    if( key.isAcceptable() ){
+                        this.accept();
+                    }
+                    else {
+                        connection = (Connection) key.attachment();
+                        
+                        if( key.isReadable() ){
+                            connection.read();
+                        }
+                        if( key.isValid() && key.isWritable() ){
+                            connection.write();
+                        }
+                    }
+                }
+            }
+        }
+        catch(IOException e){
+            this.config.getServletContext().log("HTTP server stopped", e);
+        }
+        finally {
+            Iterator<SelectionKey> keys = this.selector.keys().iterator();
+            while( keys.hasNext() ){
+                try {
+                    keys.next().channel().close();
+                }
+                catch(IOException e){ }
+            }
+            
+            try {
+                this.selector.close();
+            }
+            catch(IOException e){ }
+        }
+    }
+    
+    /**
+     * Accepts the waiting connections
+     * 
+     * @throws IOException  If the server socket failed
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while( (channel = this.serverChannel.accept()) != null ){
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            
+            Connection connection   = new Connection(channel);
+            connection.key          = channel.register(this.selector, SelectionKey.OP_READ, connection);
+        }
+    }
+    
+    /**
+     * Runs the servlet for the request of the given connection, on a worker thread
+     * 
+     * @param connection    The connection
+     */
+    private void dispatch(final Connection connection){
+        this.workers.execute(new Runnable(){
+            public void run(){
+                HttpServletResponseStub response    = connection.exchange.getResponse();
+                
+                try {
+                    HttpServerStub.this.servlet.service(connection.exchange.getRequest(), response);
+                }
+                catch(Exception e){
+                    HttpServerStub.this.config.getServletContext().log("Servlet failed", e);
+                    
+                    response.recycle();
+                    try {
+                        response.sendError(500, "Internal Server Error");
+                    }
+                    catch(IOException ex){ }
+                }
+                finally {
+                    /* Also after an Error, else the client waits forever */
+                    HttpServerStub.this.finished.add(connection);
+                    HttpServerStub.this.selector.wakeup();
+                }
+            }
+        });
+    }
+    
+    /**
+     * A client connection
+     */
+    private class Connection {
+        private SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer input;
+        private HttpRequestParser parser;
+        private HttpStubPool.Exchange exchange;
+        private boolean busy;
+        private boolean keepAlive;
+        private boolean inputClosed;
+        private ByteBuffer[] output;
+        
+        /**
+         * Generates a new connection
+         * 
+         * @param channel   The socket channel
+         */
+        private Connection(SocketChannel channel){
+            this.channel        = channel;
+            this.input          = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+            this.parser         = new HttpRequestParser();
+            this.busy           = false;
+            this.keepAlive      = true;
+            this.inputClosed    = false;
+            this.output         = null;
+        }
+        
+        /**
+         * Reads the received bytes and parses them
+         */
+        private void read(){
+            try {
+                if( this.channel.read(this.input) == -1 ){
+                    this.inputClosed    = true;
+                }
+                
+                this.parse();
+            }
+            catch(IOException e){
+                this.close();
+            }
+        }
+        
+        /**
+         * Parses the received bytes. A complete request is dispatched to the servlet, the connection stops reading
+         * until the response is written.
+         * 
+         * @throws IOException  If the socket failed
+         */
+        private void parse() throws IOException {
+            if( this.busy || this.output != null )  return;
+            
+            this.input.flip();
+            try {
+                if( this.input.hasRemaining() ){
+                    if( this.exchange == null ){
+                        this.exchange   = HttpServerStub.this.pool.acquire();
+                        
+                        InetSocketAddress remote    = (InetSocketAddress) this.channel.getRemoteAddress();
+                        HttpServletRequestStub request = this.exchange.getRequest();
+                        request.setClientAddress(remote.getAddress().getHostAddress());
+                        request.setClientPort(remote.getPort());
+                        request.setServerPort(HttpServerStub.this.getPort());
+                    }
+                    
+                    if( this.parser.parse(this.input, this.exchange.getRequest()) ){
+                        this.busy       = true;
+                        this.keepAlive  = this.parser.isKeepAlive();
+                        this.key.interestOps(0);
+                        
+                        HttpServerStub.this.dispatch(this);
+                        
+                        return;
+                    }
+                    
+                    if( this.parser.isExpectingContinue() ){
+                        this.channel.write(ByteBuffer.wrap(CONTINUE));
+                    }
+                }
+            }
+            catch(UnsupportedOperationException e){
+                this.fail(501, e.getMessage());
+                
+                return;
+            }
+            catch(IllegalArgumentException e){
+                this.fail(400, e.getMessage());
+                
+                return;
+            }
+            finally {
+                this.input.compact();
+            }
+            
+            if( this.inputClosed ){
+                this.close();
+            }
+        }
+        
+        /**
+         * Answers a request that could not be parsed and closes the connection
+         * 
+         * @param code      The HTTP status
+         * @param message   The error message
+         * @throws IOException  If the socket failed
+         */
+        private void fail(int code,String message) throws IOException {
+            if( this.exchange == null ){
+                this.exchange   = HttpServerStub.this.pool.acquire();
+            }
+            
+            this.exchange.getResponse().recycle();
+            this.exchange.getResponse().sendError(code, message);
+            this.keepAlive  = false;
+            this.busy       = true;
+            
+            this.respond();
+        }
+        
+        /**
+         * Serializes the response of the finished request and writes it. 
+         * If the response can not be serialized, a 500 is written and only this connection is closed.
+         */
+        private void respond(){
+            this.busy = false;
+            
+            try {
+                HttpServletResponseStub response    = this.exchange.getResponse();
+                ByteBuffer body = response.getHttpBody();
+                ByteBuffer head = response.getHttpHeader(body.remaining(), this.keepAlive && HttpServerStub.this.running);
+                
+                if( "HEAD".equals(this.parser.getMethod()) ){
+                    body    = ByteBuffer.allocate(0);
+                }
+                
+                this.output = new ByteBuffer[]{ head, body };
+            }
+            catch(IOException e){
+                this.close();
+                
+                return;
+            }
+            catch(RuntimeException e){
+                HttpServerStub.this.config.getServletContext().log("Response failed", e);
+                
+                /* Nothing is written yet, so the client still gets an answer */
+                this.output     = new ByteBuffer[]{ ByteBuffer.wrap(INTERNAL_ERROR), ByteBuffer.allocate(0) };
+                this.keepAlive  = false;
+            }
+            
+            this.write();
+        }
+        
+        /**
+         * Writes the pending response. When the response is written, the next request is parsed.
+         */
+        private void write(){
+            try {
+                this.channel.write(this.output);
+                
+                if( this.output[0].hasRemaining() || this.output[1].hasRemaining() ){
+                    this.key.interestOps(SelectionKey.OP_WRITE);
+                    
+                    return;
+                }
+                
+                this.output = null;
+                HttpServerStub.this.pool.release(this.exchange);
+                this.exchange   = null;
+                this.parser.reset();
+                
+                if( !this.keepAlive || !HttpServerStub.this.running ){
+                    this.close();
+                    
+                    return;
+                }
+                
+                this.key.interestOps(SelectionKey.OP_READ);
+                this.parse();
+            }
+            catch(IOException e){
+                this.close();
+            }
+        }
+        
+        /**
+         * Closes the connection
+         */
+        private void close(){
+            this.key.cancel();
+            
+            try {
+                this.channel.close();
+            }
+            catch(IOException e){ }
+            
+            if( this.exchange != null && !this.busy ){
+                HttpServerStub.this.pool.release(this.exchange);
+            }
+            this.exchange   = null;
+        }
+    }
+}
@@ -4,9 +4,9 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.security.Principal;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletInputStream;
@@ -15,11 +15,16 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
 /**
- *
+ * 
  * @author Rachelle Scheijen
  */
 public class HttpServletRequestStub implements HttpServletRequest {
+    private static final Cookie[] NO_COOKIES   = new Cookie[0];
+    private static final Charset UTF8           = Charset.forName("UTF-8");
+    
     private Cookie[] cookies;
+    private boolean cookiesDecoded;
+    private Cookie[] cookieBuffer;
     private MultikeyHashMap headers;
     private String method;
     private String context;
@@ -37,6 +42,13 @@ public class HttpServletRequestStub implements HttpServletRequest {
     private String requestedSessionID;
     private HashMap<String,Object> attributes;
     private MultikeyHashMap parameters;
+    private MultikeyHashMap queryParameters;
+    private MultikeyHashMap bodyParameters;
+    private MultikeyHashMap addedParameters;
+    private Map<String,String[]> parameterMap;
+    private boolean parametersDecoded;
+    private boolean queryDecoded;
+    private boolean bodyDecoded;
     private String characterEncoding;
     private ServletInputStreamStub inputStream;
     private String remoteAddress;
@@ -45,10 +57,46 @@ public class HttpServletRequestStub implements HttpServletRequest {
     private ServletContextStub servletContext;
     
     public HttpServletRequestStub(){
-        this.cookies        = new Cookie[10];
-        this.headers        = new MultikeyHashMap();
-        this.attributes     = new HashMap<String,Object>();
-        this.parameters     = new MultikeyHashMap();
+        this(null);
+    }
+    
+    /**
+     * Generates a new request within the given servlet context
+     * 
+     * @param context   The servlet context
+     */
+    public HttpServletRequestStub(ServletContextStub context){
+        this.servletContext     = context;
+        this.headers            = new MultikeyHashMap(8, true);
+        this.attributes         = new HashMap<String,Object>();
+        this.parameters         = new MultikeyHashMap();
+        this.queryParameters    = new MultikeyHashMap();
+        this.bodyParameters     = new MultikeyHashMap();
+        this.addedParameters    = new MultikeyHashMap();
+        this.clientLocales      = new ArrayList<Locale>();
+        
+        this.recycle();
+    }
+    
+    /**
+     * Clears the request so it can be reused for a next request. All the request data is removed and the settings 
+     * are set back to their defaults. The servlet context is kept. The allocated maps are cleared instead of 
+     * replaced, so a recycled request costs no new allocations.
+     */
+    public void recycle(){
+        this.cookies            = NO_COOKIES;
+        this.cookiesDecoded     = false;
+        this.headers.clear();
+        this.attributes.clear();
+        this.parameters.clear();
+        this.queryParameters.clear();
+        this.bodyParameters.clear();
+        this.addedParameters.clear();
+        this.parameterMap       = null;
+        this.parametersDecoded  = false;
+        this.queryDecoded       = false;
+        this.bodyDecoded        = false;
+        this.clientLocales.clear();
         
         this.protocol           = "http://";
         this.serverPort         = 80;
@@ -64,10 +112,14 @@ public class HttpServletRequestStub implements HttpServletRequest {
         this.currentSession     = null;
         this.requestedSessionID = "";
         this.characterEncoding  = null;
-        this.inputStream        = null;
         this.remoteAddress      = "127.0.0.1";
-        this.clientLocales      = new ArrayList<Locale>();
         this.serverLocale       = Locale.ENGLISH;
+        
+        /* Closes a file that is opened by the stream and releases its mapped window */
+        if( this.inputStream != null ){
+            this.inputStream.recycle();
+            this.inputStream    = null;
+        }
     }
     
     /**
@@ -121,6 +173,15 @@ public class HttpServletRequestStub implements HttpServletRequest {
             this.filename   = filename;
     }
     
+    /**
+     * Sets the servlet context of the request. Requests that share a context, also share its attributes and sessions.
+     * 
+     * @param context   The servlet context
+     */
+    public void setServletContext(ServletContextStub context){
+        this.servletContext = context;
+    }
+    
     /**
      * Sets the server locale setting
      * 
@@ -138,18 +199,108 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public String getAuthType() {
         return HttpServletRequest.BASIC_AUTH;
     }
-
+    
     /**
      * Returns an array containing all of the Cookie objects the client sent with this request. This method returns null if no cookies were sent. 
      * 
      * @return  an array of all the Cookies included with this request, or null if the request has no cookies
      */
     public Cookie[] getCookies() {
+        this.decodeCookies();
         if( this.cookies.length == 0 )  return null;
         
         return this.cookies;
     }
     
+    /**
+     * Sets the cookies that the client sent with this request. The Cookie headers are not used after this call
+     * 
+     * @param cookies   The cookies
+     */
+    public void setCookies(Cookie[] cookies){
+        this.cookies        = ( cookies == null ) ? NO_COOKIES : cookies;
+        this.cookiesDecoded = true;
+    }
+    
+    /**
+     * Parses the cookies from the Cookie headers, once per request. The name=value pairs are read in one pass into
+     * a reused buffer and copied into an array of the exact size. Cookies with an invalid or reserved name, like
+     * the $Version and $Path attributes, are skipped.
+     */
+    private void decodeCookies(){
+        if( this.cookiesDecoded )   return;
+        this.cookiesDecoded = true;
+        
+        int count   = 0;
+        int pos     = this.headers.findKey(HeaderNames.COOKIE, 0);
+        while( pos != -1 ){
+            String value    = this.headers.getValue(pos);
+            int length      = value.length();
+            int start       = 0;
+            while( start < length ){
+                int end     = start;
+                int equals  = -1;
+                while( end < length && value.charAt(end) != ';' ){
+                    if( equals == -1 && value.charAt(end) == '=' )  equals = end;
+                    end++;
+                }
+                
+                if( equals != -1 ){
+                    Cookie cookie = this.createCookie(value, start, equals, end);
+                    if( cookie != null ){
+                        if( this.cookieBuffer == null ){
+                            this.cookieBuffer   = new Cookie[8];
+                        }
+                        else if( count == this.cookieBuffer.length ){
+                            this.cookieBuffer   = Arrays.copyOf(this.cookieBuffer, count * 2);
+                        }
+                        this.cookieBuffer[count++]  = cookie;
+                    }
+                }
+                
+                start = end + 1;
+            }
+            
+            pos = this.headers.nextKey(pos);
+        }
+        
+        if( count > 0 ){
+            this.cookies    = Arrays.copyOf(this.cookieBuffer, count);
+            Arrays.fill(this.cookieBuffer, 0, count, null);
+        }
+    }
+    
+    /**
+     * Creates a cookie from a name=value pair of a Cookie header
+     * 
+     * @param value     The header value
+     * @param start     The start of the pair
+     * @param equals    The position of the =
+     * @param end       The end of the pair
+     * @return  The cookie, or null if the name is invalid or reserved
+     */
+    private Cookie createCookie(String value,int start,int equals,int end){
+        int nameEnd = equals;
+        while( start < nameEnd && value.charAt(start) <= ' ' )  start++;
+        while( nameEnd > start && value.charAt(nameEnd - 1) <= ' ' )   nameEnd--;
+        if( start == nameEnd || value.charAt(start) == '$' )    return null;
+        
+        int valueStart  = equals + 1;
+        while( valueStart < end && value.charAt(valueStart) <= ' ' )    valueStart++;
+        while( end > valueStart && value.charAt(end - 1) <= ' ' )  end--;
+        if( end - valueStart > 1 && value.charAt(valueStart) == '"' && value.charAt(end - 1) == '"' ){
+            valueStart++;
+            end--;
+        }
+        
+        try {
+            return new Cookie(value.substring(start, nameEnd), value.substring(valueStart, end));
+        }
+        catch(IllegalArgumentException e){
+            return null;
+        }
+    }
+    
     /**
      * Sets a client header
      * 
@@ -157,17 +308,66 @@ public class HttpServletRequestStub implements HttpServletRequest {
      * @param value     The value of the header
      */
     public void setHeader(String name,String value){
-        name    = name.toLowerCase();
+        name    = HeaderNames.intern(name);
         
         this.headers.add(name, value);
         
-        if( name.equals("accept-language") ){
-            String[] languages  = value.split(",");
-            for(int i=0; i<languages.length; i++)
-                this.clientLocales.add(new Locale(languages[i].trim()) );
+        if( name.equalsIgnoreCase(HeaderNames.ACCEPT_LANGUAGE) ){
+            this.addLocales(value);
         }
     }
-
+    
+    /**
+     * Adds the client locales from an Accept-Language header, in decreasing order of quality. 
+     * Languages with a quality of 0 and the wildcard are skipped.
+     * 
+     * @param value     The header value, for example nl-NL,nl;q=0.9,en;q=0.8
+     */
+    private void addLocales(String value){
+        int first       = this.clientLocales.size();
+        float[] quality = new float[8];
+        
+        int start = 0;
+        while( start < value.length() ){
+            int end = value.indexOf(',', start);
+            if( end == -1 ) end = value.length();
+            
+            String range    = value.substring(start, end);
+            float q         = 1;
+            int parameter   = range.indexOf(';');
+            if( parameter != -1 ){
+                String weight   = range.substring(parameter + 1).trim();
+                range           = range.substring(0, parameter);
+                
+                if( weight.startsWith("q=") ){
+                    try {
+                        q   = Float.parseFloat(weight.substring(2));
+                    }
+                    catch(NumberFormatException e){ }
+                }
+            }
+            range   = range.trim();
+            start   = end + 1;
+            
+            if( q <= 0 || range.length() == 0 || range.equals("*") )  continue;
+            
+            Locale locale = Locale.forLanguageTag(range);
+            if( locale.getLanguage().length() == 0 )    continue;
+            
+            /* Stable insert on quality */
+            int position = this.clientLocales.size() - first;
+            if( position == quality.length ){
+                quality = Arrays.copyOf(quality, quality.length * 2);
+            }
+            while( position > 0 && quality[position - 1] < q ){
+                quality[position]   = quality[position - 1];
+                position--;
+            }
+            quality[position]   = q;
+            this.clientLocales.add(first + position, locale);
+        }
+    }
+    
     /**
      * Returns the value of the specified request header as a long value that represents a Date object. Use this method with headers that contain dates, such as If-Modified-Since
      * 
@@ -176,18 +376,15 @@ public class HttpServletRequestStub implements HttpServletRequest {
      * @throws IllegalArgumentException             If the header value can't be converted to a date
      */
     public long getDateHeader(String name) throws IllegalArgumentException {
-        String header   = this.headers.get(name.toLowerCase(), 0);
+        String header   = this.headers.get(name, 0);
         if( header == null )     return -1;
         
-        try {
-            SimpleDateFormat format   = new SimpleDateFormat();
-            return format.parse(header).getTime();
-        }
-        catch(ParseException e){
-            throw new IllegalArgumentException("Header "+name+" is not a date");
-        }
+        long date = HttpDateFormat.parse(header);
+        if( date == -1 )    throw new IllegalArgumentException("Header "+name+" is not a date");
+        
+        return date;
     }
-
+    
     /**
      * Returns the value of the specified request header as a String. If the request did not include a header of the specified name, this method returns null. If there are multiple headers with the same name, this method returns the first head in the request. The header name is case insensitive. You can use this method with any request header. 
      * 
@@ -195,9 +392,9 @@ public class HttpServletRequestStub implements HttpServletRequest {
      * @return  a String containing the value of the requested header, or null if the request does not have a header of that name
      */
     public String getHeader(String name) {
-        return this.headers.get(name.toLowerCase(), 0);
+        return this.headers.get(name, 0);
     }
-
+    
     /**
      * Returns all the values of the specified request header as an Enumeration of String objects. 
      * 
@@ -205,20 +402,18 @@ public class HttpServletRequestStub implements HttpServletRequest {
      * @return  an Enumeration containing the values of the requested header. If the request does not have any headers of that name return an empty enumeration. 
      */
     public Enumeration getHeaders(String name) {
-        name    = name.toLowerCase();
         ServerDetailEnumeration headernames = new ServerDetailEnumeration();
         
-        int pos = -1;
-        while( true ){            
-            pos = this.headers.findKey(name, pos+1);            
-            if( pos == -1 ) break; // no more items
+        int pos = this.headers.findKey(name, 0);
+        while( pos != -1 ){
+            headernames.addName(this.headers.getValue(pos));
             
-            headernames.addName(this.headers.get(name,pos));
+            pos = this.headers.nextKey(pos);
         }
         
         return headernames;        
     }
-
+    
     /**
      * Returns an enumeration of all the header names this request contains. If the request has no headers, this method returns an empty enumeration. 
      * 
@@ -227,7 +422,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public Enumeration getHeaderNames() {
         return this.headers.getKeys();
     }
-
+    
     /**
      * Returns the value of the specified request header as an int. If the request does not have a header of the specified name, this method returns -1. If the header cannot be converted to an integer, this method throws a NumberFormatException. 
      * 
@@ -236,7 +431,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
      * @throws  NumberFormatException If the header value can't be converted to an int
      */
     public int getIntHeader(String name) throws NumberFormatException{
-        String header   = this.headers.get(name.toLowerCase(), 0);
+        String header   = this.headers.get(name, 0);
         
         if( header == null ) return -1;
         
@@ -246,13 +441,14 @@ public class HttpServletRequestStub implements HttpServletRequest {
     /**
      * Sets the name of the HTTP method with wich this request was made
      * 
-     * @param method The HTTP method (GET|POST|PUT)
+     * @param method The HTTP method (GET|POST|PUT|HEAD|DELETE|OPTIONS|TRACE)
      */
     public void setMethod(String method){
-        if( method.equals("GET") || method.equals("POST") || method.equals("PUT") )
+        if( method.equals("GET") || method.equals("POST") || method.equals("PUT") || method.equals("HEAD") || 
+            method.equals("DELETE") || method.equals("OPTIONS") || method.equals("TRACE") )
             this.method = method;
     }
-
+    
     /**
      * Returns the name of the HTTP method with which this request was made
      * 
@@ -270,7 +466,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public void setPathInfo(String pathInfo){
         this.pathInfo   = pathInfo;
     }
-
+    
     /**
      * Returns any extra path information associated with the URL the client sent when it made this request. The extra path information follows the servlet path but precedes the query string and will start with a "/" character. 
      * 
@@ -294,7 +490,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
         if( server != null )    this.server     = server;
         if( IP != null )        this.serverIP   = IP;
     }
-
+    
     /**
      * Returns any extra path information after the servlet name but before the query string
      * 
@@ -303,7 +499,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public String getPathTranslated() {
         return this.server+this.seperator+this.pathInfo;
     }
-
+    
     /**
      * Sets the portion of the request URI that indicates the context of the request. The context path always comes first in a request URI. 
      * The path must start with a / and may not end with a /.
@@ -325,15 +521,21 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public String getContextPath() {
         return this.context;
     }
-
+    
     /**
-     * Sets the query string that is contained in the request URL after the path.
+     * Sets the query string that is contained in the request URL after the path. 
+     * The parameters of the query string are decoded again on the next call for a parameter.
      * 
      * @param query a String containing the query string or null if the URL contains no query string. 
      */
     public void setQueryString(String query){
         if( query.equals("") )  query   = null;
         this.query  = query;
+        
+        this.queryParameters.clear();
+        this.queryDecoded       = false;
+        this.parametersDecoded  = false;
+        this.parameterMap       = null;
     }
     
     /**
@@ -353,7 +555,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public void setRemoteUser(UserStub user){
         this.user   = user;
     }
-
+    
     /**
      * Returns the login of the user making this request, if the user has been authenticated, or null if the user has not been authenticated.
      * 
@@ -366,7 +568,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
         
         return this.user.getUsername();
     }
-
+    
     /**
      * Returns a boolean indicating whether the authenticated user is included in the specified logical "role". If the user has not been authenticated, the method returns false. 
      * 
@@ -378,7 +580,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
         
         return this.user.checkRole(role);
     }
-
+    
     /**
      * Returns a java.security.Principal object containing the name of the current authenticated user. If the user has not been authenticated, the method returns null. 
      * 
@@ -392,7 +594,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
         
         return principal;
     }
-
+    
     /**
      * Returns the session ID specified by the client. This may not be the same as the ID of the current valid session for this request. If the client did not specify a session ID, this method returns null. 
      * 
@@ -403,7 +605,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
         
         return this.currentSession.getId();
     }
-
+    
     /**
      * Returns the part of this request's URL from the protocol name up to the query string in the first line of the HTTP request.
      * 
@@ -415,7 +617,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
         
         return uri+this.filename;
     }
-
+    
     /**
      * Reconstructs the URL the client used to make the request. The returned URL contains a protocol, server name, port number, and server path, but it does not include query string parameters. 
      * 
@@ -428,7 +630,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
         
         return uri.append("/").append(this.filename);
     }
-
+    
     /**
      * Returns the part of this request's URL that calls the servlet.
      * 
@@ -448,7 +650,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
         
         return path;
     }
-
+    
     /**
      * Sets the Http Session
      * 
@@ -467,15 +669,32 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public HttpSession getSession(boolean create) {
         if( this.currentSession != null )   return this.currentSession;
         
+        if( this.servletContext != null ){
+            this.currentSession = this.servletContext.getSession(this.requestedSessionID);
+            if( this.currentSession != null ){
+                this.currentSession.access();
+                
+                return this.currentSession;
+            }
+        }
+        
         if( create ){
-            this.currentSession = new HttpSessionStub(true,this.servletContext);
-            this.currentSession.setAttribute("username", this.user.getUsername());
+            if( this.servletContext != null ){
+                this.currentSession = this.servletContext.createSession();
+            }
+            else {
+                this.currentSession = new HttpSessionStub(true,this.servletContext);
+            }
+            
+            if( this.user != null ){
+                this.currentSession.setAttribute("username", this.user.getUsername());
+            }
             
             return this.currentSession;
         }
         return null;
     }
-
+    
     /**
      * Returns the current session associated with this request, or if the request does not have a session, creates one. 
      * 
@@ -484,7 +703,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public HttpSession getSession() {
         return this.getSession(true);
     }
-
+    
     /**
      * Sets the requested session ID
      * 
@@ -505,29 +724,31 @@ public class HttpServletRequestStub implements HttpServletRequest {
                    
         return false;
     }
-
+    
     
     public boolean isRequestedSessionIdFromCookie() {
+        this.decodeCookies();
         for(int i=0; i<this.cookies.length; i++){
             if( this.cookies[i].getName().equals("sessionID") ) return true;
         }        
         
         return false;
     }
-
+    
     /**
      * Checks whether the requested session ID came in as part of the request URL. 
      * 
      * @return     true if the session ID came in as part of a URL; otherwise, false
      */
     public boolean isRequestedSessionIdFromURL() {
+        this.decodeCookies();
         for(int i=0; i<this.cookies.length; i++){
             if( this.cookies[i].getName().equals("sessionID") ) return false;
         }        
         
         return true;
     }
-
+    
     /**
      * Checks whether the requested session ID came in as part of the request URL. 
      * 
@@ -539,7 +760,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
         
         return this.isRequestedSessionIdFromURL();
     }
-
+    
     /**
      * Returns the value of the named attribute as an Object, or null if no attribute of the given name exists. 
      * 
@@ -550,7 +771,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
         if( !this.attributes.containsKey(name) )    return null;
         return this.attributes.get(name);
     }
-
+    
     /**
      * Returns an Enumeration containing the names of the attributes available to this request. This method returns an empty Enumeration if the request has no attributes available to it. 
      * 
@@ -566,7 +787,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
         
         return names;
     }
-
+    
     /**
      * Returns the name of the character encoding used in the body of this request. This method returns null if the request does not specify a character encoding 
      * 
@@ -583,12 +804,29 @@ public class HttpServletRequestStub implements HttpServletRequest {
      * @throws UnsupportedEncodingException     if this ServletRequest is still in a state where a character encoding may be set, but the specified encoding is invalid
      */
     public void setCharacterEncoding(String env) throws UnsupportedEncodingException {
-        if( env.equals("") || !env.matches("^[a-zA-Z0-9]") || !env.matches("^[a-zA-Z0-9-:_]+$") )
+        if( env.equals("") || !env.matches("^[a-zA-Z0-9][a-zA-Z0-9-:_.]*$") )
             throw new UnsupportedEncodingException("Encoding "+env+" is not valid");
+        if( !Charset.isSupported(env) )
+            throw new UnsupportedEncodingException("Encoding "+env+" is not supported");
         
         this.characterEncoding  = env;
     }
-
+    
+    /**
+     * Sets the input stream with the request body. 
+     * The parameters of a form body are decoded again on the next call for a parameter.
+     * 
+     * @param stream    The input stream, or null if the request has no body
+     */
+    public void setInputStream(ServletInputStreamStub stream){
+        this.inputStream    = stream;
+        
+        this.bodyParameters.clear();
+        this.bodyDecoded        = false;
+        this.parametersDecoded  = false;
+        this.parameterMap       = null;
+    }
+    
     /**
      * Returns the length, in bytes, of the request body and made available by the input stream, or -1 if the length is not known.
      * 
@@ -599,7 +837,19 @@ public class HttpServletRequestStub implements HttpServletRequest {
         
         return this.inputStream.getLength();
     }
-
+    
+    /**
+     * Returns the length, in bytes, of the request body and made available by the input stream, or -1 if the length is not known.
+     * Unlike getContentLength() the length of bodies bigger then 2GB is returned.
+     * 
+     * @return  a long containing the length of the request body or -1 if the length is not known
+     */
+    public long getContentLengthLong() {
+        if( this.inputStream == null )  return -1;
+        
+        return this.inputStream.getLengthLong();
+    }
+    
     /**
      * Returns the MIME type of the body of the request, or null if the type is not known. 
      * 
@@ -610,7 +860,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
         
         return this.inputStream.getContentType();
     }
-
+    
     /**
      * Retrieves the body of the request as binary data using a ServletInputStream. Either this method or getReader() may be called to read the body, not both. 
      * 
@@ -627,15 +877,17 @@ public class HttpServletRequestStub implements HttpServletRequest {
     }
     
     /**
-     * Adds a parameter
+     * Adds a parameter. The added values follow the values of the query string and the form body
      * 
      * @param name      a String specifying the name of the parameter
      * @param value     a String representing the single value of the parameter
      */
     public void addParameter(String name,String value){
-        this.parameters.add(name, value);
+        this.addedParameters.add(name, value);
+        this.parametersDecoded  = false;
+        this.parameterMap       = null;
     }
-
+    
     /**
      * Returns the value of a request parameter as a String, or null if the parameter does not exist. Request parameters are extra information sent with the request. For HTTP servlets, parameters are contained in the query string or posted form data. 
      * 
@@ -643,18 +895,22 @@ public class HttpServletRequestStub implements HttpServletRequest {
      * @return          a String representing the single value of the parameter
      */
     public String getParameter(String name) {
+        this.decodeParameters();
+        
         return this.parameters.get(name, 0);
     }
-
+    
     /**
      * Returns an Enumeration of String objects containing the names of the parameters contained in this request. If the request has no parameters, the method returns an empty Enumeration. 
      * 
      * @return an Enumeration of String objects, each String containing the name of a request parameter; or an empty Enumeration if the request has no parameters
      */
     public Enumeration getParameterNames() {
+        this.decodeParameters();
+        
         return this.parameters.getKeys();
     }
-
+    
     /**
      * Returns an array of String objects containing all of the values the given request parameter has, or null if the parameter does not exist. 
      * 
@@ -662,30 +918,147 @@ public class HttpServletRequestStub implements HttpServletRequest {
      * @return  an array of String objects containing the parameter's values
      */
     public String[] getParameterValues(String name) {
-        int pos = -1;
-        ArrayList<String> values    = new ArrayList<String>();
+        this.decodeParameters();
         
-        while(true){
-            pos = this.parameters.findKey(name, pos+1);
-            if( pos == -1 ) break;
+        int amount  = this.parameters.count(name);
+        if( amount == 0 )   return null;
+        
+        String[] values = new String[amount];
+        int pos = this.parameters.findKey(name, 0);
+        for(int i=0; i<amount; i++){
+            values[i]   = this.parameters.getValue(pos);
             
-            values.add(this.parameters.get(name, pos));
+            pos = this.parameters.nextKey(pos);
         }
         
-        if( values.isEmpty() )    return null;
-        
-        return (String[]) values.toArray();
+        return values;
     }
-
+    
     /**
      * Returns a java.util.Map of the parameters of this request. 
      * 
      * @return  an immutable java.util.Map containing parameter names as keys and parameter values as map values. The keys in the parameter map are of type String. The values in the parameter map are of type String array.
      */
     public Map getParameterMap() {
-        return this.parameters.toMap();
+        this.decodeParameters();
+        
+        if( this.parameterMap == null ){
+            this.parameterMap   = this.parameters.toMap();
+        }
+        
+        return this.parameterMap;
     }
-
+    
+    /**
+     * Decodes the parameters from the query string and from an application/x-www-form-urlencoded body, if the body 
+     * is not read by the servlet. This is done on the first call for a parameter, so requests whose parameters are 
+     * never read do not decode them. The parameters are ordered as the query string first, then the body and then
+     * the parameters added with addParameter(). The query string and the body are decoded once, till they are set again.
+     */
+    private void decodeParameters(){
+        if( this.parametersDecoded )    return;
+        this.parametersDecoded  = true;
+        
+        if( !this.queryDecoded ){
+            this.queryDecoded   = true;
+            this.decodeQuery();
+        }
+        if( !this.bodyDecoded ){
+            this.bodyDecoded    = true;
+            this.decodeBody();
+        }
+        
+        this.parameters.clear();
+        this.copyParameters(this.queryParameters);
+        this.copyParameters(this.bodyParameters);
+        this.copyParameters(this.addedParameters);
+        this.parameterMap   = null;
+    }
+    
+    /**
+     * Decodes the parameters of the query string
+     */
+    private void decodeQuery(){
+        if( this.query == null )    return;
+        
+        Charset charset = this.getParameterCharset(false);
+        byte[] query    = this.query.getBytes(charset);
+        
+        FormDecoder decoder = new FormDecoder(this.queryParameters, charset);
+        decoder.update(query, 0, query.length);
+        decoder.finish();
+    }
+    
+    /**
+     * Decodes the parameters of an application/x-www-form-urlencoded body, if the body is not read by the servlet
+     */
+    private void decodeBody(){
+        String type     = this.getContentType();
+        boolean form    = ( type != null && !this.inputStream.hasLoaded() && 
+                type.regionMatches(true, 0, "application/x-www-form-urlencoded", 0, 33) );
+        if( !form ) return;
+        
+        FormDecoder decoder = new FormDecoder(this.bodyParameters, this.getParameterCharset(true));
+        ByteBuffer content  = this.inputStream.getContent();
+        if( content != null ){
+            decoder.update(content);
+        }
+        else {
+            /* Content from a channel is read once */
+            byte[] chunk = new byte[8192];
+            int read;
+            try {
+                while( (read = this.inputStream.read(chunk, 0, chunk.length)) != -1 ){
+                    decoder.update(chunk, 0, read);
+                }
+            }
+            catch(IOException e){
+                /* The parameters read so far are kept */
+                if( this.servletContext != null )   this.servletContext.log("Reading the form body failed", e);
+            }
+        }
+        decoder.finish();
+    }
+    
+    /**
+     * Adds the parameters of the given map after the decoded parameters, in insertion order
+     * 
+     * @param source    The parameters to add
+     */
+    private void copyParameters(MultikeyHashMap source){
+        for(int pos=source.getFirstPosition(); pos!=-1; pos=source.getNextPosition(pos)){
+            this.parameters.add(source.getKey(pos), source.getValue(pos));
+        }
+    }
+    
+    /**
+     * Returns the character encoding of the parameters : the encoding set with setCharacterEncoding(), for the body 
+     * the charset of the content type, or else UTF-8
+     * 
+     * @param body  True for the parameters of the body, false for the query string
+     * @return  The character encoding
+     */
+    private Charset getParameterCharset(boolean body){
+        String name = this.characterEncoding;
+        if( name == null && body ){
+            String type = this.getContentType();
+            int start   = type.toLowerCase().indexOf("charset=");
+            if( start != -1 ){
+                int end = type.indexOf(';', start);
+                name    = type.substring(start + 8, ( end == -1 ) ? type.length() : end).trim().replace("\"", "");
+            }
+        }
+        
+        if( name != null ){
+            try {
+                return Charset.forName(name);
+            }
+            catch(IllegalArgumentException e){ }
+        }
+        
+        return UTF8;
+    }
+    
     /**
      * Returns the name and version of the protocol the request uses in the form protocol/majorVersion.minorVersion, for example, HTTP/1.1.
      * 
@@ -694,7 +1067,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public String getProtocol() {
         return this.protocol+"/1.1";
     }
-
+    
     /**
      * Returns the name of the scheme used to make this request, for example, http, https, or ftp. Different schemes have different rules for constructing URLs, as noted in RFC 1738. 
      * 
@@ -703,7 +1076,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public String getScheme() {
         return this.protocol.replace("://", "").replace(":","");
     }
-
+    
     /**
      * Returns the host name of the server to which the request was sent. It is the value of the part before ":" in the Host header value, if any, or the resolved server name, or the server IP address.
      * 
@@ -712,7 +1085,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public String getServerName() {
         return this.server;
     }
-
+    
     /**
      * Returns the port number to which the request was sent. It is the value of the part after ":" in the Host header value, if any, or the server port where the client connection was accepted on.
      * 
@@ -721,7 +1094,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public int getServerPort() {
         return this.serverPort;
     }
-
+    
     /**
      * Retrieves the body of the request as character data using a BufferedReader. The reader translates the character data according to the character encoding used on the body. Either this method or getInputStream() may be called to read the body, not both. 
      * 
@@ -737,7 +1110,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
         
         return new BufferedReader(new InputStreamReader(this.inputStream.getStream()) );
     }
-
+    
     /**
      * Returns the Internet Protocol (IP) address of the client or last proxy that sent the request. 
      * 
@@ -746,7 +1119,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public String getRemoteAddr() {
         return this.remoteAddress;
     }
-
+    
     /**
      * Returns the fully qualified name of the client or the last proxy that sent the request. If the engine cannot or chooses not to resolve the hostname (to improve performance), this method returns the dotted-string form of the IP address. 
      * 
@@ -755,7 +1128,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public String getRemoteHost() {
         return this.getRemoteAddr();
     }
-
+    
     /**
      * Stores an attribute in this request. Attributes are reset between requests. This method is most often used in conjunction with RequestDispatcher. 
      * 
@@ -770,7 +1143,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
             this.attributes.put(name, o);
         }
     }
-
+    
     /**
      * Removes an attribute from this request. This method is not generally needed as attributes only persist as long as the request is being handled. 
      * 
@@ -779,7 +1152,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public void removeAttribute(String name) {
         this.attributes.remove(name);
     }
-
+    
     /**
      * Returns the preferred Locale that the client will accept content in, based on the Accept-Language header. If the client request doesn't provide an Accept-Language header, this method returns the default locale for the server. 
      * 
@@ -790,7 +1163,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
         
         return this.clientLocales.get(0);
     }
-
+    
     /**
      * Returns an Enumeration of Locale objects indicating, in decreasing order starting with the preferred locale, the locales that are acceptable to the client based on the Accept-Language header. If the client request doesn't provide an Accept-Language header, this method returns an Enumeration containing one Locale, the default locale for the server. 
      * 
@@ -810,7 +1183,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
         
         return locales;
     }
-
+    
     /**
      * Returns a boolean indicating whether this request was made using a secure channel, such as HTTPS.
      * 
@@ -819,7 +1192,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public boolean isSecure() {
         return this.protocol.contains("https");
     }
-
+    
     /**
      * Returns a RequestDispatcher object that acts as a wrapper for the resource located at the given path.
      * 
@@ -829,7 +1202,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public RequestDispatcher getRequestDispatcher(String string) {
         return null;
     }
-
+    
     /**
      * @deprecated As of Version 2.1 of the Java Servlet API, use ServletContext#getRealPath instead.
      */
@@ -838,7 +1211,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
         
         return this.servletContext.getRealPath(path);
     }
-
+    
     /**
      * Returns the Internet Protocol (IP) source port of the client or last proxy that sent the request.
      * 
@@ -847,7 +1220,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public int getRemotePort() {
         return this.clientPort;
     }
-
+    
     /**
      * Returns the host name of the Internet Protocol (IP) interface on which the request was received.
      * 
@@ -856,7 +1229,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public String getLocalName() {
         return this.server;
     }
-
+    
     /**
      * Returns the Internet Protocol (IP) address of the interface on which the request was received. 
      * 
@@ -865,7 +1238,7 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public String getLocalAddr() {
         return this.serverIP;
     }
-
+    
     /**
      * Returns the Internet Protocol (IP) port number of the interface on which the request was received.
      * 
@@ -874,5 +1247,5 @@ public class HttpServletRequestStub implements HttpServletRequest {
     public int getLocalPort() {
         return this.getServerPort();
     }
-
+    
 }
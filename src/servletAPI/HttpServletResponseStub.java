@@ -3,6 +3,8 @@ package servletAPI;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Locale;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
@@ -13,8 +15,8 @@ import javax.servlet.http.HttpServletResponse;
  * @author rachelle
  */
 public class HttpServletResponseStub implements HttpServletResponse{
-    private Cookie[] cookies;
-    private int cookiePointer;
+    private static final Locale DEFAULT_LOCALE  = new Locale("nl");
+    
     private String sessionID;
     private ServletOutputStreamStub writer;
     
@@ -25,17 +27,26 @@ public class HttpServletResponseStub implements HttpServletResponse{
     private Locale locale;
     
     public HttpServletResponseStub(){
-        this.cookies            = new Cookie[10];
-        this.cookiePointer      = 0;
-        this.needsEncoding      = false;
         this.writer             = new ServletOutputStreamStub();
         
+        this.recycle();
+    }
+    
+    /**
+     * Clears the response so it can be reused for a next request. The status, headers, cookies and body are removed 
+     * and the settings are set back to their defaults, also when the response is committed. The output stream and 
+     * its buffers are kept, so a recycled response costs no new allocations.
+     */
+    public void recycle(){
+        this.sessionID          = null;
+        this.needsEncoding      = false;
+        
         this.protocol           = "http://";
         this.server             = "localhost";  
         this.context            = "";
-        this.locale             = new Locale("nl");
+        this.locale             = DEFAULT_LOCALE;
         
-        this.writer             = new ServletOutputStreamStub();
+        this.writer.recycle();
         this.writer.setContentType("text/html");
     }
     
@@ -77,8 +88,16 @@ public class HttpServletResponseStub implements HttpServletResponse{
      * @param cookie the Cookie to return to the client
      */
     public void addCookie(Cookie cookie) {
-        this.cookies[this.cookiePointer]    = cookie;
-        this.cookiePointer++;
+        this.writer.addCookie(cookie);
+    }
+
+    /**
+     * Returns the cookies that are added to the response
+     * 
+     * @return  The cookies, in the order they are added
+     */
+    public Cookie[] getCookies(){
+        return this.writer.getCookies();
     }
 
     /**
@@ -118,7 +137,7 @@ public class HttpServletResponseStub implements HttpServletResponse{
      * @param date      the additional date value
      */
     public void setDateHeader(String name, long date) {
-        this.writer.addHeader(name,String.valueOf(date),false);
+        this.writer.addHeader(name, HttpDateFormat.format(date), false);
     }
 
     /**
@@ -128,17 +147,17 @@ public class HttpServletResponseStub implements HttpServletResponse{
      * @param date      the additional date value
      */
     public void addDateHeader(String name, long date) {
-        this.writer.addHeader(name, String.valueOf(date),true);
+        this.writer.addHeader(name, HttpDateFormat.format(date), true);
     }   
     
     /**
      * Gets the date-value from the response header with the given name. The date is specified in terms of milliseconds since the epoch. If the header had already been set, the new value overwrites the previous one. 
      * 
      * @param name      the name of the header to set
-     * @return the additional date value or null if the header does not exist
+     * @return the additional date value or -1 if the header does not exist or is not a date
      */
     public long getDateHeader(String name){
-        return new Long(this.writer.getHeader(name,0));
+        return HttpDateFormat.parse(this.writer.getHeader(name,0));
     }
     
     /**
@@ -438,7 +457,9 @@ public class HttpServletResponseStub implements HttpServletResponse{
         
         if( this.writer.getCharacterEncoding() == null )    this.writer.setCharacterEncoding("ISO-8859-1");
         
-        return new PrintWriter(this.writer.getStream());
+        this.writer.getStream();
+        
+        return new PrintWriter(new ServletWriterStub(this.writer));
     }
 
     /**
@@ -462,6 +483,7 @@ public class HttpServletResponseStub implements HttpServletResponse{
      */
     public void setBufferSize(int size) throws IllegalStateException{
         if( this.writer.hasWritten() )  throw new IllegalStateException("Error setting buffer size. Output allready send");
+        if( this.writer.getContentSize() > 0 )  throw new IllegalStateException("Error setting buffer size. Content allready written");
         
         this.writer.setBufferSize(size);
     }
@@ -474,6 +496,72 @@ public class HttpServletResponseStub implements HttpServletResponse{
     public int getBufferSize() {
         return this.writer.getBufferSize();
     }
+    
+    /**
+     * Sets the amount of body bytes that is captured in memory. The body past this size is written to a temporary file 
+     * and read back memory mapped, so very large responses can be tested without a large heap.
+     * 
+     * @param threshold     The threshold in bytes, or -1 to capture the whole body in memory
+     */
+    public void setSpillThreshold(long threshold){
+        this.writer.setSpillThreshold(threshold);
+    }
+    
+    /**
+     * Sets the sink that receives the body when the response buffer is drained. By default the body is captured 
+     * and can be read with getContent(). The sink must be set before the response is committed.
+     * 
+     * @param sink  The sink, or null to capture the body
+     * @throws IllegalStateException    If the response is already committed
+     */
+    public void setResponseSink(ResponseSink sink) throws IllegalStateException {
+        this.writer.setSink(sink);
+    }
+    
+    /**
+     * Sends the body to the given channel when the response buffer is drained, instead of capturing it. 
+     * The channel must be set before the response is committed.
+     * 
+     * @param channel   The channel, in blocking mode
+     * @throws IllegalStateException    If the response is already committed
+     */
+    public void setResponseChannel(WritableByteChannel channel) throws IllegalStateException {
+        this.writer.setChannel(channel);
+    }
+    
+    /**
+     * Returns the captured body as a read only ByteBuffer, from memory or memory mapped from the temporary file.
+     * 
+     * @return  The body
+     * @throws IOException  If the temporary file could not be mapped
+     * @throws IllegalStateException    If the body is bigger then 2GB. Use getOutputStream() and getContent(long,int) instead
+     */
+    public ByteBuffer getContent() throws IOException, IllegalStateException {
+        return this.writer.getContent();
+    }
+
+    /**
+     * Commits the response and returns the body to send over HTTP. If an error is send without content, 
+     * the body is the error message.
+     * 
+     * @return  The body
+     * @throws IOException  If the spilled body could not be mapped
+     * @throws IllegalStateException    If the body is bigger then 2GB
+     */
+    public ByteBuffer getHttpBody() throws IOException, IllegalStateException {
+        return this.writer.getHttpBody();
+    }
+    
+    /**
+     * Returns the HTTP/1.1 status line and headers of the response, ending with an empty line
+     * 
+     * @param contentLength     The length of the body in bytes
+     * @param keepAlive         False to add a Connection: close header
+     * @return  The head, valid till the next change of the response
+     */
+    public ByteBuffer getHttpHeader(long contentLength,boolean keepAlive){
+        return this.writer.getHttpHeader(contentLength, keepAlive);
+    }
 
     /**
      * Forces any content in the buffer to be written to the client. A call to this method automatically commits the response, meaning the status code and headers will be written. 
@@ -486,8 +574,12 @@ public class HttpServletResponseStub implements HttpServletResponse{
 
     /**
      * Clears the content of the underlying buffer in the response without clearing headers or status code. 
+     * 
+     * @throws IllegalStateException    if the response has already been committed
      */
-    public void resetBuffer() {
+    public void resetBuffer() throws IllegalStateException {
+        if( this.writer.hasWritten() )  throw new IllegalStateException("Error resetting buffer. Output allready send");
+        
         this.writer.resetBuffer();
     }
 
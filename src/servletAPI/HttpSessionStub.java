@@ -1,38 +1,74 @@
 package servletAPI;
 
-import java.util.Date;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.Enumeration;
-import java.util.HashMap;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionActivationListener;
 import javax.servlet.http.HttpSessionBindingEvent;
 import javax.servlet.http.HttpSessionBindingListener;
 import javax.servlet.http.HttpSessionContext;
+import javax.servlet.http.HttpSessionEvent;
 
 /**
- *
+ * Session stub.
+ * 
+ * The validity of the session is checked against the clock of its SessionManagerStub, or the system clock for a
+ * session without manager. A managed session is linked into the timing wheel of its manager by the wheel fields.
+ * The manager can passivate the session to its SessionStore : the state and the serializable attributes are
+ * written with writeObjectData() and read back with readObjectData().
+ * 
  * @author rachelle
  */
 public class HttpSessionStub implements HttpSession{
     private long creationTime;
     private String id;
-    private boolean isNewSession;
-    private long accessedTime;
+    private volatile boolean isNewSession;
+    private volatile long accessedTime;
     private ServletContext context;
-    private int maxInactiveInterval;
-    private HashMap<String,Object> attributes;
-    private long now;
+    private volatile int maxInactiveInterval;
+    private AttributeMap attributes;
+    private volatile boolean valid;
+    private SessionClock clock;
+    private SessionManagerStub manager;
+    
+    /* Set when the session could not be serialized, so the manager keeps it in memory */
+    boolean notSerializable;
+    
+    /* Timing wheel links, guarded by the manager */
+    HttpSessionStub wheelNext;
+    HttpSessionStub wheelPrevious;
+    long wheelTick;
+    int wheelLevel;
+    int wheelSlot;
     
     public HttpSessionStub(boolean newSession,ServletContext context){
-        Date date                   = new Date();
+        this(newSession, context, null);
+    }
+    
+    /**
+     * Generates a new session
+     * 
+     * @param newSession    True for a session that the client does not know yet
+     * @param context       The servlet context
+     * @param manager       The manager of the session, may be null
+     */
+    HttpSessionStub(boolean newSession,ServletContext context,SessionManagerStub manager){
+        this.manager                = manager;
+        this.clock                  = ( manager == null ) ? SessionClock.SYSTEM : manager.getClock();
+        long now                    = this.clock.currentTimeMillis();
         
-        this.now                    = date.getTime();
-        this.creationTime           = date.getTime();
-        this.accessedTime           = date.getTime();
+        this.creationTime           = now;
+        this.accessedTime           = now;
         this.isNewSession           = newSession;
+        this.valid                  = true;
+        this.wheelLevel             = -1;
         this.context                = context;
         this.maxInactiveInterval    = 300; //default timeout 5 minutes
-        this.attributes             = new HashMap<String,Object>();
+        this.attributes             = new AttributeMap();
         
         if( !this.isNewSession ){
             this.accessedTime -= (120*1000);// simulate session from 2 minutes ago
@@ -58,7 +94,7 @@ public class HttpSessionStub implements HttpSession{
     public void setId(String id){
         this.id = id;
     }
-
+    
     /**
      * Returns a string containing the unique identifier assigned to this session. The identifier is assigned by the servlet container and is implementation dependent.
      * 
@@ -67,7 +103,7 @@ public class HttpSessionStub implements HttpSession{
     public String getId() {
         return this.id;
     }
-
+    
     /**
      * Returns the last time the client sent a request associated with this session, as the number of milliseconds since midnight January 1, 1970 GMT, and marked by the time the container received the request. 
      * 
@@ -76,16 +112,39 @@ public class HttpSessionStub implements HttpSession{
     public long getLastAccessedTime() {
         return this.accessedTime;
     }
-
+    
+    /**
+     * Marks the session as accessed by a request of the client. The last accessed time is set to the current time
+     * and the session is not new anymore
+     * 
+     * @throws IllegalStateException  if this method is called on an invalidated session
+     */
+    public void access() throws IllegalStateException {
+        this.checkState();
+        
+        this.accessedTime   = this.clock.currentTimeMillis();
+        this.isNewSession   = false;
+    }
+    
+    /**
+     * Sets the manager of the session. The session uses the clock of the manager from now on
+     * 
+     * @param manager   The manager
+     */
+    void setManager(SessionManagerStub manager){
+        this.manager    = manager;
+        this.clock      = manager.getClock();
+    }
+    
     /**
      * Returns the ServletContext to which this session belongs.
-     *
+     * 
      * @return  The ServletContext object for the web application
      */
     public ServletContext getServletContext() {
         return this.context;
     }
-
+    
     /**
      * Specifies the time, in seconds, between client requests before the servlet container will invalidate this session. A negative time indicates the session should never timeout.
      * 
@@ -93,8 +152,12 @@ public class HttpSessionStub implements HttpSession{
      */
     public void setMaxInactiveInterval(int interval) {
         this.maxInactiveInterval    = interval;
+        
+        if( this.manager != null && this.valid && this.id != null ){
+            this.manager.schedule(this);
+        }
     }
-
+    
     /**
      * Returns the maximum time interval, in seconds, that the servlet container will keep this session open between client accesses. After this interval, the servlet container will invalidate the session. The maximum time interval can be set with the setMaxInactiveInterval method. A negative time indicates the session should never timeout.
      * 
@@ -103,7 +166,7 @@ public class HttpSessionStub implements HttpSession{
     public int getMaxInactiveInterval() {
         return this.maxInactiveInterval;
     }
-
+    
     /**
      * @deprecated  As of Version 2.1, this method is deprecated and has no replacement. It will be removed in a future version of the Java Servlet API. 
      * @return null
@@ -124,11 +187,11 @@ public class HttpSessionStub implements HttpSession{
     public Object getAttribute(String name) throws IllegalStateException {
         this.checkState();
         
-        if( !this.attributes.containsKey(name) )    return null;
+        if( name == null )  return null;
         
         return this.attributes.get(name);
     }
-
+    
     /**
      * @deprecated  As of Version 2.2, this method is replaced by getAttribute(java.lang.String).
      * @param name    a string specifying the name of the object
@@ -140,7 +203,7 @@ public class HttpSessionStub implements HttpSession{
         
         return this.getAttribute(name);
     }
-
+    
     /**
      * Returns an Enumeration of String objects containing the names of all the objects bound to this session.
      * 
@@ -150,16 +213,9 @@ public class HttpSessionStub implements HttpSession{
     public Enumeration getAttributeNames() throws IllegalStateException {
         this.checkState();
         
-        ServerDetailEnumeration enumeration = new ServerDetailEnumeration();
-        
-        Object[] keys   = this.attributes.keySet().toArray();
-        for(int i=0; i<keys.length; i++){
-            enumeration.addName((String) keys[i]);
-        }
-        
-        return enumeration;
+        return this.attributes.getNames();
     }
-
+    
     /**
      * @deprecated  As of Version 2.2, this method is replaced by getAttributeNames()
      * @return  an array of String objects specifying the names of all the objects bound to this session
@@ -170,15 +226,9 @@ public class HttpSessionStub implements HttpSession{
         
         this.checkState();
         
-        String[] names  = new String[this.attributes.size()];
-        Object[] keys   = this.attributes.keySet().toArray();
-        for(int i=0; i<keys.length; i++){
-            names[i]   = (String) keys[i];
-        }
-        
-        return names;
+        return this.attributes.toNameArray();
     }
-
+    
     /**
      * Binds an object to this session, using the name specified. If an object of the same name is already bound to the session, the object is replaced.
      * 
@@ -201,15 +251,19 @@ public class HttpSessionStub implements HttpSession{
             this.removeAttribute(name);
         }
         else {
-            this.attributes.put(name, value);
+            Object old  = this.attributes.put(name, value);
             
             if( value instanceof HttpSessionBindingListener ){
                 HttpSessionBindingListener caller   = (HttpSessionBindingListener) value;
-                caller.valueBound(new HttpSessionBindingEvent(this,name));
+                caller.valueBound(new HttpSessionBindingEvent(this,name,value));
+            }
+            if( old != value && old instanceof HttpSessionBindingListener ){
+                HttpSessionBindingListener caller   = (HttpSessionBindingListener) old;
+                caller.valueUnbound(new HttpSessionBindingEvent(this,name,old));
             }
         }
     }
-
+    
     /**
      * @deprecated  As of Version 2.2, this method is replaced by setAttribute(java.lang.String, java.lang.Object)
      * @param name      the name to which the object is bound; cannot be null
@@ -223,7 +277,7 @@ public class HttpSessionStub implements HttpSession{
         
         this.setAttribute(name, value);
     }
-
+    
     /**
      * Removes the object bound with the specified name from this session. If the session does not have an object bound with the specified name, this method does nothing.
      * 
@@ -233,18 +287,16 @@ After this method executes, and if the object implements HttpSessionBindingListe
      * @throws IllegalStateException  if this method is called on an invalidated session
      */
     public void removeAttribute(String name) throws IllegalStateException {
-        if( this.attributes.containsKey(name) ){
-            Object value    = this.attributes.get(name);
+        if( name == null )  return;
+        
+        Object value    = this.attributes.remove(name);
             
-            if( value instanceof HttpSessionBindingListener ){
-                HttpSessionBindingListener caller   = (HttpSessionBindingListener) value;
-                caller.valueBound(new HttpSessionBindingEvent(this,name));
-            }
-                    
-            this.attributes.remove(name);
+        if( value instanceof HttpSessionBindingListener ){
+            HttpSessionBindingListener caller   = (HttpSessionBindingListener) value;
+            caller.valueUnbound(new HttpSessionBindingEvent(this,name,value));
         }
     }
-
+    
     /**
      * @deprecated As of Version 2.2, this method is replaced by removeAttribute(java.lang.String)
      * @param name the name of the object to remove from this session
@@ -255,7 +307,7 @@ After this method executes, and if the object implements HttpSessionBindingListe
         
         this.removeAttribute(name);
     }
-
+    
     /**
      * Invalidates this session then unbinds any objects bound to it.
      * 
@@ -264,14 +316,32 @@ After this method executes, and if the object implements HttpSessionBindingListe
     public void invalidate() throws IllegalStateException {
         this.checkState();
         
-        Object[] keys   = this.attributes.keySet().toArray();
-        for(int i=0; i<keys.length; i++){
-            this.removeAttribute((String) keys[i]);
+        this.expire();
+        
+        if( this.manager != null ){
+            this.manager.removeSession(this.id);
+        }
+        else if( this.context instanceof ServletContextStub ){
+            ((ServletContextStub) this.context).removeSession(this.id);
+        }
+    }
+    
+    /**
+     * Makes the session invalid and unbinds the objects bound to it. The session is not removed from its manager
+     */
+    void expire(){
+        if( !this.valid )   return;
+        
+        if( !this.attributes.isEmpty() ){
+            String[] names  = this.attributes.toNameArray();
+            for(int i=0; i<names.length; i++){
+                this.removeAttribute(names[i]);
+            }
         }
         
-        this.now    = this.accessedTime + this.maxInactiveInterval + 10;
+        this.valid  = false;
     }
-
+    
     /**
      * Returns true if the client does not yet know about the session or if the client chooses not to join the session. For example, if the server used only cookie-based sessions, and the client had disabled the use of cookies, then a session would be new on each request.
      * 
@@ -283,15 +353,118 @@ After this method executes, and if the object implements HttpSessionBindingListe
         
         return this.isNewSession;
     }
-
+    
+    /**
+     * Calls the HttpSessionActivationListener attributes before the session is passivated
+     */
+    void passivate(){
+        if( this.attributes.isEmpty() ) return;
+        
+        HttpSessionEvent event  = new HttpSessionEvent(this);
+        String[] names          = this.attributes.toNameArray();
+        for(int i=0; i<names.length; i++){
+            Object value = this.attributes.get(names[i]);
+            if( value instanceof HttpSessionActivationListener ){
+                ((HttpSessionActivationListener) value).sessionWillPassivate(event);
+            }
+        }
+    }
+    
+    /**
+     * Calls the HttpSessionActivationListener attributes after the session is activated
+     */
+    void activate(){
+        if( this.attributes.isEmpty() ) return;
+        
+        HttpSessionEvent event  = new HttpSessionEvent(this);
+        String[] names          = this.attributes.toNameArray();
+        for(int i=0; i<names.length; i++){
+            Object value = this.attributes.get(names[i]);
+            if( value instanceof HttpSessionActivationListener ){
+                ((HttpSessionActivationListener) value).sessionDidActivate(event);
+            }
+        }
+    }
+    
+    /**
+     * Writes the state and the attributes of the session. Attributes that are not serializable are skipped
+     * 
+     * @param out   The stream
+     * @throws IOException  If the session could not be written
+     */
+    void writeObjectData(ObjectOutputStream out) throws IOException {
+        String[] names  = this.attributes.toNameArray();
+        Object[] values = new Object[names.length];
+        int count       = 0;
+        for(int i=0; i<names.length; i++){
+            Object value = this.attributes.get(names[i]);
+            if( value instanceof Serializable ){
+                names[count]    = names[i];
+                values[count]   = value;
+                count++;
+            }
+        }
+        
+        out.writeUTF(this.id);
+        out.writeLong(this.creationTime);
+        out.writeLong(this.accessedTime);
+        out.writeInt(this.maxInactiveInterval);
+        out.writeBoolean(this.isNewSession);
+        out.writeInt(count);
+        for(int i=0; i<count; i++){
+            out.writeUTF(names[i]);
+            out.writeObject(values[i]);
+        }
+    }
+    
+    /**
+     * Reads a session that is written with writeObjectData()
+     * 
+     * @param in        The stream
+     * @param context   The servlet context
+     * @param manager   The manager of the session
+     * @return  The session
+     * @throws IOException  If the session could not be read
+     * @throws ClassNotFoundException   If the class of an attribute is not found
+     */
+    static HttpSessionStub readObjectData(ObjectInputStream in,ServletContext context,SessionManagerStub manager) throws IOException, ClassNotFoundException {
+        HttpSessionStub session = new HttpSessionStub(false, context, manager);
+        
+        session.id                  = in.readUTF();
+        session.creationTime        = in.readLong();
+        session.accessedTime        = in.readLong();
+        session.maxInactiveInterval = in.readInt();
+        session.isNewSession        = in.readBoolean();
+        
+        int count = in.readInt();
+        for(int i=0; i<count; i++){
+            String name = in.readUTF();
+            session.attributes.put(name, in.readObject());
+        }
+        
+        return session;
+    }
+    
     /**
      * Checks if a session is valid
      * 
      * @throws IllegalStateException if the session is not valid
      */
     private void checkState() throws IllegalStateException {
-        if( this.maxInactiveInterval != -1 && (this.now - this.accessedTime) > this.maxInactiveInterval ){
+        if( !this.valid || this.isExpired(this.clock.currentTimeMillis()) ){
             throw new IllegalStateException("Invalid session");
         }
     }
+    
+    /**
+     * Checks if the session is idle for longer then the max inactive interval
+     * 
+     * @param now   The current time in milliseconds
+     * @return  True if the session is expired
+     */
+    boolean isExpired(long now){
+        int interval = this.maxInactiveInterval;
+        
+        return interval >= 0 && now - this.accessedTime > interval * 1000L;
+    }
 }
@@ -0,0 +1,148 @@
+package servletAPI;
+
+/**
+ * Pool of request and response pairs.
+ * 
+ * A replay of many requests can take a cleared pair with acquire() and give it back with release() when the
+ * response is read. The released pair is recycled and handed out again, so the request maps, the response
+ * headers and the body buffers are allocated only once per pooled pair.
+ * The pool can be used from more threads at the same time.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class HttpStubPool {
+    private Exchange[] pool;
+    private int poolPointer;
+    private ServletContextStub servletContext;
+    
+    /**
+     * Generates a new pool
+     * 
+     * @param size  The maximum number of idle pairs that is kept
+     */
+    public HttpStubPool(int size){
+        if( size < 1 )  size = 1;
+        
+        this.pool           = new Exchange[size];
+        this.poolPointer    = 0;
+        this.servletContext = null;
+    }
+    
+    /**
+     * Sets the servlet context that new requests are created with
+     * 
+     * @param context   The servlet context
+     */
+    public void setServletContext(ServletContextStub context){
+        this.servletContext = context;
+    }
+    
+    /**
+     * Returns a cleared request and response pair. A new pair is created if the pool is empty
+     * 
+     * @return  The pair
+     */
+    public Exchange acquire(){
+        synchronized(this){
+            if( this.poolPointer > 0 ){
+                this.poolPointer--;
+                Exchange exchange               = this.pool[this.poolPointer];
+                this.pool[this.poolPointer]     = null;
+                exchange.released               = false;
+                
+                return exchange;
+            }
+        }
+        
+        return new Exchange(this.servletContext);
+    }
+    
+    /**
+     * Recycles the given pair and gives it back to the pool. The pair and its request, response and streams may
+     * not be used after this call. If the pool is full the pair is left for the garbage collector.
+     * 
+     * @param exchange  The pair
+     * @throws IllegalStateException    If the pair is already released
+     */
+    public void release(Exchange exchange) throws IllegalStateException {
+        /* Checked and set under the lock, so a pair released twice at once is pooled only once */
+        synchronized(this){
+            if( exchange.released ) throw new IllegalStateException("Exchange is allready released");
+            exchange.released   = true;
+        }
+        
+        exchange.recycle();
+        
+        synchronized(this){
+            if( this.poolPointer < this.pool.length ){
+                this.pool[this.poolPointer] = exchange;
+                this.poolPointer++;
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of idle pairs in the pool
+     * 
+     * @return  The number of pairs
+     */
+    public synchronized int getIdle(){
+        return this.poolPointer;
+    }
+    
+    /**
+     * Removes all the idle pairs
+     */
+    public synchronized void clear(){
+        for(int i=0; i<this.poolPointer; i++){
+            this.pool[i]    = null;
+        }
+        this.poolPointer    = 0;
+    }
+    
+    /**
+     * Request and response pair
+     */
+    public static class Exchange {
+        private final HttpServletRequestStub request;
+        private final HttpServletResponseStub response;
+        private boolean released;
+        
+        /**
+         * Generates a new pair
+         * 
+         * @param context   The servlet context of the request, may be null
+         */
+        private Exchange(ServletContextStub context){
+            this.request    = new HttpServletRequestStub(context);
+            this.response   = new HttpServletResponseStub();
+            this.released   = false;
+        }
+        
+        /**
+         * Returns the request
+         * 
+         * @return  The request
+         */
+        public HttpServletRequestStub getRequest(){
+            return this.request;
+        }
+        
+        /**
+         * Returns the response
+         * 
+         * @return  The response
+         */
+        public HttpServletResponseStub getResponse(){
+            return this.response;
+        }
+        
+        /**
+         * Clears the request and the response
+         */
+        private void recycle(){
+            this.request.recycle();
+            this.response.recycle();
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package servletAPI;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Minimal pull reader for JSON documents.
+ * 
+ * The document is read as a stream of tokens, so documents of any size can be read with a small buffer.
+ * Values that are skipped with skipValue() are read without creating strings.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class JsonReader {
+    public static final int BEGIN_OBJECT    = 1;
+    public static final int END_OBJECT      = 2;
+    public static final int BEGIN_ARRAY     = 3;
+    public static final int END_ARRAY       = 4;
+    public static final int NAME            = 5;
+    public static final int STRING          = 6;
+    public static final int LITERAL         = 7;
+    public static final int END_DOCUMENT    = 8;
+    
+    private Reader reader;
+    private char[] buffer;
+    private int position;
+    private int limit;
+    private boolean[] inObject;
+    private boolean[] expectName;
+    private int depth;
+    private int peeked;
+    private StringBuilder text;
+    
+    /**
+     * Generates a new reader
+     * 
+     * @param reader    The JSON source
+     */
+    public JsonReader(Reader reader){
+        this.reader     = reader;
+        this.buffer     = new char[8192];
+        this.position   = 0;
+        this.limit      = 0;
+        this.inObject   = new boolean[32];
+        this.expectName = new boolean[32];
+        this.depth      = 0;
+        this.peeked     = 0;
+        this.text       = new StringBuilder();
+    }
+    
+    /**
+     * Returns the type of the next token without consuming it
+     * 
+     * @return  The token type
+     * @throws IOException  If the source could not be read or is not valid JSON
+     */
+    public int peek() throws IOException {
+        if( this.peeked != 0 )  return this.peeked;
+        
+        int c = this.nextNonSeparator();
+        switch( c ){
+            case -1 :
+                if( this.depth > 0 )    throw new IOException("Unexpected end of JSON document");
+                this.peeked = END_DOCUMENT;
+                break;
+            
+            case '{' :
+                this.peeked = BEGIN_OBJECT;
+                break;
+            
+            case '}' :
+                this.peeked = END_OBJECT;
+                break;
+            
+            case '[' :
+                this.peeked = BEGIN_ARRAY;
+                break;
+            
+            case ']' :
+                this.peeked = END_ARRAY;
+                break;
+            
+            case '"' :
+                this.peeked = ( this.depth > 0 && this.inObject[this.depth - 1] && this.expectName[this.depth - 1] ) ? NAME : STRING;
+                break;
+            
+            default :
+                this.peeked = LITERAL;
+                this.position--;
+        }
+        
+        return this.peeked;
+    }
+    
+    /**
+     * Consumes the begin of an object
+     * 
+     * @throws IOException  If the next token is not the begin of an object
+     */
+    public void beginObject() throws IOException {
+        this.expect(BEGIN_OBJECT);
+        this.push(true);
+    }
+    
+    /**
+     * Consumes the end of an object
+     * 
+     * @throws IOException  If the next token is not the end of an object
+     */
+    public void endObject() throws IOException {
+        this.expect(END_OBJECT);
+        this.pop();
+    }
+    
+    /**
+     * Consumes the begin of an array
+     * 
+     * @throws IOException  If the next token is not the begin of an array
+     */
+    public void beginArray() throws IOException {
+        this.expect(BEGIN_ARRAY);
+        this.push(false);
+    }
+    
+    /**
+     * Consumes the end of an array
+     * 
+     * @throws IOException  If the next token is not the end of an array
+     */
+    public void endArray() throws IOException {
+        this.expect(END_ARRAY);
+        this.pop();
+    }
+    
+    /**
+     * Checks if the current object or array has more elements
+     * 
+     * @return  True if there are more elements
+     * @throws IOException  If the source could not be read or is not valid JSON
+     */
+    public boolean hasNext() throws IOException {
+        int token = this.peek();
+        
+        return token != END_OBJECT && token != END_ARRAY && token != END_DOCUMENT;
+    }
+    
+    /**
+     * Returns the next property name
+     * 
+     * @return  The name
+     * @throws IOException  If the next token is not a name
+     */
+    public String nextName() throws IOException {
+        this.expect(NAME);
+        this.expectName[this.depth - 1]    = false;
+        
+        return this.readString();
+    }
+    
+    /**
+     * Returns the next value as a string. Numbers and the literals true and false are returned as written
+     * 
+     * @return  The value, or null for the literal null
+     * @throws IOException  If the next token is not a string or a literal
+     */
+    public String nextString() throws IOException {
+        int token = this.peek();
+        
+        if( token == STRING ){
+            this.peeked = 0;
+            this.valueRead();
+            
+            return this.readString();
+        }
+        if( token == LITERAL ){
+            this.peeked = 0;
+            this.valueRead();
+            
+            String literal = this.readLiteral();
+            
+            return literal.equals("null") ? null : literal;
+        }
+        
+        throw new IOException("Expected a value but found token "+token);
+    }
+    
+    /**
+     * Returns the next value as a number
+     * 
+     * @return  The number
+     * @throws IOException  If the next token is not a number
+     */
+    public long nextLong() throws IOException {
+        String value = this.nextString();
+        
+        try {
+            return (long) Double.parseDouble(value);
+        }
+        catch(NumberFormatException e){
+            throw new IOException("Expected a number but found "+value);
+        }
+        catch(NullPointerException e){
+            throw new IOException("Expected a number but found null");
+        }
+    }
+    
+    /**
+     * Skips the next value, including all the nested values of an object or array
+     * 
+     * @throws IOException  If the source could not be read or is not valid JSON
+     */
+    public void skipValue() throws IOException {
+        int token = this.peek();
+        this.peeked = 0;
+        
+        switch( token ){
+            case STRING :
+                this.valueRead();
+                this.skipString();
+                return;
+            
+            case LITERAL :
+                this.valueRead();
+                this.readLiteral();
+                return;
+            
+            case BEGIN_OBJECT :
+            case BEGIN_ARRAY :
+                break;
+            
+            default :
+                throw new IOException("Expected a value but found token "+token);
+        }
+        
+        this.valueRead();
+        int nesting = 1;
+        while( nesting > 0 ){
+            int c = this.read();
+            switch( c ){
+                case -1 :
+                    throw new IOException("Unexpected end of JSON document");
+                
+                case '{' :
+                case '[' :
+                    nesting++;
+                    break;
+                
+                case '}' :
+                case ']' :
+                    nesting--;
+                    break;
+                
+                case '"' :
+                    this.skipString();
+                    break;
+            }
+        }
+    }
+    
+    /**
+     * Closes the source
+     * 
+     * @throws IOException  If the source could not be closed
+     */
+    public void close() throws IOException {
+        this.reader.close();
+    }
+    
+    /**
+     * Consumes the given token
+     * 
+     * @param token     The expected token
+     * @throws IOException  If the next token is an other token
+     */
+    private void expect(int token) throws IOException {
+        int found = this.peek();
+        if( found != token )    throw new IOException("Expected token "+token+" but found token "+found);
+        
+        this.peeked = 0;
+    }
+    
+    /**
+     * Enters an object or array
+     * 
+     * @param object    True for an object, false for an array
+     */
+    private void push(boolean object){
+        if( this.depth == this.inObject.length ){
+            boolean[] inObject      = new boolean[this.depth * 2];
+            boolean[] expectName    = new boolean[this.depth * 2];
+            System.arraycopy(this.inObject, 0, inObject, 0, this.depth);
+            System.arraycopy(this.expectName, 0, expectName, 0, this.depth);
+            this.inObject   = inObject;
+            this.expectName = expectName;
+        }
+        
+        this.inObject[this.depth]   = object;
+        this.expectName[this.depth] = object;
+        this.depth++;
+    }
+    
+    /**
+     * Leaves an object or array
+     */
+    private void pop(){
+        this.depth--;
+        this.valueRead();
+    }
+    
+    /**
+     * Marks that a value is read, so the next string in an object is a name
+     */
+    private void valueRead(){
+        if( this.depth > 0 && this.inObject[this.depth - 1] ){
+            this.expectName[this.depth - 1]    = true;
+        }
+    }
+    
+    /**
+     * Reads a string, the opening quote is allready read
+     * 
+     * @return  The string
+     * @throws IOException  If the string is not terminated
+     */
+    private String readString() throws IOException {
+        this.text.setLength(0);
+        
+        while( true ){
+            int c = this.read();
+            
+            switch( c ){
+                case -1 :
+                    throw new IOException("Unterminated string");
+                
+                case '"' :
+                    return this.text.toString();
+                
+                case '\\' :
+                    c = this.read();
+                    switch( c ){
+                        case 'b' :  this.text.append('\b'); break;
+                        case 'f' :  this.text.append('\f'); break;
+                        case 'n' :  this.text.append('\n'); break;
+                        case 'r' :  this.text.append('\r'); break;
+                        case 't' :  this.text.append('\t'); break;
+                        case 'u' :
+                            int code = 0;
+                            for(int i=0; i<4; i++){
+                                int digit = Character.digit(this.read(), 16);
+                                if( digit == -1 )   throw new IOException("Invalid unicode escape");
+                                
+                                code = (code << 4) + digit;
+                            }
+                            this.text.append((char) code);
+                            break;
+                        
+                        case -1 :
+                            throw new IOException("Unterminated string");
+                        
+                        default :
+                            this.text.append((char) c);
+                    }
+                    break;
+                
+                default :
+                    this.text.append((char) c);
+            }
+        }
+    }
+    
+    /**
+     * Skips a string, the opening quote is allready read
+     * 
+     * @throws IOException  If the string is not terminated
+     */
+    private void skipString() throws IOException {
+        int c;
+        while( (c = this.read()) != '"' ){
+            if( c == -1 )   throw new IOException("Unterminated string");
+            if( c == '\\' ) this.read();
+        }
+    }
+    
+    /**
+     * Reads a number or literal
+     * 
+     * @return  The literal as written
+     * @throws IOException  If the source could not be read
+     */
+    private String readLiteral() throws IOException {
+        this.text.setLength(0);
+        
+        int c;
+        while( (c = this.read()) != -1 ){
+            if( c == ',' || c == '}' || c == ']' || c == ':' || c <= ' ' ){
+                this.position--;
+                break;
+            }
+            
+            this.text.append((char) c);
+        }
+        if( this.text.length() == 0 )   throw new IOException("Expected a value");
+        
+        return this.text.toString();
+    }
+    
+    /**
+     * Reads the next character that is not white space, a comma or a colon
+     * 
+     * @return  The character or -1 at the end of the source
+     * @throws IOException  If the source could not be read
+     */
+    private int nextNonSeparator() throws IOException {
+        int c;
+        do {
+            c = this.read();
+        } while( c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == ',' || c == ':' || c == '\uFEFF' );
+        
+        return c;
+    }
+    
+    /**
+     * Reads the next character
+     * 
+     * @return  The character or -1 at the end of the source
+     * @throws IOException  If the source could not be read
+     */
+    private int read() throws IOException {
+        if( this.position == this.limit ){
+            this.limit      = this.reader.read(this.buffer, 0, this.buffer.length);
+            this.position   = 0;
+            
+            if( this.limit <= 0 ){
+                this.limit  = 0;
+                
+                return -1;
+            }
+        }
+        
+        return this.buffer[this.position++];
+    }
+}
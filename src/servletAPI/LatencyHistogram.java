@@ -0,0 +1,169 @@
+package servletAPI;
+
+/**
+ * Histogram of latencies in microseconds.
+ * 
+ * The values below 32 have their own bucket, larger values are counted in 16 buckets per power of two. The
+ * relative error of a percentile is therefore at most 1/16 and the histogram has a fixed size of 960 counters,
+ * independent of the number of recorded values.
+ * The histogram is not thread-safe.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class LatencyHistogram {
+    private static final int LINEAR     = 32;
+    private static final int SUB_BITS   = 4;
+    private static final int BUCKETS    = LINEAR + (63 - 5) * 16;
+    
+    private long[] counts;
+    private long count;
+    private long total;
+    private long min;
+    private long max;
+    
+    /**
+     * Generates a new empty histogram
+     */
+    public LatencyHistogram(){
+        this.counts = new long[BUCKETS];
+        this.count  = 0;
+        this.total  = 0;
+        this.min    = Long.MAX_VALUE;
+        this.max    = 0;
+    }
+    
+    /**
+     * Records a latency
+     * 
+     * @param micros    The latency in microseconds
+     */
+    public void record(long micros){
+        if( micros < 0 )    micros = 0;
+        
+        this.counts[this.bucket(micros)]++;
+        this.count++;
+        this.total  += micros;
+        if( micros < this.min ) this.min = micros;
+        if( micros > this.max ) this.max = micros;
+    }
+    
+    /**
+     * Adds all the values of the given histogram
+     * 
+     * @param histogram     The histogram
+     */
+    public void merge(LatencyHistogram histogram){
+        for(int i=0; i<BUCKETS; i++){
+            this.counts[i]  += histogram.counts[i];
+        }
+        this.count  += histogram.count;
+        this.total  += histogram.total;
+        if( histogram.min < this.min )  this.min = histogram.min;
+        if( histogram.max > this.max )  this.max = histogram.max;
+    }
+    
+    /**
+     * Returns the number of recorded values
+     * 
+     * @return  The number of values
+     */
+    public long getCount(){
+        return this.count;
+    }
+    
+    /**
+     * Returns the smallest recorded value
+     * 
+     * @return  The value in microseconds, or 0 if the histogram is empty
+     */
+    public long getMin(){
+        return ( this.count == 0 ) ? 0 : this.min;
+    }
+    
+    /**
+     * Returns the largest recorded value
+     * 
+     * @return  The value in microseconds
+     */
+    public long getMax(){
+        return this.max;
+    }
+    
+    /**
+     * Returns the mean of the recorded values
+     * 
+     * @return  The mean in microseconds, or 0 if the histogram is empty
+     */
+    public double getMean(){
+        return ( this.count == 0 ) ? 0 : (double) this.total / this.count;
+    }
+    
+    /**
+     * Returns the value below which the given percentage of the recorded values falls
+     * 
+     * @param percentile    The percentage (0-100)
+     * @return  The upper bound of the bucket of the percentile in microseconds, or 0 if the histogram is empty
+     * @throws IllegalArgumentException     If the percentage is not between 0 and 100
+     */
+    public long getPercentile(double percentile) throws IllegalArgumentException {
+        if( percentile < 0 || percentile > 100 )    throw new IllegalArgumentException("Invalid percentile "+percentile);
+        if( this.count == 0 )   return 0;
+        
+        long rank = (long) Math.ceil(percentile / 100 * this.count);
+        if( rank < 1 )  rank = 1;
+        
+        long seen = 0;
+        for(int i=0; i<BUCKETS; i++){
+            seen    += this.counts[i];
+            if( seen >= rank ){
+                return Math.max(this.min, Math.min(this.max, this.upperBound(i)));
+            }
+        }
+        
+        return this.max;
+    }
+    
+    /**
+     * Clears the histogram
+     */
+    public void clear(){
+        for(int i=0; i<BUCKETS; i++){
+            this.counts[i]  = 0;
+        }
+        this.count  = 0;
+        this.total  = 0;
+        this.min    = Long.MAX_VALUE;
+        this.max    = 0;
+    }
+    
+    /**
+     * Returns the bucket of the given value
+     * 
+     * @param value     The value, not negative
+     * @return  The bucket index
+     */
+    private int bucket(long value){
+        if( value < LINEAR )    return (int) value;
+        
+        int msb     = 63 - Long.numberOfLeadingZeros(value);
+        int shift   = msb - SUB_BITS;
+        
+        return LINEAR + (msb - 5) * 16 + (int) ((value >> shift) & 15);
+    }
+    
+    /**
+     * Returns the largest value of the given bucket
+     * 
+     * @param bucket    The bucket index
+     * @return  The value
+     */
+    private long upperBound(int bucket){
+        if( bucket < LINEAR )   return bucket;
+        
+        int msb     = (bucket - LINEAR) / 16 + 5;
+        int sub     = (bucket - LINEAR) % 16;
+        int shift   = msb - SUB_BITS;
+        
+        return ((16L + sub + 1) << shift) - 1;
+    }
+}
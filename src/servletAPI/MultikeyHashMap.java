@@ -1,37 +1,119 @@
 package servletAPI;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.Map;
 
 /**
- *
+ * Insertion ordered map that allows the same key more then once.
+ * 
+ * The values are stored in positions. A hash index on the keys points to the first and last position
+ * of every key and the positions with the same key are chained, so the first value of a key is found
+ * in constant time and the k values of a key are walked in O(k).
+ * 
+ * The insertion order is kept in a separate chain, so deleted positions are put on a free list and
+ * reused by the next add. Once the deleted positions pass COMPACT_RATIO of the used positions the
+ * values are moved together and the arrays are shrunk.
+ * 
+ * A map that ignores case compares the keys with equalsIgnoreCase and hashes the keys folded to lower case,
+ * so a lookup never creates a lower case copy of the key. Every value keeps the key spelling it was added with.
+ * 
  * @author Rachelle Scheijen
  */
 public class MultikeyHashMap {
-    private ArrayList<String> names;
-    private ArrayList<String> values;
+    private static final int MINIMAL_CAPACITY = 8;
+    private static final float COMPACT_RATIO  = 0.5f;
+    
+    private String[] names;
+    private String[] values;
+    private int[] keyOfPosition;
+    private int[] nextPosition;
+    private int[] previousPosition;
+    private int[] orderNext;
+    private int[] orderPrevious;
+    private int[] freePositions;
+    private int freeCounter     = 0;
+    private int orderFirst      = -1;
+    private int orderLast       = -1;
     private int counter         = 0;
     private int lastPosition    = 0;
     
+    /* Key index */
+    private int[] table;
+    private String[] keys;
+    private int[] keyHashes;
+    private int[] keyFirst;
+    private int[] keyLast;
+    private int[] keyCount;
+    private int[] freeKeys;
+    private int freeKeyCounter  = 0;
+    private int keyPosition     = 0;
+    private boolean ignoreCase;
+    
     public MultikeyHashMap(){
-        this.names  = new ArrayList<String>(50);
-        this.values = new ArrayList<String>(50);
+        this(MINIMAL_CAPACITY);
+    }
+    
+    /**
+     * Generates a new HashMap with room for the given number of values
+     * 
+     * @param capacity  The initial capacity
+     */
+    public MultikeyHashMap(int capacity){
+        this(capacity, false);
+    }
+    
+    /**
+     * Generates a new HashMap with room for the given number of values
+     * 
+     * @param capacity      The initial capacity
+     * @param ignoreCase    True to compare the keys case insensitive
+     */
+    public MultikeyHashMap(int capacity,boolean ignoreCase){
+        this.ignoreCase = ignoreCase;
+        if( capacity < MINIMAL_CAPACITY )   capacity = MINIMAL_CAPACITY;
+        
+        this.names              = new String[capacity];
+        this.values             = new String[capacity];
+        this.keyOfPosition      = new int[capacity];
+        this.nextPosition       = new int[capacity];
+        this.previousPosition   = new int[capacity];
+        this.orderNext          = new int[capacity];
+        this.orderPrevious      = new int[capacity];
+        this.freePositions      = new int[capacity];
+        
+        this.keys           = new String[capacity];
+        this.keyHashes      = new int[capacity];
+        this.keyFirst       = new int[capacity];
+        this.keyLast        = new int[capacity];
+        this.keyCount       = new int[capacity];
+        this.freeKeys       = new int[capacity];
+        this.table          = new int[this.tableSize(capacity)];
     }
     
     /**
      * Clears the HashMap
      */
     public void clear(){
-        this.names.clear();
-        this.values.clear();
+        Arrays.fill(this.names, 0, this.lastPosition, null);
+        Arrays.fill(this.values, 0, this.lastPosition, null);
+        Arrays.fill(this.keys, 0, this.keyPosition, null);
+        Arrays.fill(this.table, 0);
         
         this.counter        = 0;
         this.lastPosition   = 0;
+        this.freeCounter    = 0;
+        this.orderFirst     = -1;
+        this.orderLast      = -1;
+        this.keyPosition    = 0;
+        this.freeKeyCounter = 0;
     }
     
     /**
-     * Finds the key position from the given key
+     * Finds the key position from the given key.
+     * 
+     * Positions are reused after a delete, so they do not follow the insertion order. Use 0 as offset to
+     * get the first value and a found position plus one to get the value that was added after it.
+     * Positions are only valid until the next delete, because a delete can compact the map.
      * 
      * @param   key     The key to search on
      * @param   offset  The position to search from
@@ -39,13 +121,98 @@ public class MultikeyHashMap {
      * @return  The position or -1 if the key does not (more) exist.
      */
     public int findKey(String key,int offset){
+        if( key == null )   return -1;
         if( offset < 0 )    offset = 0;
         
-        for(int i=offset; i<this.lastPosition; i++){
-            if( this.names.get(i).equals(key) ) return i;
+        int keyIndex = this.findKeyIndex(key);
+        if( keyIndex == -1 )    return -1;
+        
+        int pos = this.keyFirst[keyIndex];
+        if( offset == 0 )   return pos;
+        
+        /* Continue from the previous position, the common way to walk all the values of a key */
+        int previous = offset - 1;
+        if( previous < this.lastPosition && this.names[previous] != null && this.keyOfPosition[previous] == keyIndex ){
+            return this.nextPosition[previous];
         }
         
-        return -1;
+        while( pos != -1 && pos < offset ){
+            pos = this.nextPosition[pos];
+        }
+        
+        return pos;
+    }
+    
+    /**
+     * Returns the next position with the same key as the given position
+     * 
+     * @param position  The position of a present key
+     * @return  The next position or -1 if the key does not (more) exist.
+     */
+    public int nextKey(int position){
+        if( position < 0 || position >= this.lastPosition || this.names[position] == null )  return -1;
+        
+        return this.nextPosition[position];
+    }
+    
+    /**
+     * Returns the number of values with the given key
+     * 
+     * @param key   The key to search on
+     * @return  The number of values
+     */
+    public int count(String key){
+        if( key == null )   return 0;
+        
+        int keyIndex = this.findKeyIndex(key);
+        if( keyIndex == -1 )    return 0;
+        
+        return this.keyCount[keyIndex];
+    }
+    
+    /**
+     * Returns the position of the first added value, to walk all the values in insertion order
+     * 
+     * @return  The position or -1 if the map is empty
+     */
+    public int getFirstPosition(){
+        return this.orderFirst;
+    }
+    
+    /**
+     * Returns the position of the value that is added after the value on the given position
+     * 
+     * @param position  The position of a present value
+     * @return  The position or -1 if there are no more values
+     */
+    public int getNextPosition(int position){
+        if( position < 0 || position >= this.lastPosition || this.names[position] == null )  return -1;
+        
+        return this.orderNext[position];
+    }
+    
+    /**
+     * Returns the key on the given position
+     * 
+     * @param position  The position
+     * @return  The key or null if the position is empty
+     */
+    public String getKey(int position){
+        if( position < 0 || position >= this.lastPosition ) return null;
+        
+        return this.names[position];
+    }
+    
+    /**
+     * Returns the value on the given position
+     * 
+     * @param position  The position
+     * @return  The value or null if the position is empty
+     */
+    public String getValue(int position){
+        if( position < 0 || position >= this.lastPosition ) return null;
+        
+        return this.values[position];
     }
     
     /**
@@ -60,27 +227,63 @@ public class MultikeyHashMap {
         int pos = this.findKey(key,offset);
         if( pos == -1 ) return null;
         
-        return this.values.get(pos);
+        return this.values[pos];
     }
-        
+    
     /**
      * Adds a new value to the HashMap
      * 
      * @param key       The key
      * @param value     The value
+     * @throws NullPointerException if the key is null
      */
-    public void add(String key,String value){
-        this.names.add(key);
-        this.values.add(value);
+    public void add(String key,String value) throws NullPointerException {
+        if( key == null )   throw new NullPointerException("Key may not be null");
         
-        this.counter++;
-        this.lastPosition++;
+        int pos;
+        if( this.freeCounter > 0 ){
+            pos = this.freePositions[--this.freeCounter];
+        }
+        else {
+            if( this.lastPosition == this.names.length ){
+                this.resize(this.names.length * 2);
+            }
+            
+            pos = this.lastPosition++;
+        }
+        
+        int keyIndex    = this.findKeyIndex(key);
+        if( keyIndex == -1 ){
+            keyIndex    = this.addKeyIndex(key);
+            
+            this.keyFirst[keyIndex]     = pos;
+            this.previousPosition[pos]  = -1;
+        }
+        else {
+            int last    = this.keyLast[keyIndex];
+            
+            this.nextPosition[last]     = pos;
+            this.previousPosition[pos]  = last;
+        }
         
-        /* Check for hashmap size */
-        if( this.names.size()/this.lastPosition < 0.1 ){
-            this.names.ensureCapacity(this.names.size()*2);
-            this.values.ensureCapacity(this.values.size()*2);
+        this.names[pos]             = key;
+        this.values[pos]            = value;
+        this.keyOfPosition[pos]     = keyIndex;
+        this.nextPosition[pos]      = -1;
+        this.keyLast[keyIndex]      = pos;
+        this.keyCount[keyIndex]++;
+        
+        this.orderPrevious[pos]     = this.orderLast;
+        this.orderNext[pos]         = -1;
+        if( this.orderLast == -1 ){
+            this.orderFirst = pos;
+        }
+        else {
+            this.orderNext[this.orderLast]  = pos;
         }
+        this.orderLast  = pos;
+        
+        this.counter++;
     }
     
     /**
@@ -93,9 +296,10 @@ public class MultikeyHashMap {
     public void addUnique(String key,String value){
         int pos = this.findKey(key, 0);
         while( pos != -1 ){
-            this.delete(key, pos);
+            int next    = this.nextPosition[pos];
+            this.deletePosition(pos);
             
-            pos = this.findKey(key,pos);
+            pos = next;
         }
         
         this.add(key, value);
@@ -112,7 +316,7 @@ public class MultikeyHashMap {
     public void update(String key,String value,int offset){
         int pos = this.findKey(key, offset);
         if( pos != -1 ){
-            this.values.set(pos, value);
+            this.values[pos]    = value;
         }
         else {
             this.add(key, value);
@@ -128,56 +332,364 @@ public class MultikeyHashMap {
     public void delete(String key,int offset){
         int pos = this.findKey(key,offset);
         if( pos != -1 ){
-            this.names.set(pos, null);
-            this.values.set(pos,null);
+            this.deletePosition(pos);
             
-            this.counter--;
+            if( this.lastPosition > MINIMAL_CAPACITY && this.freeCounter > this.lastPosition * COMPACT_RATIO ){
+                this.compact();
+            }
         }
     }
     
     /**
-     * Returns an enumeration of all the keys in the hashmap
+     * Returns an enumeration of all the keys in the hashmap.
+     * Every key is returned once, in the order the keys are first added.
      * 
      * @return an enumeration of all the keys in the hashmap. if the hashmap has no keys, an empty enumeration
      */
     public Enumeration getKeys() {
         ServerDetailEnumeration headernames = new ServerDetailEnumeration();
         
-        for(int i=0; i<this.names.size(); i++){
-            headernames.addName(this.names.get(i));
+        for(int pos=this.orderFirst; pos!=-1; pos=this.orderNext[pos]){
+            if( this.keyFirst[this.keyOfPosition[pos]] == pos ){
+                headernames.addName(this.names[pos]);
+            }
         }
         
         return headernames;
     }
-
+    
     /**
-     * Returns the number of elements 
+     * Returns the number of elements
      * 
      * @return The number of elements
      */
     public int size(){
         return this.counter;
     }
-
+    
     /**
-     * Returns a map representing the HashMap
+     * Returns a read only map representing the HashMap. 
+     * Every key is mapped on a String[] with its values, in insertion order.
      * 
      * @return  The map
      */
-    public Map toMap() {
-        ArrayList<String> namesTemp     = new ArrayList<String>();
-        ArrayList<String> valuesTemp    = new ArrayList<String>();
+    public StringMap toMap() {
+        int amount              = this.keyPosition - this.freeKeyCounter;
+        String[] namesTemp      = new String[amount];
+        String[][] valuesTemp   = new String[amount][];
         
-        for(int i=0; i<this.lastPosition; i++){
-            if( this.names.get(i) == null ) continue;
+        int i = 0;
+        for(int pos=this.orderFirst; pos!=-1; pos=this.orderNext[pos]){
+            int keyIndex    = this.keyOfPosition[pos];
+            if( this.keyFirst[keyIndex] != pos )    continue;
             
-            namesTemp.add(this.names.get(i));
-            valuesTemp.add(this.values.get(i));
+            String[] keyValues  = new String[this.keyCount[keyIndex]];
+            int value = 0;
+            for(int j=pos; j!=-1; j=this.nextPosition[j]){
+                keyValues[value++]  = this.values[j];
+            }
+            
+            namesTemp[i]    = this.names[pos];
+            valuesTemp[i]   = keyValues;
+            i++;
         }
         
-        namesTemp.trimToSize();
-        valuesTemp.trimToSize();
-        
         return  new StringMap(namesTemp,valuesTemp);
     }
+    
+    /**
+     * Removes the value on the given position from the key and order chains and puts the position on the free list
+     * 
+     * @param pos   The position
+     */
+    private void deletePosition(int pos){
+        int keyIndex    = this.keyOfPosition[pos];
+        int previous    = this.previousPosition[pos];
+        int next        = this.nextPosition[pos];
+        
+        if( previous == -1 ){
+            this.keyFirst[keyIndex]     = next;
+        }
+        else {
+            this.nextPosition[previous] = next;
+        }
+        if( next == -1 ){
+            this.keyLast[keyIndex]      = previous;
+        }
+        else {
+            this.previousPosition[next] = previous;
+        }
+        
+        previous    = this.orderPrevious[pos];
+        next        = this.orderNext[pos];
+        if( previous == -1 ){
+            this.orderFirst = next;
+        }
+        else {
+            this.orderNext[previous]    = next;
+        }
+        if( next == -1 ){
+            this.orderLast  = previous;
+        }
+        else {
+            this.orderPrevious[next]    = previous;
+        }
+        
+        this.names[pos]     = null;
+        this.values[pos]    = null;
+        this.freePositions[this.freeCounter++]  = pos;
+        this.counter--;
+        
+        this.keyCount[keyIndex]--;
+        if( this.keyCount[keyIndex] == 0 ){
+            this.removeKeyIndex(keyIndex);
+        }
+    }
+    
+    /**
+     * Resizes the position arrays
+     * 
+     * @param capacity  The new capacity
+     */
+    private void resize(int capacity){
+        this.names              = Arrays.copyOf(this.names, capacity);
+        this.values             = Arrays.copyOf(this.values, capacity);
+        this.keyOfPosition      = Arrays.copyOf(this.keyOfPosition, capacity);
+        this.nextPosition       = Arrays.copyOf(this.nextPosition, capacity);
+        this.previousPosition   = Arrays.copyOf(this.previousPosition, capacity);
+        this.orderNext          = Arrays.copyOf(this.orderNext, capacity);
+        this.orderPrevious      = Arrays.copyOf(this.orderPrevious, capacity);
+        this.freePositions      = Arrays.copyOf(this.freePositions, capacity);
+    }
+    
+    /**
+     * Moves the values to the positions 0 till size() in insertion order, empties the free list
+     * and shrinks the arrays if they are more then twice as big as needed
+     */
+    private void compact(){
+        String[] oldNames   = this.names;
+        String[] oldValues  = this.values;
+        int[] oldKeys       = this.keyOfPosition;
+        int[] oldPrevious   = this.previousPosition;
+        int[] oldOrder      = this.orderNext;
+        int capacity        = this.names.length;
+        
+        while( capacity > MINIMAL_CAPACITY && capacity >= this.counter * 4 ){
+            capacity >>= 1;
+        }
+        
+        this.names              = new String[capacity];
+        this.values             = new String[capacity];
+        this.keyOfPosition      = new int[capacity];
+        this.nextPosition       = new int[capacity];
+        this.previousPosition   = new int[capacity];
+        this.orderNext          = new int[capacity];
+        this.orderPrevious      = new int[capacity];
+        this.freePositions      = new int[capacity];
+        
+        int pos = 0;
+        for(int i=this.orderFirst; i!=-1; i=oldOrder[i]){
+            int keyIndex    = oldKeys[i];
+            
+            this.names[pos]         = oldNames[i];
+            this.values[pos]        = oldValues[i];
+            this.keyOfPosition[pos] = keyIndex;
+            this.nextPosition[pos]  = -1;
+            this.orderNext[pos]     = pos + 1;
+            this.orderPrevious[pos] = pos - 1;
+            
+            if( oldPrevious[i] == -1 ){
+                this.keyFirst[keyIndex]     = pos;
+                this.previousPosition[pos]  = -1;
+            }
+            else {
+                int last    = this.keyLast[keyIndex];
+                
+                this.nextPosition[last]     = pos;
+                this.previousPosition[pos]  = last;
+            }
+            this.keyLast[keyIndex]  = pos;
+            
+            pos++;
+        }
+        
+        this.lastPosition   = pos;
+        this.freeCounter    = 0;
+        this.orderFirst     = ( pos == 0 ) ? -1 : 0;
+        this.orderLast      = pos - 1;
+        if( pos > 0 ){
+            this.orderNext[pos - 1] = -1;
+        }
+    }
+    
+    /**
+     * Returns the size of the hash table for the given number of keys
+     * 
+     * @param capacity  The number of keys
+     * @return  The table size, a power of two
+     */
+    private int tableSize(int capacity){
+        int size = MINIMAL_CAPACITY * 2;
+        while( size < capacity * 2 ){
+            size <<= 1;
+        }
+        
+        return size;
+    }
+    
+    /**
+     * Spreads the hash code of the key over the table
+     * 
+     * @param key   The key
+     * @return  The hash
+     */
+    private int hash(String key){
+        int h;
+        if( this.ignoreCase ){
+            h = 0;
+            int length = key.length();
+            for(int i=0; i<length; i++){
+                char c = key.charAt(i);
+                if( c >= 'A' && c <= 'Z' ){
+                    c   += 32;
+                }
+                else if( c >= 128 ){
+                    c   = Character.toLowerCase(Character.toUpperCase(c));
+                }
+                h = 31 * h + c;
+            }
+        }
+        else {
+            h = key.hashCode();
+        }
+        
+        return h ^ (h >>> 16);
+    }
+    
+    /**
+     * Finds the index of the given key
+     * 
+     * @param key   The key
+     * @return  The key index or -1 if the key is not present
+     */
+    private int findKeyIndex(String key){
+        int hash    = this.hash(key);
+        int mask    = this.table.length - 1;
+        int slot    = hash & mask;
+        
+        int keyIndex;
+        while( (keyIndex = this.table[slot]) != 0 ){
+            keyIndex--;
+            if( this.keyHashes[keyIndex] == hash && this.equalKeys(this.keys[keyIndex], key) ) return keyIndex;
+            
+            slot = (slot + 1) & mask;
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Compares two keys
+     * 
+     * @param key       The key in the index
+     * @param other     The searched key
+     * @return  True if the keys are equal
+     */
+    private boolean equalKeys(String key,String other){
+        if( key == other )  return true;
+        
+        return this.ignoreCase ? key.equalsIgnoreCase(other) : key.equals(other);
+    }
+    
+    /**
+     * Adds the given key to the index
+     * 
+     * @param key   The key
+     * @return  The new key index
+     */
+    private int addKeyIndex(String key){
+        int keyIndex;
+        if( this.freeKeyCounter > 0 ){
+            keyIndex    = this.freeKeys[--this.freeKeyCounter];
+        }
+        else {
+            if( this.keyPosition == this.keys.length ){
+                int capacity    = this.keys.length * 2;
+                
+                this.keys       = Arrays.copyOf(this.keys, capacity);
+                this.keyHashes  = Arrays.copyOf(this.keyHashes, capacity);
+                this.keyFirst   = Arrays.copyOf(this.keyFirst, capacity);
+                this.keyLast    = Arrays.copyOf(this.keyLast, capacity);
+                this.keyCount   = Arrays.copyOf(this.keyCount, capacity);
+                this.freeKeys   = Arrays.copyOf(this.freeKeys, capacity);
+                this.rehash(this.tableSize(capacity));
+            }
+            
+            keyIndex    = this.keyPosition++;
+        }
+        
+        int hash    = this.hash(key);
+        this.keys[keyIndex]         = key;
+        this.keyHashes[keyIndex]    = hash;
+        this.keyCount[keyIndex]     = 0;
+        
+        int mask    = this.table.length - 1;
+        int slot    = hash & mask;
+        while( this.table[slot] != 0 ){
+            slot = (slot + 1) & mask;
+        }
+        this.table[slot]    = keyIndex + 1;
+        
+        return keyIndex;
+    }
+    
+    /**
+     * Removes the key with the given index from the index.
+     * The following slots are shifted back so no tombstones are left in the table.
+     * 
+     * @param keyIndex  The key index
+     */
+    private void removeKeyIndex(int keyIndex){
+        int mask    = this.table.length - 1;
+        int slot    = this.keyHashes[keyIndex] & mask;
+        while( this.table[slot] != keyIndex + 1 ){
+            slot = (slot + 1) & mask;
+        }
+        
+        int next    = (slot + 1) & mask;
+        while( this.table[next] != 0 ){
+            int home    = this.keyHashes[this.table[next] - 1] & mask;
+            
+            /* Move the entry back if its home slot is not between the empty slot and its current slot */
+            if( ((next - home) & mask) >= ((next - slot) & mask) ){
+                this.table[slot]    = this.table[next];
+                slot                = next;
+            }
+            next = (next + 1) & mask;
+        }
+        this.table[slot]    = 0;
+        
+        this.keys[keyIndex] = null;
+        this.freeKeys[this.freeKeyCounter++]    = keyIndex;
+    }
+    
+    /**
+     * Rebuilds the hash table with the given size
+     * 
+     * @param size  The new table size
+     */
+    private void rehash(int size){
+        this.table  = new int[size];
+        int mask    = size - 1;
+        
+        for(int i=0; i<this.keyPosition; i++){
+            if( this.keys[i] == null )  continue;
+            
+            int slot    = this.keyHashes[i] & mask;
+            while( this.table[slot] != 0 ){
+                slot = (slot + 1) & mask;
+            }
+            this.table[slot]    = i + 1;
+        }
+    }
 }
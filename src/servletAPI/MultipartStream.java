@@ -0,0 +1,362 @@
+package servletAPI;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parser for multipart/form-data bodies.
+ * 
+ * The body is read through a buffer of a fixed size. The delimiter CRLF--boundary is searched with the
+ * Boyer-Moore-Horspool algorithm, so most bytes of a part are skipped instead of compared. The content of a part
+ * is passed on as soon as it is certain that it is not the start of a delimiter : the parser never holds more
+ * than one buffer of the body, whatever the size of the parts.
+ * 
+ * nextPart() gives the parts one at a time as streams. readParts() stores all the parts and writes the parts that
+ * are bigger than the spill threshold to temporary files.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class MultipartStream {
+    private static final Charset LATIN          = Charset.forName("ISO-8859-1");
+    private static final int BUFFER_SIZE        = 16384;
+    private static final int MAX_HEADER_SIZE    = 8192;
+    
+    private InputStream input;
+    private byte[] delimiter;
+    private int[] skip;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean eof;
+    private boolean finished;
+    private int safeLimit;
+    private boolean delimiterFound;
+    private PartInputStream current;
+    
+    /**
+     * Generates a new parser for the body of the given request
+     * 
+     * @param request   The request with a multipart/form-data body
+     * @throws IOException  If the body could not be opened
+     * @throws IllegalArgumentException     If the request is not a multipart request
+     */
+    public MultipartStream(HttpServletRequestStub request) throws IOException, IllegalArgumentException {
+        this(request.getInputStream(), getBoundary(request.getContentType()));
+    }
+    
+    /**
+     * Generates a new parser
+     * 
+     * @param input     The multipart body
+     * @param boundary  The boundary from the content type
+     * @throws IllegalArgumentException     If the boundary is empty or longer then 70 characters
+     */
+    public MultipartStream(InputStream input,String boundary) throws IllegalArgumentException {
+        if( boundary == null || boundary.length() == 0 || boundary.length() > 70 ){
+            throw new IllegalArgumentException("Invalid multipart boundary "+boundary);
+        }
+        
+        this.input      = input;
+        this.delimiter  = ("\r\n--"+boundary).getBytes(LATIN);
+        this.buffer     = new byte[Math.max(BUFFER_SIZE, this.delimiter.length * 4)];
+        this.finished   = false;
+        this.eof        = false;
+        
+        /* Bad character skip table */
+        this.skip       = new int[256];
+        int last        = this.delimiter.length - 1;
+        for(int i=0; i<256; i++){
+            this.skip[i]    = this.delimiter.length;
+        }
+        for(int i=0; i<last; i++){
+            this.skip[this.delimiter[i] & 0xff]  = last - i;
+        }
+        
+        /* The first delimiter has no leading CRLF : start with a virtual one */
+        this.buffer[0]  = '\r';
+        this.buffer[1]  = '\n';
+        this.position   = 0;
+        this.limit      = 2;
+        this.safeLimit  = -1;
+        this.current    = new PartInputStream();
+    }
+    
+    /**
+     * Returns the boundary from a multipart content type
+     * 
+     * @param contentType   The content type, for example multipart/form-data; boundary=----abc
+     * @return  The boundary
+     * @throws IllegalArgumentException     If the content type is not multipart or has no boundary
+     */
+    public static String getBoundary(String contentType) throws IllegalArgumentException {
+        if( contentType == null || !contentType.regionMatches(true, 0, "multipart/", 0, 10) ){
+            throw new IllegalArgumentException("Content type "+contentType+" is not multipart");
+        }
+        
+        int start = contentType.toLowerCase().indexOf("boundary=");
+        if( start == -1 )   throw new IllegalArgumentException("Content type "+contentType+" has no boundary");
+        
+        start   += 9;
+        int end = contentType.indexOf(';', start);
+        String boundary = contentType.substring(start, ( end == -1 ) ? contentType.length() : end).trim();
+        if( boundary.length() > 1 && boundary.startsWith("\"") && boundary.endsWith("\"") ){
+            boundary    = boundary.substring(1, boundary.length() - 1);
+        }
+        
+        return boundary;
+    }
+    
+    /**
+     * Returns the next part. The rest of the current part is skipped, so the stream of the previous part can not
+     * be used after this call.
+     * 
+     * @return  The part, or null after the last part
+     * @throws IOException  If the body could not be read or is not a valid multipart body
+     */
+    public PartStub nextPart() throws IOException {
+        if( this.finished ) return null;
+        
+        /* Skips the preamble or the rest of the current part */
+        while( this.current.skip(Long.MAX_VALUE) > 0 ){ }
+        this.position   += this.delimiter.length;
+        
+        if( !this.fill(2) ) throw new IOException("Unexpected end of multipart body");
+        if( this.buffer[this.position] == '-' && this.buffer[this.position + 1] == '-' ){
+            this.finished   = true;
+            
+            return null;
+        }
+        
+        /* Transport padding after the boundary */
+        while( this.fill(1) && (this.buffer[this.position] == ' ' || this.buffer[this.position] == '\t') ){
+            this.position++;
+        }
+        if( !this.readLine().isEmpty() )    throw new IOException("Invalid multipart boundary line");
+        
+        MultikeyHashMap headers = new MultikeyHashMap(4);
+        int headerSize  = 0;
+        String line;
+        while( !(line = this.readLine()).isEmpty() ){
+            headerSize  += line.length();
+            if( headerSize > MAX_HEADER_SIZE )  throw new IOException("Multipart headers are bigger then "+MAX_HEADER_SIZE+" bytes");
+            
+            int colon = line.indexOf(':');
+            if( colon <= 0 )    throw new IOException("Invalid multipart header "+line);
+            
+            headers.add(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+        }
+        
+        this.current    = new PartInputStream();
+        
+        return new PartStub(headers, this.current);
+    }
+    
+    /**
+     * Reads all the remaining parts and stores them
+     * 
+     * @param spillThreshold    The amount of bytes of a part that is kept in memory, or -1 to keep all in memory
+     * @return  The parts
+     * @throws IOException  If the body could not be read or the parts could not be spilled to disk
+     */
+    public List<PartStub> readParts(long spillThreshold) throws IOException {
+        ArrayList<PartStub> parts = new ArrayList<PartStub>();
+        
+        try {
+            PartStub part;
+            while( (part = this.nextPart()) != null ){
+                parts.add(part);
+                part.store(spillThreshold);
+            }
+        }
+        catch(IOException e){
+            for(PartStub part : parts){
+                part.delete();
+            }
+            
+            throw e;
+        }
+        
+        return parts;
+    }
+    
+    /**
+     * Reads a header line, without the CRLF
+     * 
+     * @return  The line
+     * @throws IOException  If the line is not terminated
+     */
+    private String readLine() throws IOException {
+        while( true ){
+            for(int i=this.position; i<this.limit - 1; i++){
+                if( this.buffer[i] == '\r' && this.buffer[i + 1] == '\n' ){
+                    String line     = new String(this.buffer, this.position, i - this.position, LATIN);
+                    this.position   = i + 2;
+                    
+                    return line;
+                }
+            }
+            
+            if( this.limit - this.position >= MAX_HEADER_SIZE ) throw new IOException("Multipart header line is too long");
+            if( !this.fill(this.limit - this.position + 1) )    throw new IOException("Unexpected end of multipart body");
+        }
+    }
+    
+    /**
+     * Makes sure that the given number of bytes is in the buffer after the position
+     * 
+     * @param needed    The number of bytes
+     * @return  True if the bytes are available, false if the body ends earlier
+     * @throws IOException  If the body could not be read
+     */
+    private boolean fill(int needed) throws IOException {
+        if( this.limit - this.position >= needed )  return true;
+        
+        if( this.position > 0 ){
+            System.arraycopy(this.buffer, this.position, this.buffer, 0, this.limit - this.position);
+            this.limit      -= this.position;
+            this.position   = 0;
+        }
+        this.safeLimit      = -1;
+        this.delimiterFound = false;
+        
+        while( this.limit < needed && !this.eof ){
+            int read = this.input.read(this.buffer, this.limit, this.buffer.length - this.limit);
+            if( read == -1 ){
+                this.eof    = true;
+            }
+            else {
+                this.limit  += read;
+            }
+        }
+        
+        return this.limit - this.position >= needed;
+    }
+    
+    /**
+     * Searches the delimiter in the buffer
+     * 
+     * @return  The position of the delimiter, or -1 if it is not in the buffer
+     */
+    private int findDelimiter(){
+        byte[] delimiter    = this.delimiter;
+        byte[] buffer       = this.buffer;
+        int last            = delimiter.length - 1;
+        int end             = this.limit - delimiter.length;
+        
+        int i = this.position;
+        while( i <= end ){
+            int j = last;
+            while( buffer[i + j] == delimiter[j] ){
+                if( j == 0 )    return i;
+                j--;
+            }
+            
+            i   += this.skip[buffer[i + last] & 0xff];
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Returns the number of bytes after the position that are certainly content. The delimiter is only searched
+     * again after the position has passed the end of the previous search or the buffer has been filled.
+     * 
+     * @return  The number of bytes, 0 at the delimiter or if the rest of the buffer can be the start of a delimiter
+     */
+    private int scan(){
+        if( this.safeLimit > this.position || (this.delimiterFound && this.safeLimit == this.position) ){
+            return this.safeLimit - this.position;
+        }
+        
+        int found = this.findDelimiter();
+        if( found != -1 ){
+            this.safeLimit      = found;
+            this.delimiterFound = true;
+        }
+        else {
+            /* The tail can be the start of a delimiter */
+            this.safeLimit      = Math.max(this.position, this.limit - (this.delimiter.length - 1));
+            this.delimiterFound = false;
+        }
+        
+        return this.safeLimit - this.position;
+    }
+    
+    /**
+     * Content of the current part. The stream ends at the delimiter, the delimiter itself is not consumed.
+     */
+    private class PartInputStream extends InputStream {
+        private boolean closed  = false;
+        
+        /**
+         * Returns the number of bytes before the delimiter or the end of the buffer that are certainly content.
+         * The buffer is filled when no content is available.
+         * 
+         * @return  The number of bytes, 0 at the delimiter
+         * @throws IOException  If the body ends without a delimiter
+         */
+        private int available0() throws IOException {
+            MultipartStream parser = MultipartStream.this;
+            if( this.closed )   return 0;
+            
+            while( true ){
+                int safe = parser.scan();
+                if( safe > 0 )  return safe;
+                
+                if( parser.delimiterFound ){
+                    this.closed = true;
+                    
+                    return 0;
+                }
+                
+                if( parser.eof || !parser.fill(parser.limit - parser.position + 1) ){
+                    if( parser.eof && parser.limit - parser.position < parser.delimiter.length ){
+                        throw new IOException("Unexpected end of multipart body");
+                    }
+                }
+            }
+        }
+        
+        @Override
+        public int read() throws IOException {
+            if( this.available0() == 0 )    return -1;
+            
+            return MultipartStream.this.buffer[MultipartStream.this.position++] & 0xff;
+        }
+        
+        @Override
+        public int read(byte[] b,int off,int len) throws IOException {
+            if( len == 0 )  return 0;
+            
+            int available = this.available0();
+            if( available == 0 )    return -1;
+            
+            len = Math.min(len, available);
+            System.arraycopy(MultipartStream.this.buffer, MultipartStream.this.position, b, off, len);
+            MultipartStream.this.position   += len;
+            
+            return len;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            int available = this.available0();
+            if( available == 0 )    return 0;
+            
+            int skipped = (int) Math.min(n, available);
+            MultipartStream.this.position   += skipped;
+            
+            return skipped;
+        }
+        
+        @Override
+        public int available() throws IOException {
+            if( this.closed )   return 0;
+            
+            return MultipartStream.this.scan();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package servletAPI;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Enumeration;
+
+/**
+ * One part of a multipart/form-data body.
+ * 
+ * A part from MultipartStream.nextPart() streams its content straight from the body, the stream is only valid
+ * till the next part is requested. A part from MultipartStream.readParts() is stored in a ContentBuffer, in memory
+ * or, past the spill threshold, in a temporary file that is removed with delete().
+ * 
+ * @author Rachelle Scheijen
+ */
+public class PartStub {
+    private MultikeyHashMap headers;
+    private String name;
+    private String filename;
+    private InputStream stream;
+    private ContentBuffer content;
+    
+    /**
+     * Generates a new part
+     * 
+     * @param headers   The part headers, with lower case names
+     * @param stream    The content stream
+     */
+    PartStub(MultikeyHashMap headers,InputStream stream){
+        this.headers    = headers;
+        this.stream     = stream;
+        this.content    = null;
+        
+        String disposition = headers.get("content-disposition", 0);
+        if( disposition != null ){
+            this.name       = getParameter(disposition, "name");
+            this.filename   = getParameter(disposition, "filename");
+        }
+    }
+    
+    /**
+     * Returns a parameter of a header value, like the name in form-data; name="field"
+     * 
+     * @param value     The header value
+     * @param parameter The parameter name, lower case
+     * @return  The parameter value or null if the parameter is not set
+     */
+    private static String getParameter(String value,String parameter){
+        int start = 0;
+        while( (start = value.indexOf(';', start)) != -1 ){
+            start++;
+            while( start < value.length() && value.charAt(start) == ' ' )  start++;
+            
+            int equals = value.indexOf('=', start);
+            if( equals == -1 )  return null;
+            if( !value.substring(start, equals).trim().equalsIgnoreCase(parameter) )    continue;
+            
+            start   = equals + 1;
+            if( start < value.length() && value.charAt(start) == '"' ){
+                StringBuilder text = new StringBuilder();
+                for(int i=start + 1; i<value.length(); i++){
+                    char c = value.charAt(i);
+                    if( c == '"' )  break;
+                    if( c == '\\' && i + 1 < value.length() )   c = value.charAt(++i);
+                    
+                    text.append(c);
+                }
+                
+                return text.toString();
+            }
+            
+            int end = value.indexOf(';', start);
+            
+            return value.substring(start, ( end == -1 ) ? value.length() : end).trim();
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Returns the name of the form field
+     * 
+     * @return  The name, or null if the part has no name
+     */
+    public String getName(){
+        return this.name;
+    }
+    
+    /**
+     * Returns the filename of an uploaded file, as given by the client
+     * 
+     * @return  The filename, or null if the part is not a file
+     */
+    public String getFilename(){
+        return this.filename;
+    }
+    
+    /**
+     * Returns the MIME type of the part
+     * 
+     * @return  The content type, or null if it is not set
+     */
+    public String getContentType(){
+        return this.headers.get("content-type", 0);
+    }
+    
+    /**
+     * Returns the value of the given part header
+     * 
+     * @param name  The header name
+     * @return  The value, or null if the header is not set
+     */
+    public String getHeader(String name){
+        return this.headers.get(name.toLowerCase(), 0);
+    }
+    
+    /**
+     * Returns the names of the part headers, in lower case
+     * 
+     * @return  The names
+     */
+    @SuppressWarnings("unchecked")
+    public Enumeration<String> getHeaderNames(){
+        return (Enumeration<String>) this.headers.getKeys();
+    }
+    
+    /**
+     * Returns the content of the part as a stream. For a stored part every call returns a new stream from the
+     * start of the content.
+     * 
+     * @return  The content
+     * @throws IOException  If the spilled content could not be opened
+     */
+    public InputStream getInputStream() throws IOException {
+        if( this.content == null )  return this.stream;
+        
+        if( this.content.isSpilled() ){
+            this.content.flush();
+            
+            return new FileInputStream(this.content.getSpillFile());
+        }
+        
+        final ByteBuffer buffer = this.content.getContent();
+        
+        return new InputStream(){
+            @Override
+            public int read(){
+                return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+            }
+            
+            @Override
+            public int read(byte[] b,int off,int len){
+                if( len == 0 )  return 0;
+                if( !buffer.hasRemaining() )    return -1;
+                
+                len = Math.min(len, buffer.remaining());
+                buffer.get(b, off, len);
+                
+                return len;
+            }
+            
+            @Override
+            public int available(){
+                return buffer.remaining();
+            }
+        };
+    }
+    
+    /**
+     * Reads the content of the part as a string
+     * 
+     * @param charset   The character encoding
+     * @return  The content
+     * @throws IOException  If the content could not be read
+     */
+    public String getString(String charset) throws IOException {
+        InputStream input           = this.getInputStream();
+        ByteArrayOutputStream out   = new ByteArrayOutputStream();
+        byte[] buffer               = new byte[4096];
+        
+        int read;
+        while( (read = input.read(buffer, 0, buffer.length)) != -1 ){
+            out.write(buffer, 0, read);
+        }
+        if( this.content != null )  input.close();
+        
+        return out.toString(charset);
+    }
+    
+    /**
+     * Copies the content of the streaming part into a ContentBuffer, so it stays available after the next part
+     * 
+     * @param spillThreshold    The amount of bytes that is kept in memory, or -1 to keep all the content in memory
+     * @throws IOException  If the content could not be read or spilled
+     */
+    void store(long spillThreshold) throws IOException {
+        ContentBuffer buffer = new ContentBuffer(8192);
+        buffer.setSpillThreshold(spillThreshold);
+        
+        byte[] chunk = new byte[8192];
+        int read;
+        while( (read = this.stream.read(chunk, 0, chunk.length)) != -1 ){
+            buffer.write(chunk, 0, read);
+        }
+        buffer.flush();
+        
+        this.content    = buffer;
+        this.stream     = null;
+    }
+    
+    /**
+     * Returns the size of a stored part
+     * 
+     * @return  The size in bytes, or -1 for a streaming part
+     */
+    public long getSize(){
+        if( this.content == null )  return -1;
+        
+        return this.content.size();
+    }
+    
+    /**
+     * Checks if the content of a stored part is kept in memory
+     * 
+     * @return  True if the content is in memory, false if it is spilled to disk or the part is streaming
+     */
+    public boolean isInMemory(){
+        return this.content != null && !this.content.isSpilled();
+    }
+    
+    /**
+     * Returns the temporary file of a spilled part
+     * 
+     * @return  The file, or null if the part is not spilled
+     */
+    public File getFile(){
+        if( this.content == null )  return null;
+        
+        return this.content.getSpillFile();
+    }
+    
+    /**
+     * Removes the stored content, including the temporary file
+     */
+    public void delete(){
+        if( this.content != null )  this.content.reset();
+    }
+}
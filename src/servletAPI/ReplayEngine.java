@@ -0,0 +1,162 @@
+package servletAPI;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+
+/**
+ * Replays recorded requests from a HAR file or an access log on a servlet under test.
+ * 
+ * The requests are read one at a time from a ReplaySource into request and response pairs from a HttpStubPool
+ * and run on a pool of workers, each request on its own virtual thread. The source is read only as fast as the
+ * workers finish requests, so at most workers requests are in memory and logs of any size can be replayed.
+ * The latency and the response status of every request are collected in a ReplayReport.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class ReplayEngine {
+    private Servlet servlet;
+    private ConfigStub config;
+    private int workers;
+    private int maxUrls;
+    private ThreadFactory threadFactory;
+    
+    /**
+     * Generates a new engine and initializes the servlet
+     * 
+     * @param servlet   The servlet under test
+     * @param config    The servlet config
+     * @throws ServletException     If the servlet could not be initialized
+     */
+    public ReplayEngine(Servlet servlet,ConfigStub config) throws ServletException {
+        this.servlet        = servlet;
+        this.config         = config;
+        this.workers        = Runtime.getRuntime().availableProcessors();
+        this.maxUrls        = 1000;
+        this.threadFactory  = Thread.ofVirtual().name("servlet-replay-", 0).factory();
+        
+        this.servlet.init(config);
+    }
+    
+    /**
+     * Sets the number of requests that are in service at the same time
+     * 
+     * @param workers   The number of requests
+     * @throws IllegalArgumentException     If the number is smaller then 1
+     */
+    public void setWorkers(int workers) throws IllegalArgumentException {
+        if( workers < 1 )   throw new IllegalArgumentException("Invalid number of workers "+workers);
+        
+        this.workers    = workers;
+    }
+    
+    /**
+     * Returns the number of requests that are in service at the same time
+     * 
+     * @return  The number of requests
+     */
+    public int getWorkers(){
+        return this.workers;
+    }
+    
+    /**
+     * Sets the maximum number of URLs that get their own entry in the report
+     * 
+     * @param maxUrls   The number of URLs
+     */
+    public void setMaxUrls(int maxUrls){
+        this.maxUrls    = maxUrls;
+    }
+    
+    /**
+     * Replays all the requests of the given source. The method returns when all the requests are finished.
+     * The source is not closed.
+     * 
+     * @param source    The recorded requests
+     * @return  The report
+     * @throws IOException  If the source could not be read
+     * @throws InterruptedException     If the calling thread is interrupted while waiting for the requests
+     */
+    public ReplayReport replay(ReplaySource source) throws IOException, InterruptedException {
+        final ReplayReport report   = new ReplayReport(this.maxUrls);
+        final HttpStubPool pool     = new HttpStubPool(this.workers);
+        final Semaphore permits     = new Semaphore(this.workers);
+        pool.setServletContext((ServletContextStub) this.config.getServletContext());
+        
+        long start                  = System.nanoTime();
+        ExecutorService executor    = Executors.newThreadPerTaskExecutor(this.threadFactory);
+        try {
+            while( true ){
+                permits.acquire();
+                
+                final HttpStubPool.Exchange exchange = pool.acquire();
+                boolean filled = false;
+                try {
+                    filled  = source.next(exchange.getRequest());
+                }
+                finally {
+                    if( !filled ){
+                        pool.release(exchange);
+                        permits.release();
+                    }
+                }
+                if( !filled )   break;
+                
+                executor.execute(new Runnable(){
+                    public void run(){
+                        try {
+                            ReplayEngine.this.service(exchange, report);
+                        }
+                        finally {
+                            pool.release(exchange);
+                            permits.release();
+                        }
+                    }
+                });
+            }
+        }
+        finally {
+            /* Waits till all the requests are finished */
+            executor.close();
+            report.setDuration(System.nanoTime() - start);
+        }
+        
+        return report;
+    }
+    
+    /**
+     * Runs one request on the servlet, commits the response and records the result
+     * 
+     * @param exchange  The request and response
+     * @param report    The report
+     */
+    private void service(HttpStubPool.Exchange exchange,ReplayReport report){
+        HttpServletRequestStub request      = exchange.getRequest();
+        HttpServletResponseStub response    = exchange.getResponse();
+        boolean failed  = false;
+        long start      = System.nanoTime();
+        
+        try {
+            this.servlet.service(request, response);
+            response.flushBuffer();
+        }
+        catch(Throwable e){
+            /* Errors of the servlet are counted as failed requests too */
+            failed  = true;
+        }
+        
+        long duration   = System.nanoTime() - start;
+        report.record(request.getMethod(), request.getRequestURI(), failed ? 500 : response.getStatus(), duration, failed);
+    }
+    
+    /**
+     * Destroys the servlet
+     */
+    public void destroy(){
+        this.servlet.destroy();
+    }
+}
@@ -0,0 +1,275 @@
+package servletAPI;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Results of a replay : per URL a latency histogram and the distribution of the response statuses.
+ * 
+ * The URLs are the method and the request URI without the query string. To keep the report small for logs with
+ * many different URLs, only the first maxUrls URLs get their own entry, the others are counted under OTHER.
+ * The report can be filled from more threads at the same time.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class ReplayReport {
+    public static final String OTHER    = "OTHER";
+    
+    private ConcurrentHashMap<String,Entry> urls;
+    private int maxUrls;
+    private Entry total;
+    private long duration;
+    
+    /**
+     * Generates a new empty report
+     * 
+     * @param maxUrls   The maximum number of URLs with their own entry
+     */
+    public ReplayReport(int maxUrls){
+        if( maxUrls < 1 )   maxUrls = 1;
+        
+        this.urls       = new ConcurrentHashMap<String,Entry>();
+        this.maxUrls    = maxUrls;
+        this.total      = new Entry("TOTAL");
+        this.duration   = 0;
+    }
+    
+    /**
+     * Records one replayed request
+     * 
+     * @param method    The HTTP method
+     * @param uri       The request URI
+     * @param status    The response status
+     * @param nanos     The time the request was in service in nanoseconds
+     * @param failed    True if the servlet has thrown an exception
+     */
+    public void record(String method,String uri,int status,long nanos,boolean failed){
+        String name = method+" "+uri;
+        Entry entry = this.urls.get(name);
+        if( entry == null ){
+            if( this.urls.size() >= this.maxUrls )  name = OTHER;
+            
+            entry           = new Entry(name);
+            Entry existing  = this.urls.putIfAbsent(name, entry);
+            if( existing != null )  entry = existing;
+        }
+        
+        long micros = nanos / 1000;
+        entry.record(status, micros, failed);
+        this.total.record(status, micros, failed);
+    }
+    
+    /**
+     * Sets the wall-clock time of the replay
+     * 
+     * @param nanos     The time in nanoseconds
+     */
+    void setDuration(long nanos){
+        this.duration   = nanos;
+    }
+    
+    /**
+     * Returns the wall-clock time of the replay
+     * 
+     * @return  The time in nanoseconds
+     */
+    public long getDuration(){
+        return this.duration;
+    }
+    
+    /**
+     * Returns the number of replayed requests per second
+     * 
+     * @return  The throughput, or 0 if the duration is not known
+     */
+    public double getThroughput(){
+        if( this.duration <= 0 )    return 0;
+        
+        return this.total.getCount() * 1000000000.0 / this.duration;
+    }
+    
+    /**
+     * Returns the totals over all the URLs
+     * 
+     * @return  The totals
+     */
+    public Entry getTotal(){
+        return this.total;
+    }
+    
+    /**
+     * Returns the entry of the given URL
+     * 
+     * @param method    The HTTP method
+     * @param uri       The request URI
+     * @return  The entry, or null if the URL is not replayed or counted under OTHER
+     */
+    public Entry getEntry(String method,String uri){
+        return this.urls.get(method+" "+uri);
+    }
+    
+    /**
+     * Returns the entries of all the URLs, the most requested first
+     * 
+     * @return  The entries
+     */
+    public List<Entry> getEntries(){
+        ArrayList<Entry> entries = new ArrayList<Entry>(this.urls.values());
+        Collections.sort(entries, new Comparator<Entry>(){
+            public int compare(Entry a,Entry b){
+                return Long.compare(b.getCount(), a.getCount());
+            }
+        });
+        
+        return entries;
+    }
+    
+    /**
+     * Writes the report as a table, one line per URL
+     * 
+     * @param writer    The writer
+     * @throws IOException  If the report could not be written
+     */
+    public void write(Writer writer) throws IOException {
+        writer.write(String.format("%10s %8s %10s %10s %10s %10s  %-24s %s%n", "requests", "failed", "mean(us)", "p50(us)", "p99(us)", "max(us)", "statuses", "url"));
+        
+        List<Entry> entries = this.getEntries();
+        entries.add(this.total);
+        for(Entry entry : entries){
+            writer.write(entry.toString());
+            writer.write(System.lineSeparator());
+        }
+        
+        if( this.duration > 0 ){
+            writer.write(String.format("%d requests in %.3f s, %.1f requests/s%n", this.total.getCount(), this.duration / 1000000000.0, this.getThroughput()));
+        }
+        writer.flush();
+    }
+    
+    /**
+     * Returns the report as a table
+     * 
+     * @return  The report
+     */
+    @Override
+    public String toString(){
+        StringWriter writer = new StringWriter();
+        try {
+            this.write(writer);
+        }
+        catch(IOException e){ }
+        
+        return writer.toString();
+    }
+    
+    /**
+     * Results of one URL
+     */
+    public static class Entry {
+        private final String name;
+        private LatencyHistogram latency;
+        private long[] statuses;
+        private long failed;
+        
+        /**
+         * Generates a new entry
+         * 
+         * @param name  The method and URI
+         */
+        private Entry(String name){
+            this.name       = name;
+            this.latency    = new LatencyHistogram();
+            this.statuses   = new long[600];
+            this.failed     = 0;
+        }
+        
+        /**
+         * Records one request
+         * 
+         * @param status    The response status
+         * @param micros    The latency in microseconds
+         * @param failed    True if the servlet has thrown an exception
+         */
+        private synchronized void record(int status,long micros,boolean failed){
+            this.latency.record(micros);
+            if( status >= 0 && status < this.statuses.length )  this.statuses[status]++;
+            if( failed )    this.failed++;
+        }
+        
+        /**
+         * Returns the method and URI
+         * 
+         * @return  The name
+         */
+        public String getName(){
+            return this.name;
+        }
+        
+        /**
+         * Returns the number of requests
+         * 
+         * @return  The number of requests
+         */
+        public synchronized long getCount(){
+            return this.latency.getCount();
+        }
+        
+        /**
+         * Returns the number of requests where the servlet has thrown an exception
+         * 
+         * @return  The number of requests
+         */
+        public synchronized long getFailed(){
+            return this.failed;
+        }
+        
+        /**
+         * Returns the number of responses with the given status
+         * 
+         * @param status    The HTTP status
+         * @return  The number of responses
+         */
+        public synchronized long getStatusCount(int status){
+            if( status < 0 || status >= this.statuses.length )  return 0;
+            
+            return this.statuses[status];
+        }
+        
+        /**
+         * Returns a copy of the latency histogram
+         * 
+         * @return  The histogram in microseconds
+         */
+        public synchronized LatencyHistogram getLatency(){
+            LatencyHistogram copy = new LatencyHistogram();
+            copy.merge(this.latency);
+            
+            return copy;
+        }
+        
+        /**
+         * Returns the entry as a table line
+         * 
+         * @return  The line
+         */
+        @Override
+        public synchronized String toString(){
+            StringBuilder statusText = new StringBuilder();
+            for(int i=0; i<this.statuses.length; i++){
+                if( this.statuses[i] == 0 ) continue;
+                
+                if( statusText.length() > 0 )   statusText.append(',');
+                statusText.append(i).append('=').append(this.statuses[i]);
+            }
+            
+            return String.format("%10d %8d %10.1f %10d %10d %10d  %-24s %s", this.latency.getCount(), this.failed, this.latency.getMean(),
+                    this.latency.getPercentile(50), this.latency.getPercentile(99), this.latency.getMax(), statusText, this.name);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package servletAPI;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Source of recorded requests for the ReplayEngine.
+ * 
+ * The source reads its input as a stream and fills one request at a time, so inputs of any size can be replayed.
+ * 
+ * @author Rachelle Scheijen
+ */
+public interface ReplaySource extends Closeable {
+    /**
+     * Fills the given cleared request with the next recorded request
+     * 
+     * @param request   The request to fill
+     * @return  True if the request is filled, false if the source has no more requests
+     * @throws IOException  If the input could not be read
+     */
+    public boolean next(HttpServletRequestStub request) throws IOException;
+}
@@ -0,0 +1,40 @@
+package servletAPI;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receiver of the committed response body.
+ * 
+ * The ServletOutputStreamStub collects the body in a buffer of getBufferSize() bytes. When the buffer is full
+ * the response is committed and the buffer is drained to the sink. By default the sink is the ContentBuffer
+ * that captures the body for the test.
+ *
+ * @author Rachelle Scheijen
+ */
+public interface ResponseSink {
+    /**
+     * Writes len bytes from the given array starting at offset off. The array may be reused after the call returns.
+     * 
+     * @param b     The data
+     * @param off   The start offset in the data
+     * @param len   The number of bytes to write
+     * @throws IOException  If the data could not be written
+     */
+    public void write(byte[] b,int off,int len) throws IOException;
+    
+    /**
+     * Writes the remaining bytes of the given segments, in order. The buffers may be reused after the call returns.
+     * 
+     * @param segments  The segments
+     * @throws IOException  If the data could not be written
+     */
+    public void write(ByteBuffer[] segments) throws IOException;
+    
+    /**
+     * Flushes the written data
+     * 
+     * @throws IOException  If the data could not be written
+     */
+    public void flush() throws IOException;
+}
@@ -8,34 +8,43 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.Servlet;
 import javax.servlet.ServletContext;
+import javax.servlet.ServletContextAttributeEvent;
+import javax.servlet.ServletContextAttributeListener;
 import javax.servlet.ServletException;
 
 /**
+ * Servlet context stub.
+ * 
+ * The context can be shared by requests that are executed on more threads at the same time. The attributes, 
+ * the initialization parameters and the sessions are kept in concurrent maps and the enumerations are 
+ * snapshots, so servlets can be load-tested in-process. The sessions are kept and expired by a SessionManagerStub.
  *
  * @author Rachelle Scheijen
  */
-class ServletContextStub implements ServletContext {
-    private ServerDetailEnumeration serverNames;
+public class ServletContextStub implements ServletContext {
     private final String logFile    = "ServletTestLog.log";
-    private HashMap<String,String> initParameters;
-    private HashMap<String,Object> attributes;
+    private final Object logLock    = new Object();
+    private ConcurrentHashMap<String,String> initParameters;
+    private ConcurrentHashMap<String,Object> attributes;
+    private SessionManagerStub sessionManager;
+    private CopyOnWriteArrayList<ServletContextAttributeListener> attributeListeners;
     
     public ServletContextStub() {
-        this.serverNames    = new ServerDetailEnumeration();
-        
-        this.initParameters = new HashMap<String,String>();
+        this.initParameters = new ConcurrentHashMap<String,String>();
         this.initParameters.put("name", "B3partners test server");
         this.initParameters.put("version","1.0");
-        this.serverNames.addName("name");
-        this.serverNames.addName("version");
         
-        this.attributes = new HashMap<String,Object>();
+        this.attributes         = new ConcurrentHashMap<String,Object>();
+        this.sessionManager     = new SessionManagerStub(this);
+        this.attributeListeners = new CopyOnWriteArrayList<ServletContextAttributeListener>();
     }
     
     /**
@@ -219,12 +228,14 @@ class ServletContextStub implements ServletContext {
      * @param msg       The log message
      */
     public void log(String msg) {
-        try {
-            FileWriter logger   = new FileWriter(new File(this.logFile));
-            logger.write(msg+"\n");
-            logger.close();
+        synchronized(this.logLock){
+            try {
+                FileWriter logger   = new FileWriter(new File(this.logFile), true);
+                logger.write(msg+"\n");
+                logger.close();
+            }
+            catch(IOException e){ }
         }
-        catch(IOException e){ }
     }
 
     /**
@@ -277,10 +288,9 @@ class ServletContextStub implements ServletContext {
      * @return      a String containing at least the servlet container name and version number
      */
     public String getInitParameter(String name) {
-        if( this.initParameters.containsKey(name) ){
-            return this.initParameters.get(name);
-        }
-        return null;
+        if( name == null )  return null;
+        
+        return this.initParameters.get(name);
     }
     
     /**
@@ -290,7 +300,12 @@ class ServletContextStub implements ServletContext {
      * @param value     a String specifying the value of the initialization parameter
      */
     public void setInitParameter(String name,String value){
-        this.initParameters.put(name, value);
+        if( value == null ){
+            this.initParameters.remove(name);
+        }
+        else {
+            this.initParameters.put(name, value);
+        }
     }
 
     /**
@@ -299,7 +314,7 @@ class ServletContextStub implements ServletContext {
      * @return an Enumeration of String objects containing the names of the context's initialization parameters
      */
     public Enumeration getInitParameterNames() {
-        return this.serverNames;
+        return this.snapshot(this.initParameters.keySet());
     }
 
     /**
@@ -309,24 +324,35 @@ class ServletContextStub implements ServletContext {
      * @return          The attribute value
      */
     public Object getAttribute(String name) {
-        if( this.attributes.containsKey(name) ){
-            return this.attributes.get(name);
-        }
+        if( name == null )  return null;
         
-        return null;
+        return this.attributes.get(name);
     }
 
     /**
      * Returns an Enumeration containing the attribute names available within this servlet context. 
+     * The enumeration is a snapshot, it does not change when attributes are set or removed later on.
      * 
      * @return  an Enumeration of attribute names
      */
     public Enumeration getAttributeNames() {
+        return this.snapshot(this.attributes.keySet());
+    }
+    
+    /**
+     * Returns an enumeration with a copy of the given names
+     * 
+     * @param keys  The names
+     * @return  The enumeration
+     */
+    private Enumeration snapshot(Set<String> keys){
         ServerDetailEnumeration names   = new ServerDetailEnumeration();
-        Object[] keys    = this.attributes.keySet().toArray();
-        for(int i=0; i<keys.length; i++){
-            names.addName((String) keys[i]);
+        
+        Iterator<String> iterator = keys.iterator();
+        while( iterator.hasNext() ){
+            names.addName(iterator.next());
         }
+        
         return names;
     }
 
@@ -334,33 +360,139 @@ class ServletContextStub implements ServletContext {
      * Binds an object to a given attribute name in this servlet context. 
      * If the name specified is already used for an attribute, this method will 
      * replace the attribute with the new to the new attribute. 
+     * If a null value is passed, the effect is the same as calling removeAttribute().
+     * The attribute listeners are notified after the attribute is bound.
      * 
      * @param name        a String specifying the name of the attribute
      * @param object      an Object representing the attribute to be bound   
+     * @throws IllegalArgumentException     If the name is null
      */
-    public void setAttribute(String name, Object object) {
-        if( this.attributes.containsKey(name) ){
+    public void setAttribute(String name, Object object) throws IllegalArgumentException {
+        if( name == null )  throw new IllegalArgumentException("Attribute name can not be null");
+        
+        if( object == null ){
             this.removeAttribute(name);
             
-            if( object != null ){
-                this.attributes.put(name, object);
-            }
+            return;
         }
-        else {
-            this.attributes.put(name, object);
+        
+        Object old = this.attributes.put(name, object);
+        
+        if( this.attributeListeners.isEmpty() ) return;
+        
+        Iterator<ServletContextAttributeListener> listeners = this.attributeListeners.iterator();
+        while( listeners.hasNext() ){
+            ServletContextAttributeListener listener    = listeners.next();
+            
+            if( old == null ){
+                listener.attributeAdded(new ServletContextAttributeEvent(this, name, object));
+            }
+            else {
+                listener.attributeReplaced(new ServletContextAttributeEvent(this, name, old));
+            }
         }
     }
 
     /**
      * Removes the attribute with the given name from the servlet context. 
+     * The attribute listeners are notified after the attribute is removed.
      * 
      * @param name a String specifying the name of the attribute to be removed
      */
     public void removeAttribute(String name){
-        if( this.attributes.containsKey(name) ){
-            this.attributes.remove(name);
+        if( name == null )  return;
+        
+        Object old = this.attributes.remove(name);
+        if( old == null )   return;
+        
+        Iterator<ServletContextAttributeListener> listeners = this.attributeListeners.iterator();
+        while( listeners.hasNext() ){
+            listeners.next().attributeRemoved(new ServletContextAttributeEvent(this, name, old));
         }
     }
+    
+    /**
+     * Adds a listener that is notified when attributes are added, replaced or removed
+     * 
+     * @param listener  The listener
+     */
+    public void addAttributeListener(ServletContextAttributeListener listener){
+        this.attributeListeners.add(listener);
+    }
+    
+    /**
+     * Removes the given attribute listener
+     * 
+     * @param listener  The listener
+     */
+    public void removeAttributeListener(ServletContextAttributeListener listener){
+        this.attributeListeners.remove(listener);
+    }
+    
+    /**
+     * Sets the manager that keeps the sessions of this context. The sessions of the previous manager are dropped
+     * 
+     * @param manager   The manager
+     */
+    public void setSessionManager(SessionManagerStub manager){
+        this.sessionManager = manager;
+    }
+    
+    /**
+     * Returns the manager that keeps the sessions of this context
+     * 
+     * @return  The manager
+     */
+    public SessionManagerStub getSessionManager(){
+        return this.sessionManager;
+    }
+    
+    /**
+     * Creates a new session with an unique ID and adds it to the sessions of this context
+     * 
+     * @return  The session
+     */
+    public HttpSessionStub createSession(){
+        return this.sessionManager.createSession();
+    }
+    
+    /**
+     * Adds the given session to the sessions of this context. The session must have an ID
+     * 
+     * @param session   The session
+     * @throws IllegalArgumentException     If the session has no ID
+     */
+    public void addSession(HttpSessionStub session) throws IllegalArgumentException {
+        this.sessionManager.addSession(session);
+    }
+    
+    /**
+     * Returns the session with the given ID
+     * 
+     * @param id    The session ID
+     * @return  The session or null if this context has no valid session with the given ID
+     */
+    public HttpSessionStub getSession(String id){
+        return this.sessionManager.getSession(id);
+    }
+    
+    /**
+     * Removes the session with the given ID from the sessions of this context
+     * 
+     * @param id    The session ID
+     */
+    public void removeSession(String id){
+        this.sessionManager.removeSession(id);
+    }
+    
+    /**
+     * Returns the number of sessions of this context
+     * 
+     * @return  The number of sessions
+     */
+    public int getSessionCount(){
+        return this.sessionManager.getSessionCount();
+    }
 
     /**
      * Returns the name of this web application correponding to this ServletContext as specified in the deployment descriptor for this web application by the display-name element.
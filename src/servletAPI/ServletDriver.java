@@ -0,0 +1,215 @@
+package servletAPI;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+
+/**
+ * Runs requests on a servlet under test, each request on its own virtual thread.
+ * 
+ * The servlet is initialized once with the given config. All the requests share the servlet context of the config,
+ * so they share its attributes and sessions. The number of requests in service at the same time can be limited,
+ * the requests are then taken from the iterator when a running request is finished.
+ * The results are returned in the order of the requests.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class ServletDriver {
+    private Servlet servlet;
+    private ConfigStub config;
+    private int concurrency;
+    private ThreadFactory threadFactory;
+    
+    /**
+     * Generates a new driver and initializes the servlet
+     * 
+     * @param servlet   The servlet under test
+     * @param config    The servlet config
+     * @throws ServletException     If the servlet could not be initialized
+     */
+    public ServletDriver(Servlet servlet,ConfigStub config) throws ServletException {
+        this.servlet        = servlet;
+        this.config         = config;
+        this.concurrency    = -1;
+        this.threadFactory  = Thread.ofVirtual().name("servlet-driver-", 0).factory();
+        
+        this.servlet.init(config);
+    }
+    
+    /**
+     * Sets the maximum number of requests that are in service at the same time
+     * 
+     * @param concurrency   The number of requests, or -1 for no limit
+     */
+    public void setConcurrency(int concurrency){
+        if( concurrency == 0 || concurrency < -1 ) throw new IllegalArgumentException("Invalid concurrency "+concurrency);
+        
+        this.concurrency    = concurrency;
+    }
+    
+    /**
+     * Returns the maximum number of requests that are in service at the same time
+     * 
+     * @return  The number of requests, or -1 for no limit
+     */
+    public int getConcurrency(){
+        return this.concurrency;
+    }
+    
+    /**
+     * Runs the given requests. Every request must be a different object.
+     * 
+     * @param requests  The requests
+     * @return  The results in the order of the requests
+     * @throws InterruptedException     If the calling thread is interrupted while waiting for the requests
+     */
+    public List<Result> run(Iterable<HttpServletRequestStub> requests) throws InterruptedException {
+        return this.run(requests.iterator());
+    }
+    
+    /**
+     * Runs the requests from the given iterator, till the iterator has no more requests. Every request must be a different object.
+     * The method returns when all the requests are finished.
+     * 
+     * @param requests  The requests
+     * @return  The results in the order of the requests
+     * @throws InterruptedException     If the calling thread is interrupted while waiting for the requests
+     */
+    public List<Result> run(Iterator<HttpServletRequestStub> requests) throws InterruptedException {
+        ArrayList<Result> results   = new ArrayList<Result>();
+        final Semaphore permits     = ( this.concurrency == -1 ) ? null : new Semaphore(this.concurrency);
+        ServletContextStub context  = (ServletContextStub) this.config.getServletContext();
+        
+        ExecutorService executor    = Executors.newThreadPerTaskExecutor(this.threadFactory);
+        try {
+            while( requests.hasNext() ){
+                HttpServletRequestStub request  = requests.next();
+                request.setServletContext(context);
+                
+                final Result result = new Result(request, new HttpServletResponseStub());
+                results.add(result);
+                
+                if( permits != null )   permits.acquire();
+                
+                executor.execute(new Runnable(){
+                    public void run(){
+                        try {
+                            ServletDriver.this.service(result);
+                        }
+                        finally {
+                            if( permits != null )   permits.release();
+                        }
+                    }
+                });
+            }
+        }
+        finally {
+            /* Waits till all the requests are finished */
+            executor.close();
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Runs one request on the servlet and commits the response. Errors of the servlet are stored in the result
+     * too, so a failing servlet is never reported as succeeded
+     * 
+     * @param result    The result to fill in
+     */
+    private void service(Result result){
+        long start  = System.nanoTime();
+        
+        try {
+            this.servlet.service(result.request, result.response);
+            result.response.flushBuffer();
+        }
+        catch(Throwable e){
+            result.exception    = e;
+        }
+        finally {
+            result.duration = System.nanoTime() - start;
+        }
+    }
+    
+    /**
+     * Destroys the servlet
+     */
+    public void destroy(){
+        this.servlet.destroy();
+    }
+    
+    /**
+     * Result of one request
+     */
+    public static class Result {
+        private final HttpServletRequestStub request;
+        private final HttpServletResponseStub response;
+        private Throwable exception;
+        private long duration;
+        
+        /**
+         * Generates a new result
+         * 
+         * @param request   The request
+         * @param response  The response
+         */
+        private Result(HttpServletRequestStub request,HttpServletResponseStub response){
+            this.request    = request;
+            this.response   = response;
+            this.exception  = null;
+            this.duration   = -1;
+        }
+        
+        /**
+         * Returns the request
+         * 
+         * @return  The request
+         */
+        public HttpServletRequestStub getRequest(){
+            return this.request;
+        }
+        
+        /**
+         * Returns the committed response
+         * 
+         * @return  The response
+         */
+        public HttpServletResponseStub getResponse(){
+            return this.response;
+        }
+        
+        /**
+         * Returns the exception or error that the servlet has thrown
+         * 
+         * @return  The exception or null if the request succeeded
+         */
+        public Throwable getException(){
+            return this.exception;
+        }
+        
+        /**
+         * Checks if the request succeeded
+         * 
+         * @return  True if the servlet did not throw an exception, otherwise false
+         */
+        public boolean isSucceeded(){
+            return this.exception == null;
+        }
+        
+        /**
+         * Returns the time the request was in service
+         * 
+         * @return  The time in nanoseconds
+         */
+        public long getDuration(){
+            return this.duration;
+        }
+    }
+}
@@ -1,40 +1,358 @@
 package servletAPI;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
 import javax.servlet.ServletInputStream;
 
 /**
- *
+ * Input stream with the body of a request.
+ * 
+ * The content is a ByteBuffer : a wrapped array, a given buffer or a memory mapped file, so the content is never
+ * copied. All the read methods read from the buffer in bulk. Content from a channel that is not a file is read
+ * through a small buffer while the stream is read.
+ * Files bigger then one mapping (2GB) are mapped as a series of windows of WINDOW_SIZE bytes, the next window is
+ * mapped when the current window is read.
+ * 
  * @author Rachelle Scheijen
  */
 public class ServletInputStreamStub extends ServletInputStream {
-    private int pointer = 0;
+    private static final int CHANNEL_BUFFER_SIZE    = 8192;
+    private static final int WINDOW_SIZE            = 1 << 30;
+    private static final ByteBuffer EMPTY           = ByteBuffer.allocate(0);
+    
     private String contentType;
-    private byte[] content;
+    private ByteBuffer content;
+    private long length;
+    private ReadableByteChannel channel;
+    private long channelRead;
+    private FileChannel file;
+    private long fileStart;
+    private long windowStart;
+    private RandomAccessFile ownedFile;
     private boolean hasLoaded   = false;
-
+    
+    /**
+     * Generates a new empty stream
+     */
+    public ServletInputStreamStub(){
+        this.recycle();
+    }
+    
     /**
      * Reads the next byte of data from the input stream. The value byte is returned as an int in the range 0 to 255. If no byte is available because the end of the stream has been reached, the value -1 is returned. This method blocks until input data is available, the end of the stream is detected, or an exception is thrown.
      * 
-     * @return  the next byte of data, or -1 if the end of the stream is reached. 
+     * @return  the next byte of data, or -1 if the end of the stream is reached.
      * @throws IOException If a I/O error occurs
      */
     @Override
     public int read() throws IOException {
-        if( this.pointer >= this.content.length )   return -1;
+        if( !this.content.hasRemaining() && !this.fill() )  return -1;
+        
+        return this.content.get() & 0xff;
+    }
+    
+    /**
+     * Reads up to len bytes of data from the input stream into an array of bytes.
+     * 
+     * @param b     the buffer into which the data is read
+     * @param off   the start offset in array b at which the data is written
+     * @param len   the maximum number of bytes to read
+     * @return  the total number of bytes read into the buffer, or -1 if there is no more data because the end of the stream has been reached
+     * @throws IOException  If a I/O error occurs
+     * @throws IndexOutOfBoundsException    If off or len is negative, or len is greater than b.length - off
+     */
+    @Override
+    public int read(byte[] b,int off,int len) throws IOException, IndexOutOfBoundsException {
+        if( off < 0 || len < 0 || len > b.length - off )    throw new IndexOutOfBoundsException();
+        if( len == 0 )  return 0;
+        
+        if( !this.content.hasRemaining() && !this.fill() )  return -1;
+        
+        len = Math.min(len, this.content.remaining());
+        this.content.get(b, off, len);
+        
+        return len;
+    }
+    
+    /**
+     * Reads the input stream, one line at a time. Starting at an offset, reads bytes into an array, until it reads a certain number of bytes or reaches a newline character, which it reads into the array as well.
+     * 
+     * @param b     an array of bytes into which data is read
+     * @param off   an integer specifying the character at which this method begins reading
+     * @param len   an integer specifying the maximum number of bytes to read
+     * @return  an integer specifying the actual number of bytes read, or -1 if the end of the stream is reached
+     * @throws IOException  If a I/O error occurs
+     */
+    @Override
+    public int readLine(byte[] b,int off,int len) throws IOException {
+        if( len <= 0 )  return 0;
+        
+        int count = 0;
+        while( count < len ){
+            if( !this.content.hasRemaining() && !this.fill() )  break;
+            
+            int position    = this.content.position();
+            int end         = position + Math.min(this.content.remaining(), len - count);
+            int newline     = -1;
+            if( this.content.hasArray() ){
+                byte[] array    = this.content.array();
+                int offset      = this.content.arrayOffset();
+                for(int i=position + offset; i<end + offset; i++){
+                    if( array[i] == '\n' ){
+                        newline = i - offset;
+                        break;
+                    }
+                }
+            }
+            else {
+                for(int i=position; i<end; i++){
+                    if( this.content.get(i) == '\n' ){
+                        newline = i;
+                        break;
+                    }
+                }
+            }
+            
+            int n = ( newline == -1 ) ? end - position : newline - position + 1;
+            this.content.get(b, off + count, n);
+            count += n;
+            
+            if( newline != -1 ) break;
+        }
+        
+        return ( count == 0 ) ? -1 : count;
+    }
+    
+    /**
+     * Returns the number of bytes that can be read without blocking
+     * 
+     * @return  the number of bytes
+     */
+    @Override
+    public int available(){
+        return this.content.remaining();
+    }
+    
+    /**
+     * Skips over and discards n bytes of data from this input stream
+     * 
+     * @param n     the number of bytes to be skipped
+     * @return  the actual number of bytes skipped
+     * @throws IOException  If a I/O error occurs
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        if( this.file != null && n > this.content.remaining() ){
+            /* Jumps over the windows instead of mapping them */
+            long position   = this.windowStart + this.content.position();
+            long skipped    = Math.min(n, this.length - position);
+            this.mapWindow(position + skipped);
+            
+            return skipped;
+        }
+        
+        long skipped = 0;
+        while( skipped < n ){
+            if( !this.content.hasRemaining() && !this.fill() )  break;
+            
+            int amount = (int) Math.min(n - skipped, this.content.remaining());
+            this.content.position(this.content.position() + amount);
+            skipped += amount;
+        }
+        
+        return skipped;
+    }
+    
+    /**
+     * Reads the next part of a channel content into the buffer
+     * 
+     * @return  True if bytes are read, false at the end of the content
+     * @throws IOException  If the channel could not be read
+     */
+    private boolean fill() throws IOException {
+        if( this.file != null ){
+            long next = this.windowStart + this.content.limit();
+            if( next >= this.length )   return false;
+            
+            this.mapWindow(next);
+            
+            return true;
+        }
+        if( this.channel == null )  return false;
+        
+        this.content.clear();
+        if( this.length >= 0 && this.length - this.channelRead < this.content.capacity() ){
+            this.content.limit((int) (this.length - this.channelRead));
+        }
+        
+        int read = 0;
+        while( read == 0 && this.content.hasRemaining() ){
+            read = this.channel.read(this.content);
+        }
+        this.content.flip();
         
-        this.pointer++;
+        if( read <= 0 ){
+            this.channel    = null;
+            
+            return false;
+        }
         
-        return (int) this.content[this.pointer-1];
-    }    
+        this.channelRead    += read;
+        
+        return true;
+    }
+    
+    /**
+     * Maps the window of the file content that starts at the given position
+     * 
+     * @param position  The position in the content
+     * @throws IOException  If the file could not be mapped
+     */
+    private void mapWindow(long position) throws IOException {
+        long size           = Math.min(WINDOW_SIZE, this.length - position);
+        this.content        = this.file.map(FileChannel.MapMode.READ_ONLY, this.fileStart + position, size);
+        this.windowStart    = position;
+    }
+    
+    /**
+     * Sets the content of the stream. The content is not copied
+     * 
+     * @param content       The content
+     * @param contentType   The MIME type of the content, may be null
+     */
+    public void setContent(byte[] content,String contentType){
+        this.setContent(( content == null ) ? EMPTY : ByteBuffer.wrap(content), contentType);
+    }
+    
+    /**
+     * Sets the content of the stream to the remaining bytes of the given buffer. The content is not copied and
+     * the position of the given buffer is not changed
+     * 
+     * @param content       The content
+     * @param contentType   The MIME type of the content, may be null
+     */
+    public void setContent(ByteBuffer content,String contentType){
+        this.recycle();
+        
+        this.content        = content.slice();
+        this.length         = this.content.remaining();
+        this.contentType    = contentType;
+    }
+    
+    /**
+     * Sets the content of the stream to the given file. The file is memory mapped, not copied
+     * 
+     * @param file          The file
+     * @param contentType   The MIME type of the content, may be null
+     * @throws IOException  If the file could not be mapped
+     */
+    public void setContent(File file,String contentType) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            this.setContent(input.getChannel(), -1, contentType);
+        }
+        finally {
+            if( this.file == null ){
+                input.close();
+            }
+            else {
+                /* A windowed file stays open till the stream is recycled or closed */
+                this.ownedFile  = input;
+            }
+        }
+    }
+    
+    /**
+     * Sets the content of the stream to the file with the given path. The file is memory mapped, not copied
+     * 
+     * @param path          The file path
+     * @param contentType   The MIME type of the content, may be null
+     * @throws IOException  If the file could not be mapped
+     */
+    public void setContent(Path path,String contentType) throws IOException {
+        this.setContent(path.toFile(), contentType);
+    }
+    
+    /**
+     * Sets the content of the stream to the given channel, from its current position. A file channel is memory mapped,
+     * other channels are read while the stream is read. The channel is not closed, a file bigger then 2GB and other
+     * channels must stay open till the stream is read.
+     * 
+     * @param channel       The channel
+     * @param length        The number of bytes to read, or -1 to read till the end of the channel
+     * @param contentType   The MIME type of the content, may be null
+     * @throws IOException  If the file could not be mapped
+     */
+    public void setContent(ReadableByteChannel channel,long length,String contentType) throws IOException {
+        if( channel instanceof FileChannel ){
+            FileChannel file    = (FileChannel) channel;
+            long position       = file.position();
+            if( length < 0 || length > file.size() - position ){
+                length  = file.size() - position;
+            }
+            if( length <= Integer.MAX_VALUE ){
+                this.setContent(file.map(FileChannel.MapMode.READ_ONLY, position, length), contentType);
+                
+                return;
+            }
+            
+            this.recycle();
+            
+            this.file           = file;
+            this.fileStart      = position;
+            this.length         = length;
+            this.contentType    = contentType;
+            this.mapWindow(0);
+            
+            return;
+        }
+        
+        this.recycle();
+        
+        this.content        = ByteBuffer.allocate(CHANNEL_BUFFER_SIZE);
+        this.content.limit(0);
+        this.channel        = channel;
+        this.length         = length;
+        this.contentType    = contentType;
+    }
+    
+    /**
+     * Returns the content of the stream from the start, without changing the stream. The content is not copied
+     * 
+     * @return  The content, or null if the content is read from a channel
+     */
+    ByteBuffer getContent(){
+        if( this.channel != null || this.channelRead != 0 || this.file != null )    return null;
+        
+        ByteBuffer content = this.content.duplicate();
+        content.position(0);
+        
+        return content;
+    }
     
     /**
      * Returns the length of the stream content
      * 
-     * @return The length of the content
+     * @return The length of the content, or -1 if the length is not known or bigger then 2GB
      */
     public int getLength(){
-        return this.content.length;
+        if( this.length > Integer.MAX_VALUE )   return -1;
+        
+        return (int) this.length;
+    }
+    
+    /**
+     * Returns the length of the stream content
+     * 
+     * @return The length of the content, or -1 if the length is not known
+     */
+    public long getLengthLong(){
+        return this.length;
     }
     
     /**
@@ -45,16 +363,16 @@ public class ServletInputStreamStub extends ServletInputStream {
     public String getContentType(){
         return this.contentType;
     }
-
+    
     /**
      * Checks if the stream is already read
      * 
      * @return True if the stream is already read, otherwise false
      */
     public boolean isRead() {
-        return this.pointer != 0;
+        return this.channelRead != 0 || this.windowStart != 0 || this.content.position() != 0;
     }
-
+    
     /**
      * Returns the embedded stream
      * 
@@ -65,7 +383,44 @@ public class ServletInputStreamStub extends ServletInputStream {
         
         return this;
     }
-
+    
+    /**
+     * Clears the stream so it can be reused for a next request
+     */
+    public void recycle(){
+        if( this.ownedFile != null ){
+            try {
+                this.ownedFile.close();
+            }
+            catch(IOException e){ }
+        }
+        
+        this.contentType    = null;
+        this.content        = EMPTY;
+        this.length         = 0;
+        this.channel        = null;
+        this.channelRead    = 0;
+        this.file           = null;
+        this.fileStart      = 0;
+        this.windowStart    = 0;
+        this.ownedFile      = null;
+        this.hasLoaded      = false;
+    }
+    
+    /**
+     * Closes the stream. A file that is opened by the stream is closed
+     */
+    @Override
+    public void close(){
+        if( this.ownedFile != null ){
+            try {
+                this.ownedFile.close();
+            }
+            catch(IOException e){ }
+            this.ownedFile  = null;
+        }
+    }
+    
     /**
      * Checks if the embedded stream is already loaded
      * 
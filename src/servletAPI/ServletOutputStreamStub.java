@@ -1,18 +1,32 @@
 package servletAPI;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Enumeration;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Arrays;
 import java.util.HashMap;
 import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
 
 /**
- *
+ * 
  * @author Rachelle Scheijen
  */
 public class ServletOutputStreamStub extends ServletOutputStream {
+    private static final int MINIMAL_ENCODE_BUFFER  = 16;
+    private static final int CHAR_BUFFER_SIZE       = 512;
+    
     private HashMap<Integer,String> errors;    
     private MultikeyHashMap headers;
+    private Cookie[] cookies;
+    private int cookieCount;
     private String redict;
     private boolean hasWritten;
     private boolean hasLoaded;
@@ -20,10 +34,35 @@ public class ServletOutputStreamStub extends ServletOutputStream {
     private String characterEncoding;
     private int contentLength;
     private int bufferSize;
-    private StringBuffer output;
+    private byte[] head;
+    private int headLength;
+    private boolean headValid;
+    private String headText;
+    private byte[] httpHead;
+    private int httpHeadLength;
+    private boolean httpHeadValid;
+    private long httpContentLength;
+    private boolean httpKeepAlive;
     private int status;
-    private ArrayList<Byte> content;
-    private int contentPointer;
+    private ContentBuffer content;
+    private ResponseSink sink;
+    private byte[] buffer;
+    private int bufferCount;
+    private ByteBuffer bufferView;
+    private CharsetEncoder encoder;
+    private String encoderCharset;
+    private boolean asciiEncoder;
+    private boolean encoding;
+    private char pendingSurrogate;
+    private CharBuffer pair;
+    private char[] chars;
+    private CharBuffer charBuffer;
+    private char[] wrappedChars;
+    private CharBuffer wrappedBuffer;
+    private byte[] digits;
+    private byte[] single;
+    private ByteBuffer scratch;
+    private StringBuilder text;
     
     public ServletOutputStreamStub() {
         this.hasLoaded      = false;
@@ -39,22 +78,116 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      * Resets the stream. Clears also the errors, headers and status code
      */
     public void reset() {
-        this.errors         = new HashMap<Integer,String>();
-        this.headers        = new MultikeyHashMap();
+        if( this.headers == null ){
+            this.errors     = new HashMap<Integer,String>();
+            this.headers    = new MultikeyHashMap();
+        }
+        else {
+            this.errors.clear();
+            this.headers.clear();
+        }
+        if( this.cookieCount > 0 ){
+            Arrays.fill(this.cookies, 0, this.cookieCount, null);
+            this.cookieCount    = 0;
+        }
         this.hasWritten     = false;
         this.redict         = null;
         this.status         = 200;
+        this.invalidateHead();
                 
         this.resetBuffer();
     }
     
+    /**
+     * Clears the stream so it can be reused for a next response, also when it is committed. 
+     * The settings are set back to their defaults and the body is captured again. The buffers are kept.
+     */
+    public void recycle(){
+        this.hasLoaded          = false;
+        this.contentType        = null;
+        this.characterEncoding  = null;
+        this.contentLength      = 0;
+        this.bufferSize         = 1024;
+        this.sink               = this.content;
+        this.content.setSpillThreshold(-1);
+        
+        this.reset();
+    }
+    
     /**
      * Clears the content of the underlying buffer in the response without clearing headers or status code. 
      */
     public void resetBuffer(){
-        this.output         = new StringBuffer();
-        this.content        = new ArrayList<Byte>();
-        this.contentPointer = 0;
+        this.bufferCount        = 0;
+        this.pendingSurrogate   = 0;
+        if( this.encoding ){
+            this.encoder.reset();
+            this.encoding       = false;
+        }
+        
+        if( this.content == null ){
+            this.content    = new ContentBuffer(this.bufferSize);
+            this.sink       = this.content;
+        }
+        else {
+            this.content.reset();
+        }
+    }
+    
+    /**
+     * Sets the sink that receives the body when the buffer is drained. By default the body is captured in memory 
+     * and can be read with getContent(). The sink must be set before the response is committed.
+     * 
+     * @param sink  The sink, or null to capture the body
+     * @throws IllegalStateException    If the response is already committed
+     */
+    public void setSink(ResponseSink sink) throws IllegalStateException{
+        if( this.hasWritten )   throw new IllegalStateException("Error setting sink. Output allready send");
+        
+        this.sink   = ( sink == null ) ? this.content : sink;
+    }
+    
+    /**
+     * Sends the body to the given channel when the buffer is drained. The buffered bytes are handed to the channel 
+     * without copying. The channel must be set before the response is committed.
+     * 
+     * @param channel   The channel, in blocking mode
+     * @throws IllegalStateException    If the response is already committed
+     */
+    public void setChannel(WritableByteChannel channel) throws IllegalStateException{
+        this.setSink(new ChannelSink(channel));
+    }
+    
+    /**
+     * Returns the sink that receives the body when the buffer is drained
+     * 
+     * @return  The sink
+     */
+    public ResponseSink getSink(){
+        return this.sink;
+    }
+    
+    /**
+     * Creates the response buffer with the current buffer size, if needed
+     */
+    private void prepareBuffer(){
+        if( this.buffer == null || this.buffer.length != this.bufferSize ){
+            this.buffer = new byte[this.bufferSize];
+        }
+    }
+    
+    /**
+     * Commits the response and writes the buffered bytes to the sink
+     * 
+     * @throws IOException  If the sink could not be written
+     */
+    private void drainBuffer() throws IOException{
+        if( !this.hasWritten )  this.commit();
+        
+        if( this.bufferCount > 0 ){
+            this.sink.write(this.buffer, 0, this.bufferCount);
+            this.bufferCount    = 0;
+        }
     }
     
     /**
@@ -65,7 +198,7 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     @Override
     public void print(boolean b) throws IOException{
-        this.print(String.valueOf(b));
+        this.print(b ? "true" : "false");
     }
     
     /**
@@ -76,7 +209,15 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     @Override
     public void print(char c) throws IOException{
-        this.print(String.valueOf(c));
+        this.prepareEncoder();
+        
+        if( c < 0x80 && this.writesAscii() ){
+            this.write(c);
+        }
+        else {
+            this.chars[0]   = c;
+            this.print(this.chars, 0, 1);
+        }
     }
     
     /**
@@ -87,7 +228,11 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     @Override
     public void print(double d) throws IOException{
-        this.print(String.valueOf(d));
+        this.prepareEncoder();
+        
+        this.text.setLength(0);
+        this.text.append(d);
+        this.printChars(this.text, 0, this.text.length());
     }
     
     /**
@@ -98,7 +243,11 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     @Override
     public void print(float f) throws IOException{
-        this.print(String.valueOf(f));
+        this.prepareEncoder();
+        
+        this.text.setLength(0);
+        this.text.append(f);
+        this.printChars(this.text, 0, this.text.length());
     }
     
     /**
@@ -109,7 +258,7 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     @Override
     public void print(int i) throws IOException{
-        this.write(i);
+        this.print((long) i);
     }
     
     /**
@@ -120,7 +269,28 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     @Override
     public void print(long l) throws IOException{
-        this.print(String.valueOf(l));
+        this.prepareEncoder();
+        
+        /* Write the digits backwards, from the last position of the digit buffer */
+        int pos         = this.digits.length;
+        boolean negative= l < 0;
+        if( !negative ) l = -l;
+        do {
+            this.digits[--pos]  = (byte) ('0' - (l % 10));
+            l /= 10;
+        } while( l != 0 );
+        if( negative )  this.digits[--pos] = '-';
+        
+        if( this.writesAscii() ){
+            this.write(this.digits, pos, this.digits.length - pos);
+        }
+        else {
+            int length = this.digits.length - pos;
+            for(int i=0; i<length; i++){
+                this.chars[i]   = (char) this.digits[pos + i];
+            }
+            this.print(this.chars, 0, length);
+        }
     }
     
     /**
@@ -131,7 +301,267 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     @Override
     public void print(String s) throws IOException{
-        this.write(s.getBytes(),0,s.length());
+        if( s == null ) s = "null";
+        
+        this.prepareEncoder();
+        this.printChars(s, 0, s.length());
+    }
+    
+    /**
+     * Writes a part of a String to the client, encoded with the character encoding of the response.
+     * 
+     * @param s     the String
+     * @param off   the start offset in the String
+     * @param len   the number of characters to write
+     * @throws IOException if an input or output exception occurred
+     */
+    public void print(String s,int off,int len) throws IOException{
+        this.prepareEncoder();
+        this.printChars(s, off, off + len);
+    }
+    
+    /**
+     * Writes len characters from the given array starting at offset off to the client, encoded with the character encoding of the response.
+     * A high surrogate at the end is kept till the next characters, so a surrogate pair may be split over two calls.
+     * 
+     * @param c     the characters
+     * @param off   the start offset in the characters
+     * @param len   the number of characters to write
+     * @throws IOException if an input or output exception occurred
+     */
+    public void print(char[] c,int off,int len) throws IOException{
+        this.prepareEncoder();
+        if( len <= 0 )  return;
+        
+        if( this.pendingSurrogate != 0 ){
+            /* Completes the surrogate pair of the previous call */
+            this.pair.clear();
+            this.pair.put(this.pendingSurrogate).put(c[off]).flip();
+            this.pendingSurrogate   = 0;
+            this.encodePart(this.pair);
+            
+            off++;
+            len--;
+        }
+        
+        /* The characters are encoded from the given array, without copying */
+        CharBuffer source;
+        if( c == this.chars ){
+            source  = this.charBuffer;
+        }
+        else {
+            if( c != this.wrappedChars ){
+                this.wrappedChars   = c;
+                this.wrappedBuffer  = CharBuffer.wrap(c);
+            }
+            source  = this.wrappedBuffer;
+        }
+        source.limit(off + len).position(off);
+        this.encodePart(source);
+        
+        this.charBuffer.clear();
+    }
+    
+    /**
+     * Encodes the given text in chunks of the character buffer, with the character encoding of the response
+     * 
+     * @param s         The text, a String or a StringBuilder
+     * @param start     The first character
+     * @param length    The end of the characters
+     * @throws IOException if an input or output exception occurred
+     */
+    private void printChars(CharSequence s,int start,int length) throws IOException{
+        this.charBuffer.clear();
+        if( this.pendingSurrogate != 0 && start < length ){
+            this.charBuffer.put(this.pendingSurrogate);
+            this.pendingSurrogate   = 0;
+        }
+        while( start < length ){
+            int amount = Math.min(length - start, this.charBuffer.remaining());
+            int pos    = this.charBuffer.position();
+            if( s instanceof String ){
+                ((String) s).getChars(start, start + amount, this.chars, pos);
+            }
+            else {
+                ((StringBuilder) s).getChars(start, start + amount, this.chars, pos);
+            }
+            start += amount;
+            
+            this.charBuffer.position(pos + amount);
+            this.charBuffer.flip();
+            this.encode(this.charBuffer, false);
+            this.encoding   = true;
+            
+            /* Keeps a half surrogate pair for the next chunk */
+            this.charBuffer.compact();
+        }
+        
+        this.charBuffer.flip();
+        if( this.charBuffer.hasRemaining() ){
+            this.pendingSurrogate   = this.charBuffer.get();
+        }
+        this.charBuffer.clear();
+    }
+    
+    /**
+     * Encodes the given characters, more characters may follow. A high surrogate at the end is kept for the next call.
+     * 
+     * @param source    The characters
+     * @throws IOException if an input or output exception occurred
+     */
+    private void encodePart(CharBuffer source) throws IOException{
+        this.encode(source, false);
+        this.encoding   = true;
+        
+        if( source.hasRemaining() ){
+            this.pendingSurrogate   = source.get();
+        }
+    }
+    
+    /**
+     * Ends the input of the encoder and writes its last bytes. A pending high surrogate without its low surrogate 
+     * is written as a replacement. The encoder is reset for the next characters.
+     * 
+     * @throws IOException if an input or output exception occurred
+     */
+    private void endEncoder() throws IOException{
+        if( !this.encoding )    return;
+        
+        this.pair.clear();
+        if( this.pendingSurrogate != 0 ){
+            this.pair.put(this.pendingSurrogate);
+            this.pendingSurrogate   = 0;
+        }
+        this.pair.flip();
+        
+        this.encode(this.pair, true);
+        this.flushEncoder();
+        this.encoder.reset();
+        this.encoding   = false;
+    }
+    
+    /**
+     * Checks if ASCII characters can be written as bytes, without the encoder. 
+     * This is the case for an ASCII compatible encoding without a pending high surrogate. 
+     * The encoder is brought back to its initial state first.
+     * 
+     * @return  True if ASCII characters can be written as bytes
+     * @throws IOException if an input or output exception occurred
+     */
+    private boolean writesAscii() throws IOException{
+        if( !this.asciiEncoder || this.pendingSurrogate != 0 )  return false;
+        
+        this.endEncoder();
+        
+        return true;
+    }
+    
+    /**
+     * Encodes the given characters straight into the response buffer. The buffer is drained when it is full.
+     * 
+     * @param source        The characters
+     * @param endOfInput    True if there are no more characters after these
+     * @throws IOException if an input or output exception occurred
+     */
+    private void encode(CharBuffer source,boolean endOfInput) throws IOException{
+        CoderResult result;
+        do {
+            ByteBuffer target   = this.encodeTarget();
+            result              = this.encoder.encode(source, target, endOfInput);
+            this.encoded(target, result.isOverflow());
+        } while( result.isOverflow() );
+    }
+    
+    /**
+     * Writes the last bytes of the encoder
+     * 
+     * @throws IOException if an input or output exception occurred
+     */
+    private void flushEncoder() throws IOException{
+        CoderResult result;
+        do {
+            ByteBuffer target   = this.encodeTarget();
+            result              = this.encoder.flush(target);
+            this.encoded(target, result.isOverflow());
+        } while( result.isOverflow() );
+    }
+    
+    /**
+     * Returns the buffer to encode in. This is a view on the free part of the response buffer, or a scratch buffer
+     * if the response buffer is too small to hold an encoded character.
+     * 
+     * @return  The target buffer
+     */
+    private ByteBuffer encodeTarget(){
+        if( this.bufferSize < MINIMAL_ENCODE_BUFFER ){
+            this.scratch.clear();
+            
+            return this.scratch;
+        }
+        
+        this.prepareBuffer();
+        if( this.bufferView == null || this.bufferView.array() != this.buffer ){
+            this.bufferView = ByteBuffer.wrap(this.buffer);
+        }
+        this.bufferView.limit(this.bufferSize).position(this.bufferCount);
+        
+        return this.bufferView;
+    }
+    
+    /**
+     * Registers the bytes that are encoded in the given target
+     * 
+     * @param target    The target buffer from encodeTarget()
+     * @param full      True if the target is full
+     * @throws IOException if an input or output exception occurred
+     */
+    private void encoded(ByteBuffer target,boolean full) throws IOException{
+        if( target == this.scratch ){
+            this.write(this.scratch.array(), 0, this.scratch.position());
+        }
+        else {
+            this.bufferCount    = target.position();
+            
+            if( full )  this.drainBuffer();
+        }
+    }
+    
+    /**
+     * Prepares the encoder for the character encoding of the response. 
+     * The encoder and the buffers are only created again if the character encoding is changed.
+     * An unknown character encoding is replaced by ISO-8859-1.
+     * 
+     * @throws IOException if the last bytes of the previous encoder could not be written
+     */
+    private void prepareEncoder() throws IOException{
+        String charset = this.getCharacterEncoding();
+        if( charset.equals(this.encoderCharset) )   return;
+        
+        this.endEncoder();
+        
+        Charset encoding;
+        try {
+            encoding    = Charset.forName(charset);
+        }
+        catch(IllegalCharsetNameException e){
+            encoding    = Charset.forName("ISO-8859-1");
+        }
+        catch(UnsupportedCharsetException e){
+            encoding    = Charset.forName("ISO-8859-1");
+        }
+        
+        this.encoder        = encoding.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.encoderCharset = charset;
+        this.asciiEncoder   = Arrays.equals("-0123456789\n".getBytes(encoding), "-0123456789\n".getBytes(Charset.forName("US-ASCII")));
+        
+        if( this.chars == null ){
+            this.chars      = new char[CHAR_BUFFER_SIZE];
+            this.charBuffer = CharBuffer.wrap(this.chars);
+            this.pair       = CharBuffer.allocate(2);
+            this.digits     = new byte[20];
+            this.scratch    = ByteBuffer.allocate(MINIMAL_ENCODE_BUFFER);
+            this.text       = new StringBuilder(32);
+        }
     }
     
     /**
@@ -140,9 +570,14 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     @Override
     public void println() throws IOException{
-        String value    = "\n";
+        this.prepareEncoder();
         
-        this.write(value.getBytes(),0,value.length());
+        if( this.writesAscii() ){
+            this.write('\n');
+        }
+        else {
+            this.print('\n');
+        }
     }
     
     /**
@@ -152,7 +587,8 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     @Override
     public void println(boolean b) throws IOException{
-        this.println(String.valueOf(b));
+        this.print(b);
+        this.println();
     }
     
     /**
@@ -163,7 +599,8 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     @Override
     public void println(char c) throws IOException{
-        this.println(String.valueOf(c));
+        this.print(c);
+        this.println();
     }
     
     /**
@@ -174,7 +611,8 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     @Override
     public void println(double d) throws IOException{
-        this.println(String.valueOf(d));
+        this.print(d);
+        this.println();
     }
     
     /**
@@ -185,7 +623,8 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     @Override
     public void println(float f) throws IOException{
-        this.println(String.valueOf(f));
+        this.print(f);
+        this.println();
     }
     
     /**
@@ -196,7 +635,8 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     @Override
     public void println(int i) throws IOException{
-        this.println(String.valueOf(i));
+        this.print(i);
+        this.println();
     }
     
     /**
@@ -207,7 +647,8 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     @Override
     public void println(long l) throws IOException{
-        this.println(String.valueOf(l));
+        this.print(l);
+        this.println();
     }
     
     /**
@@ -218,12 +659,10 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     @Override
     public void println(String s) throws IOException{
-         s  = s + "\n";
-         
-         
-         this.write(s.getBytes(), 0, s.length());
-   }
-
+        this.print(s);
+        this.println();
+    }
+    
     /**
      * Writes a int to the client
      * 
@@ -231,7 +670,21 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     @Override
     public void write(int i ) throws IOException{
-        this.content.set(this.contentPointer++,(byte) i);
+        this.prepareBuffer();
+        if( this.bufferCount == this.bufferSize ){
+            this.drainBuffer();
+            
+            if( this.bufferSize == 0 ){
+                /* Unbuffered, written through a reused array */
+                if( this.single == null )   this.single = new byte[1];
+                
+                this.single[0]  = (byte) i;
+                this.sink.write(this.single, 0, 1);
+                return;
+            }
+        }
+        
+        this.buffer[this.bufferCount++] = (byte) i;
     }
     
     /**
@@ -254,31 +707,145 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      * @param len   the number of bytes to write
      * @throws IOException              if an I/O error occurs. In particular, an IOException is thrown if the output stream is closed
      * @throws NullPointerException     If b is null
+     * @throws IndexOutOfBoundsException If off or len is negative or off+len is bigger then the buffer size
      */
     @Override
-    public void write(byte[] b,int off,int len) throws IOException, NullPointerException{
+    public void write(byte[] b,int off,int len) throws IOException, NullPointerException, IndexOutOfBoundsException{
         if( b == null ) throw new NullPointerException("No data to write");
-        if( off > b.length )    throw new NullPointerException("offset "+off+" bigger then buffer size");
-        if( len > b.length )    throw new NullPointerException("length "+len+" bigger then buffer size");
+        if( off < 0 || off > b.length )     throw new IndexOutOfBoundsException("offset "+off+" bigger then buffer size");
+        if( len < 0 || len > b.length-off ) throw new IndexOutOfBoundsException("length "+len+" bigger then buffer size");
+        
+        this.prepareBuffer();
+        if( len <= this.bufferSize - this.bufferCount ){
+            System.arraycopy(b, off, this.buffer, this.bufferCount, len);
+            this.bufferCount += len;
+            
+            return;
+        }
+        
+        /* Buffer full, commit the response */
+        if( !this.hasWritten )  this.commit();
         
-        for(int i=off; i<len; i++){
-            this.content.add(b[i]);
-            this.contentPointer++;
+        if( len >= this.bufferSize && this.bufferCount > 0 ){
+            /* Send the buffer and the data together */
+            this.sink.write(new ByteBuffer[]{ ByteBuffer.wrap(this.buffer, 0, this.bufferCount), ByteBuffer.wrap(b, off, len) });
+            this.bufferCount    = 0;
+        }
+        else if( len >= this.bufferSize ){
+            this.sink.write(b, off, len);
+        }
+        else {
+            this.drainBuffer();
+            
+            System.arraycopy(b, off, this.buffer, 0, len);
+            this.bufferCount    = len;
         }
     }
     
     /**
-     * The flush method of ServletOutputStreamStub does nothing. 
+     * Returns the written content as a read only ByteBuffer. The content is not copied.
+     * In memory the buffer is a view on the content, a content that is spilled to disk is memory mapped.
+     * The buffer shows the content at the moment of calling and should not be used after the next write or reset. 
+     * 
+     * If an other sink is set, only the buffered bytes that are not yet send to the sink are returned.
+     * 
+     * @return  The content, from position 0 till the content size
+     * @throws IOException  If the spilled content could not be mapped
+     * @throws IllegalStateException    If the content is bigger then 2GB. Use getContent(long,int) instead
+     */
+    public ByteBuffer getContent() throws IOException, IllegalStateException{
+        if( this.isBuffered() ){
+            return ByteBuffer.wrap(this.buffer, 0, this.bufferCount).slice().asReadOnlyBuffer();
+        }
+        
+        this.drainBuffer();
+        
+        return this.content.getContent();
+    }
+    
+    /**
+     * Returns a part of the written content as a read only ByteBuffer. The content is not copied.
+     * 
+     * @param position  The start position in the content
+     * @param length    The number of bytes
+     * @return  The content part
+     * @throws IOException  If the spilled content could not be mapped
+     * @throws IndexOutOfBoundsException    If the part is not within the content
+     */
+    public ByteBuffer getContent(long position,int length) throws IOException, IndexOutOfBoundsException{
+        if( this.isBuffered() ){
+            if( position < 0 || length < 0 || position + length > this.bufferCount ){
+                throw new IndexOutOfBoundsException("Part "+position+"+"+length+" is not within the content of "+this.bufferCount+" bytes");
+            }
+            
+            return ByteBuffer.wrap(this.buffer, (int) position, length).slice().asReadOnlyBuffer();
+        }
+        
+        this.drainBuffer();
+        
+        return this.content.getContent(position, length);
+    }
+    
+    /**
+     * Returns the amount of written bytes
+     * 
+     * @return  The content size
+     */
+    public long getContentSize(){
+        if( this.isBuffered() ) return this.bufferCount;
+        
+        return this.content.size() + this.bufferCount;
+    }
+    
+    /**
+     * Checks if the whole content is still in the response buffer. 
+     * This is the case before the response is committed or when an other sink is set.
+     * 
+     * @return True if the content is only in the response buffer
+     */
+    private boolean isBuffered(){
+        return !this.hasWritten || this.sink != this.content;
+    }
+    
+    /**
+     * Sets the amount of content bytes that is kept in memory. Content past this size is written to a temporary file.
+     * 
+     * @param threshold     The threshold in bytes, or -1 to keep all the content in memory
+     */
+    public void setSpillThreshold(long threshold){
+        this.content.setSpillThreshold(threshold);
+    }
+    
+    /**
+     * Checks if the content is spilled to disk
+     * 
+     * @return True if the content is written to a temporary file, otherwise false
+     */
+    public boolean isSpilled(){
+        return this.content.isSpilled();
+    }
+    
+    /**
+     * Commits the response and writes the buffered content to the sink. 
+     * The encoder writes its last bytes first, a pending high surrogate is written as a replacement.
+     * 
+     * @throws IOException  If the sink could not be written
      */
     @Override
-    public void flush(){
+    public void flush() throws IOException{
+        this.endEncoder();
+        this.drainBuffer();
+        this.sink.flush();
     }
     
     /**
-     * The close method of ServletOutputStreamStub does nothing 
+     * Commits the response and writes the buffered content to the sink. The stream itself stays open.
+     * 
+     * @throws IOException  If the sink could not be written
      */
     @Override
-    public void close(){
+    public void close() throws IOException{
+        this.flush();
     }
     
     /**
@@ -300,7 +867,7 @@ public class ServletOutputStreamStub extends ServletOutputStream {
         
         return this;
     }
-
+    
     /**
      * Returns if output is written
      * 
@@ -309,7 +876,7 @@ public class ServletOutputStreamStub extends ServletOutputStream {
     public boolean hasWritten() {
         return this.hasWritten;
     }
-
+    
     /**
      * Writes the error message
      * 
@@ -319,8 +886,9 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     public void writeError(int sc, String msg) throws IOException{
         this.errors.put(sc, msg);
+        this.invalidateHead();
     }
-
+    
     /**
      * Writes the redirect header
      * 
@@ -328,27 +896,32 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      * @throws IOException 
      */
     public void writeRedirect(String location) throws IOException {
-        this.redict = location;
+        this.redict     = location;
+        this.invalidateHead();
     }
-
+    
     /**
      * Writes the http-status
      * 
      * @param sc    The http-status
      */
     public void writeStatus(int sc) {
-        this.status = sc;
+        this.status     = sc;
+        this.invalidateHead();
     }
     
     /**
-     * Gets the http-status code
+     * Gets the http-status code. After an error is send the error code is returned, after a redirect 302.
      * 
      * @return       the status code
      */
     public int getStatus() {
+        if( !this.errors.isEmpty() )    return this.errors.keySet().iterator().next().intValue();
+        if( this.redict != null )       return 302;
+        
         return this.status;
     }
-
+    
     /**
      * Sets the content type of the response being sent to the client, if the response has not been committed yet. The given content type may include a character encoding specification, for example, text/html;charset=UTF-8. 
      * 
@@ -358,8 +931,9 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     public void setContentType(String type) {
         this.contentType    = type;
+        this.invalidateHead();
     }
-
+    
     /**
      * Returns the content type used for the MIME body sent in this response. The content type proper must have been specified using setContentType(java.lang.String) before the response is committed. If no content type has been specified, this method returns null. If a content type has been specified, and a character encoding has been explicitly or implicitly specified as described in getCharacterEncoding() has been called, the charset parameter is included in the string returned. If no character encoding has been specified, the charset parameter is omitted. 
      * 
@@ -372,7 +946,7 @@ public class ServletOutputStreamStub extends ServletOutputStream {
         
         return this.contentType;
     }
-
+    
     /**
      * Returns the name of the character encoding (MIME charset) used for the body sent in this response. The character encoding may have been specified explicitly using the setCharacterEncoding(java.lang.String) or setContentType(java.lang.String) methods, or implicitly using the setLocale(java.util.Locale) method. Explicit specifications take precedence over implicit specifications. Calls made to these methods after getWriter has been called or after the response has been committed have no effect on the character encoding. If no character encoding has been specified, ISO-8859-1 is returned. 
      * 
@@ -383,20 +957,20 @@ public class ServletOutputStreamStub extends ServletOutputStream {
         
         return this.characterEncoding;
     }
-
+    
     /**
      * Overrides the name of the character encoding used in the body of this request. This method must be called prior to reading request parameters or reading input using getStream(). Otherwise, it has no effect. 
      * 
      * @param env   String containing the name of the character encoding. 
      */
     void setCharacterEncoding(String env) {
-        System.out.println("Encoding : "+env);
         if( env.equals("") || !env.matches("^[a-zA-Z0-9-:_]+$") )
             return;
         
         this.characterEncoding  = env;
+        this.invalidateHead();
     }
-
+    
     /**
      * Sets the length of the content body in the response In HTTP servlets, this method sets the HTTP Content-Length header. 
      * 
@@ -404,17 +978,23 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      */
     public void setContentlength(int len) {
         this.contentLength  = len;
+        this.invalidateHead();
     }
-
+    
     /**
      * Sets the preferred buffer size for the body of the response.  
      * 
      * @param size the preferred buffer size 
+     * @throws IllegalStateException    If the response is committed or content is written
      */
-    public void setBufferSize(int size) {
+    public void setBufferSize(int size) throws IllegalStateException {
+        if( this.hasWritten )   throw new IllegalStateException("Error setting buffer size. Output allready send");
+        if( this.bufferCount > 0 )  throw new IllegalStateException("Error setting buffer size. Content allready written");
+        if( size < 0 )  size = 0;
+        
         this.bufferSize = size;
     }
-
+    
     /**
      * Returns the actual buffer size used for the response. If no buffering is used, this method returns 0. 
      * 
@@ -423,13 +1003,39 @@ public class ServletOutputStreamStub extends ServletOutputStream {
     public int getBufferSize() {
         return this.bufferSize;
     }
-
+    
+    /**
+     * Commits the response and writes the buffered content to the sink
+     * 
+     * @throws IOException  If the sink could not be written
+     */
+    public void writeBuffer() throws IOException {
+        this.drainBuffer();
+    }
+    
     /**
-     * Generates the header-output
+     * Commits the response by generating the header-output
      */
-    public void writeBuffer() {
+    private void commit() {
         this.hasWritten = true;
         
+        this.serializeHead();
+    }
+    
+    /**
+     * Serializes the header-output into the head bytes. The head is cached until the status or the headers change, 
+     * the bytes are written into a reused array in one pass over the headers in insertion order.
+     */
+    private void serializeHead() {
+        if( this.headValid )    return;
+        
+        if( this.head == null ){
+            this.head   = new byte[256];
+        }
+        this.headLength = 0;
+        this.headText   = null;
+        boolean expires = false;
+        
         if( !this.errors.isEmpty() ){
             Object[] keys   = this.errors.keySet().toArray();
             
@@ -437,37 +1043,158 @@ public class ServletOutputStreamStub extends ServletOutputStream {
             for(int i=0; i<keys.length; i++){
                 key = (Integer) keys[i];
                 
-                this.output.append(key).append("\n");
-                this.output.append(this.errors.get(key)).append("\n");
+                this.appendHead(key.intValue()).appendHead("\n");
+                this.appendHead(this.errors.get(key)).appendHead("\n");
             }
             
         }
         else if( this.redict != null ){
-            this.output.append("302 \n");
-            this.output.append("Content-Length: ").append(this.redict.length()).append("\n");
-            this.output.append(this.redict);
+            this.appendHead("302 \n");
+            expires = this.appendCookies("\n");
+            this.appendHead("Content-Length: ").appendHead(this.redict.length()).appendHead("\n");
+            this.appendHead(this.redict);
         }
         else {            
-            this.output.append(this.status).append("\n");
-            this.output.append(this.getContentType()).append("\n");
-            this.output.append("Content-Length: ").append(this.contentLength).append("\n");
+            this.appendHead(this.status).appendHead("\n");
+            this.appendHead(this.getContentType()).appendHead("\n");
+            this.appendHead("Content-Length: ").appendHead(this.contentLength).appendHead("\n");
             
-            Enumeration keys    = this.headers.getKeys();
-            String key;
-            int pos = 0;
-            while(keys.hasMoreElements() ){
-                key = (String) keys.nextElement();
-                
-                pos = this.headers.findKey(key, pos);
-                while( pos != -1 ){
-                    this.output.append(key).append(": ").append(this.headers.get(key,pos)).append("\n");
-                    
-                    pos = this.headers.findKey(key, pos+1);
+            for(int pos=this.headers.getFirstPosition(); pos!=-1; pos=this.headers.getNextPosition(pos)){
+                this.appendHead(this.headers.getKey(pos)).appendHead(": ").appendHead(this.headers.getValue(pos)).appendHead("\n");
+            }
+            expires = this.appendCookies("\n");
+            
+            this.appendHead("\n");
+        }
+        
+        /* An Expires date is computed from the current time, so that head is not cached */
+        this.headValid  = !expires;
+    }
+    
+    /**
+     * Appends a Set-Cookie header for every added cookie
+     * 
+     * @param lineEnd   The end of a header line
+     * @return  True if an Expires date is appended that depends on the current time
+     */
+    private boolean appendCookies(String lineEnd){
+        boolean expiresNow = false;
+        for(int i=0; i<this.cookieCount; i++){
+            Cookie cookie = this.cookies[i];
+            
+            this.appendHead("Set-Cookie: ").appendHead(cookie.getName()).appendHead("=");
+            this.appendCookieValue(cookie.getValue(), cookie.getVersion());
+            if( cookie.getVersion() > 0 ){
+                this.appendHead("; Version=").appendHead(cookie.getVersion());
+                if( cookie.getComment() != null ){
+                    this.appendHead("; Comment=");
+                    this.appendCookieValue(cookie.getComment(), cookie.getVersion());
                 }
             }
+            if( cookie.getDomain() != null )    this.appendHead("; Domain=").appendHead(cookie.getDomain());
+            if( cookie.getPath() != null )      this.appendHead("; Path=").appendHead(cookie.getPath());
+            if( cookie.getMaxAge() >= 0 ){
+                long expires = ( cookie.getMaxAge() == 0 ) ? 0 : System.currentTimeMillis() + cookie.getMaxAge() * 1000L;
+                
+                this.appendHead("; Max-Age=").appendHead(cookie.getMaxAge());
+                this.appendHead("; Expires=").appendHead(HttpDateFormat.format(expires));
+                expiresNow  |= ( cookie.getMaxAge() > 0 );
+            }
+            if( cookie.getSecure() )    this.appendHead("; Secure");
+            
+            this.appendHead(lineEnd);
+        }
+        
+        return expiresNow;
+    }
+    
+    /**
+     * Appends a cookie value. A version 1 value with separators is quoted, a version 0 value is written as it is
+     * 
+     * @param value     The value
+     * @param version   The cookie version
+     */
+    private void appendCookieValue(String value,int version){
+        if( value == null ) return;
+        
+        boolean quote = false;
+        if( version > 0 ){
+            for(int i=0; i<value.length() && !quote; i++){
+                char c = value.charAt(i);
+                quote  = ( c <= ' ' || c == '"' || c == ',' || c == ';' || c == '\\' );
+            }
+        }
+        if( !quote ){
+            this.appendHead(value);
             
-            this.output.append("\n");
+            return;
+        }
+        
+        this.appendHead("\"");
+        for(int i=0; i<value.length(); i++){
+            char c = value.charAt(i);
+            if( c == '"' || c == '\\' ){
+                this.appendHead("\\");
+            }
+            this.appendHead(String.valueOf(c));
         }
+        this.appendHead("\"");
+    }
+    
+    /**
+     * Appends the given text to the head as ISO-8859-1
+     * 
+     * @param text  The text
+     * @return  This stream
+     */
+    private ServletOutputStreamStub appendHead(String text){
+        if( text == null )  text = "null";
+        
+        int length = text.length();
+        if( this.headLength + length > this.head.length ){
+            this.head   = Arrays.copyOf(this.head, Math.max(this.head.length * 2, this.headLength + length));
+        }
+        
+        for(int i=0; i<length; i++){
+            char c = text.charAt(i);
+            this.head[this.headLength++]    = ( c < 0x100 ) ? (byte) c : (byte) '?';
+        }
+        
+        return this;
+    }
+    
+    /**
+     * Appends the given number to the head
+     * 
+     * @param number    The number
+     * @return  This stream
+     */
+    private ServletOutputStreamStub appendHead(long number){
+        if( this.headLength + 20 > this.head.length ){
+            this.head   = Arrays.copyOf(this.head, this.head.length * 2);
+        }
+        
+        if( number < 0 ){
+            this.head[this.headLength++]    = '-';
+        }
+        else {
+            number = -number;
+        }
+        
+        int start = this.headLength;
+        do {
+            this.head[this.headLength++]    = (byte) ('0' - (number % 10));
+            number /= 10;
+        } while( number != 0 );
+        
+        /* Reverse the digits */
+        for(int i=start, j=this.headLength-1; i<j; i++, j--){
+            byte digit      = this.head[i];
+            this.head[i]    = this.head[j];
+            this.head[j]    = digit;
+        }
+        
+        return this;
     }
     
     /**
@@ -476,9 +1203,162 @@ public class ServletOutputStreamStub extends ServletOutputStream {
      * @return  The header output
      */
     public String getHeader(){
-        return this.output.toString();
+        if( !this.hasWritten )  return "";
+        
+        this.serializeHead();
+        if( this.headText == null ){
+            this.headText   = new String(this.head, 0, this.headLength, Charset.forName("ISO-8859-1"));
+        }
+        
+        return this.headText;
     }
-
+    
+    /**
+     * Returns the serialized header output as a read only view on the cached bytes. Call writeBuffer() before
+     * 
+     * @return  The header output, ISO-8859-1 encoded
+     */
+    public ByteBuffer getHeaderBytes(){
+        if( !this.hasWritten )  return ByteBuffer.allocate(0);
+        
+        this.serializeHead();
+        
+        return ByteBuffer.wrap(this.head, 0, this.headLength).asReadOnlyBuffer();
+    }
+    
+    /**
+     * Marks the header output and the HTTP head as changed, so they are serialized again when they are requested
+     */
+    private void invalidateHead(){
+        this.headValid      = false;
+        this.httpHeadValid  = false;
+    }
+    
+    /**
+     * Returns the body to send over HTTP. The response is committed first and the encoder writes its last bytes, 
+     * as the body is complete. If an error is send and no content is written, the error message is returned as body.
+     * 
+     * @return  The body
+     * @throws IOException  If the spilled content could not be mapped
+     * @throws IllegalStateException    If the content is bigger then 2GB
+     */
+    public ByteBuffer getHttpBody() throws IOException, IllegalStateException {
+        this.endEncoder();
+        this.writeBuffer();
+        
+        if( !this.errors.isEmpty() && this.getContentSize() == 0 ){
+            String message = this.errors.values().iterator().next();
+            if( message == null )   message = "";
+            
+            return ByteBuffer.wrap(message.getBytes(Charset.forName("ISO-8859-1")));
+        }
+        
+        return this.getContent();
+    }
+    
+    /**
+     * Serializes the HTTP/1.1 response head. Content-Length and Connection are set by the caller, 
+     * so these headers are skipped in the response headers.
+     * The head is cached in its own array until the status, the headers, the cookies, the content length or keepAlive change.
+     * A head with a cookie that expires after a Max-Age is serialized again on every call, as its Expires date moves with the time.
+     * 
+     * @param contentLength     The length of the body in bytes
+     * @param keepAlive         False to close the connection after the response
+     * @return  The head, a view on the array that is valid till the next change of the response
+     */
+    public ByteBuffer getHttpHeader(long contentLength,boolean keepAlive){
+        if( this.httpHeadValid && this.httpContentLength == contentLength && this.httpKeepAlive == keepAlive ){
+            return ByteBuffer.wrap(this.httpHead, 0, this.httpHeadLength);
+        }
+        
+        int code            = this.getStatus();
+        String type         = this.getContentType();
+        String location     = null;
+        if( !this.errors.isEmpty() ){
+            type        = "text/html";
+        }
+        else if( this.redict != null ){
+            location    = this.redict;
+        }
+        
+        /* The head is appended into its own array, the header output is kept */
+        byte[] text         = this.head;
+        int textLength      = this.headLength;
+        this.head           = ( this.httpHead == null ) ? new byte[256] : this.httpHead;
+        this.headLength     = 0;
+        
+        this.appendHead("HTTP/1.1 ").appendHead(code).appendHead(" ").appendHead(getReasonPhrase(code)).appendHead("\r\n");
+        if( location != null ){
+            this.appendHead("Location: ").appendHead(location).appendHead("\r\n");
+        }
+        if( type != null && !this.containsHeader("Content-Type") ){
+            this.appendHead("Content-Type: ").appendHead(type).appendHead("\r\n");
+        }
+        this.appendHead("Content-Length: ").appendHead(contentLength).appendHead("\r\n");
+        
+        String name;
+        for(int pos=this.headers.getFirstPosition(); pos!=-1; pos=this.headers.getNextPosition(pos)){
+            name    = this.headers.getKey(pos);
+            if( name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Connection") || name.equalsIgnoreCase("Transfer-Encoding") )
+                continue;
+            
+            this.appendHead(name).appendHead(": ").appendHead(this.headers.getValue(pos)).appendHead("\r\n");
+        }
+        boolean expires = this.appendCookies("\r\n");
+        
+        if( !keepAlive ){
+            this.appendHead("Connection: close\r\n");
+        }
+        this.appendHead("\r\n");
+        
+        this.httpHead           = this.head;
+        this.httpHeadLength     = this.headLength;
+        this.httpHeadValid      = !expires;
+        this.httpContentLength  = contentLength;
+        this.httpKeepAlive      = keepAlive;
+        this.head               = text;
+        this.headLength         = textLength;
+        
+        return ByteBuffer.wrap(this.httpHead, 0, this.httpHeadLength);
+    }
+    
+    /**
+     * Returns the reason phrase of the given HTTP status code
+     * 
+     * @param code  The status code
+     * @return  The reason phrase, or an empty string for an unknown code
+     */
+    private static String getReasonPhrase(int code){
+        switch( code ){
+            case 100 :  return "Continue";
+            case 200 :  return "OK";
+            case 201 :  return "Created";
+            case 202 :  return "Accepted";
+            case 204 :  return "No Content";
+            case 206 :  return "Partial Content";
+            case 301 :  return "Moved Permanently";
+            case 302 :  return "Found";
+            case 303 :  return "See Other";
+            case 304 :  return "Not Modified";
+            case 307 :  return "Temporary Redirect";
+            case 400 :  return "Bad Request";
+            case 401 :  return "Unauthorized";
+            case 403 :  return "Forbidden";
+            case 404 :  return "Not Found";
+            case 405 :  return "Method Not Allowed";
+            case 408 :  return "Request Timeout";
+            case 411 :  return "Length Required";
+            case 413 :  return "Request Entity Too Large";
+            case 414 :  return "Request-URI Too Long";
+            case 415 :  return "Unsupported Media Type";
+            case 500 :  return "Internal Server Error";
+            case 501 :  return "Not Implemented";
+            case 503 :  return "Service Unavailable";
+            case 505 :  return "HTTP Version Not Supported";
+            default :   return "";
+        }
+    }
+    
     /**
      * Checks if the header is already defined
      * 
@@ -488,7 +1368,7 @@ public class ServletOutputStreamStub extends ServletOutputStream {
     public boolean containsHeader(String name) {
         return this.headers.findKey(name, 0) != -1;
     }
-
+    
     /**
      * Adds a HTTP header
      * 
@@ -503,8 +1383,37 @@ public class ServletOutputStreamStub extends ServletOutputStream {
         else {
             this.headers.add(name, value);
         }
+        this.invalidateHead();
     }
-
+    
+    /**
+     * Adds a cookie. The cookies are sent as Set-Cookie headers when the response is committed
+     * 
+     * @param cookie    The cookie
+     */
+    public void addCookie(Cookie cookie){
+        if( this.cookies == null ){
+            this.cookies    = new Cookie[8];
+        }
+        else if( this.cookieCount == this.cookies.length ){
+            this.cookies    = Arrays.copyOf(this.cookies, this.cookieCount * 2);
+        }
+        
+        this.cookies[this.cookieCount++]    = cookie;
+        this.invalidateHead();
+    }
+    
+    /**
+     * Returns the added cookies
+     * 
+     * @return  The cookies, in the order they are added
+     */
+    public Cookie[] getCookies(){
+        if( this.cookieCount == 0 ) return new Cookie[0];
+        
+        return Arrays.copyOf(this.cookies, this.cookieCount);
+    }
+    
     public String getHeader(String name,int offset) {
         if( !this.containsHeader(name) )    return null;
         
@@ -0,0 +1,80 @@
+package servletAPI;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writer that encodes the characters straight into the buffer of a ServletOutputStreamStub, 
+ * with the character encoding of the response.
+ *
+ * @author Rachelle Scheijen
+ */
+public class ServletWriterStub extends Writer {
+    private ServletOutputStreamStub stream;
+    
+    /**
+     * Generates a new writer on the given stream
+     * 
+     * @param stream    The output stream
+     */
+    public ServletWriterStub(ServletOutputStreamStub stream){
+        this.stream = stream;
+    }
+    
+    /**
+     * Writes a single character
+     * 
+     * @param c     The character
+     * @throws IOException  If an I/O error occurs
+     */
+    @Override
+    public void write(int c) throws IOException {
+        this.stream.print((char) c);
+    }
+    
+    /**
+     * Writes a portion of an array of characters
+     * 
+     * @param cbuf  The characters
+     * @param off   The start offset in the characters
+     * @param len   The number of characters to write
+     * @throws IOException  If an I/O error occurs
+     */
+    @Override
+    public void write(char[] cbuf,int off,int len) throws IOException {
+        this.stream.print(cbuf, off, len);
+    }
+    
+    /**
+     * Writes a portion of a string
+     * 
+     * @param str   The string
+     * @param off   The start offset in the string
+     * @param len   The number of characters to write
+     * @throws IOException  If an I/O error occurs
+     */
+    @Override
+    public void write(String str,int off,int len) throws IOException {
+        this.stream.print(str, off, len);
+    }
+    
+    /**
+     * Commits the response and writes the buffered content
+     * 
+     * @throws IOException  If an I/O error occurs
+     */
+    @Override
+    public void flush() throws IOException {
+        this.stream.flush();
+    }
+    
+    /**
+     * Commits the response and writes the buffered content
+     * 
+     * @throws IOException  If an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        this.stream.close();
+    }
+}
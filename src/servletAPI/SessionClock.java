@@ -0,0 +1,28 @@
+package servletAPI;
+
+/**
+ * Time source of the sessions.
+ * 
+ * The SessionManagerStub and its sessions read the time only from their clock, so a test can replace the system
+ * clock with a clock that it moves itself and expire sessions without waiting.
+ * 
+ * @author Rachelle Scheijen
+ */
+public interface SessionClock {
+    /**
+     * The system clock
+     */
+    public static final SessionClock SYSTEM = new SessionClock(){
+        @Override
+        public long currentTimeMillis(){
+            return System.currentTimeMillis();
+        }
+    };
+    
+    /**
+     * Returns the current time
+     * 
+     * @return  The time in milliseconds since January 1, 1970 GMT
+     */
+    public long currentTimeMillis();
+}
@@ -0,0 +1,664 @@
+package servletAPI;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Manager of the sessions of a context.
+ * 
+ * The sessions are kept in a concurrent map on their ID. Idle sessions are expired with a hierarchical timing wheel
+ * of LEVELS levels of 64 slots. A slot on level 0 holds the sessions that expire in one tick, a slot on level n
+ * holds the sessions that expire in a block of 64^n ticks. When the wheel reaches a block its slot is moved down
+ * one level, so every session is moved at most LEVELS times before it expires and adding or removing a session is
+ * O(1). The sessions are linked in their slot by fields of the session itself, so the wheel creates no objects.
+ * 
+ * Accessing a session only updates its last accessed time. When the slot of a session is reached and the session
+ * is accessed in the meantime, it is put back in the wheel on its new expiry time. This keeps access free of
+ * locking, even with millions of sessions.
+ * 
+ * The time is read from a SessionClock. The wheel moves on every call that creates or looks up a session, or on
+ * a call of expire().
+ * 
+ * With a SessionStore and a max idle swap time, sessions that are idle for longer then that time are passivated :
+ * they are written to the store and removed from the heap. The wheel holds them on the earliest of their swap
+ * and expiry time. A passivated session is activated again when it is looked up. Passivated sessions that expire
+ * are activated and invalidated, so the listeners of their attributes are called.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class SessionManagerStub {
+    private static final int LEVELS     = 4;
+    private static final int BITS       = 6;
+    private static final int SLOTS      = 1 << BITS;
+    private static final int MASK       = SLOTS - 1;
+    
+    private final Object lock   = new Object();
+    private ServletContextStub context;
+    private SessionClock clock;
+    private long tickMillis;
+    private ConcurrentHashMap<String,HttpSessionStub> sessions;
+    private int maxInactiveInterval;
+    private HttpSessionStub[][] wheel;
+    private volatile long currentTick;
+    private int scheduled;
+    private AtomicLong expired;
+    private SessionStore store;
+    private int maxIdleSwap;
+    private volatile long nextStoreCheck;
+    
+    /**
+     * Generates a new manager with the system clock and a tick of one second
+     * 
+     * @param context   The context of the sessions, may be null
+     */
+    public SessionManagerStub(ServletContextStub context){
+        this(context, SessionClock.SYSTEM, 1000);
+    }
+    
+    /**
+     * Generates a new manager with a tick of one second
+     * 
+     * @param context   The context of the sessions, may be null
+     * @param clock     The clock
+     */
+    public SessionManagerStub(ServletContextStub context,SessionClock clock){
+        this(context, clock, 1000);
+    }
+    
+    /**
+     * Generates a new manager
+     * 
+     * @param context       The context of the sessions, may be null
+     * @param clock         The clock
+     * @param tickMillis    The resolution of the expiry in milliseconds
+     * @throws IllegalArgumentException     If the tick is not positive
+     */
+    public SessionManagerStub(ServletContextStub context,SessionClock clock,long tickMillis) throws IllegalArgumentException {
+        if( tickMillis <= 0 )   throw new IllegalArgumentException("Invalid tick "+tickMillis);
+        
+        this.context                = context;
+        this.clock                  = clock;
+        this.tickMillis             = tickMillis;
+        this.sessions               = new ConcurrentHashMap<String,HttpSessionStub>();
+        this.maxInactiveInterval    = 300;
+        this.wheel                  = new HttpSessionStub[LEVELS][SLOTS];
+        this.currentTick            = clock.currentTimeMillis() / tickMillis;
+        this.scheduled              = 0;
+        this.expired                = new AtomicLong();
+        this.store                  = null;
+        this.maxIdleSwap            = -1;
+    }
+    
+    /**
+     * Returns the clock of the sessions
+     * 
+     * @return  The clock
+     */
+    public SessionClock getClock(){
+        return this.clock;
+    }
+    
+    /**
+     * Sets the idle time of new sessions
+     * 
+     * @param interval  The time in seconds, or a negative value for sessions that never expire
+     */
+    public void setMaxInactiveInterval(int interval){
+        this.maxInactiveInterval    = interval;
+    }
+    
+    /**
+     * Returns the idle time of new sessions
+     * 
+     * @return  The time in seconds, a negative value for sessions that never expire
+     */
+    public int getMaxInactiveInterval(){
+        return this.maxInactiveInterval;
+    }
+    
+    /**
+     * Sets the store that idle sessions are passivated to
+     * 
+     * @param store     The store, or null to keep all sessions in memory
+     */
+    public void setStore(SessionStore store){
+        this.store  = store;
+    }
+    
+    /**
+     * Returns the store that idle sessions are passivated to
+     * 
+     * @return  The store, or null if all sessions are kept in memory
+     */
+    public SessionStore getStore(){
+        return this.store;
+    }
+    
+    /**
+     * Sets the idle time after which a session is passivated to the store. Only new and accessed sessions use the
+     * new time
+     * 
+     * @param seconds   The time in seconds, or -1 to never passivate idle sessions
+     */
+    public void setMaxIdleSwap(int seconds){
+        this.maxIdleSwap    = seconds;
+    }
+    
+    /**
+     * Returns the idle time after which a session is passivated to the store
+     * 
+     * @return  The time in seconds, -1 if idle sessions are not passivated
+     */
+    public int getMaxIdleSwap(){
+        return this.maxIdleSwap;
+    }
+    
+    /**
+     * Creates a new session with an unique ID
+     * 
+     * @return  The session
+     */
+    public HttpSessionStub createSession(){
+        this.expire();
+        
+        HttpSessionStub session = new HttpSessionStub(true, this.context, this);
+        session.setMaxInactiveInterval(this.maxInactiveInterval);
+        
+        String id;
+        do {
+            ThreadLocalRandom random    = ThreadLocalRandom.current();
+            id  = Long.toHexString(random.nextLong())+Long.toHexString(random.nextLong());
+        } while( (this.store != null && this.store.contains(id)) || this.sessions.putIfAbsent(id, session) != null );
+        
+        session.setId(id);
+        this.schedule(session);
+        
+        return session;
+    }
+    
+    /**
+     * Adds the given session. The session must have an ID. A session with the same ID is replaced
+     * 
+     * @param session   The session
+     * @throws IllegalArgumentException     If the session has no ID
+     */
+    public void addSession(HttpSessionStub session) throws IllegalArgumentException {
+        if( session.getId() == null )   throw new IllegalArgumentException("Session has no ID");
+        
+        session.setManager(this);
+        HttpSessionStub old = this.sessions.put(session.getId(), session);
+        if( old != null && old != session ) this.unschedule(old);
+        
+        this.schedule(session);
+    }
+    
+    /**
+     * Returns the session with the given ID. An idle session that is not yet expired by the wheel is expired now,
+     * a passivated session is activated
+     * 
+     * @param id    The session ID
+     * @return  The session or null if there is no valid session with the given ID
+     */
+    public HttpSessionStub getSession(String id){
+        if( id == null )    return null;
+        
+        this.expire();
+        
+        HttpSessionStub session = this.sessions.get(id);
+        if( session == null ){
+            session = this.activate(id);
+            if( session == null )   return null;
+        }
+        
+        if( session.isExpired(this.clock.currentTimeMillis()) ){
+            if( this.sessions.remove(id, session) ){
+                this.unschedule(session);
+                this.expired.incrementAndGet();
+                session.expire();
+            }
+            
+            return null;
+        }
+        
+        return session;
+    }
+    
+    /**
+     * Removes the session with the given ID. The session is not invalidated
+     * 
+     * @param id    The session ID
+     */
+    public void removeSession(String id){
+        if( id == null )    return;
+        
+        HttpSessionStub session = this.sessions.remove(id);
+        if( session != null )   this.unschedule(session);
+        
+        if( this.store != null ){
+            try {
+                this.store.remove(id);
+            }
+            catch(IOException e){
+                this.log("Removing passivated session "+id+" failed", e);
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of sessions, including the passivated sessions
+     * 
+     * @return  The number of sessions
+     */
+    public int getSessionCount(){
+        return this.sessions.size() + this.getPassivatedCount();
+    }
+    
+    /**
+     * Returns the number of passivated sessions
+     * 
+     * @return  The number of sessions in the store
+     */
+    public int getPassivatedCount(){
+        return ( this.store == null ) ? 0 : this.store.size();
+    }
+    
+    /**
+     * Returns the number of sessions that are expired since the manager is created
+     * 
+     * @return  The number of sessions
+     */
+    public long getExpiredCount(){
+        return this.expired.get();
+    }
+    
+    /**
+     * Invalidates all the sessions, the passivated sessions are activated first
+     */
+    public void invalidateAll(){
+        if( this.store != null ){
+            String[] ids = this.store.getIds();
+            for(int i=0; i<ids.length; i++){
+                this.activate(ids[i]);
+            }
+        }
+        
+        Object[] sessions = this.sessions.values().toArray();
+        for(int i=0; i<sessions.length; i++){
+            HttpSessionStub session = (HttpSessionStub) sessions[i];
+            if( this.sessions.remove(session.getId(), session) ){
+                this.unschedule(session);
+                session.expire();
+            }
+        }
+    }
+    
+    /**
+     * Moves the wheel to the current time of the clock and invalidates the idle sessions.
+     * The listeners of the sessions are called after the wheel is released.
+     * 
+     * @return  The number of expired sessions
+     */
+    public int expire(){
+        long now    = this.clock.currentTimeMillis();
+        long tick   = now / this.tickMillis;
+        if( tick <= this.currentTick )  return 0;
+        
+        ArrayList<HttpSessionStub> idle = null;
+        ArrayList<HttpSessionStub> swap = null;
+        synchronized( this.lock ){
+            while( this.currentTick < tick ){
+                if( this.scheduled == 0 ){
+                    this.currentTick    = tick;
+                    break;
+                }
+                
+                long current        = this.currentTick + 1;
+                this.currentTick    = current;
+                
+                /* Move the blocks that start now down, from the top level */
+                for(int level=LEVELS - 1; level>0; level--){
+                    if( (current & ((1L << (BITS * level)) - 1)) == 0 ){
+                        this.cascade(level, (int) (current >>> (BITS * level)) & MASK);
+                    }
+                }
+                
+                HttpSessionStub session = this.wheel[0][(int) current & MASK];
+                while( session != null ){
+                    HttpSessionStub next = session.wheelNext;
+                    this.unlink(session);
+                    
+                    if( session.isExpired(now) ){
+                        if( idle == null )  idle = new ArrayList<HttpSessionStub>();
+                        idle.add(session);
+                    }
+                    else if( this.isSwapDue(session, now) ){
+                        if( swap == null )  swap = new ArrayList<HttpSessionStub>();
+                        swap.add(session);
+                    }
+                    else {
+                        /* Accessed in the meantime */
+                        long expiry = this.expiryTick(session);
+                        if( expiry != -1 )  this.place(session, Math.max(expiry, current + 1));
+                    }
+                    
+                    session = next;
+                }
+            }
+        }
+        
+        if( swap != null ){
+            for(int i=0; i<swap.size(); i++){
+                HttpSessionStub session = swap.get(i);
+                if( !this.passivate(session, true) && this.sessions.get(session.getId()) == session ){
+                    this.schedule(session);
+                }
+            }
+        }
+        
+        int count = 0;
+        if( idle != null ){
+            for(int i=0; i<idle.size(); i++){
+                HttpSessionStub session = idle.get(i);
+                if( this.sessions.remove(session.getId(), session) ){
+                    session.expire();
+                    count++;
+                }
+            }
+        }
+        
+        /* The passivated sessions are checked once every 64 ticks */
+        if( this.store != null && tick >= this.nextStoreCheck ){
+            this.nextStoreCheck = tick + SLOTS;
+            
+            String[] ids = this.store.getExpired(now);
+            for(int i=0; i<ids.length; i++){
+                HttpSessionStub session = this.activate(ids[i]);
+                if( session != null && this.sessions.remove(session.getId(), session) ){
+                    this.unschedule(session);
+                    session.expire();
+                    count++;
+                }
+            }
+        }
+        this.expired.addAndGet(count);
+        
+        return count;
+    }
+    
+    /**
+     * Passivates the given session : the session is written to the store and removed from memory. The
+     * HttpSessionActivationListener attributes are called before. Attributes that are not serializable are dropped.
+     * A session that could not be serialized is kept in memory and is not passivated again. A session that is
+     * accessed while it is written is kept in memory too.
+     * 
+     * @param session   The session
+     * @return  True if the session is passivated, false if it is not a session of this manager, could not be written
+     *          or is accessed
+     * @throws IllegalStateException    If the manager has no store
+     */
+    public boolean passivate(HttpSessionStub session) throws IllegalStateException {
+        return this.passivate(session, false);
+    }
+    
+    /**
+     * Passivates the given session
+     * 
+     * @param session   The session
+     * @param idle      True to passivate the session only if it is still idle for longer then the max idle swap time
+     * @return  True if the session is passivated
+     * @throws IllegalStateException    If the manager has no store
+     */
+    private boolean passivate(HttpSessionStub session,boolean idle) throws IllegalStateException {
+        if( this.store == null )    throw new IllegalStateException("Session manager has no store");
+        
+        String id = session.getId();
+        if( id == null || this.sessions.get(id) != session )    return false;
+        
+        long accessedTime = session.getLastAccessedTime();
+        session.passivate();
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            session.writeObjectData(out);
+            out.close();
+            
+            int interval    = session.getMaxInactiveInterval();
+            long expires    = ( interval < 0 ) ? -1 : session.getLastAccessedTime() + interval * 1000L;
+            this.store.save(id, expires, bytes.toByteArray(), bytes.size());
+        }
+        catch(IOException e){
+            session.notSerializable = true;
+            session.activate();
+            
+            return false;
+        }
+        
+        /* A request that got the session in the meantime keeps using this instance, so the session stays */
+        boolean accessed = session.getLastAccessedTime() != accessedTime ||
+                (idle && !this.isSwapDue(session, this.clock.currentTimeMillis()));
+        if( accessed || !this.sessions.remove(id, session) ){
+            try {
+                this.store.remove(id);
+            }
+            catch(IOException e){
+                this.log("Removing passivated session "+id+" failed", e);
+            }
+            
+            if( accessed ){
+                session.activate();
+                this.schedule(session);
+            }
+            
+            return false;
+        }
+        this.unschedule(session);
+        
+        return true;
+    }
+    
+    /**
+     * Reads a passivated session back into memory and calls its HttpSessionActivationListener attributes. The
+     * record is removed from the store after the session is read, a session that could not be read stays in the
+     * store
+     * 
+     * @param id    The session ID
+     * @return  The session, or null if the session is not passivated and not in memory or could not be read
+     */
+    private HttpSessionStub activate(String id){
+        if( this.store == null )    return null;
+        
+        byte[] data = this.store.get(id);
+        if( data == null )  return this.sessions.get(id);
+        
+        HttpSessionStub session;
+        try {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+            session = HttpSessionStub.readObjectData(in, this.context, this);
+        }
+        catch(IOException e){
+            this.log("Reading passivated session "+id+" failed", e);
+            
+            return null;
+        }
+        catch(ClassNotFoundException e){
+            this.log("Reading passivated session "+id+" failed", e);
+            
+            return null;
+        }
+        
+        HttpSessionStub other = this.sessions.putIfAbsent(id, session);
+        if( other != null ) return other;
+        
+        try {
+            this.store.remove(id);
+        }
+        catch(IOException e){
+            this.log("Removing passivated session "+id+" failed", e);
+        }
+        
+        session.activate();
+        this.schedule(session);
+        
+        return session;
+    }
+    
+    /**
+     * Logs a failure of the store through the context
+     * 
+     * @param message   The message
+     * @param e         The cause
+     */
+    private void log(String message,Throwable e){
+        if( this.context != null )  this.context.log(message, e);
+    }
+    
+    /**
+     * Checks if the session is idle for longer then the max idle swap time
+     * 
+     * @param session   The session
+     * @param now       The current time in milliseconds
+     * @return  True if the session should be passivated
+     */
+    private boolean isSwapDue(HttpSessionStub session,long now){
+        int swap = this.maxIdleSwap;
+        if( this.store == null || swap < 0 || session.notSerializable ) return false;
+        
+        return now - session.getLastAccessedTime() > swap * 1000L;
+    }
+    
+    /**
+     * Puts the session in the wheel on its expiry or swap time. Sessions that never expire and are not passivated
+     * are not put in the wheel
+     * 
+     * @param session   The session
+     */
+    void schedule(HttpSessionStub session){
+        synchronized( this.lock ){
+            if( session.wheelLevel != -1 )  this.unlink(session);
+            
+            long tick = this.expiryTick(session);
+            if( tick != -1 )    this.place(session, Math.max(tick, this.currentTick + 1));
+        }
+    }
+    
+    /**
+     * Removes the session from the wheel
+     * 
+     * @param session   The session
+     */
+    void unschedule(HttpSessionStub session){
+        synchronized( this.lock ){
+            if( session.wheelLevel != -1 )  this.unlink(session);
+        }
+    }
+    
+    /**
+     * Returns the tick in which the session expires or is passivated
+     * 
+     * @param session   The session
+     * @return  The tick, or -1 if the session never expires and is not passivated
+     */
+    private long expiryTick(HttpSessionStub session){
+        long accessed   = session.getLastAccessedTime();
+        int interval    = session.getMaxInactiveInterval();
+        long tick       = -1;
+        if( interval >= 0 ){
+            tick    = (accessed + interval * 1000L) / this.tickMillis + 1;
+        }
+        
+        int swap = this.maxIdleSwap;
+        if( this.store != null && swap >= 0 && !session.notSerializable ){
+            long swapTick = (accessed + swap * 1000L) / this.tickMillis + 1;
+            if( tick == -1 || swapTick < tick ) tick = swapTick;
+        }
+        
+        return tick;
+    }
+    
+    /**
+     * Moves the sessions of a slot one or more levels down
+     * 
+     * @param level     The level
+     * @param slot      The slot
+     */
+    private void cascade(int level,int slot){
+        HttpSessionStub session = this.wheel[level][slot];
+        while( session != null ){
+            HttpSessionStub next = session.wheelNext;
+            long tick           = session.wheelTick;
+            this.unlink(session);
+            this.place(session, tick);
+            
+            session = next;
+        }
+    }
+    
+    /**
+     * Adds the session to the slot of the given tick. The level is chosen on the distance to the current tick : a
+     * tick less then 64^(n+1) ticks away is put on level n, so its slot is reached when its block starts and not a
+     * revolution later. A tick that is too far away is put in the top level slot that is reached last and placed
+     * again when that slot is reached.
+     * 
+     * @param session   The session
+     * @param tick      The tick, a tick before the current tick is taken as the current tick
+     */
+    private void place(HttpSessionStub session,long tick){
+        long current    = this.currentTick;
+        if( tick < current )    tick = current;
+        
+        long distance   = tick - current;
+        int level       = 0;
+        while( level < LEVELS - 1 && distance >= (1L << (BITS * (level + 1))) ){
+            level++;
+        }
+        
+        int slot;
+        if( distance >= (1L << (BITS * LEVELS)) ){
+            slot    = (int) ((current >>> (BITS * level)) - 1) & MASK;
+        }
+        else {
+            slot    = (int) (tick >>> (BITS * level)) & MASK;
+        }
+        HttpSessionStub first = this.wheel[level][slot];
+        
+        session.wheelTick       = tick;
+        session.wheelLevel      = level;
+        session.wheelSlot       = slot;
+        session.wheelPrevious   = null;
+        session.wheelNext       = first;
+        if( first != null ) first.wheelPrevious = session;
+        this.wheel[level][slot] = session;
+        this.scheduled++;
+    }
+    
+    /**
+     * Removes the session from its slot
+     * 
+     * @param session   The session
+     */
+    private void unlink(HttpSessionStub session){
+        HttpSessionStub previous    = session.wheelPrevious;
+        HttpSessionStub next        = session.wheelNext;
+        
+        if( previous == null ){
+            this.wheel[session.wheelLevel][session.wheelSlot]   = next;
+        }
+        else {
+            previous.wheelNext  = next;
+        }
+        if( next != null )  next.wheelPrevious = previous;
+        
+        session.wheelPrevious   = null;
+        session.wheelNext       = null;
+        session.wheelLevel      = -1;
+        this.scheduled--;
+    }
+}
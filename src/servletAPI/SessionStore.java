@@ -0,0 +1,392 @@
+package servletAPI;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Append-only store for passivated sessions.
+ * 
+ * The records are appended to a file through memory mapped segments of segmentSize bytes. A record never crosses
+ * a segment : the rest of a segment that is too small for the next record is filled with a padding record and a
+ * record that is bigger than a segment gets a segment of its own. Every record is aligned on 8 bytes and is
+ * followed by a zero length, that marks the end of the data.
+ * 
+ * A save record holds the session ID, the expiry time and the serialized session. Removing a session appends a
+ * remove record, so the file is never written in place. The index of the live records is kept in
+ * memory and is rebuilt by scanning the records when an existing file is opened, so passivated sessions survive a
+ * restart. Replaced records are not reclaimed, the file grows till it is removed.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class SessionStore implements Closeable {
+    private static final Charset UTF8           = Charset.forName("UTF-8");
+    private static final int ALIGNMENT          = 8;
+    private static final int HEADER_SIZE        = 15;
+    private static final byte TYPE_SAVE         = 1;
+    private static final byte TYPE_REMOVE       = 2;
+    private static final byte TYPE_PAD          = 3;
+    
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private int segmentSize;
+    private TreeMap<Long,MappedByteBuffer> segments;
+    private MappedByteBuffer current;
+    private long currentStart;
+    private long end;
+    private HashMap<String,Entry> index;
+    private long liveSize;
+    
+    /**
+     * Opens the store in the given file with segments of 16MB. The sessions of an existing file are loaded
+     * 
+     * @param file  The file
+     * @throws IOException  If the file could not be opened or read
+     */
+    public SessionStore(File file) throws IOException {
+        this(file, 16 * 1024 * 1024);
+    }
+    
+    /**
+     * Opens the store in the given file. The sessions of an existing file are loaded
+     * 
+     * @param file          The file
+     * @param segmentSize   The size of a memory mapped segment in bytes
+     * @throws IOException  If the file could not be opened or read
+     * @throws IllegalArgumentException     If the segment size is smaller then 64 bytes
+     */
+    public SessionStore(File file,int segmentSize) throws IOException, IllegalArgumentException {
+        if( segmentSize < 64 )  throw new IllegalArgumentException("Segment size "+segmentSize+" is too small");
+        
+        this.file           = new RandomAccessFile(file, "rw");
+        this.channel        = this.file.getChannel();
+        this.segmentSize    = align(segmentSize);
+        this.segments       = new TreeMap<Long,MappedByteBuffer>();
+        this.index          = new HashMap<String,Entry>();
+        
+        try {
+            this.load();
+        }
+        catch(IOException e){
+            this.file.close();
+            
+            throw e;
+        }
+    }
+    
+    /**
+     * Rounds the given size up to the alignment
+     * 
+     * @param size  The size
+     * @return  The aligned size
+     */
+    private static int align(int size){
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+    
+    /**
+     * Scans the records of the file, rebuilds the index and maps the data
+     * 
+     * @throws IOException  If the file could not be read
+     */
+    private void load() throws IOException {
+        long length         = this.channel.size();
+        ByteBuffer header   = ByteBuffer.allocate(HEADER_SIZE);
+        long position       = 0;
+        long segmentStart   = 0;
+        
+        while( position + 4 <= length ){
+            header.clear();
+            if( length - position < HEADER_SIZE )   header.limit(4);
+            this.channel.read(header, position);
+            header.flip();
+            
+            int size = header.getInt();
+            if( size <= 0 || position + size > length ) break;
+            
+            if( header.remaining() >= HEADER_SIZE - 4 ){
+                byte type       = header.get();
+                long expires    = header.getLong();
+                int idLength    = header.getShort() & 0xffff;
+                
+                if( type == TYPE_SAVE || type == TYPE_REMOVE ){
+                    ByteBuffer id = ByteBuffer.allocate(idLength);
+                    this.channel.read(id, position + HEADER_SIZE);
+                    String name = new String(id.array(), 0, idLength, UTF8);
+                    
+                    Entry old = this.index.remove(name);
+                    if( old != null )   this.liveSize -= old.size;
+                    if( type == TYPE_SAVE ){
+                        this.index.put(name, new Entry(position, size, HEADER_SIZE + idLength, expires));
+                        this.liveSize   += size;
+                    }
+                }
+            }
+            
+            /* Segments end on record boundaries */
+            long next = position + align(size);
+            if( next - segmentStart > this.segmentSize && position > segmentStart ){
+                this.mapSegment(segmentStart, position - segmentStart);
+                segmentStart    = position;
+            }
+            position = next;
+        }
+        
+        if( position > segmentStart )   this.mapSegment(segmentStart, position - segmentStart);
+        this.end = position;
+    }
+    
+    /**
+     * Maps a segment of the file
+     * 
+     * @param start     The start of the segment in the file
+     * @param size      The size of the segment
+     * @return  The segment
+     * @throws IOException  If the segment could not be mapped
+     */
+    private MappedByteBuffer mapSegment(long start,long size) throws IOException {
+        MappedByteBuffer segment = this.channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        this.segments.put(start, segment);
+        
+        return segment;
+    }
+    
+    /**
+     * Saves the given serialized session. A previous record of the session is replaced
+     * 
+     * @param id        The session ID
+     * @param expires   The time that the session expires, or -1 if it never expires
+     * @param data      The serialized session
+     * @param length    The number of bytes of the data
+     * @throws IOException  If the record could not be written
+     */
+    public synchronized void save(String id,long expires,byte[] data,int length) throws IOException {
+        byte[] name = id.getBytes(UTF8);
+        long position = this.append(TYPE_SAVE, expires, name, data, length);
+        int size = HEADER_SIZE + name.length + length;
+        
+        Entry old = this.index.put(id, new Entry(position, size, HEADER_SIZE + name.length, expires));
+        if( old != null )   this.liveSize -= old.size;
+        this.liveSize   += size;
+    }
+    
+    /**
+     * Returns the serialized session with the given ID. The session stays in the store till it is removed
+     * 
+     * @param id    The session ID
+     * @return  The serialized session, or null if the session is not in the store
+     */
+    public synchronized byte[] get(String id){
+        Entry entry = this.index.get(id);
+        if( entry == null ) return null;
+        
+        Map.Entry<Long,MappedByteBuffer> segment = this.segments.floorEntry(entry.position);
+        ByteBuffer record   = segment.getValue().duplicate();
+        byte[] data         = new byte[entry.size - entry.dataOffset];
+        record.position((int) (entry.position - segment.getKey()) + entry.dataOffset);
+        record.get(data);
+        
+        return data;
+    }
+    
+    /**
+     * Removes the session with the given ID
+     * 
+     * @param id    The session ID
+     * @return  True if the session was in the store
+     * @throws IOException  If the remove record could not be written
+     */
+    public synchronized boolean remove(String id) throws IOException {
+        Entry entry = this.index.get(id);
+        if( entry == null ) return false;
+        
+        this.append(TYPE_REMOVE, -1, id.getBytes(UTF8), null, 0);
+        this.index.remove(id);
+        this.liveSize   -= entry.size;
+        
+        return true;
+    }
+    
+    /**
+     * Checks if the session with the given ID is in the store
+     * 
+     * @param id    The session ID
+     * @return  True if the session is in the store
+     */
+    public synchronized boolean contains(String id){
+        return this.index.containsKey(id);
+    }
+    
+    /**
+     * Returns the IDs of the sessions in the store
+     * 
+     * @return  The IDs
+     */
+    public synchronized String[] getIds(){
+        return this.index.keySet().toArray(new String[this.index.size()]);
+    }
+    
+    /**
+     * Returns the IDs of the sessions that are expired at the given time
+     * 
+     * @param now   The time in milliseconds
+     * @return  The IDs
+     */
+    public synchronized String[] getExpired(long now){
+        ArrayList<String> expired = new ArrayList<String>();
+        
+        Iterator<Map.Entry<String,Entry>> entries = this.index.entrySet().iterator();
+        while( entries.hasNext() ){
+            Map.Entry<String,Entry> entry = entries.next();
+            long expires = entry.getValue().expires;
+            if( expires >= 0 && expires < now ) expired.add(entry.getKey());
+        }
+        
+        return expired.toArray(new String[expired.size()]);
+    }
+    
+    /**
+     * Returns the number of sessions in the store
+     * 
+     * @return  The number of sessions
+     */
+    public synchronized int size(){
+        return this.index.size();
+    }
+    
+    /**
+     * Returns the number of bytes that are written to the file
+     * 
+     * @return  The size in bytes
+     */
+    public synchronized long getSize(){
+        return this.end;
+    }
+    
+    /**
+     * Returns the number of bytes of the live records
+     * 
+     * @return  The size in bytes
+     */
+    public synchronized long getLiveSize(){
+        return this.liveSize;
+    }
+    
+    /**
+     * Appends a record
+     * 
+     * @param type      The record type
+     * @param expires   The expiry time
+     * @param id        The session ID in UTF-8
+     * @param data      The data, may be null
+     * @param length    The number of bytes of the data
+     * @return  The position of the record in the file
+     * @throws IOException  If a segment could not be mapped
+     */
+    private long append(byte type,long expires,byte[] id,byte[] data,int length) throws IOException {
+        if( this.channel == null )  throw new IOException("Session store is closed");
+        if( id.length > 0xffff )    throw new IOException("Session ID is too long");
+        
+        int size    = HEADER_SIZE + id.length + length;
+        int aligned = align(size);
+        if( this.current == null || this.current.remaining() < aligned ){
+            this.nextSegment(aligned);
+        }
+        
+        MappedByteBuffer segment    = this.current;
+        long position               = this.currentStart + segment.position();
+        segment.putInt(size);
+        segment.put(type);
+        segment.putLong(expires);
+        segment.putShort((short) id.length);
+        segment.put(id);
+        if( data != null )  segment.put(data, 0, length);
+        
+        segment.position(segment.position() + aligned - size);
+        if( segment.remaining() >= 4 )  segment.putInt(segment.position(), 0);
+        this.end    = position + aligned;
+        
+        return position;
+    }
+    
+    /**
+     * Pads the rest of the current segment and maps the next segment
+     * 
+     * @param needed    The number of bytes that the next record needs
+     * @throws IOException  If the segment could not be mapped
+     */
+    private void nextSegment(int needed) throws IOException {
+        if( this.current != null && this.current.hasRemaining() ){
+            int rest = this.current.remaining();
+            this.current.putInt(rest);
+            this.current.put(TYPE_PAD);
+            this.current.position(this.current.limit());
+            this.end    += rest;
+        }
+        
+        this.currentStart   = this.end;
+        this.current        = this.mapSegment(this.end, Math.max(this.segmentSize, needed));
+        this.current.putInt(0, 0);
+    }
+    
+    /**
+     * Flushes the written records to the file
+     */
+    public synchronized void flush(){
+        for(MappedByteBuffer segment : this.segments.values()){
+            segment.force();
+        }
+    }
+    
+    /**
+     * Closes the store. The records stay in the file
+     * 
+     * @throws IOException  If the file could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if( this.channel == null )  return;
+        
+        this.flush();
+        this.segments.clear();
+        this.current    = null;
+        this.index.clear();
+        this.file.close();
+        this.channel    = null;
+    }
+    
+    /**
+     * Position of a live record
+     */
+    private static class Entry {
+        private final long position;
+        private final int size;
+        private final int dataOffset;
+        private final long expires;
+        
+        /**
+         * Generates a new entry
+         * 
+         * @param position      The position of the record in the file
+         * @param size          The size of the record, without alignment
+         * @param dataOffset    The offset of the data in the record
+         * @param expires       The expiry time of the session
+         */
+        private Entry(long position,int size,int dataOffset,long expires){
+            this.position   = position;
+            this.size       = size;
+            this.dataOffset = dataOffset;
+            this.expires    = expires;
+        }
+    }
+}
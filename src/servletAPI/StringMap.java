@@ -3,34 +3,122 @@ package servletAPI;
 import java.util.*;
 
 /**
+ * Read only map from String keys to String[] values, like the servlet parameter map.
+ * 
+ * The keys are stored in an open addressed hash table that is build once, so get() and containsKey()
+ * do not allocate. The key, value and entry views are created on first use and backed by the arrays.
+ * equals() and hashCode() are those of AbstractMap, so the map equals every Map with the same value arrays.
  *
 * @author Rachelle Scheijen
  */
-public class StringMap implements Map{
+public class StringMap extends AbstractMap<String,String[]> {
+    private static final String[] EMPTY_KEYS        = new String[0];
+    private static final String[][] EMPTY_VALUES    = new String[0][];
+    
     private String[] keys;
     private String[][] values;
+    private int[] hashes;
+    private int[] table;
+    private Set<String> keySet;
+    private Collection<String[]> valueCollection;
+    private Set<Map.Entry<String,String[]>> entrySet;
     
     /**
      * Generates a empty StringMap
      */
     public StringMap(){
-        this(new ArrayList<String>(),new ArrayList<String>());
+        this(EMPTY_KEYS,EMPTY_VALUES);
     }
     
     /**
-     * Generates a new StringMap with the given keys and values
+     * Generates a new StringMap with the given keys and values.
+     * The values of keys that are given more then once are grouped in one array, in the given order.
      * 
      * @param keys      The keys to add
      * @param values    The values to add
      */
     public StringMap(ArrayList<String> keys,ArrayList<String> values){
-        this.keys              = new String[keys.size()];
-        this.values            = new String[values.size()][1];
-        
+        MultikeyHashMap grouped = new MultikeyHashMap(keys.size());
         for(int i=0; i<keys.size(); i++){
-            this.keys[i]      = keys.get(i);
-            this.values[i][0] = values.get(i);
+            grouped.add(keys.get(i), values.get(i));
         }
+        
+        StringMap map   = grouped.toMap();
+        this.keys       = map.keys;
+        this.values     = map.values;
+        this.hashes     = map.hashes;
+        this.table      = map.table;
+    }
+    
+    /**
+     * Generates a new StringMap with the given unique keys and grouped values.
+     * The arrays are not copied and may not be changed afterwards.
+     * 
+     * @param keys      The unique keys
+     * @param values    The values of every key
+     */
+    StringMap(String[] keys,String[][] values){
+        this.keys       = keys;
+        this.values     = values;
+        this.hashes     = new int[keys.length];
+        
+        int size = 4;
+        while( size < keys.length * 2 ){
+            size <<= 1;
+        }
+        this.table      = new int[size];
+        
+        int mask = size - 1;
+        for(int i=0; i<keys.length; i++){
+            int hash    = this.hash(keys[i]);
+            int slot    = hash & mask;
+            while( this.table[slot] != 0 ){
+                slot = (slot + 1) & mask;
+            }
+            
+            this.hashes[i]      = hash;
+            this.table[slot]    = i + 1;
+        }
+    }
+    
+    /**
+     * Spreads the hash code of the key over the table
+     * 
+     * @param key   The key
+     * @return  The hash
+     */
+    private int hash(String key){
+        int h = key.hashCode();
+        
+        return h ^ (h >>> 16);
+    }
+    
+    /**
+     * Returns the index of the given key
+     * 
+     * @param key   The key
+     * @return  The index or -1 if the key is not present
+     * @throws ClassCastException   if the key is not a string
+     * @throws NullPointerException if the key is null
+     */
+    private int indexOf(Object key) throws ClassCastException, NullPointerException {
+        if( key == null )   throw new NullPointerException("Key may not be null");
+        if( !(key instanceof String) ) throw new ClassCastException("Wrong type for key. Expected String");
+        
+        String check    = (String) key;
+        int hash        = this.hash(check);
+        int mask        = this.table.length - 1;
+        int slot        = hash & mask;
+        
+        int index;
+        while( (index = this.table[slot]) != 0 ){
+            index--;
+            if( this.hashes[index] == hash && this.keys[index].equals(check) )  return index;
+            
+            slot = (slot + 1) & mask;
+        }
+        
+        return -1;
     }
     
     /**
@@ -60,16 +148,7 @@ public class StringMap implements Map{
      * @throws NullPointerException if the specified key is null and this map does not permit null keys
      */
     public boolean containsKey(Object key) throws ClassCastException, NullPointerException {
-        if( key == null )   throw new NullPointerException("Key may not be null");
-        if( !(key instanceof String) ) throw new ClassCastException("Wrong type for key. Expected String");
-        
-        String check = (String) key;
-        
-        for(int i=0; i<this.keys.length; i++){
-            if( this.keys[i].equals(check) ) return true;
-        }
-        
-        return false;
+        return this.indexOf(key) != -1;
     }
 
     /**
@@ -101,27 +180,22 @@ public class StringMap implements Map{
      * @throws ClassCastException   if the value is of an inappropriate type for this map (optional) 
      * @throws NullPointerException if the specified value is null and this map does not permit null values
      */
-    public Object get(Object key)  throws ClassCastException, NullPointerException {
-        if( key == null )   throw new NullPointerException("Key may not be null");
-        if( !(key instanceof String) ) throw new ClassCastException("Wrong type for key. Expected String");
-        String check = (String) key;
+    public String[] get(Object key)  throws ClassCastException, NullPointerException {
+        int index = this.indexOf(key);
+        if( index == -1 )   return null;
         
-        for(int i=0; i<this.keys.length; i++){
-            if( this.keys[i].equals(check) ) return this.values[i];
-        }
-        
-        return null;
+        return this.values[index];
     }
 
     /**
-     * Read only map. put(Object key,Object value) is not supported
+     * Read only map. put(String key,String[] value) is not supported
      * 
      * @param key   key with which the specified value is to be associated  
      * @param value value to be associated with the specified key 
      * @return  null
      * @throws UnsupportedOperationException if the put operation is not supported by this map 
      */
-    public Object put(Object key, Object value) throws UnsupportedOperationException {
+    public String[] put(String key, String[] value) throws UnsupportedOperationException {
         throw new UnsupportedOperationException("Map is read only");
     }
 
@@ -132,7 +206,7 @@ public class StringMap implements Map{
      * @return null
      * @throws  UnsupportedOperationException if the remove operation is not supported by this map
      */
-    public Object remove(Object key) throws UnsupportedOperationException {
+    public String[] remove(Object key) throws UnsupportedOperationException {
         throw new UnsupportedOperationException("Map is read only");
     }
 
@@ -142,7 +216,7 @@ public class StringMap implements Map{
      * @param map   mappings to be stored in this map 
      * @throws UnsupportedOperationException if the putAll operation is not supported by this map 
      */
-    public void putAll(Map map) throws UnsupportedOperationException {
+    public void putAll(Map<? extends String,? extends String[]> map) throws UnsupportedOperationException {
         throw new UnsupportedOperationException("Map is read only");
     }
 
@@ -156,41 +230,111 @@ public class StringMap implements Map{
     }
 
     /**
-     * Returns a Set view of the keys contained in this map. The set is backed by the map, so changes to the map are reflected in the set, and vice-versa. 
+     * Returns a read only Set view of the keys contained in this map, in the order they are added. 
      * 
      * @return a set view of the keys contained in this map
      */
-    public Set keySet() {
-        HashSet<String> set = new HashSet<String>();
-        set.addAll(Arrays.asList(this.keys));
+    public Set<String> keySet() {
+        if( this.keySet == null ){
+            this.keySet = new AbstractSet<String>(){
+                public Iterator<String> iterator(){
+                    return new ArrayIterator<String>(){
+                        public String next(){
+                            return keys[this.nextIndex()];
+                        }
+                    };
+                }
+                
+                public int size(){
+                    return keys.length;
+                }
+                
+                @Override
+                public boolean contains(Object key){
+                    return ( key instanceof String ) && indexOf(key) != -1;
+                }
+            };
+        }
         
-        return set;
+        return this.keySet;
     }
 
     /**
-     * Returns a Collection view of the values contained in this map. The collection is backed by the map, so changes to the map are reflected in the collection, and vice-versa.
+     * Returns a read only Collection view of the values contained in this map, in the order the keys are added.
      * 
      * @return a collection view of the values contained in this map
      */
-    public Collection values() {
-        HashSet<String[]> set = new HashSet<String[]>();
-        set.addAll(Arrays.asList(this.values));
+    public Collection<String[]> values() {
+        if( this.valueCollection == null ){
+            this.valueCollection = new AbstractCollection<String[]>(){
+                public Iterator<String[]> iterator(){
+                    return new ArrayIterator<String[]>(){
+                        public String[] next(){
+                            return values[this.nextIndex()];
+                        }
+                    };
+                }
+                
+                public int size(){
+                    return values.length;
+                }
+            };
+        }
         
-        return set;
+        return this.valueCollection;
     }
 
     /**
-     * Returns a Set view of the mappings contained in this map. The set is backed by the map, so changes to the map are reflected in the set, and vice-versa. 
+     * Returns a read only Set view of the mappings contained in this map, in the order the keys are added. 
      * 
      * @return a set view of the mappings contained in this map
      */
-    public Set entrySet() {
-        HashSet<AbstractMap.SimpleEntry> set = new HashSet<AbstractMap.SimpleEntry>();
-        for(int i=0; i<this.keys.length; i++){
-            set.add(new AbstractMap.SimpleEntry(this.keys[i],this.values[i]));
+    public Set<Map.Entry<String,String[]>> entrySet() {
+        if( this.entrySet == null ){
+            this.entrySet = new AbstractSet<Map.Entry<String,String[]>>(){
+                public Iterator<Map.Entry<String,String[]>> iterator(){
+                    return new ArrayIterator<Map.Entry<String,String[]>>(){
+                        public Map.Entry<String,String[]> next(){
+                            int index = this.nextIndex();
+                            
+                            return new AbstractMap.SimpleImmutableEntry<String,String[]>(keys[index],values[index]);
+                        }
+                    };
+                }
+                
+                public int size(){
+                    return keys.length;
+                }
+            };
         }
         
-        return set;
+        return this.entrySet;
     }
     
+    /**
+     * Read only iterator over the indexes of the keys
+     */
+    private abstract class ArrayIterator<E> implements Iterator<E> {
+        private int index = 0;
+        
+        public boolean hasNext(){
+            return this.index < keys.length;
+        }
+        
+        /**
+         * Returns the next index
+         * 
+         * @return  The index
+         * @throws NoSuchElementException if there are no more elements
+         */
+        protected int nextIndex() throws NoSuchElementException {
+            if( this.index >= keys.length ) throw new NoSuchElementException();
+            
+            return this.index++;
+        }
+        
+        public void remove(){
+            throw new UnsupportedOperationException("Map is read only");
+        }
+    }
 }
@@ -0,0 +1,123 @@
+package servletAPI;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Enumeration;
+import org.junit.Test;
+
+/**
+ * Tests the inline pairs and the hash table of AttributeMap.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class AttributeMapTest {
+    @Test
+    public void testInlineEntries(){
+        AttributeMap map = new AttributeMap();
+        assertTrue(map.isEmpty());
+        assertNull(map.get("a"));
+        assertNull(map.get(null));
+        
+        assertNull(map.put("a", "1"));
+        assertNull(map.put("b", "2"));
+        assertNull(map.put("c", "3"));
+        assertEquals("1", map.put("a", "4"));
+        
+        assertEquals(3, map.size());
+        assertEquals("4", map.get(new String("a")));
+        assertArrayEquals(new String[]{"a", "b", "c"}, map.toNameArray());
+        
+        assertEquals("2", map.remove("b"));
+        assertNull(map.remove("b"));
+        assertArrayEquals(new String[]{"a", "c"}, map.toNameArray());
+        
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.getNames().hasMoreElements());
+    }
+    
+    @Test
+    public void testHashTable(){
+        AttributeMap map = new AttributeMap();
+        for(int i=0; i<100; i++){
+            map.put("name"+i, Integer.valueOf(i));
+        }
+        assertEquals(100, map.size());
+        for(int i=0; i<100; i++){
+            assertEquals(Integer.valueOf(i), map.get("name"+i));
+        }
+        assertEquals(Integer.valueOf(5), map.put("name5", "five"));
+        assertEquals("five", map.get("name5"));
+        
+        for(int i=0; i<95; i++){
+            map.remove("name"+i);
+        }
+        assertEquals(5, map.size());
+        assertNull(map.get("name0"));
+        assertEquals(Integer.valueOf(99), map.get("name99"));
+        
+        String[] names = map.toNameArray();
+        Arrays.sort(names);
+        assertArrayEquals(new String[]{"name95", "name96", "name97", "name98", "name99"}, names);
+    }
+    
+    @Test
+    public void testNamesAreASnapshot(){
+        AttributeMap map = new AttributeMap();
+        for(int i=0; i<20; i++){
+            map.put("name"+i, "value");
+        }
+        
+        Enumeration<String> names = map.getNames();
+        map.clear();
+        map.put("other", "value");
+        
+        int count = 0;
+        while( names.hasMoreElements() ){
+            assertTrue(names.nextElement().startsWith("name"));
+            count++;
+        }
+        assertEquals(20, count);
+    }
+    
+    @Test
+    public void testSameValueKeepsEntries(){
+        AttributeMap map = new AttributeMap();
+        Object value = new Object();
+        map.put("a", value);
+        
+        Enumeration<String> names = map.getNames();
+        assertSame(value, map.put("a", value));
+        assertEquals("a", names.nextElement());
+        assertFalse(names.hasMoreElements());
+    }
+    
+    @Test
+    public void testConcurrentReads() throws InterruptedException {
+        final AttributeMap map = new AttributeMap();
+        map.put("fixed", "value");
+        
+        Thread writer = new Thread(){
+            @Override
+            public void run(){
+                for(int i=0; i<10000; i++){
+                    map.put("name"+(i % 50), Integer.valueOf(i));
+                    if( i % 3 == 0 )    map.remove("name"+(i % 40));
+                }
+            }
+        };
+        writer.start();
+        while( writer.isAlive() ){
+            assertEquals("value", map.get("fixed"));
+        }
+        writer.join();
+        
+        assertEquals("value", map.get("fixed"));
+    }
+}
@@ -0,0 +1,109 @@
+package servletAPI;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import org.junit.Test;
+
+/**
+ * Tests writing the response body to a channel with ChannelSink.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class ChannelSinkTest {
+    @Test
+    public void testWritesArrays() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ChannelSink sink = new ChannelSink(Channels.newChannel(output));
+        
+        byte[] data = "xabcx".getBytes("ISO-8859-1");
+        sink.write(data, 1, 3);
+        sink.write(data, 0, 1);
+        sink.write(new ByteBuffer[]{ ByteBuffer.wrap(data, 4, 1), ByteBuffer.wrap(data, 0, 2) });
+        
+        assertArrayEquals("abcxxxa".getBytes("ISO-8859-1"), output.toByteArray());
+        assertEquals(7, sink.getWritten());
+    }
+    
+    @Test
+    public void testPartialGatheringWrites() throws IOException {
+        TrickleChannel channel = new TrickleChannel();
+        ChannelSink sink = new ChannelSink(channel);
+        
+        sink.write(new ByteBuffer[]{ ByteBuffer.wrap(new byte[]{1, 2, 3}), ByteBuffer.allocate(0), ByteBuffer.wrap(new byte[]{4, 5}) });
+        sink.write(new byte[]{6, 7, 8}, 1, 2);
+        
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 7, 8}, channel.output.toByteArray());
+        assertEquals(7, sink.getWritten());
+        assertEquals(5, channel.gatheringWrites);
+    }
+    
+    @Test
+    public void testResponseToChannel() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ServletOutputStreamStub stream = new ServletOutputStreamStub();
+        stream.setBufferSize(4);
+        stream.setChannel(Channels.newChannel(output));
+        
+        stream.write("abcdefgh".getBytes("ISO-8859-1"));
+        stream.write('i');
+        assertEquals(8, output.size());
+        
+        stream.flush();
+        assertArrayEquals("abcdefghi".getBytes("ISO-8859-1"), output.toByteArray());
+        assertEquals(9, ((ChannelSink) stream.getSink()).getWritten());
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void testChannelAfterCommit() throws IOException {
+        ServletOutputStreamStub stream = new ServletOutputStreamStub();
+        stream.flush();
+        
+        stream.setChannel(Channels.newChannel(new ByteArrayOutputStream()));
+    }
+    
+    /**
+     * Gathering channel that writes at most one byte per call
+     */
+    private static class TrickleChannel implements GatheringByteChannel {
+        private ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private int gatheringWrites;
+        
+        @Override
+        public int write(ByteBuffer src){
+            if( !src.hasRemaining() )   return 0;
+            
+            this.output.write(src.get());
+            return 1;
+        }
+        
+        @Override
+        public long write(ByteBuffer[] srcs,int offset,int length){
+            this.gatheringWrites++;
+            
+            for(int i=offset; i<offset+length; i++){
+                if( srcs[i].hasRemaining() )    return this.write(srcs[i]);
+            }
+            return 0;
+        }
+        
+        @Override
+        public long write(ByteBuffer[] srcs){
+            return this.write(srcs, 0, srcs.length);
+        }
+        
+        @Override
+        public boolean isOpen(){
+            return true;
+        }
+        
+        @Override
+        public void close(){
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package servletAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the in memory and spilled content of ContentBuffer.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class ContentBufferTest {
+    private ContentBuffer buffer;
+    
+    @Before
+    public void setUp(){
+        this.buffer = new ContentBuffer(16);
+    }
+    
+    @After
+    public void tearDown(){
+        this.buffer.close();
+    }
+    
+    /**
+     * Writes the bytes 0 till count, as the byte value of the position
+     * 
+     * @param buffer    The buffer
+     * @param count     The amount of bytes
+     * @throws IOException  If the bytes could not be written
+     */
+    private static void writeBytes(ContentBuffer buffer,int count) throws IOException {
+        byte[] chunk = new byte[100];
+        for(int i=0; i<count; i+=chunk.length){
+            int len = Math.min(chunk.length, count - i);
+            for(int j=0; j<len; j++){
+                chunk[j]    = (byte) (i + j);
+            }
+            buffer.write(chunk, 0, len);
+        }
+    }
+    
+    /**
+     * Checks that the buffer holds the bytes from the given position, as the byte value of the position
+     * 
+     * @param content   The content
+     * @param position  The position of the first byte in the content
+     */
+    private static void assertBytes(ByteBuffer content,long position){
+        for(int i=0; content.hasRemaining(); i++){
+            assertEquals((byte) (position + i), content.get());
+        }
+    }
+    
+    @Test
+    public void testGrowsInMemory() throws IOException {
+        writeBytes(this.buffer, 1000);
+        this.buffer.write(7);
+        
+        assertFalse(this.buffer.isSpilled());
+        assertNull(this.buffer.getSpillFile());
+        assertEquals(1001, this.buffer.size());
+        
+        ByteBuffer content = this.buffer.getContent();
+        assertEquals(1001, content.remaining());
+        assertEquals(7, content.get(1000));
+    }
+    
+    @Test
+    public void testSpillsPastThreshold() throws IOException {
+        this.buffer.setSpillThreshold(500);
+        writeBytes(this.buffer, 500);
+        assertFalse(this.buffer.isSpilled());
+        
+        this.buffer.write(500);
+        assertTrue(this.buffer.isSpilled());
+        assertTrue(this.buffer.getSpillFile().exists());
+        
+        assertEquals(501, this.buffer.size());
+        assertBytes(this.buffer.getContent(), 0);
+    }
+    
+    @Test
+    public void testSpilledWindow() throws IOException {
+        this.buffer.setSpillThreshold(0);
+        writeBytes(this.buffer, 20000);
+        
+        assertTrue(this.buffer.isSpilled());
+        assertEquals(20000, this.buffer.size());
+        
+        ByteBuffer window = this.buffer.getContent(12345, 1000);
+        assertEquals(1000, window.remaining());
+        assertBytes(window, 12345);
+    }
+    
+    @Test
+    public void testGatheringWrite() throws IOException {
+        this.buffer.setSpillThreshold(4);
+        ByteBuffer direct = ByteBuffer.allocateDirect(3);
+        direct.put(new byte[]{3, 4, 5}).flip();
+        
+        this.buffer.write(new ByteBuffer[]{ ByteBuffer.wrap(new byte[]{0, 1, 2}), direct });
+        
+        assertTrue(this.buffer.isSpilled());
+        assertEquals(6, this.buffer.size());
+        assertBytes(this.buffer.getContent(), 0);
+    }
+    
+    @Test
+    public void testResetRemovesSpillFile() throws IOException {
+        this.buffer.setSpillThreshold(10);
+        writeBytes(this.buffer, 100);
+        File file = this.buffer.getSpillFile();
+        assertTrue(file.exists());
+        
+        this.buffer.reset();
+        
+        assertFalse(file.exists());
+        assertFalse(this.buffer.isSpilled());
+        assertEquals(0, this.buffer.size());
+        
+        /* The buffer spills again to a new file */
+        writeBytes(this.buffer, 100);
+        assertTrue(this.buffer.isSpilled());
+        assertBytes(this.buffer.getContent(), 0);
+    }
+    
+    @Test
+    public void testCloseRemovesSpillFile() throws IOException {
+        this.buffer.setSpillThreshold(10);
+        writeBytes(this.buffer, 100);
+        File file = this.buffer.getSpillFile();
+        
+        this.buffer.close();
+        
+        assertFalse(file.exists());
+        assertNull(this.buffer.getSpillFile());
+    }
+    
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testWindowOutsideContent() throws IOException {
+        writeBytes(this.buffer, 10);
+        
+        this.buffer.getContent(5, 6);
+    }
+}
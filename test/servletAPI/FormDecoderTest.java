@@ -0,0 +1,109 @@
+package servletAPI;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests decoding URL encoded parameters with FormDecoder.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class FormDecoderTest {
+    private static final Charset UTF8   = Charset.forName("UTF-8");
+    
+    private MultikeyHashMap parameters;
+    
+    @Before
+    public void setUp(){
+        this.parameters = new MultikeyHashMap();
+    }
+    
+    /**
+     * Decodes the given text in one part
+     * 
+     * @param text  The URL encoded text
+     */
+    private void decode(String text){
+        byte[] data = text.getBytes(UTF8);
+        
+        FormDecoder decoder = new FormDecoder(this.parameters, UTF8);
+        decoder.update(data, 0, data.length);
+        decoder.finish();
+    }
+    
+    @Test
+    public void testPairs(){
+        this.decode("a=1&b=two+words&a=3&empty=&flag&&c=x=y");
+        
+        assertEquals(2, this.parameters.count("a"));
+        assertEquals("1", this.parameters.get("a", 0));
+        assertEquals("3", this.parameters.get("a", 1));
+        assertEquals("two words", this.parameters.get("b", 0));
+        assertEquals("", this.parameters.get("empty", 0));
+        assertEquals("", this.parameters.get("flag", 0));
+        assertEquals("x=y", this.parameters.get("c", 0));
+        assertEquals(6, this.parameters.size());
+    }
+    
+    @Test
+    public void testEscapes(){
+        this.decode("name=%E2%82%AC+%26%3d&%41%62=ok");
+        
+        assertEquals("\u20ac &=", this.parameters.get("name", 0));
+        assertEquals("ok", this.parameters.get("Ab", 0));
+    }
+    
+    @Test
+    public void testIncorrectEscapesAreKept(){
+        this.decode("a=100%&b=%zz&c=%4");
+        
+        assertEquals("100%", this.parameters.get("a", 0));
+        assertEquals("%zz", this.parameters.get("b", 0));
+        assertEquals("%4", this.parameters.get("c", 0));
+    }
+    
+    @Test
+    public void testSplitInput(){
+        byte[] data = "first=%C3%A9t%C3%A9&second=a+b".getBytes(UTF8);
+        
+        /* Every byte in its own part, so the escapes are split */
+        FormDecoder decoder = new FormDecoder(this.parameters, UTF8);
+        for(int i=0; i<data.length; i++){
+            decoder.update(data, i, 1);
+        }
+        decoder.finish();
+        
+        assertEquals("\u00e9t\u00e9", this.parameters.get("first", 0));
+        assertEquals("a b", this.parameters.get("second", 0));
+    }
+    
+    @Test
+    public void testDirectBuffer(){
+        byte[] data = "a=1&b=2".getBytes(UTF8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+        
+        FormDecoder decoder = new FormDecoder(this.parameters, UTF8);
+        decoder.update(buffer);
+        decoder.finish();
+        
+        assertEquals(0, buffer.remaining());
+        assertEquals("1", this.parameters.get("a", 0));
+        assertEquals("2", this.parameters.get("b", 0));
+    }
+    
+    @Test
+    public void testCharset(){
+        byte[] data = "name=%E9t%E9".getBytes(UTF8);
+        
+        FormDecoder decoder = new FormDecoder(this.parameters, Charset.forName("ISO-8859-1"));
+        decoder.update(data, 0, data.length);
+        decoder.finish();
+        
+        assertEquals("\u00e9t\u00e9", this.parameters.get("name", 0));
+    }
+}
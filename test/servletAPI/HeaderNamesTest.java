@@ -0,0 +1,43 @@
+package servletAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.Charset;
+import org.junit.Test;
+
+/**
+ * Tests the interned common header names of HeaderNames.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class HeaderNamesTest {
+    private static final Charset LATIN = Charset.forName("ISO-8859-1");
+    
+    @Test
+    public void testInternCommonNames(){
+        assertSame(HeaderNames.CONTENT_TYPE, HeaderNames.intern(new String("Content-Type")));
+        assertSame(HeaderNames.intern("if-modified-since"), HeaderNames.intern(new String("if-modified-since")));
+        assertEquals("if-modified-since", HeaderNames.intern("if-modified-since"));
+    }
+    
+    @Test
+    public void testOtherNamesAreKept(){
+        String name = new String("X-Custom");
+        assertSame(name, HeaderNames.intern(name));
+        
+        /* Only the exact and the lower case spelling are in the table */
+        String upper = new String("CONTENT-TYPE");
+        assertSame(upper, HeaderNames.intern(upper));
+    }
+    
+    @Test
+    public void testInternBytes(){
+        byte[] line = "Host: example.com\r\nX-Custom: 1".getBytes(LATIN);
+        
+        assertSame(HeaderNames.HOST, HeaderNames.intern(line, 0, 4));
+        assertNull(HeaderNames.intern(line, 19, 27));
+        assertNull(HeaderNames.intern(line, 0, 3));
+    }
+}
@@ -0,0 +1,94 @@
+package servletAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import org.junit.Test;
+
+/**
+ * Tests parsing and formatting HTTP dates with HttpDateFormat.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class HttpDateFormatTest {
+    /* Sun, 06 Nov 1994 08:49:37 GMT */
+    private static final long TIME = 784111777000L;
+    
+    @Test
+    public void testFormat(){
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDateFormat.format(TIME));
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDateFormat.format(TIME + 999));
+        assertEquals("Thu, 01 Jan 1970 00:00:00 GMT", HttpDateFormat.format(0));
+        assertEquals("Wed, 31 Dec 1969 23:59:59 GMT", HttpDateFormat.format(-1));
+        assertEquals("Tue, 29 Feb 2000 12:00:00 GMT", HttpDateFormat.format(951825600000L));
+    }
+    
+    @Test
+    public void testFormatOfSameSecondIsCached(){
+        String first = HttpDateFormat.format(TIME + 100);
+        
+        assertSame(first, HttpDateFormat.format(TIME + 900));
+    }
+    
+    @Test
+    public void testParseFormats(){
+        assertEquals(TIME, HttpDateFormat.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(TIME, HttpDateFormat.parse("Sunday, 06-Nov-94 08:49:37 GMT"));
+        assertEquals(TIME, HttpDateFormat.parse("Sun Nov  6 08:49:37 1994"));
+        assertEquals(TIME, HttpDateFormat.parse("sun, 6 nov 1994 08:49:37 utc"));
+        assertEquals(1104537600000L, HttpDateFormat.parse("Saturday, 01-Jan-05 00:00:00 GMT"));
+    }
+    
+    @Test
+    public void testParseInvalid(){
+        assertEquals(-1, HttpDateFormat.parse(null));
+        assertEquals(-1, HttpDateFormat.parse(""));
+        assertEquals(-1, HttpDateFormat.parse("784111777000"));
+        assertEquals(-1, HttpDateFormat.parse("Sun, 06 Nov 1994"));
+        assertEquals(-1, HttpDateFormat.parse("Sun, 06 Nox 1994 08:49:37 GMT"));
+        assertEquals(-1, HttpDateFormat.parse("Sun, 06 Nov 1994 24:49:37 GMT"));
+        assertEquals(-1, HttpDateFormat.parse("Sun, 06 Nov 1994 08:49:37 CET"));
+        assertEquals(-1, HttpDateFormat.parse("Mon, 29 Feb 1900 08:49:37 GMT"));
+        assertEquals(-1, HttpDateFormat.parse("Sun Nov  6 08:49:37"));
+    }
+    
+    @Test
+    public void testMatchesSimpleDateFormat() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        
+        Random random = new Random(42);
+        for(int i=0; i<1000; i++){
+            long time   = (random.nextLong() % 8000000000L) * 1000L;
+            String text = format.format(time);
+            
+            assertEquals(text, HttpDateFormat.format(time));
+            assertEquals(format.parse(text).getTime(), HttpDateFormat.parse(text));
+        }
+    }
+    
+    @Test
+    public void testDateHeaders(){
+        HttpServletRequestStub request = new HttpServletRequestStub();
+        request.setHeader(HeaderNames.IF_MODIFIED_SINCE, "Sun, 06 Nov 1994 08:49:37 GMT");
+        assertEquals(TIME, request.getDateHeader("if-modified-since"));
+        assertEquals(-1, request.getDateHeader(HeaderNames.IF_UNMODIFIED_SINCE));
+        
+        HttpServletResponseStub response = new HttpServletResponseStub();
+        response.setDateHeader("Last-Modified", TIME + 500);
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", response.getheader("Last-Modified"));
+        assertEquals(TIME, response.getDateHeader("Last-Modified"));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidDateHeader(){
+        HttpServletRequestStub request = new HttpServletRequestStub();
+        request.setHeader(HeaderNames.IF_MODIFIED_SINCE, "yesterday");
+        
+        request.getDateHeader(HeaderNames.IF_MODIFIED_SINCE);
+    }
+}
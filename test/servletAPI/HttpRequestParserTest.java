@@ -0,0 +1,161 @@
+package servletAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import org.junit.Test;
+
+/**
+ * Tests HttpRequestParser with chunked bodies and with requests that arrive in pieces.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class HttpRequestParserTest {
+    private static final Charset LATIN  = Charset.forName("ISO-8859-1");
+    
+    private static final String CHUNKED =
+        "POST /upload?id=7 HTTP/1.1\r\n"+
+        "Host: localhost\r\n"+
+        "Transfer-Encoding: chunked\r\n"+
+        "Content-Type: text/plain\r\n"+
+        "\r\n"+
+        "5\r\nhello\r\n"+
+        "7;ext=1\r\n, world\r\n"+
+        "0\r\n"+
+        "X-Trailer: done\r\n"+
+        "\r\n";
+    
+    @Test
+    public void testChunkedBody() throws IOException {
+        HttpRequestParser parser        = new HttpRequestParser();
+        HttpServletRequestStub request  = new HttpServletRequestStub();
+        ByteBuffer input                = ByteBuffer.wrap(CHUNKED.getBytes(LATIN));
+        
+        assertTrue(parser.parse(input, request));
+        assertFalse(input.hasRemaining());
+        assertEquals("POST", parser.getMethod());
+        assertEquals("/upload", request.getRequestURI());
+        assertEquals("7", request.getParameter("id"));
+        assertEquals("text/plain", request.getHeader("content-type"));
+        assertEquals("hello, world", readBody(request));
+    }
+    
+    @Test
+    public void testSplitInput() throws IOException {
+        byte[] bytes = CHUNKED.getBytes(LATIN);
+        
+        /* Every split of the request in two reads */
+        for(int split=1; split<bytes.length; split++){
+            HttpRequestParser parser        = new HttpRequestParser();
+            HttpServletRequestStub request  = new HttpServletRequestStub();
+            
+            assertFalse(parser.parse(ByteBuffer.wrap(bytes, 0, split), request));
+            assertTrue(parser.parse(ByteBuffer.wrap(bytes, split, bytes.length - split), request));
+            assertEquals("/upload", request.getRequestURI());
+            assertEquals("hello, world", readBody(request));
+        }
+    }
+    
+    @Test
+    public void testByteByByte() throws IOException {
+        byte[] bytes                    = CHUNKED.getBytes(LATIN);
+        HttpRequestParser parser        = new HttpRequestParser();
+        HttpServletRequestStub request  = new HttpServletRequestStub();
+        
+        for(int i=0; i<bytes.length - 1; i++){
+            assertFalse(parser.parse(ByteBuffer.wrap(bytes, i, 1), request));
+        }
+        assertTrue(parser.parse(ByteBuffer.wrap(bytes, bytes.length - 1, 1), request));
+        assertEquals("hello, world", readBody(request));
+    }
+    
+    @Test
+    public void testPipelinedRequests() throws IOException {
+        String text =
+            "POST /a HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc"+
+            "GET /b HTTP/1.1\r\nConnection: close\r\n\r\n";
+        ByteBuffer input            = ByteBuffer.wrap(text.getBytes(LATIN));
+        HttpRequestParser parser    = new HttpRequestParser();
+        
+        HttpServletRequestStub first = new HttpServletRequestStub();
+        assertTrue(parser.parse(input, first));
+        assertEquals("/a", first.getRequestURI());
+        assertEquals("abc", readBody(first));
+        assertTrue(parser.isKeepAlive());
+        assertTrue(input.hasRemaining());
+        
+        parser.reset();
+        HttpServletRequestStub second = new HttpServletRequestStub();
+        assertTrue(parser.parse(input, second));
+        assertEquals("GET", parser.getMethod());
+        assertEquals("/b", second.getRequestURI());
+        assertFalse(parser.isKeepAlive());
+    }
+    
+    @Test
+    public void testStreamInSmallReads() throws IOException {
+        String text = CHUNKED + "GET /next HTTP/1.1\r\n\r\n";
+        InputStream input           = new TrickleInputStream(text.getBytes(LATIN), 3);
+        HttpRequestParser parser    = new HttpRequestParser();
+        
+        HttpServletRequestStub first = new HttpServletRequestStub();
+        assertTrue(parser.parse(input, first));
+        assertEquals("hello, world", readBody(first));
+        
+        HttpServletRequestStub second = new HttpServletRequestStub();
+        assertTrue(parser.parse(input, second));
+        assertEquals("/next", second.getRequestURI());
+        
+        assertFalse(parser.parse(input, new HttpServletRequestStub()));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidChunkSize(){
+        String text = "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n";
+        
+        new HttpRequestParser().parse(ByteBuffer.wrap(text.getBytes(LATIN)), new HttpServletRequestStub());
+    }
+    
+    /**
+     * Reads the body of the request
+     * 
+     * @param request   The request
+     * @return  The body
+     * @throws IOException  If the body could not be read
+     */
+    private static String readBody(HttpServletRequestStub request) throws IOException {
+        InputStream input   = request.getInputStream();
+        StringBuilder body  = new StringBuilder();
+        
+        int c;
+        while( (c = input.read()) != -1 ){
+            body.append((char) c);
+        }
+        
+        return body.toString();
+    }
+    
+    /**
+     * Stream that returns at most a few bytes per read
+     */
+    static class TrickleInputStream extends ByteArrayInputStream {
+        private int maxRead;
+        
+        TrickleInputStream(byte[] data,int maxRead){
+            super(data);
+            
+            this.maxRead    = maxRead;
+        }
+        
+        @Override
+        public synchronized int read(byte[] b,int off,int len){
+            return super.read(b, off, Math.min(len, this.maxRead));
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package servletAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests round trips over a socket to HttpServerStub.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class HttpServerStubTest {
+    private static final Charset LATIN  = Charset.forName("ISO-8859-1");
+    
+    private HttpServerStub server;
+    private Socket socket;
+    
+    @Before
+    public void setUp() throws Exception {
+        this.server = new HttpServerStub(new TestServlet(), new ConfigStub());
+        int port    = this.server.start(0);
+        
+        this.socket = new Socket("127.0.0.1", port);
+        this.socket.setSoTimeout(5000);
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        this.socket.close();
+        this.server.stop();
+    }
+    
+    @Test(timeout=10000)
+    public void testCookies() throws IOException {
+        this.send("GET /cookie HTTP/1.1\r\nHost: localhost\r\nCookie: visit=3\r\n\r\n");
+        Response response = this.receive();
+        
+        assertEquals("HTTP/1.1 200 OK", response.status);
+        assertTrue(response.headers.contains("Set-Cookie: session=abc; Path=/"));
+        assertEquals("visit 3", response.body);
+    }
+    
+    @Test(timeout=10000)
+    public void testEmptyBodies() throws IOException {
+        this.send("GET /empty HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        Response empty = this.receive();
+        assertEquals("HTTP/1.1 204 No Content", empty.status);
+        assertTrue(empty.headers.contains("Content-Length: 0"));
+        assertEquals("", empty.body);
+        
+        /* The connection is kept open, a HEAD request gets the head without the body */
+        this.send("HEAD /cookie HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        Response head = this.receive(false);
+        assertEquals("HTTP/1.1 200 OK", head.status);
+        assertTrue(head.headers.contains("Set-Cookie: session=abc; Path=/"));
+        
+        this.send("GET /cookie HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        Response last = this.receive();
+        assertEquals("visit none", last.body);
+        assertTrue(last.headers.contains("Connection: close"));
+        assertEquals(-1, this.socket.getInputStream().read());
+    }
+    
+    @Test(timeout=10000)
+    public void testFailingResponse() throws IOException {
+        this.send("GET /broken HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        Response response = this.receive();
+        
+        assertEquals("HTTP/1.1 500 Internal Server Error", response.status);
+        assertTrue(response.headers.contains("Connection: close"));
+        assertEquals(-1, this.socket.getInputStream().read());
+        
+        /* Only the connection of the failed response is closed */
+        this.socket.close();
+        this.socket = new Socket("127.0.0.1", this.server.getPort());
+        this.socket.setSoTimeout(5000);
+        this.send("GET /empty HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        assertEquals("HTTP/1.1 204 No Content", this.receive().status);
+    }
+    
+    /**
+     * Sends the given request
+     * 
+     * @param request   The request
+     * @throws IOException  If the request could not be send
+     */
+    private void send(String request) throws IOException {
+        OutputStream output = this.socket.getOutputStream();
+        output.write(request.getBytes(LATIN));
+        output.flush();
+    }
+    
+    /**
+     * Reads a response with its body
+     * 
+     * @return  The response
+     * @throws IOException  If the response could not be read
+     */
+    private Response receive() throws IOException {
+        return this.receive(true);
+    }
+    
+    /**
+     * Reads a response
+     * 
+     * @param hasBody   False for the response of a HEAD request
+     * @return  The response
+     * @throws IOException  If the response could not be read
+     */
+    private Response receive(boolean hasBody) throws IOException {
+        InputStream input   = this.socket.getInputStream();
+        Response response   = new Response();
+        response.status     = readLine(input);
+        
+        int length = 0;
+        String line;
+        while( (line = readLine(input)).length() > 0 ){
+            response.headers.add(line);
+            if( line.startsWith("Content-Length: ") )   length = Integer.parseInt(line.substring(16));
+        }
+        
+        StringBuilder body = new StringBuilder();
+        for(int i=0; hasBody && i<length; i++){
+            body.append((char) input.read());
+        }
+        response.body   = body.toString();
+        
+        return response;
+    }
+    
+    /**
+     * Reads a line that ends with CRLF
+     * 
+     * @param input     The stream
+     * @return  The line without CRLF
+     * @throws IOException  If the stream ended
+     */
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        
+        int c;
+        while( (c = input.read()) != '\n' ){
+            if( c == -1 )   throw new IOException("Connection closed within a line");
+            if( c != '\r' ) line.append((char) c);
+        }
+        
+        return line.toString();
+    }
+    
+    /**
+     * A received response
+     */
+    private static class Response {
+        private String status;
+        private List<String> headers = new ArrayList<String>();
+        private String body;
+    }
+    
+    /**
+     * Servlet that sets a cookie on /cookie, sends no content on /empty and 
+     * writes to a failing sink on /broken
+     */
+    private static class TestServlet extends HttpServlet {
+        @Override
+        protected void doGet(HttpServletRequest request,HttpServletResponse response) throws ServletException, IOException {
+            if( request.getRequestURI().equals("/empty") ){
+                response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+                
+                return;
+            }
+            if( request.getRequestURI().equals("/broken") ){
+                ((HttpServletResponseStub) response).setResponseSink(new ResponseSink(){
+                    public void write(byte[] b,int off,int len){
+                        throw new IllegalStateException("Sink is broken");
+                    }
+                    
+                    public void write(ByteBuffer[] segments){
+                        throw new IllegalStateException("Sink is broken");
+                    }
+                    
+                    public void flush(){
+                    }
+                });
+                response.getOutputStream().write(1);
+                
+                return;
+            }
+            
+            String visit = "none";
+            Cookie[] cookies = request.getCookies();
+            for(int i=0; cookies != null && i<cookies.length; i++){
+                if( cookies[i].getName().equals("visit") )  visit = cookies[i].getValue();
+            }
+            
+            Cookie session = new Cookie("session", "abc");
+            session.setPath("/");
+            response.addCookie(session);
+            response.setContentType("text/plain");
+            response.getWriter().print("visit "+visit);
+        }
+    }
+}
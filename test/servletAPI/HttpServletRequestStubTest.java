@@ -0,0 +1,198 @@
+package servletAPI;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Map;
+import javax.servlet.http.Cookie;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the parameters, headers and cookies of HttpServletRequestStub.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class HttpServletRequestStubTest {
+    private HttpServletRequestStub request;
+    
+    @Before
+    public void setUp(){
+        this.request    = new HttpServletRequestStub();
+    }
+    
+    /**
+     * Returns a form body with the given content
+     * 
+     * @param content   The URL encoded content
+     * @return  The stream
+     */
+    private static ServletInputStreamStub form(String content){
+        ServletInputStreamStub stream = new ServletInputStreamStub();
+        stream.setContent(content.getBytes(Charset.forName("UTF-8")), "application/x-www-form-urlencoded; charset=UTF-8");
+        
+        return stream;
+    }
+    
+    @Test
+    public void testQueryBeforeBodyBeforeAdded(){
+        this.request.addParameter("a", "added");
+        this.request.setQueryString("a=query&b=2");
+        this.request.setInputStream(form("a=body"));
+        
+        assertArrayEquals(new String[]{"query", "body", "added"}, this.request.getParameterValues("a"));
+        assertEquals("query", this.request.getParameter("a"));
+        
+        ArrayList<Object> names = new ArrayList<Object>();
+        Enumeration<?> keys = this.request.getParameterNames();
+        while( keys.hasMoreElements() ){
+            names.add(keys.nextElement());
+        }
+        assertEquals("[a, b]", names.toString());
+    }
+    
+    @Test
+    public void testNewQueryStringIsDecoded(){
+        this.request.setQueryString("a=1");
+        assertEquals("1", this.request.getParameter("a"));
+        Map<?,?> first = this.request.getParameterMap();
+        
+        this.request.setQueryString("a=2&b=3");
+        assertEquals("2", this.request.getParameter("a"));
+        assertEquals("3", this.request.getParameter("b"));
+        assertEquals(2, this.request.getParameterMap().size());
+        assertEquals(1, first.size());
+    }
+    
+    @Test
+    public void testNewBodyIsDecoded(){
+        this.request.setQueryString("q=1");
+        this.request.setInputStream(form("a=1"));
+        assertEquals("1", this.request.getParameter("a"));
+        
+        this.request.setInputStream(form("b=2"));
+        assertNull(this.request.getParameter("a"));
+        assertEquals("2", this.request.getParameter("b"));
+        assertEquals("1", this.request.getParameter("q"));
+        
+        this.request.setInputStream(null);
+        assertNull(this.request.getParameter("b"));
+    }
+    
+    @Test
+    public void testAddAfterDecoding(){
+        this.request.setQueryString("a=1");
+        assertEquals(1, this.request.getParameterValues("a").length);
+        
+        this.request.addParameter("a", "2");
+        assertArrayEquals(new String[]{"1", "2"}, this.request.getParameterValues("a"));
+        assertArrayEquals(new String[]{"1", "2"}, (String[]) this.request.getParameterMap().get("a"));
+    }
+    
+    @Test
+    public void testReadBodyIsNotDecoded() throws IOException {
+        this.request.setInputStream(form("a=1"));
+        this.request.getInputStream();
+        
+        assertNull(this.request.getParameter("a"));
+    }
+    
+    @Test
+    public void testRecycleClearsParameters(){
+        this.request.setQueryString("a=1");
+        this.request.addParameter("b", "2");
+        this.request.getParameter("a");
+        
+        this.request.recycle();
+        
+        assertNull(this.request.getParameter("a"));
+        assertNull(this.request.getParameter("b"));
+        assertEquals(0, this.request.getParameterMap().size());
+    }
+    
+    @Test
+    public void testHeadersIgnoreCase(){
+        this.request.setHeader("X-Trace", "1");
+        this.request.setHeader("x-trace", "2");
+        this.request.setHeader("content-length", "42");
+        
+        assertEquals("1", this.request.getHeader("X-TRACE"));
+        assertEquals(42, this.request.getIntHeader("Content-Length"));
+        assertEquals(-1, this.request.getIntHeader("Max-Forwards"));
+        assertNull(this.request.getHeader("X-Other"));
+        
+        ArrayList<Object> values = new ArrayList<Object>();
+        Enumeration<?> headers = this.request.getHeaders("x-Trace");
+        while( headers.hasMoreElements() ){
+            values.add(headers.nextElement());
+        }
+        assertEquals("[1, 2]", values.toString());
+    }
+    
+    @Test
+    public void testHeaderNamesAsSent(){
+        this.request.setHeader("X-Trace", "1");
+        this.request.setHeader("x-trace", "2");
+        this.request.setHeader("user-agent", "curl");
+        
+        Enumeration<?> names = this.request.getHeaderNames();
+        assertEquals("X-Trace", names.nextElement());
+        Object userAgent = names.nextElement();
+        assertEquals("user-agent", userAgent);
+        assertSame(HeaderNames.intern("user-agent"), userAgent);
+        assertFalse(names.hasMoreElements());
+    }
+    
+    @Test
+    public void testCookiesFromHeaders(){
+        this.request.setHeader(HeaderNames.COOKIE, "$Version=1; id=42; name=\"a b\"; =empty; broken");
+        this.request.setHeader("cookie", " theme = dark ;sessionID=abc");
+        
+        Cookie[] cookies = this.request.getCookies();
+        assertEquals(4, cookies.length);
+        assertEquals("id", cookies[0].getName());
+        assertEquals("42", cookies[0].getValue());
+        assertEquals("a b", cookies[1].getValue());
+        assertEquals("theme", cookies[2].getName());
+        assertEquals("dark", cookies[2].getValue());
+        assertTrue(this.request.isRequestedSessionIdFromCookie());
+        
+        /* The headers are parsed once */
+        assertSame(cookies, this.request.getCookies());
+    }
+    
+    @Test
+    public void testManyCookies(){
+        StringBuilder header = new StringBuilder();
+        for(int i=0; i<40; i++){
+            header.append("track").append(i).append('=').append(i).append("; ");
+        }
+        this.request.setHeader(HeaderNames.COOKIE, header.toString());
+        
+        Cookie[] cookies = this.request.getCookies();
+        assertEquals(40, cookies.length);
+        assertEquals("track39", cookies[39].getName());
+        assertEquals("39", cookies[39].getValue());
+    }
+    
+    @Test
+    public void testNoCookies(){
+        assertNull(this.request.getCookies());
+        assertFalse(this.request.isRequestedSessionIdFromCookie());
+        
+        this.request.setCookies(new Cookie[]{ new Cookie("sessionID", "abc") });
+        assertTrue(this.request.isRequestedSessionIdFromCookie());
+        
+        this.request.recycle();
+        this.request.setHeader(HeaderNames.COOKIE, "a=1");
+        assertEquals("1", this.request.getCookies()[0].getValue());
+    }
+}
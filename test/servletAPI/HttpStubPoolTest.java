@@ -0,0 +1,88 @@
+package servletAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+
+/**
+ * Tests reusing request and response pairs with HttpStubPool.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class HttpStubPoolTest {
+    @Test
+    public void testReleasedPairIsReused() throws IOException {
+        HttpStubPool pool = new HttpStubPool(2);
+        HttpStubPool.Exchange exchange = pool.acquire();
+        exchange.getRequest().setAttribute("a", "1");
+        exchange.getResponse().addHeader("X-Test", "1");
+        exchange.getResponse().getOutputStream().write(1);
+        
+        pool.release(exchange);
+        assertEquals(1, pool.getIdle());
+        
+        HttpStubPool.Exchange reused = pool.acquire();
+        assertSame(exchange, reused);
+        assertEquals(0, pool.getIdle());
+        assertNull(reused.getRequest().getAttribute("a"));
+        assertFalse(reused.getResponse().containsHeader("X-Test"));
+        assertEquals(0, reused.getResponse().getContent().remaining());
+    }
+    
+    @Test
+    public void testFullPoolDropsPairs(){
+        HttpStubPool pool = new HttpStubPool(1);
+        HttpStubPool.Exchange first     = pool.acquire();
+        HttpStubPool.Exchange second    = pool.acquire();
+        assertNotSame(first, second);
+        
+        pool.release(first);
+        pool.release(second);
+        assertEquals(1, pool.getIdle());
+        
+        pool.clear();
+        assertEquals(0, pool.getIdle());
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void testDoubleRelease(){
+        HttpStubPool pool = new HttpStubPool(4);
+        HttpStubPool.Exchange exchange = pool.acquire();
+        
+        pool.release(exchange);
+        pool.release(exchange);
+    }
+    
+    @Test
+    public void testReleaseRecyclesFileBody() throws IOException {
+        File file = File.createTempFile("request", ".tmp");
+        try {
+            FileOutputStream output = new FileOutputStream(file);
+            output.write(new byte[]{1, 2, 3});
+            output.close();
+            
+            HttpStubPool pool = new HttpStubPool(1);
+            HttpStubPool.Exchange exchange = pool.acquire();
+            ServletInputStreamStub stream = new ServletInputStreamStub();
+            stream.setContent(file, "application/octet-stream");
+            exchange.getRequest().setInputStream(stream);
+            assertEquals(3, exchange.getRequest().getContentLength());
+            
+            pool.release(exchange);
+            
+            assertEquals(-1, exchange.getRequest().getContentLength());
+            assertEquals(0, stream.getLength());
+            assertEquals(-1, stream.read());
+        }
+        finally {
+            file.delete();
+        }
+    }
+}
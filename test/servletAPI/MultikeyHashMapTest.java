@@ -0,0 +1,158 @@
+package servletAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Enumeration;
+import org.junit.Test;
+
+/**
+ * Tests the hash index of MultikeyHashMap.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class MultikeyHashMapTest {
+    @Test
+    public void testValuesOfAKey(){
+        MultikeyHashMap map = new MultikeyHashMap();
+        map.add("Accept", "text/html");
+        map.add("Host", "localhost");
+        map.add("Accept", "text/plain");
+        
+        assertEquals(3, map.size());
+        assertEquals(2, map.count("Accept"));
+        assertEquals(0, map.count("Missing"));
+        assertEquals("text/html", map.get("Accept", 0));
+        assertEquals("localhost", map.get("Host", 0));
+        assertNull(map.get("Missing", 0));
+        
+        int first = map.findKey("Accept", 0);
+        int second = map.nextKey(first);
+        assertEquals("text/plain", map.getValue(second));
+        assertEquals(second, map.findKey("Accept", first + 1));
+        assertEquals(-1, map.nextKey(second));
+    }
+    
+    @Test
+    public void testManyKeys(){
+        /* Grows the positions and the hash index many times */
+        MultikeyHashMap map = new MultikeyHashMap(2);
+        for(int i=0; i<5000; i++){
+            map.add("key"+i, "value"+i);
+            map.add("key"+i, "second"+i);
+        }
+        
+        assertEquals(10000, map.size());
+        for(int i=0; i<5000; i++){
+            assertEquals("value"+i, map.get("key"+i, 0));
+            assertEquals(2, map.count("key"+i));
+        }
+    }
+    
+    @Test
+    public void testUpdateAndAddUnique(){
+        MultikeyHashMap map = new MultikeyHashMap();
+        map.update("a", "1", 0);
+        map.update("a", "2", 0);
+        assertEquals(1, map.count("a"));
+        assertEquals("2", map.get("a", 0));
+        
+        map.add("a", "3");
+        map.addUnique("a", "4");
+        assertEquals(1, map.count("a"));
+        assertEquals("4", map.get("a", 0));
+    }
+    
+    @Test
+    public void testInsertionOrder(){
+        MultikeyHashMap map = new MultikeyHashMap();
+        String[] keys = {"c", "a", "b", "a"};
+        for(int i=0; i<keys.length; i++){
+            map.add(keys[i], String.valueOf(i));
+        }
+        
+        int i = 0;
+        for(int pos=map.getFirstPosition(); pos!=-1; pos=map.getNextPosition(pos)){
+            assertEquals(keys[i], map.getKey(pos));
+            assertEquals(String.valueOf(i), map.getValue(pos));
+            i++;
+        }
+        assertEquals(keys.length, i);
+    }
+    
+    
+    @Test
+    public void testDeleteReusesPositions(){
+        MultikeyHashMap map = new MultikeyHashMap();
+        map.add("a", "1");
+        map.add("b", "2");
+        map.add("c", "3");
+        
+        int position = map.findKey("b", 0);
+        map.delete("b", 0);
+        assertNull(map.get("b", 0));
+        assertEquals(2, map.size());
+        
+        map.add("d", "4");
+        assertEquals(position, map.findKey("d", 0));
+        assertEquals("1", map.get("a", 0));
+        assertEquals("3", map.get("c", 0));
+    }
+    
+    @Test
+    public void testCompactKeepsValues(){
+        MultikeyHashMap map = new MultikeyHashMap();
+        for(int i=0; i<1000; i++){
+            map.add("key"+(i % 10), "value"+i);
+        }
+        
+        /* Deletes most values, so the map is compacted several times */
+        for(int i=0; i<900; i++){
+            map.delete("key"+(i % 10), 0);
+        }
+        
+        assertEquals(100, map.size());
+        for(int k=0; k<10; k++){
+            assertEquals(10, map.count("key"+k));
+            
+            int i = 900 + k;
+            for(int pos=map.findKey("key"+k, 0); pos!=-1; pos=map.nextKey(pos)){
+                assertEquals("value"+i, map.getValue(pos));
+                i += 10;
+            }
+        }
+    }
+    
+    @Test
+    public void testKeysAfterDelete(){
+        MultikeyHashMap map = new MultikeyHashMap();
+        map.add("a", "1");
+        map.add("b", "2");
+        map.add("a", "3");
+        map.add("c", "4");
+        map.delete("b", 0);
+        map.delete("a", 0);
+        
+        Enumeration<?> keys = map.getKeys();
+        assertEquals("a", keys.nextElement());
+        assertEquals("c", keys.nextElement());
+        assertFalse(keys.hasMoreElements());
+    }
+    
+    @Test(expected=NullPointerException.class)
+    public void testNullKey(){
+        new MultikeyHashMap().add(null, "value");
+    }
+    
+    @Test
+    public void testIgnoreCase(){
+        MultikeyHashMap map = new MultikeyHashMap(8, true);
+        map.add("Content-Type", "text/html");
+        map.add("content-type", "text/plain");
+        
+        assertEquals(2, map.count("CONTENT-TYPE"));
+        assertEquals("text/html", map.get("content-TYPE", 0));
+        assertEquals("Content-Type", map.getKey(map.findKey("CONTENT-TYPE", 0)));
+    }
+}
@@ -0,0 +1,136 @@
+package servletAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Enumeration;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests MultipartStream with delimiters that are split over reads and buffer refills.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class MultipartStreamTest {
+    private static final Charset LATIN      = Charset.forName("ISO-8859-1");
+    private static final String BOUNDARY    = "----formBoundary7MA4YWxk";
+    
+    @Test
+    public void testBoundarySplitOverReads() throws IOException {
+        /* The content holds the start of the delimiter, but not the whole delimiter */
+        String file = "line one\r\n--"+BOUNDARY.substring(0, 10)+"\r\nline two\r\n";
+        byte[] body = body(new String[]{"title", null, "A title"}, new String[]{"upload", "a.txt", file});
+        
+        for(int size=1; size<=BOUNDARY.length() + 8; size++){
+            MultipartStream stream = new MultipartStream(new HttpRequestParserTest.TrickleInputStream(body, size), BOUNDARY);
+            
+            PartStub title = stream.nextPart();
+            assertEquals("title", title.getName());
+            assertNull(title.getFilename());
+            assertEquals("A title", title.getString("ISO-8859-1"));
+            
+            PartStub upload = stream.nextPart();
+            assertEquals("upload", upload.getName());
+            assertEquals("a.txt", upload.getFilename());
+            assertEquals(file, upload.getString("ISO-8859-1"));
+            
+            assertNull(stream.nextPart());
+        }
+    }
+    
+    @Test
+    public void testPartBiggerThenBuffer() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for(int i=0; content.length()<50000; i++){
+            content.append("row ").append(i).append("\r\n");
+        }
+        byte[] body = body(new String[]{"data", "rows.txt", content.toString()}, new String[]{"after", null, "end"});
+        
+        /* Reads that end in every position of the delimiter around the buffer size */
+        for(int size=16370; size<=16400; size++){
+            MultipartStream stream  = new MultipartStream(new HttpRequestParserTest.TrickleInputStream(body, size), BOUNDARY);
+            List<PartStub> parts    = stream.readParts(-1);
+            
+            assertEquals(2, parts.size());
+            assertEquals(content.length(), parts.get(0).getSize());
+            assertEquals(content.toString(), parts.get(0).getString("ISO-8859-1"));
+            assertEquals("end", parts.get(1).getString("ISO-8859-1"));
+        }
+    }
+    
+    @Test
+    public void testStreamedPartByteByByte() throws IOException {
+        String file = "a\r\n--"+BOUNDARY.substring(0, 4)+"b\r\r\n-c";
+        byte[] body = body(new String[]{"upload", "a.txt", file}, new String[]{"after", null, "end"});
+        
+        for(int size=1; size<=body.length; size+=7){
+            MultipartStream stream = new MultipartStream(new HttpRequestParserTest.TrickleInputStream(body, size), BOUNDARY);
+            
+            InputStream input = stream.nextPart().getInputStream();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            int available = input.available();
+            int c;
+            while( (c = input.read()) != -1 ){
+                output.write(c);
+                
+                /* The available bytes count down until the delimiter or the end of the buffer */
+                if( available > 0 ) assertEquals(available - 1, input.available());
+                available = input.available();
+            }
+            assertEquals(0, input.available());
+            assertEquals(-1, input.read());
+            assertEquals(file, new String(output.toByteArray(), LATIN));
+            
+            assertEquals("end", stream.nextPart().getString("ISO-8859-1"));
+            assertNull(stream.nextPart());
+        }
+    }
+    
+    @Test
+    public void testHeaderNames() throws IOException {
+        MultipartStream stream = new MultipartStream(new HttpRequestParserTest.TrickleInputStream(body(new String[]{"upload", "a.txt", "x"}), 64), BOUNDARY);
+        PartStub part = stream.nextPart();
+        
+        Enumeration<String> names = part.getHeaderNames();
+        assertEquals("content-disposition", names.nextElement());
+        assertEquals("content-type", names.nextElement());
+        assertFalse(names.hasMoreElements());
+        assertEquals("text/plain", part.getHeader("Content-Type"));
+        assertEquals("x", part.getString("ISO-8859-1"));
+    }
+    
+    @Test(expected=IOException.class)
+    public void testMissingCloseDelimiter() throws IOException {
+        String text = "--"+BOUNDARY+"\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\nno end";
+        
+        MultipartStream stream = new MultipartStream(new HttpRequestParserTest.TrickleInputStream(text.getBytes(LATIN), 5), BOUNDARY);
+        stream.readParts(-1);
+    }
+    
+    /**
+     * Builds a multipart body
+     * 
+     * @param parts     The parts as name, filename or null and content
+     * @return  The body
+     */
+    private static byte[] body(String[]... parts){
+        StringBuilder body = new StringBuilder("preamble\r\n");
+        for(int i=0; i<parts.length; i++){
+            body.append("--").append(BOUNDARY).append("\r\n");
+            body.append("Content-Disposition: form-data; name=\"").append(parts[i][0]).append("\"");
+            if( parts[i][1] != null ){
+                body.append("; filename=\"").append(parts[i][1]).append("\"\r\nContent-Type: text/plain");
+            }
+            body.append("\r\n\r\n").append(parts[i][2]).append("\r\n");
+        }
+        body.append("--").append(BOUNDARY).append("--\r\n");
+        
+        return body.toString().getBytes(LATIN);
+    }
+}
@@ -0,0 +1,158 @@
+package servletAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Test;
+
+/**
+ * Tests replaying recorded requests with ReplayEngine and its sources.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class ReplayEngineTest {
+    private static final String LOG =
+        "127.0.0.1 - - [10/Oct/2024:13:55:36 +0000] \"GET /index.html HTTP/1.1\" 200 2326 \"-\" \"Mozilla/5.0\"\n"+
+        "10.0.0.2 - - [10/Oct/2024:13:55:37 +0000] \"GET /missing?id=4 HTTP/1.1\" 404 0\n"+
+        "broken line\n"+
+        "\n"+
+        "10.0.0.3 - - [10/Oct/2024:13:55:38 +0000] \"POST http://example.com/fail HTTP/1.1\" 500 0 \"http://example.com/\" \"curl\"\n"+
+        "10.0.0.2 - - [10/Oct/2024:13:55:39 +0000] \"GET /index.html HTTP/1.1\" 200 2326\n";
+    
+    @Test
+    public void testAccessLogSource() throws IOException {
+        AccessLogSource source = new AccessLogSource(new StringReader(LOG));
+        HttpServletRequestStub request = new HttpServletRequestStub();
+        
+        assertTrue(source.next(request));
+        assertEquals("GET", request.getMethod());
+        assertEquals("/index.html", request.getRequestURI());
+        assertEquals("Mozilla/5.0", request.getHeader("User-Agent"));
+        
+        request.recycle();
+        assertTrue(source.next(request));
+        assertEquals("/missing", request.getRequestURI());
+        assertEquals("4", request.getParameter("id"));
+        
+        request.recycle();
+        assertTrue(source.next(request));
+        assertEquals("POST", request.getMethod());
+        assertEquals("/fail", request.getRequestURI());
+        assertEquals("http://example.com/", request.getHeader("Referer"));
+        
+        request.recycle();
+        assertTrue(source.next(request));
+        request.recycle();
+        assertFalse(source.next(request));
+        assertEquals(6, source.getLines());
+        assertEquals(1, source.getSkipped());
+    }
+    
+    @Test
+    public void testHarSource() throws IOException {
+        String har = "{\"log\":{\"version\":\"1.2\",\"entries\":["+
+            "{\"request\":{\"method\":\"POST\",\"url\":\"http://example.com/form?a=1\","+
+                "\"headers\":[{\"name\":\":authority\",\"value\":\"example.com\"},{\"name\":\"Accept\",\"value\":\"text/html\"}],"+
+                "\"cookies\":[{\"name\":\"id\",\"value\":\"42\"}],"+
+                "\"postData\":{\"mimeType\":\"application/x-www-form-urlencoded\",\"text\":\"b=2\"}},"+
+             "\"response\":{\"status\":200}},"+
+            "{\"request\":{\"method\":\"BREW\",\"url\":\"http://example.com/pot\"}},"+
+            "{\"request\":{\"method\":\"GET\",\"url\":\"http://example.com/\"}}"+
+            "]}}";
+        HarSource source = new HarSource(new StringReader(har));
+        HttpServletRequestStub request = new HttpServletRequestStub();
+        
+        assertTrue(source.next(request));
+        assertEquals("POST", request.getMethod());
+        assertEquals("/form", request.getRequestURI());
+        assertEquals("text/html", request.getHeader("Accept"));
+        assertNull(request.getHeader(":authority"));
+        assertEquals("42", request.getCookies()[0].getValue());
+        assertEquals("1", request.getParameter("a"));
+        assertEquals("2", request.getParameter("b"));
+        
+        request.recycle();
+        assertTrue(source.next(request));
+        assertEquals("GET", request.getMethod());
+        
+        request.recycle();
+        assertFalse(source.next(request));
+        assertEquals(3, source.getEntries());
+        assertEquals(1, source.getSkipped());
+    }
+    
+    @Test
+    public void testReplayReport() throws Exception {
+        ReplayEngine engine = new ReplayEngine(new StatusServlet(), new ConfigStub());
+        engine.setWorkers(3);
+        
+        ReplayReport report = engine.replay(new AccessLogSource(new StringReader(LOG)));
+        
+        assertEquals(4, report.getTotal().getCount());
+        assertEquals(1, report.getTotal().getFailed());
+        assertEquals(2, report.getTotal().getStatusCount(200));
+        assertEquals(1, report.getTotal().getStatusCount(404));
+        assertEquals(1, report.getTotal().getStatusCount(500));
+        
+        ReplayReport.Entry index = report.getEntry("GET", "/index.html");
+        assertNotNull(index);
+        assertEquals(2, index.getCount());
+        assertEquals(2, index.getLatency().getCount());
+        assertEquals(1, report.getEntry("POST", "/fail").getFailed());
+        assertEquals("GET /index.html", report.getEntries().get(0).getName());
+    }
+    
+    @Test
+    public void testUrlsPastMaximumAreOther() throws Exception {
+        ReplayEngine engine = new ReplayEngine(new StatusServlet(), new ConfigStub());
+        engine.setWorkers(1);
+        engine.setMaxUrls(1);
+        
+        ReplayReport report = engine.replay(new AccessLogSource(new StringReader(LOG)));
+        
+        assertNotNull(report.getEntry("GET", "/index.html"));
+        assertNull(report.getEntry("GET", "/missing"));
+        assertEquals(2, report.getEntries().size());
+    }
+    
+    @Test
+    public void testLatencyPercentiles(){
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i=1; i<=1000; i++){
+            histogram.record(i);
+        }
+        
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        
+        /* The relative error of a percentile is at most 1/16 */
+        long median = histogram.getPercentile(50);
+        assertTrue(median >= 500 && median <= 500 + 500 / 16);
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+    
+    /**
+     * Servlet that answers 404 on /missing and throws on /fail
+     */
+    private static class StatusServlet extends HttpServlet {
+        @Override
+        protected void service(HttpServletRequest request,HttpServletResponse response) throws IOException {
+            if( request.getRequestURI().equals("/missing") ){
+                response.sendError(404);
+            }
+            else if( request.getRequestURI().equals("/fail") ){
+                throw new IllegalStateException("Servlet failed");
+            }
+        }
+    }
+}
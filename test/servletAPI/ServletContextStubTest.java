@@ -0,0 +1,155 @@
+package servletAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import javax.servlet.ServletContextAttributeEvent;
+import javax.servlet.ServletContextAttributeListener;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the shared attributes and sessions of ServletContextStub.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class ServletContextStubTest {
+    private ServletContextStub context;
+    
+    @Before
+    public void setUp(){
+        this.context    = new ServletContextStub();
+    }
+    
+    @Test
+    public void testAttributeEvents(){
+        final ArrayList<String> events = new ArrayList<String>();
+        this.context.addAttributeListener(new ServletContextAttributeListener(){
+            public void attributeAdded(ServletContextAttributeEvent event){
+                events.add("added "+event.getName()+"="+event.getValue());
+            }
+            
+            public void attributeReplaced(ServletContextAttributeEvent event){
+                events.add("replaced "+event.getName()+"="+event.getValue());
+            }
+            
+            public void attributeRemoved(ServletContextAttributeEvent event){
+                events.add("removed "+event.getName()+"="+event.getValue());
+            }
+        });
+        
+        this.context.setAttribute("a", "1");
+        this.context.setAttribute("a", "2");
+        this.context.setAttribute("a", null);
+        this.context.removeAttribute("a");
+        
+        assertNull(this.context.getAttribute("a"));
+        assertEquals("[added a=1, replaced a=1, removed a=2]", events.toString());
+    }
+    
+    @Test
+    public void testAttributeNamesSnapshot(){
+        this.context.setAttribute("a", "1");
+        this.context.setAttribute("b", "2");
+        
+        Enumeration<?> names = this.context.getAttributeNames();
+        this.context.removeAttribute("a");
+        this.context.setAttribute("c", "3");
+        
+        ArrayList<Object> list = new ArrayList<Object>();
+        while( names.hasMoreElements() ){
+            list.add(names.nextElement());
+        }
+        assertEquals(2, list.size());
+        assertTrue(list.contains("a"));
+        assertTrue(list.contains("b"));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testNullAttributeName(){
+        this.context.setAttribute(null, "1");
+    }
+    
+    @Test
+    public void testConcurrentAttributes() throws InterruptedException {
+        final ServletContextStub context = this.context;
+        Thread[] threads = new Thread[8];
+        for(int i=0; i<threads.length; i++){
+            final int thread = i;
+            threads[i] = new Thread(){
+                @Override
+                public void run(){
+                    for(int j=0; j<1000; j++){
+                        context.setAttribute(thread+"-"+j, Integer.valueOf(j));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for(int i=0; i<threads.length; i++){
+            threads[i].join();
+        }
+        
+        for(int i=0; i<threads.length; i++){
+            for(int j=0; j<1000; j++){
+                assertEquals(Integer.valueOf(j), this.context.getAttribute(i+"-"+j));
+            }
+        }
+    }
+    
+    @Test
+    public void testRequestFindsSharedSession(){
+        HttpSessionStub session = this.context.createSession();
+        assertSame(session, this.context.getSession(session.getId()));
+        assertEquals(1, this.context.getSessionCount());
+        
+        HttpServletRequestStub request = new HttpServletRequestStub(this.context);
+        request.setSessionID(session.getId());
+        assertSame(session, request.getSession(false));
+        
+        this.context.removeSession(session.getId());
+        assertNull(this.context.getSession(session.getId()));
+        assertEquals(0, this.context.getSessionCount());
+    }
+    
+    @Test
+    public void testSessionUnbindsReplacedValue(){
+        final ArrayList<String> events = new ArrayList<String>();
+        HttpSessionStub session = this.context.createSession();
+        
+        session.setAttribute("a", new Binding("first", events));
+        session.setAttribute("a", new Binding("second", events));
+        session.removeAttribute("a");
+        
+        assertEquals("[bound first, bound second, unbound first, unbound second]", events.toString());
+        assertFalse(session.getAttributeNames().hasMoreElements());
+    }
+    
+    /**
+     * Session value that records its binding events
+     */
+    private static class Binding implements HttpSessionBindingListener {
+        private String name;
+        private ArrayList<String> events;
+        
+        private Binding(String name,ArrayList<String> events){
+            this.name   = name;
+            this.events = events;
+        }
+        
+        public void valueBound(HttpSessionBindingEvent event){
+            this.events.add("bound "+this.name);
+        }
+        
+        public void valueUnbound(HttpSessionBindingEvent event){
+            this.events.add("unbound "+this.name);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package servletAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.GenericServlet;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import org.junit.Test;
+
+/**
+ * Tests running requests on a servlet with ServletDriver.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class ServletDriverTest {
+    /**
+     * Returns the given number of requests, with the number as query string
+     * 
+     * @param count     The number of requests
+     * @return  The requests
+     */
+    private static List<HttpServletRequestStub> requests(int count){
+        ArrayList<HttpServletRequestStub> requests = new ArrayList<HttpServletRequestStub>();
+        for(int i=0; i<count; i++){
+            HttpServletRequestStub request = new HttpServletRequestStub();
+            request.setQueryString(String.valueOf(i));
+            requests.add(request);
+        }
+        
+        return requests;
+    }
+    
+    @Test
+    public void testResultsInRequestOrder() throws Exception {
+        ServletDriver driver = new ServletDriver(new EchoServlet(), new ConfigStub());
+        List<HttpServletRequestStub> requests = requests(200);
+        
+        List<ServletDriver.Result> results = driver.run(requests);
+        
+        assertEquals(200, results.size());
+        for(int i=0; i<results.size(); i++){
+            ServletDriver.Result result = results.get(i);
+            assertSame(requests.get(i), result.getRequest());
+            assertTrue(result.isSucceeded());
+            assertEquals(String.valueOf(i), Charset.forName("ISO-8859-1").decode(result.getResponse().getContent()).toString());
+        }
+    }
+    
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maximum = new AtomicInteger();
+        ServletDriver driver = new ServletDriver(new GenericServlet(){
+            @Override
+            public void service(ServletRequest request,ServletResponse response){
+                int now = running.incrementAndGet();
+                int max = maximum.get();
+                while( now > max && !maximum.compareAndSet(max, now) ){
+                    max = maximum.get();
+                }
+                try {
+                    Thread.sleep(2);
+                }
+                catch(InterruptedException e){ }
+                running.decrementAndGet();
+            }
+        }, new ConfigStub());
+        driver.setConcurrency(4);
+        
+        driver.run(requests(50));
+        
+        assertTrue(maximum.get() <= 4);
+    }
+    
+    @Test
+    public void testErrorIsReported() throws Exception {
+        final Error error = new AssertionError("servlet failed");
+        ServletDriver driver = new ServletDriver(new GenericServlet(){
+            @Override
+            public void service(ServletRequest request,ServletResponse response){
+                throw error;
+            }
+        }, new ConfigStub());
+        
+        ServletDriver.Result result = driver.run(requests(1)).get(0);
+        
+        assertFalse(result.isSucceeded());
+        assertSame(error, result.getException());
+        assertTrue(result.getDuration() > 0);
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidConcurrency() throws ServletException {
+        new ServletDriver(new EchoServlet(), new ConfigStub()).setConcurrency(0);
+    }
+    
+    /**
+     * Servlet that writes the query string of the request
+     */
+    private static class EchoServlet extends GenericServlet {
+        @Override
+        public void service(ServletRequest request,ServletResponse response) throws IOException {
+            response.getOutputStream().print(((HttpServletRequestStub) request).getQueryString());
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package servletAPI;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import org.junit.Test;
+
+/**
+ * Tests reading request bodies from a buffer, file or channel with ServletInputStreamStub.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class ServletInputStreamStubTest {
+    @Test
+    public void testBytesAreUnsigned() throws IOException {
+        ServletInputStreamStub stream = new ServletInputStreamStub();
+        stream.setContent(new byte[]{(byte) 0x80, (byte) 0xff, 0x7f}, null);
+        
+        assertEquals(0x80, stream.read());
+        assertEquals(0xff, stream.read());
+        assertEquals(0x7f, stream.read());
+        assertEquals(-1, stream.read());
+    }
+    
+    @Test
+    public void testBulkRead() throws IOException {
+        ServletInputStreamStub stream = new ServletInputStreamStub();
+        stream.setContent("abcdefg".getBytes("ISO-8859-1"), "text/plain");
+        assertEquals(7, stream.getLength());
+        assertEquals("text/plain", stream.getContentType());
+        assertFalse(stream.isRead());
+        
+        byte[] b = new byte[5];
+        assertEquals(0, stream.read(b, 0, 0));
+        assertEquals(4, stream.read(b, 1, 4));
+        assertArrayEquals("\0abcd".getBytes("ISO-8859-1"), b);
+        assertTrue(stream.isRead());
+        assertEquals(3, stream.available());
+        
+        assertEquals(3, stream.read(b, 0, 5));
+        assertEquals(-1, stream.read(b, 0, 5));
+        assertEquals(0, stream.available());
+    }
+    
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testBulkReadOutOfBounds() throws IOException {
+        ServletInputStreamStub stream = new ServletInputStreamStub();
+        stream.setContent(new byte[4], null);
+        
+        stream.read(new byte[4], 2, 3);
+    }
+    
+    @Test
+    public void testReadLine() throws IOException {
+        ServletInputStreamStub stream = new ServletInputStreamStub();
+        ByteBuffer content = ByteBuffer.allocateDirect(16);
+        content.put("one\ntwo\r\nthree".getBytes("ISO-8859-1"));
+        content.flip();
+        stream.setContent(content, null);
+        
+        byte[] b = new byte[16];
+        assertEquals(4, stream.readLine(b, 0, 16));
+        assertEquals("one\n", new String(b, 0, 4, "ISO-8859-1"));
+        assertEquals(3, stream.readLine(b, 0, 3));
+        assertEquals(2, stream.readLine(b, 3, 13));
+        assertEquals("two\r\n", new String(b, 0, 5, "ISO-8859-1"));
+        assertEquals(5, stream.readLine(b, 0, 16));
+        assertEquals(-1, stream.readLine(b, 0, 16));
+    }
+    
+    @Test
+    public void testSkip() throws IOException {
+        ServletInputStreamStub stream = new ServletInputStreamStub();
+        stream.setContent("abcdef".getBytes("ISO-8859-1"), null);
+        
+        assertEquals(2, stream.skip(2));
+        assertEquals('c', stream.read());
+        assertEquals(3, stream.skip(10));
+        assertEquals(0, stream.skip(10));
+    }
+    
+    @Test
+    public void testBufferIsNotCopied() throws IOException {
+        ByteBuffer content = ByteBuffer.wrap("xabc".getBytes("ISO-8859-1"));
+        content.position(1);
+        
+        ServletInputStreamStub stream = new ServletInputStreamStub();
+        stream.setContent(content, null);
+        content.put(2, (byte) 'B');
+        
+        assertEquals(1, content.position());
+        assertEquals(3, stream.getLength());
+        assertEquals("aBc", new BufferedReader(new InputStreamReader(stream, "ISO-8859-1")).readLine());
+    }
+    
+    @Test
+    public void testFileContent() throws IOException {
+        File file = File.createTempFile("body", ".tmp");
+        try {
+            FileOutputStream output = new FileOutputStream(file);
+            output.write("line one\nline two\n".getBytes("ISO-8859-1"));
+            output.close();
+            
+            ServletInputStreamStub stream = new ServletInputStreamStub();
+            stream.setContent(file, "text/plain");
+            assertEquals(18, stream.getLength());
+            assertEquals(18L, stream.getLengthLong());
+            
+            BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "ISO-8859-1"));
+            assertEquals("line one", reader.readLine());
+            assertEquals("line two", reader.readLine());
+            stream.close();
+        }
+        finally {
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void testChannelContent() throws IOException {
+        byte[] data = new byte[20000];
+        for(int i=0; i<data.length; i++){
+            data[i] = (byte) i;
+        }
+        
+        ServletInputStreamStub stream = new ServletInputStreamStub();
+        stream.setContent(new TrickleChannel(data, 3000), 19000, null);
+        assertEquals(19000, stream.getLength());
+        
+        byte[] read = new byte[20000];
+        int count = 0;
+        int n;
+        while( (n = stream.read(read, count, read.length - count)) != -1 ){
+            count += n;
+        }
+        assertEquals(19000, count);
+        for(int i=0; i<count; i++){
+            assertEquals(data[i], read[i]);
+        }
+    }
+    
+    @Test
+    public void testChannelWithoutLength() throws IOException {
+        ServletInputStreamStub stream = new ServletInputStreamStub();
+        stream.setContent(Channels.newChannel(new ByteArrayInputStream(new byte[10000])), -1, null);
+        assertEquals(-1, stream.getLength());
+        
+        assertEquals(9000, stream.skip(9000));
+        assertEquals(0, stream.read());
+        assertEquals(999, stream.skip(5000));
+        assertEquals(-1, stream.read());
+    }
+    
+    @Test
+    public void testFileOver2GB() throws IOException {
+        long window     = 1L << 30;
+        long size       = 3 * window + 10;
+        File file       = File.createTempFile("body", ".tmp");
+        try {
+            /* A sparse file, with markers around the window boundaries */
+            RandomAccessFile output = new RandomAccessFile(file, "rw");
+            output.setLength(size);
+            output.seek(window - 1);
+            output.write(new byte[]{'a', 'b'});
+            output.seek(2 * window + 5);
+            output.write('c');
+            output.seek(size - 1);
+            output.write('d');
+            output.close();
+            
+            HttpServletRequestStub request  = new HttpServletRequestStub();
+            ServletInputStreamStub stream   = new ServletInputStreamStub();
+            stream.setContent(file, "application/octet-stream");
+            request.setInputStream(stream);
+            assertEquals(-1, request.getContentLength());
+            assertEquals(size, request.getContentLengthLong());
+            
+            assertEquals(window - 2, stream.skip(window - 2));
+            byte[] b = new byte[4];
+            assertEquals(2, stream.read(b, 0, 4));
+            assertEquals('a', b[1]);
+            assertEquals('b', stream.read());
+            
+            assertEquals(window + 4, stream.skip(window + 4));
+            assertEquals('c', stream.read());
+            assertEquals(window + 3, stream.skip(window + 3));
+            assertEquals('d', stream.read());
+            assertEquals(-1, stream.read());
+            assertEquals(0, stream.skip(Long.MAX_VALUE));
+            assertTrue(stream.isRead());
+            
+            stream.recycle();
+            assertEquals(0, stream.getLengthLong());
+        }
+        finally {
+            file.delete();
+        }
+    }
+    
+    /**
+     * Channel that gives at most the given number of bytes per read
+     */
+    private static class TrickleChannel implements ReadableByteChannel {
+        private ByteBuffer data;
+        private int maxRead;
+        
+        private TrickleChannel(byte[] data,int maxRead){
+            this.data       = ByteBuffer.wrap(data);
+            this.maxRead    = maxRead;
+        }
+        
+        @Override
+        public int read(ByteBuffer dst){
+            if( !this.data.hasRemaining() ) return -1;
+            
+            ByteBuffer part = this.data.duplicate();
+            part.limit(part.position() + Math.min(this.maxRead, Math.min(part.remaining(), dst.remaining())));
+            int read = part.remaining();
+            dst.put(part);
+            this.data.position(this.data.position() + read);
+            
+            return read;
+        }
+        
+        @Override
+        public boolean isOpen(){
+            return true;
+        }
+        
+        @Override
+        public void close(){
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package servletAPI;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.Charset;
+import javax.servlet.http.Cookie;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the content, buffer, encoder and header output of ServletOutputStreamStub.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class ServletOutputStreamStubTest {
+    private ServletOutputStreamStub stream;
+    
+    @Before
+    public void setUp(){
+        this.stream = new ServletOutputStreamStub();
+    }
+    
+    /**
+     * Returns the written content
+     * 
+     * @param stream    The stream
+     * @return  The content
+     * @throws IOException  If the content could not be read
+     */
+    static byte[] content(ServletOutputStreamStub stream) throws IOException {
+        stream.writeBuffer();
+        
+        ByteBuffer content  = stream.getContent();
+        byte[] bytes        = new byte[content.remaining()];
+        content.get(bytes);
+        
+        return bytes;
+    }
+    
+    /**
+     * Returns the HTTP head as text
+     * 
+     * @param head  The head from getHttpHeader
+     * @return  The head
+     */
+    private static String text(ByteBuffer head){
+        return Charset.forName("ISO-8859-1").decode(head.duplicate()).toString();
+    }
+    
+    @Test
+    public void testWriteBytes() throws IOException {
+        this.stream.write('a');
+        this.stream.write(new byte[]{'b', 'c'});
+        this.stream.write(new byte[]{'x', 'd', 'e', 'x'}, 1, 2);
+        
+        assertArrayEquals("abcde".getBytes("ISO-8859-1"), content(this.stream));
+        assertEquals(5, this.stream.getContentSize());
+    }
+    
+    @Test
+    public void testGrowsLargeContent() throws IOException {
+        byte[] chunk = new byte[1000];
+        for(int i=0; i<chunk.length; i++){
+            chunk[i]    = (byte) i;
+        }
+        for(int i=0; i<3000; i++){
+            this.stream.write(chunk);
+            this.stream.write(i);
+        }
+        
+        byte[] content = content(this.stream);
+        assertEquals(3000 * 1001, content.length);
+        for(int i=0; i<3000; i++){
+            assertEquals((byte) 999, content[i * 1001 + 999]);
+            assertEquals((byte) i, content[i * 1001 + 1000]);
+        }
+    }
+    
+    @Test
+    public void testUnbufferedSingleBytes() throws IOException {
+        this.stream.setBufferSize(0);
+        for(int i=0; i<5; i++){
+            this.stream.write('a' + i);
+        }
+        
+        assertArrayEquals("abcde".getBytes("ISO-8859-1"), content(this.stream));
+    }
+    
+    @Test(expected=ReadOnlyBufferException.class)
+    public void testContentIsReadOnly() throws IOException {
+        this.stream.write(1);
+        this.stream.writeBuffer();
+        
+        this.stream.getContent().put(0, (byte) 2);
+    }
+    
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testInvalidRange() throws IOException {
+        this.stream.write(new byte[4], 2, 3);
+    }
+    
+    @Test
+    public void testResetClearsContent() throws IOException {
+        this.stream.write(new byte[100]);
+        this.stream.reset();
+        
+        assertEquals(0, this.stream.getContentSize());
+        assertTrue(content(this.stream).length == 0);
+    }
+    
+    @Test
+    public void testOverflowCommits() throws IOException {
+        this.stream.setBufferSize(4);
+        this.stream.write(new byte[]{'a', 'b', 'c', 'd'});
+        assertFalse(this.stream.hasWritten());
+        
+        this.stream.write('e');
+        assertTrue(this.stream.hasWritten());
+        assertTrue(this.stream.getHeader().startsWith("200\n"));
+        assertArrayEquals("abcde".getBytes("ISO-8859-1"), content(this.stream));
+    }
+    
+    @Test
+    public void testLargeWriteAfterBufferedBytes() throws IOException {
+        this.stream.setBufferSize(4);
+        this.stream.write(new byte[]{'a', 'b'});
+        this.stream.write("cdefghij".getBytes("ISO-8859-1"));
+        this.stream.write('k');
+        
+        assertTrue(this.stream.hasWritten());
+        assertArrayEquals("abcdefghijk".getBytes("ISO-8859-1"), content(this.stream));
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void testBufferSizeAfterContent() throws IOException {
+        this.stream.write('a');
+        
+        this.stream.setBufferSize(10);
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void testBufferSizeAfterCommit() throws IOException {
+        this.stream.flush();
+        
+        this.stream.setBufferSize(10);
+    }
+    
+    @Test
+    public void testResetBufferKeepsHeaders() throws IOException {
+        this.stream.addHeader("X-Test", "1", false);
+        this.stream.write(new byte[]{'a', 'b'});
+        this.stream.resetBuffer();
+        this.stream.write('c');
+        
+        assertFalse(this.stream.hasWritten());
+        assertArrayEquals(new byte[]{'c'}, content(this.stream));
+        assertTrue(this.stream.getHeader().contains("X-Test: 1\n"));
+    }
+    
+    @Test
+    public void testPrintsUtf8() throws IOException {
+        this.stream.setCharacterEncoding("UTF-8");
+        this.stream.print("caf\u00e9 ");
+        this.stream.print('\u20ac');
+        this.stream.print(-1234567890123L);
+        this.stream.println(42);
+        this.stream.print(true);
+        this.stream.flush();
+        
+        assertArrayEquals("caf\u00e9 \u20ac-123456789012342\ntrue".getBytes("UTF-8"), content(this.stream));
+    }
+    
+    @Test
+    public void testPrintsLongText() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for(int i=0; i<1000; i++){
+            text.append("\u00e9\ud83d\ude00").append(i);
+        }
+        this.stream.setCharacterEncoding("UTF-8");
+        this.stream.setBufferSize(20);
+        this.stream.print(text.toString());
+        this.stream.flush();
+        
+        assertArrayEquals(text.toString().getBytes("UTF-8"), content(this.stream));
+    }
+    
+    @Test
+    public void testSurrogatePairOverWrites() throws IOException {
+        this.stream.setCharacterEncoding("UTF-8");
+        ServletWriterStub writer = new ServletWriterStub(this.stream);
+        writer.write('a');
+        writer.write(0xd83d);
+        writer.write(0xde00);
+        writer.write(new char[]{'b', '\ud83d'}, 0, 2);
+        writer.write("\ude01c", 0, 2);
+        writer.flush();
+        
+        assertArrayEquals("a\ud83d\ude00b\ud83d\ude01c".getBytes("UTF-8"), content(this.stream));
+    }
+    
+    @Test
+    public void testSurrogatePairOverBufferedWriter() throws IOException {
+        StringBuilder text = new StringBuilder("x");
+        for(int i=0; i<100; i++){
+            text.append("\ud83d\ude00");
+        }
+        this.stream.setCharacterEncoding("UTF-8");
+        
+        /* The pairs are split at the 16 character buffer of the writer */
+        BufferedWriter writer = new BufferedWriter(new ServletWriterStub(this.stream), 16);
+        writer.write(text.toString());
+        writer.flush();
+        
+        assertArrayEquals(text.toString().getBytes("UTF-8"), content(this.stream));
+    }
+    
+    @Test
+    public void testUnpairedSurrogateOnFlush() throws IOException {
+        this.stream.setCharacterEncoding("UTF-8");
+        this.stream.print("a\ud83d");
+        this.stream.print(1);
+        this.stream.print('\ud83d');
+        this.stream.flush();
+        
+        assertArrayEquals("a?1?".getBytes("UTF-8"), content(this.stream));
+    }
+    
+    @Test
+    public void testHttpHeaderIsCached(){
+        this.stream.addHeader("X-Test", "1", false);
+        ByteBuffer first    = this.stream.getHttpHeader(10, true);
+        ByteBuffer second   = this.stream.getHttpHeader(10, true);
+        
+        assertSame(first.array(), second.array());
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Length: 10\r\nX-Test: 1\r\n\r\n", text(second));
+    }
+    
+    @Test
+    public void testHttpHeaderChanges(){
+        this.stream.getHttpHeader(10, true);
+        
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Length: 20\r\nConnection: close\r\n\r\n", text(this.stream.getHttpHeader(20, false)));
+        
+        this.stream.addHeader("X-Test", "1", false);
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Length: 20\r\nX-Test: 1\r\nConnection: close\r\n\r\n", text(this.stream.getHttpHeader(20, false)));
+        
+        this.stream.writeStatus(404);
+        assertTrue(text(this.stream.getHttpHeader(20, false)).startsWith("HTTP/1.1 404 Not Found\r\n"));
+        
+        this.stream.addCookie(new Cookie("id", "42"));
+        assertTrue(text(this.stream.getHttpHeader(20, false)).contains("Set-Cookie: id=42\r\n"));
+        
+        this.stream.reset();
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Length: 20\r\nConnection: close\r\n\r\n", text(this.stream.getHttpHeader(20, false)));
+    }
+    
+    @Test
+    public void testHttpHeaderKeepsHeaderOutput() throws IOException {
+        this.stream.addHeader("X-Test", "1", false);
+        this.stream.flush();
+        String header = this.stream.getHeader();
+        
+        this.stream.getHttpHeader(0, true);
+        
+        assertSame(header, this.stream.getHeader());
+        assertTrue(header.contains("X-Test: 1\n"));
+    }
+    
+    @Test
+    public void testMaxAgeCookieIsNotCached(){
+        Cookie cookie = new Cookie("id", "42");
+        cookie.setMaxAge(60);
+        this.stream.addCookie(cookie);
+        
+        assertTrue(text(this.stream.getHttpHeader(0, true)).contains("Set-Cookie: id=42; Max-Age=60; Expires="));
+        
+        /* The head is serialized again on every call, so the Expires date follows the time */
+        cookie.setMaxAge(120);
+        assertTrue(text(this.stream.getHttpHeader(0, true)).contains("Set-Cookie: id=42; Max-Age=120; Expires="));
+    }
+    
+    @Test
+    public void testManyCookies(){
+        for(int i=0; i<30; i++){
+            this.stream.addCookie(new Cookie("track"+i, String.valueOf(i)));
+        }
+        
+        assertEquals(30, this.stream.getCookies().length);
+        String head = text(this.stream.getHttpHeader(0, true));
+        int previous = -1;
+        for(int i=0; i<30; i++){
+            int position = head.indexOf("Set-Cookie: track"+i+"="+i+"\r\n");
+            assertTrue(position > previous);
+            previous = position;
+        }
+    }
+    
+    @Test
+    public void testCookieAttributes() throws IOException {
+        Cookie cookie = new Cookie("name", "a \"b\"");
+        cookie.setVersion(1);
+        cookie.setComment("test");
+        cookie.setDomain("example.com");
+        cookie.setPath("/app");
+        cookie.setSecure(true);
+        this.stream.addCookie(cookie);
+        
+        Cookie removed = new Cookie("old", "");
+        removed.setMaxAge(0);
+        this.stream.addCookie(removed);
+        this.stream.flush();
+        
+        String header = this.stream.getHeader();
+        assertTrue(header.contains("Set-Cookie: name=\"a \\\"b\\\"\"; Version=1; Comment=test; Domain=example.com; Path=/app; Secure\n"));
+        assertTrue(header.contains("Set-Cookie: old=; Max-Age=0; Expires=Thu, 01 Jan 1970 00:00:00 GMT\n"));
+    }
+}
@@ -0,0 +1,226 @@
+package servletAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import javax.servlet.http.HttpSessionActivationListener;
+import javax.servlet.http.HttpSessionEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the expiry and passivation of sessions on the timing wheel of SessionManagerStub.
+ * The time is moved with a clock of the test, so no test waits.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class SessionManagerStubTest {
+    /* One block of the top level of the wheel, in ticks */
+    private static final long TOP_BLOCK = 1L << 24;
+    
+    private TestClock clock;
+    private File file;
+    private SessionStore store;
+    
+    @Before
+    public void setUp(){
+        this.clock  = new TestClock(1700000000123L);
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        if( this.store != null )    this.store.close();
+        if( this.file != null )     this.file.delete();
+    }
+    
+    /**
+     * Returns a manager that passivates sessions to a new store
+     * 
+     * @param interval  The max inactive interval in seconds
+     * @param swap      The max idle swap time in seconds
+     * @return  The manager
+     * @throws IOException  If the store could not be created
+     */
+    private SessionManagerStub passivatingManager(int interval,int swap) throws IOException {
+        this.file   = File.createTempFile("sessions", ".store");
+        this.file.delete();
+        this.store  = new SessionStore(this.file);
+        
+        SessionManagerStub manager = new SessionManagerStub(null, this.clock);
+        manager.setStore(this.store);
+        manager.setMaxInactiveInterval(interval);
+        manager.setMaxIdleSwap(swap);
+        
+        return manager;
+    }
+    
+    @Test
+    public void testExpiresAfterInterval(){
+        SessionManagerStub manager = new SessionManagerStub(null, this.clock);
+        manager.setMaxInactiveInterval(60);
+        HttpSessionStub session = manager.createSession();
+        
+        this.clock.time += 59000;
+        assertEquals(0, manager.expire());
+        assertSame(session, manager.getSession(session.getId()));
+        
+        this.clock.time += 62000;
+        assertEquals(1, manager.expire());
+        assertEquals(0, manager.getSessionCount());
+        assertNull(manager.getSession(session.getId()));
+    }
+    
+    @Test
+    public void testAccessPostponesExpiry(){
+        SessionManagerStub manager = new SessionManagerStub(null, this.clock);
+        manager.setMaxInactiveInterval(60);
+        HttpSessionStub session = manager.createSession();
+        
+        this.clock.time += 50000;
+        session.access();
+        this.clock.time += 50000;
+        assertEquals(0, manager.expire());
+        
+        this.clock.time += 12000;
+        assertEquals(1, manager.expire());
+    }
+    
+    @Test
+    public void testNeverExpires(){
+        SessionManagerStub manager = new SessionManagerStub(null, this.clock);
+        HttpSessionStub session = manager.createSession();
+        session.setMaxInactiveInterval(-1);
+        
+        this.clock.time += 100L * 365 * 24 * 3600 * 1000;
+        assertEquals(0, manager.expire());
+        assertNotNull(manager.getSession(session.getId()));
+    }
+    
+    @Test
+    public void testExpiresAcrossTopBlockBoundary(){
+        /* With a tick of 1ms the top level block ends every 2^24 ms */
+        this.clock.time = 5 * TOP_BLOCK - 5000;
+        SessionManagerStub manager = new SessionManagerStub(null, this.clock, 1);
+        manager.setMaxInactiveInterval(10);
+        manager.createSession();
+        
+        this.clock.time += 9000;
+        assertEquals(0, manager.expire());
+        
+        this.clock.time += 1002;
+        assertEquals(1, manager.expire());
+        assertEquals(0, manager.getSessionCount());
+    }
+    
+    @Test
+    public void testExpiresBeyondTheWheel(){
+        /* An interval longer then the four levels of the wheel together */
+        this.clock.time = 3 * TOP_BLOCK - 1000;
+        SessionManagerStub manager = new SessionManagerStub(null, this.clock, 1);
+        HttpSessionStub session = manager.createSession();
+        session.setMaxInactiveInterval(20000);
+        
+        for(int i=0; i<19; i++){
+            this.clock.time += 1000000;
+            assertEquals(0, manager.expire());
+        }
+        
+        this.clock.time += 1000002;
+        assertEquals(1, manager.expire());
+    }
+    
+    @Test
+    public void testIdleSessionIsPassivated() throws IOException {
+        SessionManagerStub manager  = this.passivatingManager(60, 10);
+        HttpSessionStub session     = manager.createSession();
+        String id                   = session.getId();
+        session.setAttribute("count", Integer.valueOf(3));
+        session.setAttribute("socket", new Object());
+        session.setAttribute("listener", new Activation());
+        
+        this.clock.time += 11000;
+        assertEquals(0, manager.expire());
+        assertEquals(1, manager.getPassivatedCount());
+        assertEquals(1, manager.getSessionCount());
+        assertTrue(((Activation) session.getAttribute("listener")).events.contains("passivate"));
+        
+        /* The session is read back as a new instance, without the attributes that are not serializable */
+        HttpSessionStub activated = manager.getSession(id);
+        assertNotNull(activated);
+        assertNotSame(session, activated);
+        assertEquals(0, manager.getPassivatedCount());
+        assertEquals(Integer.valueOf(3), activated.getAttribute("count"));
+        assertNull(activated.getAttribute("socket"));
+        assertEquals("[passivate, activate]", ((Activation) activated.getAttribute("listener")).events.toString());
+        assertSame(activated, manager.getSession(id));
+    }
+    
+    @Test
+    public void testPassivatedSessionExpires() throws IOException {
+        SessionManagerStub manager  = this.passivatingManager(60, 10);
+        HttpSessionStub session     = manager.createSession();
+        String id                   = session.getId();
+        
+        assertTrue(manager.passivate(session));
+        assertFalse(manager.passivate(session));
+        assertTrue(this.store.contains(id));
+        
+        this.clock.time += 121000;
+        assertEquals(1, manager.expire());
+        assertEquals(0, manager.getSessionCount());
+        assertNull(manager.getSession(id));
+        assertFalse(this.store.contains(id));
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void testPassivateWithoutStore(){
+        SessionManagerStub manager = new SessionManagerStub(null, this.clock);
+        
+        manager.passivate(manager.createSession());
+    }
+    
+    /**
+     * Session attribute that records its activation events
+     */
+    private static class Activation implements HttpSessionActivationListener, Serializable {
+        private static final long serialVersionUID = 1L;
+        
+        private ArrayList<String> events = new ArrayList<String>();
+        
+        @Override
+        public void sessionWillPassivate(HttpSessionEvent event){
+            this.events.add("passivate");
+        }
+        
+        @Override
+        public void sessionDidActivate(HttpSessionEvent event){
+            this.events.add("activate");
+        }
+    }
+    
+    /**
+     * Clock that is moved by the test
+     */
+    private static class TestClock implements SessionClock {
+        private long time;
+        
+        private TestClock(long time){
+            this.time   = time;
+        }
+        
+        @Override
+        public long currentTimeMillis(){
+            return this.time;
+        }
+    }
+}
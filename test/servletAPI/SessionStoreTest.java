@@ -0,0 +1,135 @@
+package servletAPI;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the records of SessionStore and the index that is rebuild when the file is opened again.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class SessionStoreTest {
+    private static final Charset UTF8   = Charset.forName("UTF-8");
+    
+    private File file;
+    
+    @Before
+    public void setUp() throws IOException {
+        this.file   = File.createTempFile("sessions", ".store");
+        this.file.delete();
+    }
+    
+    @After
+    public void tearDown(){
+        this.file.delete();
+    }
+    
+    @Test
+    public void testSaveGetRemove() throws IOException {
+        SessionStore store = new SessionStore(this.file);
+        try {
+            save(store, "a", 1000, "first");
+            assertTrue(store.contains("a"));
+            assertEquals("first", new String(store.get("a"), UTF8));
+            
+            assertTrue(store.remove("a"));
+            assertFalse(store.remove("a"));
+            assertNull(store.get("a"));
+            assertEquals(0, store.size());
+        }
+        finally {
+            store.close();
+        }
+    }
+    
+    @Test
+    public void testReopenRebuildsIndex() throws IOException {
+        SessionStore store = new SessionStore(this.file);
+        save(store, "a", 1000, "first");
+        save(store, "b", -1, "second");
+        save(store, "c", 5000, "third");
+        store.remove("b");
+        save(store, "a", 3000, "replaced");
+        long liveSize = store.getLiveSize();
+        store.close();
+        
+        store = new SessionStore(this.file);
+        try {
+            assertEquals(2, store.size());
+            assertEquals("replaced", new String(store.get("a"), UTF8));
+            assertEquals("third", new String(store.get("c"), UTF8));
+            assertFalse(store.contains("b"));
+            assertEquals(liveSize, store.getLiveSize());
+            assertArrayEquals(new String[]{"a"}, store.getExpired(4000));
+            
+            /* Records appended after the reopen are found too */
+            save(store, "d", -1, "fourth");
+        }
+        finally {
+            store.close();
+        }
+        
+        store = new SessionStore(this.file);
+        try {
+            assertEquals(3, store.size());
+            assertEquals("fourth", new String(store.get("d"), UTF8));
+        }
+        finally {
+            store.close();
+        }
+    }
+    
+    @Test
+    public void testRecordsOverSegments() throws IOException {
+        StringBuilder big = new StringBuilder();
+        for(int i=0; i<100; i++){
+            big.append("0123456789");
+        }
+        
+        /* Segments of 64 bytes : small records are padded over segments, the big record gets its own segment */
+        SessionStore store = new SessionStore(this.file, 64);
+        for(int i=0; i<20; i++){
+            save(store, "s"+i, -1, "value "+i);
+        }
+        save(store, "big", -1, big.toString());
+        save(store, "last", -1, "after the big record");
+        store.close();
+        
+        store = new SessionStore(this.file, 64);
+        try {
+            assertEquals(22, store.size());
+            for(int i=0; i<20; i++){
+                assertEquals("value "+i, new String(store.get("s"+i), UTF8));
+            }
+            assertEquals(big.toString(), new String(store.get("big"), UTF8));
+            assertEquals("after the big record", new String(store.get("last"), UTF8));
+        }
+        finally {
+            store.close();
+        }
+    }
+    
+    /**
+     * Saves the given text as session data
+     * 
+     * @param store     The store
+     * @param id        The session ID
+     * @param expires   The expiry time
+     * @param text      The data
+     * @throws IOException  If the record could not be written
+     */
+    private static void save(SessionStore store,String id,long expires,String text) throws IOException {
+        byte[] data = text.getBytes(UTF8);
+        store.save(id, expires, data, data.length);
+    }
+}
@@ -0,0 +1,102 @@
+package servletAPI;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Tests the read only parameter map StringMap.
+ * 
+ * @author Rachelle Scheijen
+ */
+public class StringMapTest {
+    /**
+     * Returns a map with a=1,3 and b=2
+     * 
+     * @return  The map
+     */
+    private static StringMap create(){
+        ArrayList<String> keys      = new ArrayList<String>(Arrays.asList("a", "b", "a"));
+        ArrayList<String> values    = new ArrayList<String>(Arrays.asList("1", "2", "3"));
+        
+        return new StringMap(keys, values);
+    }
+    
+    @Test
+    public void testGroupedValues(){
+        StringMap map = create();
+        
+        assertEquals(2, map.size());
+        assertFalse(map.isEmpty());
+        assertArrayEquals(new String[]{"1", "3"}, map.get("a"));
+        assertArrayEquals(new String[]{"2"}, map.get("b"));
+        assertNull(map.get("c"));
+        assertTrue(map.containsKey("a"));
+        assertFalse(map.containsKey("c"));
+        assertTrue(map.containsValue(map.get("b")));
+        assertTrue(new StringMap().isEmpty());
+    }
+    
+    @Test
+    public void testViewsInInsertionOrder(){
+        StringMap map = create();
+        
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<String>(map.keySet()));
+        assertTrue(map.keySet().contains("b"));
+        
+        Iterator<String[]> values = map.values().iterator();
+        assertArrayEquals(new String[]{"1", "3"}, values.next());
+        assertArrayEquals(new String[]{"2"}, values.next());
+        assertFalse(values.hasNext());
+        
+        Iterator<Map.Entry<String,String[]>> entries = map.entrySet().iterator();
+        Map.Entry<String,String[]> entry = entries.next();
+        assertEquals("a", entry.getKey());
+        assertArrayEquals(new String[]{"1", "3"}, entry.getValue());
+        assertEquals("b", entries.next().getKey());
+        assertFalse(entries.hasNext());
+    }
+    
+    @Test
+    public void testEqualsAndHashCode(){
+        StringMap map = create();
+        
+        HashMap<String,String[]> copy = new HashMap<String,String[]>();
+        copy.put("a", map.get("a"));
+        copy.put("b", map.get("b"));
+        
+        assertTrue(map.equals(copy));
+        assertTrue(copy.equals(map));
+        assertEquals(copy.hashCode(), map.hashCode());
+        
+        copy.put("b", new String[]{"2"});
+        assertFalse(map.equals(copy));
+        assertFalse(map.equals(new StringMap()));
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void testReadOnly(){
+        create().put("c", new String[]{"4"});
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void testReadOnlyIterator(){
+        Iterator<String> keys = create().keySet().iterator();
+        keys.next();
+        keys.remove();
+    }
+    
+    @Test(expected=ClassCastException.class)
+    public void testWrongKeyType(){
+        create().get(Integer.valueOf(1));
+    }
+}